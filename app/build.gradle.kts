@@ -755,6 +755,9 @@ dependencies {
   // mp4parser: https://github.com/sannies/mp4parser/releases
   implementation(libs.mp4parser.isoparser)
 
+  // JUnit: https://github.com/junit-team/junit4/blob/main/doc/ReleaseNotes4.13.2.md
+  testImplementation(libs.junit)
+
   // Compiler warnings
   compileOnly(libs.annotations.errorprone)
   compileOnly(libs.annotations.j2objc)
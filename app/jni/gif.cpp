@@ -32,13 +32,25 @@ extern "C" {
 #include <lz4.h>
 #include <unistd.h>
 #include <pthread.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <vector>
 
 #include "bridge.h"
 
 #define MAX_GIF_SIZE 920
 #define BITMAP_TARGET_FORMAT AV_PIX_FMT_RGBA
-#define LOTTIE_CACHE_MAGIC 0xf0ebaef1
-#define LOTTIE_CACHE_MAGIC_REDUCED 0xf0ebaef2
+// Lottie frame cache file layout:
+// header: magic, frameCount, width, height, stride, reserved (uint32 each)
+// frames: LZ4-compressed frames appended one after another. Skipped frames have no data
+// index: frameCount pairs of (offset, compressedSize) (uint32 each)
+// trailer: indexOffset, maxCompressedFrameSize, magic (uint32 each)
+// Trailer is written last, so incomplete files are never considered valid.
+#define LOTTIE_CACHE_MAGIC 0xf0ebaef3
+#define LOTTIE_CACHE_MAGIC_REDUCED 0xf0ebaef4
+#define LOTTIE_CACHE_HEADER_SIZE (sizeof(uint32_t) * 6)
+#define LOTTIE_CACHE_TRAILER_SIZE (sizeof(uint32_t) * 3)
 
 static const std::string av_make_error_str (int errnum) {
   char errbuf[AV_ERROR_MAX_STRING_SIZE];
@@ -52,37 +64,30 @@ static const std::string av_make_error_str (int errnum) {
 struct LottieInfo {
   const std::string path;
   std::unique_ptr<rlottie::Animation> animation;
-  FILE *cacheFile = nullptr;
-  uint8_t *cacheBuffer = nullptr;
-  size_t cacheBufferSize = 0;
-  uint32_t maxCompressedFrameSize = 0;
+  uint8_t *cacheMap = nullptr;
+  size_t cacheMapSize = 0;
+  const uint32_t *cacheIndex = nullptr;
+  uint32_t cacheFrameCount = 0;
   bool hadCacheFileErrors = false;
 
   volatile bool canceled = false;
 
-  uint32_t nextFrameNo = 0;
-  size_t headerSize = 0;
-
   LottieInfo (std::string path) : path(std::move(path)) {
 
   }
 
-  uint8_t *getBuffer (size_t size) {
-    if (cacheBuffer == nullptr) {
-      cacheBuffer = (uint8_t *) malloc(cacheBufferSize = size);
-    } else if (cacheBufferSize < size) {
-      cacheBuffer = (uint8_t *) realloc(cacheBuffer, cacheBufferSize = size);
+  void unmapCache () {
+    if (cacheMap != nullptr) {
+      munmap(cacheMap, cacheMapSize);
+      cacheMap = nullptr;
+      cacheMapSize = 0;
+      cacheIndex = nullptr;
+      cacheFrameCount = 0;
     }
-    return cacheBuffer;
   }
 
   ~LottieInfo () {
-    if (cacheFile != nullptr) {
-      fclose(cacheFile);
-    }
-    if (cacheBuffer != nullptr) {
-      free(cacheBuffer);
-    }
+    unmapCache();
   }
 };
 
@@ -680,6 +685,59 @@ JNI_FUNC(void, getLottieSize, jlong ptr, jintArray data) {
 
 #define MAX_COMPRESSED_BUFFER_SIZE (1024 * 1024 * 15 /*15 MiB*/)
 
+// Maps cache file into memory and validates its header, index and trailer.
+// Returns 0 when cache is valid, 1 when it is missing or invalid
+static int mapLottieCache (LottieInfo *info, const std::string &cachePath, uint32_t magic, uint32_t frameCount, AndroidBitmapInfo &bitmapInfo) {
+  int fd = open(cachePath.c_str(), O_RDONLY);
+  if (fd == -1) {
+    return 1;
+  }
+  struct stat st {};
+  const size_t minSize = LOTTIE_CACHE_HEADER_SIZE + (size_t) frameCount * sizeof(uint32_t) * 2 + LOTTIE_CACHE_TRAILER_SIZE;
+  if (fstat(fd, &st) != 0 || (size_t) st.st_size < minSize) {
+    close(fd);
+    return 1;
+  }
+  const size_t fileSize = (size_t) st.st_size;
+  void *map = mmap(nullptr, fileSize, PROT_READ, MAP_SHARED, fd, 0);
+  close(fd);
+  if (map == MAP_FAILED) {
+    return 1;
+  }
+  const uint8_t *bytes = (const uint8_t *) map;
+  const uint32_t *header = (const uint32_t *) bytes;
+  const uint32_t *trailer = (const uint32_t *) (bytes + fileSize - LOTTIE_CACHE_TRAILER_SIZE);
+  const uint32_t indexOffset = trailer[0];
+  const uint32_t maxCompressedFrameSize = trailer[1];
+  bool valid =
+    header[0] == magic && trailer[2] == magic &&
+    header[1] == frameCount &&
+    header[2] == bitmapInfo.width && header[3] == bitmapInfo.height && header[4] == bitmapInfo.stride &&
+    maxCompressedFrameSize > 0 && maxCompressedFrameSize <= MAX_COMPRESSED_BUFFER_SIZE &&
+    indexOffset >= LOTTIE_CACHE_HEADER_SIZE && indexOffset % sizeof(uint32_t) == 0 &&
+    (size_t) indexOffset + (size_t) frameCount * sizeof(uint32_t) * 2 + LOTTIE_CACHE_TRAILER_SIZE == fileSize;
+  if (valid) {
+    const uint32_t *index = (const uint32_t *) (bytes + indexOffset);
+    for (uint32_t frameNo = 0; frameNo < frameCount; frameNo++) {
+      const uint32_t offset = index[frameNo * 2];
+      const uint32_t compressedSize = index[frameNo * 2 + 1];
+      if (compressedSize > maxCompressedFrameSize || (compressedSize != 0 && (offset < LOTTIE_CACHE_HEADER_SIZE || (size_t) offset + compressedSize > indexOffset))) {
+        valid = false;
+        break;
+      }
+    }
+    if (valid) {
+      info->cacheMap = (uint8_t *) map;
+      info->cacheMapSize = fileSize;
+      info->cacheIndex = index;
+      info->cacheFrameCount = frameCount;
+      return 0;
+    }
+  }
+  munmap(map, fileSize);
+  return 1;
+}
+
 JNI_FUNC(jint, createLottieCache, jlong ptr, jstring jCachePath, jobject firstFrame, jobject bitmap, jboolean allowCreate, jboolean limitFps) {
   if (jCachePath == nullptr) {
     return 2;
@@ -700,156 +758,119 @@ JNI_FUNC(jint, createLottieCache, jlong ptr, jstring jCachePath, jobject firstFr
   double frameRate = info->animation->frameRate();
   bool skipOdd = frameRate == 60.0 && limitFps == JNI_TRUE;
   uint32_t frameCount = (uint32_t) info->animation->totalFrame();
-  uint32_t maxCompressedFrameSize = 0;
-  uint32_t firstFrameSize = 0;
 
   const uint32_t magic = skipOdd ? LOTTIE_CACHE_MAGIC_REDUCED : LOTTIE_CACHE_MAGIC;
-  info->headerSize = sizeof(magic) + sizeof(frameCount) + sizeof(maxCompressedFrameSize); // index table?
-
-  // logi(TAG_GIF_LOADER, "checking lottie cache: %s", cachePath.c_str());
-
-  bool cacheExists = false;
-  FILE *cacheFile = fopen(cachePath.c_str(), "r+");
-  if (cacheFile != nullptr) {
-    // logi(TAG_GIF_LOADER, "lottie cache found");
-    uint32_t magicCheck = 0;
-    if (fread(&magicCheck, sizeof(magicCheck), 1, cacheFile) == 1 && magicCheck == magic) {
-      // logi(TAG_GIF_LOADER, "magic ok");
-      uint32_t frameCountCheck = 0;
-      if (fread(&frameCountCheck, sizeof(frameCountCheck), 1, cacheFile) == 1 && frameCountCheck == frameCount) {
-        // logi(TAG_GIF_LOADER, "frameCount ok: %d", frameCountCheck);
-        if (fread(&maxCompressedFrameSize, sizeof(maxCompressedFrameSize), 1, cacheFile) == 1 && maxCompressedFrameSize > 0 && maxCompressedFrameSize <= MAX_COMPRESSED_BUFFER_SIZE) {
-          // logi(TAG_GIF_LOADER, "maxCompressedFrameSize ok: %d", maxCompressedFrameSize);
-          uint32_t readFrameCount = 0;
-          do {
-            if (info->canceled) {
-              fclose(cacheFile);
-              return 3;
-            }
-            uint32_t frameSize = 0;
-            if (fread(&frameSize, sizeof(frameSize), 1, cacheFile) != 1 || (frameSize != 0 && fseek(cacheFile, frameSize, SEEK_CUR) != 0))
-              break;
-            if (readFrameCount == 0)
-              firstFrameSize = frameSize;
-            readFrameCount++;
-            if (readFrameCount > frameCount)
-              break;
-          } while (true);
-          // logi(TAG_GIF_LOADER, "frameCount check: %d vs %d", readFrameCount, frameCountCheck);
-          if (readFrameCount == frameCount) {
-            cacheExists = true;
-          }
-        }
-      }
-    }
+
+  info->unmapCache();
+  if (mapLottieCache(info, cachePath, magic, frameCount, bitmapInfo) == 0) {
+    return 0;
   }
 
   if (info->canceled) {
-    if (cacheFile != nullptr)
-      fclose(cacheFile);
     return 3;
   }
 
-  if (!cacheExists && allowCreate == JNI_TRUE) {
-    void *pixels;
-    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
-      if (cacheFile != nullptr)
-        fclose(cacheFile);
-      return 2;
-    }
-
-    if (cacheFile != nullptr) {
-      fclose(cacheFile);
-    }
-    cacheFile = fopen(cachePath.c_str(), "w+");
-    if (cacheFile == nullptr) {
-      return 2;
-    }
-
-    // logi(TAG_GIF_LOADER, "creating lottie cache: %s", cachePath.c_str());
-
-    const uint32_t compressBound = (uint32_t) LZ4_compressBound((int) uncompressedSize);
-    uint8_t *compressBuffer = (uint8_t *) malloc(compressBound);
+  if (allowCreate != JNI_TRUE) {
+    return 1;
+  }
 
-    fwrite(&magic, sizeof(magic), 1, cacheFile);
-    fwrite(&frameCount, sizeof(frameCount), 1, cacheFile);
-    fwrite(&maxCompressedFrameSize, sizeof(maxCompressedFrameSize), 1, cacheFile);
+  void *pixels;
+  if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+    return 2;
+  }
 
-    bool aborted = false;
+  // Frames are appended to a temporary file, which replaces cache file only once complete.
+  // Name is unique per writer thread, so concurrent writers of the same cache do not corrupt each other
+  const std::string tempPath = cachePath + "." + std::to_string(getpid()) + "_" + std::to_string(gettid()) + ".tmp";
+  const int cacheFd = open(tempPath.c_str(), O_WRONLY | O_CREAT | O_EXCL | O_CLOEXEC, 0600);
+  FILE *cacheFile = cacheFd != -1 ? fdopen(cacheFd, "w") : nullptr;
+  if (cacheFile == nullptr) {
+    if (cacheFd != -1) {
+      close(cacheFd);
+      unlink(tempPath.c_str());
+    }
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return 2;
+  }
 
-    for (uint32_t frameNo = 0; frameNo < frameCount; frameNo++) {
-      bool skipFrame = skipOdd && frameNo % 2 == 1;
-      uint32_t compressedSize = 0;
-      if (frameNo == 0) {
-        void *firstFramePixels;
-        if (firstFrame != nullptr && AndroidBitmap_lockPixels(env, firstFrame, &firstFramePixels) == ANDROID_BITMAP_RESULT_SUCCESS) {
-          compressedSize = (uint32_t) LZ4_compress_default((const char *) firstFramePixels, (char *) compressBuffer, (int) uncompressedSize, (int) compressBound);
-          AndroidBitmap_unlockPixels(env, firstFrame);
-        }
-      }
-      if (compressedSize == 0 && !skipFrame) {
-        rlottie::Surface surface((uint32_t *) pixels, bitmapInfo.width, bitmapInfo.height, bitmapInfo.stride);
-        info->animation->renderSync((size_t) frameNo, surface, true);
-        //libyuv::ABGRToARGB((uint8_t *) pixels, bitmapInfo.stride, (uint8_t *) pixels, bitmapInfo.stride, bitmapInfo.width, bitmapInfo.height);
-        compressedSize = (uint32_t) LZ4_compress_default((const char *) pixels, (char *) compressBuffer, (int) uncompressedSize, (int) compressBound);
-      }
+  // logi(TAG_GIF_LOADER, "creating lottie cache: %s", cachePath.c_str());
 
-      if (frameNo == 0)
-        firstFrameSize = compressedSize;
+  const uint32_t compressBound = (uint32_t) LZ4_compressBound((int) uncompressedSize);
+  uint8_t *compressBuffer = (uint8_t *) malloc(compressBound);
+  std::vector<uint32_t> index((size_t) frameCount * 2, 0);
+  uint32_t maxCompressedFrameSize = 0;
 
-      fwrite(&compressedSize, sizeof(compressedSize), 1, cacheFile);
-      if (compressedSize > 0) {
-        fwrite(compressBuffer, sizeof(uint8_t), compressedSize, cacheFile);
+  const uint32_t header[6] = {magic, frameCount, bitmapInfo.width, bitmapInfo.height, bitmapInfo.stride, 0};
+  bool aborted = compressBuffer == nullptr || fwrite(header, sizeof(header), 1, cacheFile) != 1;
+  uint32_t offset = LOTTIE_CACHE_HEADER_SIZE;
+
+  for (uint32_t frameNo = 0; frameNo < frameCount && !aborted; frameNo++) {
+    bool skipFrame = skipOdd && frameNo % 2 == 1;
+    uint32_t compressedSize = 0;
+    if (frameNo == 0) {
+      void *firstFramePixels;
+      if (firstFrame != nullptr && AndroidBitmap_lockPixels(env, firstFrame, &firstFramePixels) == ANDROID_BITMAP_RESULT_SUCCESS) {
+        compressedSize = (uint32_t) LZ4_compress_default((const char *) firstFramePixels, (char *) compressBuffer, (int) uncompressedSize, (int) compressBound);
+        AndroidBitmap_unlockPixels(env, firstFrame);
       }
+    }
+    if (compressedSize == 0 && !skipFrame) {
+      rlottie::Surface surface((uint32_t *) pixels, bitmapInfo.width, bitmapInfo.height, bitmapInfo.stride);
+      info->animation->renderSync((size_t) frameNo, surface, true);
+      compressedSize = (uint32_t) LZ4_compress_default((const char *) pixels, (char *) compressBuffer, (int) uncompressedSize, (int) compressBound);
+    }
 
-      // logi(TAG_GIF_LOADER, "wrote %d bytes frame no %d", compressedSize, frameNo);
-      maxCompressedFrameSize = maxCompressedFrameSize > compressedSize ? maxCompressedFrameSize : compressedSize;
-
-      if (info->canceled) {
+    if (compressedSize > 0) {
+      if (fwrite(compressBuffer, sizeof(uint8_t), compressedSize, cacheFile) != compressedSize) {
         aborted = true;
         break;
       }
+      index[frameNo * 2] = offset;
+      index[frameNo * 2 + 1] = compressedSize;
+      offset += compressedSize;
     }
 
-    if (aborted || info->canceled) {
-      fclose(cacheFile);
-      unlink(cachePath.c_str());
-      AndroidBitmap_unlockPixels(env, bitmap);
-      return 3;
-    }
+    // logi(TAG_GIF_LOADER, "wrote %d bytes frame no %d", compressedSize, frameNo);
+    maxCompressedFrameSize = maxCompressedFrameSize > compressedSize ? maxCompressedFrameSize : compressedSize;
 
-    info->maxCompressedFrameSize = maxCompressedFrameSize;
-
-    fseek(cacheFile, sizeof(magic) + sizeof(frameCount), SEEK_SET);
-    fwrite(&maxCompressedFrameSize, sizeof(maxCompressedFrameSize), 1, cacheFile);
-    // logi(TAG_GIF_LOADER, "wrote maxCompressedFrameSize:%d", maxCompressedFrameSize);
-
-    fflush(cacheFile);
-    fclose(cacheFile);
-
-    info->cacheFile = fopen(cachePath.c_str(), "r+");
-    if (info->cacheFile == nullptr) {
-      return 2;
+    if (info->canceled) {
+      aborted = true;
+      break;
     }
+  }
 
-    info->cacheBuffer = (uint8_t *) realloc(compressBuffer, maxCompressedFrameSize);
-    info->cacheBufferSize = maxCompressedFrameSize;
+  if (compressBuffer != nullptr) {
+    free(compressBuffer);
+  }
+  AndroidBitmap_unlockPixels(env, bitmap);
 
-    fseek(info->cacheFile, info->headerSize + sizeof(uint32_t) + firstFrameSize, SEEK_SET);
-    info->nextFrameNo = 1;
+  if (!aborted) {
+    // Align index, so it can be read directly from the mapped memory
+    const uint8_t padding[sizeof(uint32_t)] = {0};
+    const uint32_t paddingSize = (sizeof(uint32_t) - offset % sizeof(uint32_t)) % sizeof(uint32_t);
+    const uint32_t indexOffset = offset + paddingSize;
+    const uint32_t trailer[3] = {indexOffset, maxCompressedFrameSize, magic};
+    aborted =
+      (paddingSize > 0 && fwrite(padding, sizeof(uint8_t), paddingSize, cacheFile) != paddingSize) ||
+      (frameCount > 0 && fwrite(index.data(), sizeof(uint32_t), index.size(), cacheFile) != index.size()) ||
+      fwrite(trailer, sizeof(trailer), 1, cacheFile) != 1;
+  }
 
-    AndroidBitmap_unlockPixels(env, bitmap);
-  } else if (cacheExists) {
-    info->maxCompressedFrameSize = maxCompressedFrameSize;
-    info->getBuffer(maxCompressedFrameSize);
-    info->cacheFile = cacheFile;
+  if (fclose(cacheFile) != 0) {
+    aborted = true;
+  }
 
-    fseek(info->cacheFile, info->headerSize + sizeof(uint32_t) + firstFrameSize, SEEK_SET);
-    info->nextFrameNo = 1;
-  } else {
-    return 1;
+  if (aborted || info->canceled) {
+    unlink(tempPath.c_str());
+    return info->canceled ? 3 : 2;
   }
-  return 0;
+
+  if (rename(tempPath.c_str(), cachePath.c_str()) != 0) {
+    unlink(tempPath.c_str());
+    return 2;
+  }
+
+  return mapLottieCache(info, cachePath, magic, frameCount, bitmapInfo) == 0 ? 0 : 2;
 }
 
 JNI_FUNC(jboolean, getLottieFrame, jlong ptr, jobject bitmap, jlong jFrameNo) {
@@ -871,61 +892,18 @@ JNI_FUNC(jboolean, getLottieFrame, jlong ptr, jobject bitmap, jlong jFrameNo) {
 
   bool success = false;
 
-  if (info->cacheFile != nullptr) {
-    if (info->nextFrameNo >= info->animation->totalFrame() || frameNo < info->nextFrameNo) {
-      fseek(info->cacheFile, info->headerSize, SEEK_SET);
-      info->nextFrameNo = 0;
-    }
-    bool fileError = false;
-    while (frameNo > info->nextFrameNo) {
-      uint32_t compressedSize;
-      if (fread(&compressedSize, sizeof(compressedSize), 1, info->cacheFile) == 1 &&
-          (compressedSize == 0 || fseek(info->cacheFile, compressedSize, SEEK_CUR) == 0)) {
-        info->nextFrameNo++;
-      } else {
-        fileError = true;
-        break;
-      }
-    }
-    if (info->nextFrameNo == frameNo && !fileError) {
-      uint32_t compressedSize;
-      if (fread(&compressedSize, sizeof(compressedSize), 1, info->cacheFile) == 1) {
-        // limit compressed frame size to be <= than maxCompressedFrameSize. when it's unset, limit to MAX_COMPRESSED_BUFFER_SIZE
-        if (compressedSize <= info->maxCompressedFrameSize || (info->maxCompressedFrameSize == 0 && compressedSize <= MAX_COMPRESSED_BUFFER_SIZE)) {
-          if (compressedSize == 0) {
-            info->nextFrameNo++;
-          } else {
-            uint8_t *buffer = info->getBuffer(compressedSize);
-            if (buffer != nullptr &&
-                fread(buffer, sizeof(uint8_t), compressedSize, info->cacheFile) == compressedSize) {
-              info->nextFrameNo++;
-              LZ4_decompress_safe((const char *) info->cacheBuffer, (char *) pixels,
-                                  (int) compressedSize,
-                                  (int) (bitmapInfo.height * bitmapInfo.stride));
-              success = true;
-            } else {
-              // Failed to allocate buffer or read desired amount of bytes / EOF
-              fileError = true;
-            }
-          }
-        } else {
-          loge(TAG_GIF_LOADER, "sticker cache file size verification failed: %d, max: %d", compressedSize, info->maxCompressedFrameSize);
-          fileError = true;
-        }
+  if (info->cacheMap != nullptr && frameNo < info->cacheFrameCount) {
+    const uint32_t offset = info->cacheIndex[frameNo * 2];
+    const uint32_t compressedSize = info->cacheIndex[frameNo * 2 + 1];
+    if (compressedSize != 0) {
+      const int expectedSize = (int) (bitmapInfo.height * bitmapInfo.stride);
+      const int decompressedSize = LZ4_decompress_safe((const char *) (info->cacheMap + offset), (char *) pixels, (int) compressedSize, expectedSize);
+      if (decompressedSize == expectedSize) {
+        success = true;
       } else {
-        loge(TAG_GIF_LOADER, "sticker cache file corrupted");
-        fileError = true;
-      }
-    }
-    if (fileError) {
-      info->hadCacheFileErrors = true;
-      if (fseek(info->cacheFile, info->headerSize, SEEK_SET) == 0) {
-        // loge(TAG_GIF_LOADER, "file error, moving to the first frame, frameNo:%d, nextFrameNo:%d", frameNo, info->nextFrameNo);
-        info->nextFrameNo = 0;
-      } else {
-        loge(TAG_GIF_LOADER, "cache file error, switching to direct mode");
-        fclose(info->cacheFile);
-        info->cacheFile = nullptr;
+        loge(TAG_GIF_LOADER, "sticker cache file corrupted, frameNo:%d, switching to direct mode", frameNo);
+        info->hadCacheFileErrors = true;
+        info->unmapCache();
       }
     }
   }
@@ -933,9 +911,6 @@ JNI_FUNC(jboolean, getLottieFrame, jlong ptr, jobject bitmap, jlong jFrameNo) {
   if (!success) {
     rlottie::Surface surface((uint32_t *) pixels, bitmapInfo.width, bitmapInfo.height, bitmapInfo.stride);
     info->animation->renderSync((size_t) frameNo, surface, true);
-    if (info->cacheFile != nullptr) {
-      logi(TAG_GIF_LOADER, "read frame directly: %d, nextFrameNo:%d, totalFrame:%d", frameNo, info->nextFrameNo, info->animation->totalFrame());
-    }
     // libyuv::ABGRToARGB((uint8_t *) pixels, bitmapInfo.stride, (uint8_t *) pixels, bitmapInfo.stride, bitmapInfo.width, bitmapInfo.height);
   }
 
@@ -19,8 +19,11 @@ import androidx.work.Configuration
 import com.google.firebase.messaging.FirebaseMessaging
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.MainScope
+import org.thunderdog.challegram.loader.ImageCache
+import org.thunderdog.challegram.loader.gif.GifFrameCache
 import org.thunderdog.challegram.push.FirebaseDeviceTokenRetriever
 import org.thunderdog.challegram.service.PushHandler
+import org.thunderdog.challegram.telegram.TdlibManager
 import org.thunderdog.challegram.telegram.TdlibNotificationUtils
 import org.thunderdog.challegram.tool.UI
 import org.thunderdog.challegram.unsorted.Settings
@@ -68,6 +71,13 @@ class BaseApplication : TgxApplication(), Configuration.Provider {
     }
   }
 
+  override fun onTrimMemory(level: Int) {
+    super.onTrimMemory(level)
+    ImageCache.trimMemory(level)
+    GifFrameCache.trimMemory(level)
+    TdlibManager.trimMemory(level)
+  }
+
   override val workManagerConfiguration: Configuration
     get() = Configuration.Builder().build()
 }
\ No newline at end of file
@@ -68,7 +68,7 @@ public class MessagesLoader implements Client.ResultHandler {
   private static final int CHUNK_SIZE_SEARCH = -CHUNK_SEARCH_OFFSET + 14;
 
   private static final int CHUNK_SIZE_BOTTOM = 31;
-  private static final int CHUNK_BOTTOM_OFFSET = -30;
+  private static final int CHUNK_SIZE_MAX = 100; // Maximum limit accepted by TDLib
 
   public static final int MODE_INITIAL = 0;
   public static final int MODE_MORE_TOP = 1;
@@ -1190,6 +1190,15 @@ public class MessagesLoader implements Client.ResultHandler {
     return loadMore(fromTop, fromTop ? CHUNK_SIZE_BIG : CHUNK_SIZE_BOTTOM, false);
   }
 
+  /**
+   * @param minCount Desired amount of messages, e.g. based on scroll velocity.
+   * Default chunk size is used, if it is larger.
+   */
+  public boolean loadMore (boolean fromTop, int minCount) {
+    int count = fromTop ? CHUNK_SIZE_BIG : CHUNK_SIZE_BOTTOM;
+    return loadMore(fromTop, MathUtils.clamp(minCount, count, CHUNK_SIZE_MAX), false);
+  }
+
   private boolean loadMore (boolean fromTop, int count, boolean onlyLocal) {
     if (isLoading || getChatId() == 0 || lastHandler != null) {
       return false;
@@ -1211,8 +1220,7 @@ public class MessagesLoader implements Client.ResultHandler {
         }
 
         // Parameter limit must be greater than -offset
-        // -offset
-        load(startBottom, CHUNK_BOTTOM_OFFSET, count, MODE_MORE_BOTTOM, onlyLocal, false, true);
+        load(startBottom, -(count - 1), count, MODE_MORE_BOTTOM, onlyLocal, false, true);
         return true;
       }
     }
@@ -15,6 +15,7 @@
 package org.thunderdog.challegram.component.chat;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
@@ -26,6 +27,7 @@ import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 import androidx.collection.LongSparseArray;
 import androidx.core.os.CancellationSignal;
+import androidx.core.os.TraceCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -47,9 +49,9 @@ import org.thunderdog.challegram.mediaview.data.MediaStack;
 import org.thunderdog.challegram.navigation.ViewController;
 import org.thunderdog.challegram.player.TGPlayerController;
 import org.thunderdog.challegram.telegram.ListManager;
+import org.thunderdog.challegram.telegram.MessageBatchListener;
 import org.thunderdog.challegram.telegram.MessageEditListener;
 import org.thunderdog.challegram.telegram.MessageListManager;
-import org.thunderdog.challegram.telegram.MessageListener;
 import org.thunderdog.challegram.telegram.MessageThreadListener;
 import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibCache;
@@ -93,7 +95,7 @@ import tgx.td.MessageId;
 import tgx.td.Td;
 
 public class MessagesManager implements Client.ResultHandler, MessagesSearchManager.Delegate,
-  MessageListener, MessageEditListener, MessageThreadListener, Comparator<TGMessage>, TGPlayerController.PlayListBuilder, BaseActivity.PasscodeListener, TdlibCache.ChatMemberStatusChangeListener, TdlibSettingsManager.DismissMessageListener {
+  MessageBatchListener, MessageEditListener, MessageThreadListener, Comparator<TGMessage>, TGPlayerController.PlayListBuilder, BaseActivity.PasscodeListener, TdlibCache.ChatMemberStatusChangeListener, TdlibSettingsManager.DismissMessageListener {
   private final MessagesController controller;
   private final Tdlib tdlib;
   private MessagesAdapter adapter;
@@ -112,6 +114,8 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
   private static final int TOP_PRELOAD_COUNT = 10;
   private static final int BOTTOM_PRELOAD_COUNT = 7;
 
+  private MessagesPrefetcher prefetcher;
+
   private boolean isScrolling;
   private boolean wasScrollByUser;
   private int userScrollActionsCount;
@@ -143,11 +147,18 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
         if (newState == RecyclerView.SCROLL_STATE_IDLE) {
           saveScrollPosition();
         }
+        if (prefetcher != null) {
+          prefetcher.onScrollStateChanged(newState);
+        }
         ((MessagesRecyclerView) recyclerView).setIsScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
       }
 
       @Override
       public void onScrolled (RecyclerView recyclerView, int dx, int dy) {
+        if (prefetcher != null && manager != null) {
+          // Messages are laid out bottom to top, so positive dy means scrolling towards newer messages
+          prefetcher.onScrolled(manager.getReverseLayout() ? -dy : dy);
+        }
         viewMessages(true);
         if (dy == 0) {
           saveScrollPosition();
@@ -301,8 +312,11 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
         } else {
           checkVisibleContentProtection(first, last);
         }
-        if (isFocused && !(first - BOTTOM_PRELOAD_COUNT <= 0 && loader.loadMore(false)) && last + TOP_PRELOAD_COUNT >= adapter.getItemCount()) {
-          loader.loadMore(true);
+        if (prefetcher != null) {
+          prefetcher.onViewportChanged(adapter, first, last, controller.getMessagesView().getMeasuredHeight());
+        }
+        if (isFocused && !(first - getPreloadCount(false) <= 0 && loadMore(false)) && last + getPreloadCount(true) >= adapter.getItemCount()) {
+          loadMore(true);
         }
         checkMessageThreadUnreadCounter(first);
       }
@@ -313,6 +327,16 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
     }
   }
 
+  private int getPreloadCount (boolean fromTop) {
+    int defaultCount = fromTop ? TOP_PRELOAD_COUNT : BOTTOM_PRELOAD_COUNT;
+    return prefetcher != null ? prefetcher.getPreloadCount(fromTop, defaultCount) : defaultCount;
+  }
+
+  private boolean loadMore (boolean fromTop) {
+    int count = prefetcher != null ? prefetcher.getLoadMoreCount(fromTop) : 0;
+    return count > 0 ? loader.loadMore(fromTop, count) : loader.loadMore(fromTop);
+  }
+
   public void onViewportMeasure () {
     viewMessages(false);
     saveScrollPosition();
@@ -538,6 +562,7 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
 
   public void destroy (ViewController<?> context) {
     resetScroll();
+    cancelRelayout();
     returnToMessageIds = null;
     highlightMode = 0;
     tdlib.settings().removePinnedMessageDismissListener(this);
@@ -567,6 +592,9 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
     loader.reuse();
     resetSponsoredContext();
     messageViewer = null;
+    if (prefetcher != null) {
+      prefetcher.reset();
+    }
     adapter.clear(true);
     clearHeaderMessage();
     awaitingForPinnedMessages = false;
@@ -1790,19 +1818,133 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
     }
   }
 
+  // Layout version
+
+  private static final int RELAYOUT_VISIBLE_MARGIN = 3;
+  private static final long RELAYOUT_FRAME_BUDGET_MS = 6;
+
+  // Measured by ChatBenchmarks in baseline-profile module
+  private static final String TRACE_SECTION_RELAYOUT_VISIBLE = "MessagesManager:rebuildLayouts";
+  private static final String TRACE_SECTION_RELAYOUT_OUTDATED = "MessagesManager:rebuildOutdatedLayouts";
+
+  private volatile int layoutVersion;
+  private boolean relayoutScheduled;
+  private final Runnable relayoutTask = () -> {
+    relayoutScheduled = false;
+    boolean hasMore;
+    TraceCompat.beginSection(TRACE_SECTION_RELAYOUT_OUTDATED);
+    try {
+      hasMore = rebuildOutdatedLayouts(RELAYOUT_FRAME_BUDGET_MS);
+    } finally {
+      TraceCompat.endSection();
+    }
+    if (hasMore) {
+      scheduleRelayout();
+    }
+  };
+
+  /**
+   * @return Version that all message layouts must match, otherwise they are rebuilt
+   * on next {@link TGMessage#buildLayout(int)} call, even if width did not change.
+   */
+  public int getLayoutVersion () {
+    return layoutVersion;
+  }
+
+  /**
+   * Rebuilds layouts of all loaded messages.
+   *
+   * Only messages around the visible window are rebuilt immediately, so the next frame is correct.
+   * Remaining messages are marked outdated by the new layout version and are rebuilt
+   * in small portions in the following frames, starting with the closest to the visible window.
+   * Outdated message that gets displayed before that is rebuilt by {@link TGMessage#buildLayout(int)} when measured.
+   */
   public void rebuildLayouts () {
+    layoutVersion++;
+    TraceCompat.beginSection(TRACE_SECTION_RELAYOUT_VISIBLE);
+    try {
+      rebuildVisibleLayouts();
+    } finally {
+      TraceCompat.endSection();
+    }
+  }
+
+  private void rebuildVisibleLayouts () {
     ArrayList<TGMessage> items = adapter.getItems();
-    if (items != null) {
-      for (TGMessage m : items) {
-        int height = m.getHeight();
-        m.rebuildLayout();
-        if (height != m.getHeight() && !useBubbles()) {
-          m.requestLayout();
-        } else {
-          m.invalidate();
+    if (items == null || items.isEmpty()) {
+      return;
+    }
+    int first = manager != null ? manager.findFirstVisibleItemPosition() : RecyclerView.NO_POSITION;
+    int last = manager != null ? manager.findLastVisibleItemPosition() : RecyclerView.NO_POSITION;
+    if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+      first = last = 0;
+    }
+    first = Math.max(0, first - RELAYOUT_VISIBLE_MARGIN);
+    last = Math.min(items.size() - 1, last + RELAYOUT_VISIBLE_MARGIN);
+    for (int i = first; i <= last; i++) {
+      rebuildLayout(items.get(i));
+    }
+    if (first > 0 || last < items.size() - 1) {
+      scheduleRelayout();
+    }
+  }
+
+  private void rebuildLayout (TGMessage m) {
+    int height = m.getHeight();
+    m.rebuildLayout();
+    if (height != m.getHeight() && !useBubbles()) {
+      m.requestLayout();
+    } else {
+      m.invalidate();
+    }
+  }
+
+  private void scheduleRelayout () {
+    if (!relayoutScheduled) {
+      relayoutScheduled = true;
+      UI.post(relayoutTask);
+    }
+  }
+
+  private void cancelRelayout () {
+    if (relayoutScheduled) {
+      relayoutScheduled = false;
+      UI.removePendingRunnable(relayoutTask);
+    }
+  }
+
+  /**
+   * Rebuilds outdated layouts moving away from the visible window in both directions.
+   *
+   * @return Whether outdated layouts remain after the time budget has been exceeded.
+   */
+  private boolean rebuildOutdatedLayouts (long budgetMs) {
+    ArrayList<TGMessage> items = adapter.getItems();
+    if (items == null || items.isEmpty()) {
+      return false;
+    }
+    final long deadline = SystemClock.uptimeMillis() + budgetMs;
+    final int size = items.size();
+    int center = manager != null ? manager.findFirstVisibleItemPosition() : RecyclerView.NO_POSITION;
+    if (center == RecyclerView.NO_POSITION) {
+      center = 0;
+    }
+    int below = Math.min(center, size - 1), above = below + 1;
+    while (below >= 0 || above < size) {
+      TGMessage m;
+      if (below >= 0 && (above >= size || center - below <= above - center)) {
+        m = items.get(below--);
+      } else {
+        m = items.get(above++);
+      }
+      if (m.isLayoutOutdated()) {
+        rebuildLayout(m);
+        if (SystemClock.uptimeMillis() >= deadline) {
+          return below >= 0 || above < size;
         }
       }
     }
+    return false;
   }
 
   public void onUpdateTextSize () {
@@ -1876,6 +2018,10 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
 
   public void modifyRecycler (Context context, RecyclerView recyclerView, LinearLayoutManager manager) {
     this.manager = manager;
+    if (prefetcher != null) {
+      prefetcher.destroy();
+    }
+    this.prefetcher = new MessagesPrefetcher(context);
     this.adapter = new MessagesAdapter(context, this, this.controller);
 
     recyclerView.removeOnScrollListener(listener);
@@ -3420,16 +3566,50 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
 
   @Override
   public void onNewMessage (final TdApi.Message message) {
+    final TGMessage parsedMessage = parseNewMessage(message);
+    if (parsedMessage != null) {
+      showMessage(message.chatId, parsedMessage);
+    }
+  }
+
+  @Override
+  public void onNewMessages (long chatId, @NonNull List<TdApi.Message> messages) {
+    if (messages.size() == 1) {
+      onNewMessage(messages.get(0));
+      return;
+    }
+    final List<TGMessage> parsedMessages = new ArrayList<>(messages.size());
+    for (TdApi.Message message : messages) {
+      TGMessage parsedMessage = parseNewMessage(message);
+      if (parsedMessage != null) {
+        parsedMessage.prepareLayout();
+        parsedMessages.add(parsedMessage);
+      }
+    }
+    if (!parsedMessages.isEmpty()) {
+      // Display the whole burst within a single frame
+      tdlib.ui().post(() -> {
+        if (loader.getChatId() == chatId) {
+          for (TGMessage parsedMessage : parsedMessages) {
+            updateNewMessage(parsedMessage);
+          }
+        }
+      });
+    }
+  }
+
+  @Nullable
+  private TGMessage parseNewMessage (TdApi.Message message) {
     final ThreadInfo messageThread = loader.getMessageThread();
     if (TD.isScheduled(message) == areScheduled()) {
       if (indexOfSentMessage(message.chatId, message.id) != -1)
-        return;
+        return null;
       final TdApi.Chat chat = tdlib.chatStrict(message.chatId);
-      final TGMessage parsedMessage = TGMessage.valueOf(this, message, chat, messageThread, chatAdmins);
-      showMessage(chat.id, parsedMessage);
+      return TGMessage.valueOf(this, message, chat, messageThread, chatAdmins);
     } else if (isFocused() && TD.isScheduled(message) && messageThread == null) {
       controller.viewScheduledMessages(true);
     }
+    return null;
   }
 
   private void showMessage (final long chatId, final TGMessage message) {
@@ -3525,6 +3705,59 @@ public class MessagesManager implements Client.ResultHandler, MessagesSearchMana
     });
   }
 
+  @Override
+  public void onMessagesChanged (long chatId, @NonNull List<TdApi.Update> updates) {
+    final List<TdApi.Update> visibleUpdates = new ArrayList<>(updates.size());
+    for (TdApi.Update update : updates) {
+      switch (update.getConstructor()) {
+        case TdApi.UpdateMessageContent.CONSTRUCTOR: {
+          TdApi.UpdateMessageContent contentUpdate = (TdApi.UpdateMessageContent) update;
+          int sentMessageIndex = indexOfSentMessage(chatId, contentUpdate.messageId);
+          if (sentMessageIndex != -1) {
+            sentMessages.get(sentMessageIndex).content = contentUpdate.newContent;
+          } else {
+            visibleUpdates.add(update);
+          }
+          break;
+        }
+        case TdApi.UpdateMessageEdited.CONSTRUCTOR: {
+          TdApi.UpdateMessageEdited editUpdate = (TdApi.UpdateMessageEdited) update;
+          int sentMessageIndex = indexOfSentMessage(chatId, editUpdate.messageId);
+          if (sentMessageIndex != -1) {
+            TdApi.Message msg = sentMessages.get(sentMessageIndex);
+            msg.editDate = editUpdate.editDate;
+            msg.replyMarkup = editUpdate.replyMarkup;
+          } else {
+            visibleUpdates.add(update);
+          }
+          break;
+        }
+      }
+    }
+    if (visibleUpdates.isEmpty()) {
+      return;
+    }
+    tdlib.ui().post(() -> {
+      if (loader.getChatId() != chatId) {
+        return;
+      }
+      for (TdApi.Update update : visibleUpdates) {
+        switch (update.getConstructor()) {
+          case TdApi.UpdateMessageContent.CONSTRUCTOR: {
+            TdApi.UpdateMessageContent contentUpdate = (TdApi.UpdateMessageContent) update;
+            updateMessageContent(chatId, contentUpdate.messageId, contentUpdate.newContent);
+            break;
+          }
+          case TdApi.UpdateMessageEdited.CONSTRUCTOR: {
+            TdApi.UpdateMessageEdited editUpdate = (TdApi.UpdateMessageEdited) update;
+            updateMessageEdited(editUpdate.messageId, editUpdate.editDate, editUpdate.replyMarkup);
+            break;
+          }
+        }
+      }
+    });
+  }
+
   @Override
   public void onMessageEdited (final long chatId, final long messageId, final int editDate, @Nullable final TdApi.ReplyMarkup replyMarkup) {
     int sentMessageIndex = indexOfSentMessage(chatId, messageId);
@@ -0,0 +1,233 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:58
+ */
+package org.thunderdog.challegram.component.chat;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.annotation.UiThread;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.thunderdog.challegram.data.TGMessage;
+import org.thunderdog.challegram.loader.ComplexReceiver;
+import org.thunderdog.challegram.loader.DoubleImageReceiver;
+import org.thunderdog.challegram.loader.ImageReceiver;
+import org.thunderdog.challegram.loader.gif.GifReceiver;
+
+import java.util.ArrayList;
+
+import me.vkryl.core.MathUtils;
+
+/**
+ * Projects scroll velocity of the chat to decide how far ahead messages should be loaded,
+ * and warms image and GIF caches for messages just outside of the viewport in the scroll direction.
+ *
+ * Warming uses receivers bound to a view that is never attached to window,
+ * so their decodes run with {@link org.thunderdog.challegram.loader.ImageReader#PRIORITY_PREFETCH},
+ * after visible content. It is cancelled once scroll direction reverses.
+ */
+@UiThread
+final class MessagesPrefetcher {
+  private static final long PROJECTION_MS = 1000;
+  private static final long VELOCITY_RESET_MS = 100;
+  private static final float VELOCITY_SMOOTHING = .35f;
+  private static final int MAX_PROJECTED_COUNT = 100;
+  private static final int MIN_MEDIA_PREFETCH_COUNT = 2;
+  private static final int MAX_MEDIA_PREFETCH_COUNT = 8;
+
+  private static final class Slot {
+    final DoubleImageReceiver preview;
+    final ImageReceiver image;
+    final GifReceiver gif;
+    final ComplexReceiver complex;
+    TGMessage message;
+
+    Slot (View view) {
+      this.preview = new DoubleImageReceiver(view, 0);
+      this.image = new ImageReceiver(view, 0);
+      this.gif = new GifReceiver(view);
+      this.complex = new ComplexReceiver(view);
+    }
+
+    void bind (TGMessage message) {
+      this.message = message;
+      if (message.needComplexReceiver()) {
+        message.requestMediaContent(complex, false, -1);
+      } else if (message.needGifReceiver()) {
+        preview.setRadius(message.getImageContentRadius(true));
+        message.requestPreview(preview);
+        message.requestGif(gif);
+      } else if (message.needImageReceiver()) {
+        preview.setRadius(message.getImageContentRadius(true));
+        image.setRadius(message.getImageContentRadius(false));
+        message.requestPreview(preview);
+        message.requestImage(image);
+      }
+    }
+
+    void clear () {
+      message = null;
+      preview.clear();
+      image.clear();
+      gif.clear();
+      complex.clear();
+    }
+
+    void destroy () {
+      message = null;
+      preview.destroy();
+      image.destroy();
+      gif.destroy();
+      complex.performDestroy();
+    }
+  }
+
+  private final View receiverView;
+  private final ArrayList<Slot> activeSlots = new ArrayList<>(MAX_MEDIA_PREFETCH_COUNT);
+  private final ArrayList<Slot> freeSlots = new ArrayList<>(MAX_MEDIA_PREFETCH_COUNT);
+  private final ArrayList<TGMessage> targets = new ArrayList<>(MAX_MEDIA_PREFETCH_COUNT);
+
+  // Pixels per millisecond, positive when scrolling towards older messages
+  private float velocity;
+  private long lastScrollTime;
+  private int direction;
+  private int projectedCount;
+
+  MessagesPrefetcher (Context context) {
+    this.receiverView = new View(context);
+  }
+
+  /**
+   * @param dy Scroll offset, positive when scrolling towards older messages.
+   */
+  public void onScrolled (int dy) {
+    if (dy == 0) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    long elapsedMs = now - lastScrollTime;
+    lastScrollTime = now;
+
+    int direction = dy > 0 ? 1 : -1;
+    if (this.direction != direction) {
+      if (this.direction != 0) {
+        cancelMedia();
+      }
+      this.direction = direction;
+      velocity = 0;
+    }
+    float instantVelocity = (float) dy / MathUtils.clamp(elapsedMs, 1, 16);
+    if (elapsedMs > VELOCITY_RESET_MS || velocity == 0) {
+      velocity = instantVelocity;
+    } else {
+      velocity += (instantVelocity - velocity) * VELOCITY_SMOOTHING;
+    }
+  }
+
+  public void onScrollStateChanged (int newState) {
+    if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+      velocity = 0;
+    }
+  }
+
+  /**
+   * Updates projection and warms media for messages that will soon become visible.
+   */
+  public void onViewportChanged (MessagesAdapter adapter, int first, int last, int viewportHeight) {
+    int visibleCount = last - first + 1;
+    if (velocity == 0 || viewportHeight <= 0 || visibleCount <= 0) {
+      projectedCount = 0;
+    } else {
+      double projectedPixels = Math.abs(velocity) * PROJECTION_MS;
+      projectedCount = (int) Math.min(MAX_PROJECTED_COUNT, Math.ceil(projectedPixels * visibleCount / viewportHeight));
+    }
+    if (direction != 0) {
+      prefetchMedia(adapter, first, last);
+    }
+  }
+
+  private boolean isMovingTowards (boolean fromTop) {
+    return velocity != 0 && (direction > 0) == fromTop;
+  }
+
+  /**
+   * @return Distance to the end of loaded messages at which more of them should be requested.
+   */
+  public int getPreloadCount (boolean fromTop, int defaultCount) {
+    return isMovingTowards(fromTop) ? defaultCount + projectedCount : defaultCount;
+  }
+
+  /**
+   * @return Amount of messages to request, or 0, if default chunk size should be used.
+   */
+  public int getLoadMoreCount (boolean fromTop) {
+    return isMovingTowards(fromTop) ? projectedCount * 2 : 0;
+  }
+
+  private void prefetchMedia (MessagesAdapter adapter, int first, int last) {
+    int count = MathUtils.clamp(projectedCount, MIN_MEDIA_PREFETCH_COUNT, MAX_MEDIA_PREFETCH_COUNT);
+    targets.clear();
+    for (int i = 1; i <= count; i++) {
+      TGMessage message = adapter.getMessage(direction > 0 ? last + i : first - i);
+      if (message == null) {
+        break;
+      }
+      if (!message.isLayoutOutdated() && (message.needComplexReceiver() || message.needGifReceiver() || message.needImageReceiver())) {
+        targets.add(message);
+      }
+    }
+    for (int i = activeSlots.size() - 1; i >= 0; i--) {
+      Slot slot = activeSlots.get(i);
+      if (!targets.remove(slot.message)) {
+        slot.clear();
+        activeSlots.remove(i);
+        freeSlots.add(slot);
+      }
+    }
+    for (TGMessage message : targets) {
+      Slot slot = freeSlots.isEmpty() ? new Slot(receiverView) : freeSlots.remove(freeSlots.size() - 1);
+      slot.bind(message);
+      activeSlots.add(slot);
+    }
+    targets.clear();
+  }
+
+  /**
+   * Cancels all pending media loads started by this prefetcher.
+   */
+  public void cancelMedia () {
+    for (int i = activeSlots.size() - 1; i >= 0; i--) {
+      Slot slot = activeSlots.remove(i);
+      slot.clear();
+      freeSlots.add(slot);
+    }
+  }
+
+  public void reset () {
+    cancelMedia();
+    velocity = 0;
+    direction = 0;
+    projectedCount = 0;
+  }
+
+  public void destroy () {
+    cancelMedia();
+    for (Slot slot : freeSlots) {
+      slot.destroy();
+    }
+    freeSlots.clear();
+  }
+}
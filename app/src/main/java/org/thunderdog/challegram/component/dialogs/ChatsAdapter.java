@@ -22,7 +22,10 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
+import androidx.annotation.UiThread;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.drinkless.tdlib.TdApi;
@@ -40,9 +43,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import me.vkryl.core.ArrayUtils;
+import me.vkryl.core.collection.LongSet;
 import tgx.td.ChatPosition;
 
 public class ChatsAdapter extends RecyclerView.Adapter<ChatsViewHolder> {
@@ -650,83 +655,222 @@ public class ChatsAdapter extends RecyclerView.Adapter<ChatsViewHolder> {
     return removedChat;
   }
 
-  private boolean needShadowDecoration (TGChat a, TGChat b) {
-    return a != null && b != null && (a.isArchive() != b.isArchive() || a.isPinnedOrSpecial() != b.isPinnedOrSpecial());
-  }
+  // Batched updates
 
-  public int removeChatById (TdApi.Chat chat, int fromIndex, Tdlib.ChatChange changeInfo) {
-    final int chatIndex = hasArchive ? fromIndex + 1 : fromIndex;
-    if (chatIndex != -1) {
-      TGChat removedChat = removeChat(chatIndex);
-      if (removedChat.getChatId() != chat.id)
-        throw new IllegalStateException();
+  /**
+   * Single {@link org.thunderdog.challegram.telegram.TdlibChatListSlice} change, to be applied with {@link #applyChatListUpdates(List)}.
+   */
+  public static final class ChatListUpdate {
+    private static final int TYPE_ADD = 0, TYPE_REMOVE = 1, TYPE_MOVE = 2, TYPE_CHANGE = 3, TYPE_APPEND = 4;
 
-      TGChat prevChat = getChatAt(chatIndex - 1);
-      TGChat nextChat = getChatAt(chatIndex);
+    private final int type;
+    private final TdApi.Chat chat;
+    private final int fromIndex, toIndex;
+    private final Tdlib.ChatChange changeInfo;
+    private final TGChat[] appendedChats;
 
-      boolean invalidateDecorations = changeInfo.metadataChanged() ||
-        needShadowDecoration(prevChat, removedChat) ||
-        needShadowDecoration(nextChat, removedChat);
+    private ChatListUpdate (int type, TdApi.Chat chat, int fromIndex, int toIndex, Tdlib.ChatChange changeInfo, TGChat[] appendedChats) {
+      this.type = type;
+      this.chat = chat;
+      this.fromIndex = fromIndex;
+      this.toIndex = toIndex;
+      this.changeInfo = changeInfo;
+      this.appendedChats = appendedChats;
+    }
 
-      removedChat.updateChatPosition(chat.id, changeInfo.position, changeInfo.sourceChanged(), changeInfo.pinStateChanged());
-      notifyItemRemoved(getItemPositionByChatIndex(chatIndex));
-      notifyItemChanged(getInfoItemPosition());
-      context.checkListState();
-      return invalidateDecorations || needShadowDecoration(prevChat, nextChat) ? ORDER_INVALIDATE_DECORATIONS : 0;
+    public static ChatListUpdate added (TdApi.Chat chat, int atIndex, Tdlib.ChatChange changeInfo) {
+      return new ChatListUpdate(TYPE_ADD, chat, -1, atIndex, changeInfo, null);
+    }
+
+    public static ChatListUpdate removed (TdApi.Chat chat, int fromIndex, Tdlib.ChatChange changeInfo) {
+      return new ChatListUpdate(TYPE_REMOVE, chat, fromIndex, -1, changeInfo, null);
+    }
+
+    public static ChatListUpdate moved (TdApi.Chat chat, int fromIndex, int toIndex, Tdlib.ChatChange changeInfo) {
+      return new ChatListUpdate(TYPE_MOVE, chat, fromIndex, toIndex, changeInfo, null);
+    }
+
+    public static ChatListUpdate changed (TdApi.Chat chat, int index, Tdlib.ChatChange changeInfo) {
+      return new ChatListUpdate(TYPE_CHANGE, chat, index, index, changeInfo, null);
+    }
+
+    public static ChatListUpdate appended (TGChat[] chats) {
+      return new ChatListUpdate(TYPE_APPEND, null, -1, -1, null, chats);
+    }
+
+    public boolean isAppend () {
+      return type == TYPE_APPEND;
     }
-    return 0;
   }
 
-  public int moveChat (TdApi.Chat chat, int fromIndex, int toIndex, Tdlib.ChatChange changeInfo) {
-    TGChat parsedChat;
-    if (hasArchive) {
-      fromIndex++;
-      toIndex++;
+  private static class ChatDiffUtilCallback extends DiffUtil.Callback {
+    private final List<TGChat> oldList;
+    private final List<TGChat> newList;
+    private final LongSet changedChatIds;
+
+    public ChatDiffUtilCallback (List<TGChat> oldList, List<TGChat> newList, LongSet changedChatIds) {
+      this.oldList = oldList;
+      this.newList = newList;
+      this.changedChatIds = changedChatIds;
     }
-    parsedChat = chats.remove(fromIndex);
 
-    boolean invalidateDecorations = changeInfo.metadataChanged() ||
-      needShadowDecoration(getChatAt(fromIndex - 1), parsedChat) ||
-      needShadowDecoration(getChatAt(fromIndex), parsedChat) ||
-      needShadowDecoration(getChatAt(fromIndex - 1), getChatAt(fromIndex)) ||
-      needShadowDecoration(getChatAt(toIndex), getChatAt(toIndex - 1));
+    @Override
+    public final int getOldListSize () {
+      return oldList.size();
+    }
 
-    parsedChat.updateChatPosition(chat.id, changeInfo.position, changeInfo.sourceChanged(), changeInfo.pinStateChanged());
+    @Override
+    public final int getNewListSize () {
+      return newList.size();
+    }
 
-    chats.add(toIndex, parsedChat);
-    if (!invalidateDecorations) {
-      invalidateDecorations = needShadowDecoration(getChatAt(toIndex - 1), parsedChat) ||
-        needShadowDecoration(getChatAt(toIndex + 1), parsedChat);
+    @Override
+    public final boolean areItemsTheSame (int oldItemPosition, int newItemPosition) {
+      TGChat oldChat = oldList.get(oldItemPosition);
+      TGChat newChat = newList.get(newItemPosition);
+      return oldChat.isArchive() == newChat.isArchive() && oldChat.getChatId() == newChat.getChatId();
     }
-    int flags = invalidateDecorations ? ORDER_INVALIDATE_DECORATIONS : 0;
-    if (fromIndex != toIndex) {
-      flags |= ORDER_REMAIN_SCROLL;
-      int fromPosition = getItemPositionByChatIndex(fromIndex);
-      int toPosition = getItemPositionByChatIndex(toIndex);
-      notifyChatAppeared(fromPosition, toPosition);
+
+    @Override
+    public final boolean areContentsTheSame (int oldItemPosition, int newItemPosition) {
+      TGChat oldChat = oldList.get(oldItemPosition);
+      TGChat newChat = newList.get(newItemPosition);
+      return oldChat == newChat && !changedChatIds.has(newChat.getChatId());
     }
-    return flags;
   }
 
-  public int addChat (TdApi.Chat chat, int atIndex, Tdlib.ChatChange changeInfo) {
-    TGChat newChat = new TGChat(context.getParentOrSelf(), context.chatList(), chat, false);
-    int index = hasArchive ? atIndex + 1 : atIndex;
-    newChat.makeMeasures();
-    int flags = changeInfo.metadataChanged() ? ORDER_INVALIDATE_DECORATIONS : 0;
-    addChat(index, newChat);
-    notifyChatAppeared(-1, getItemPositionByChatIndex(index));
-    notifyItemChanged(getInfoItemPosition());
-    context.checkListState();
+  /**
+   * Applies all changes received since the last call, and notifies adapter with a minimal set of
+   * insertions, removals, moves and changes calculated by {@link DiffUtil}, instead of notifying about each change.
+   *
+   * Only chats whose pin state or source has changed are re-bound.
+   *
+   * @return {@link #ORDER_REMAIN_SCROLL} and {@link #ORDER_INVALIDATE_DECORATIONS} flags.
+   */
+  @UiThread
+  public int applyChatListUpdates (List<ChatListUpdate> updates) {
+    int flags = 0;
+    boolean listChanged = false;
+    ArrayList<TGChat> oldChats = new ArrayList<>(chats);
+    LongSet changedChatIds = new LongSet();
+    for (ChatListUpdate update : updates) {
+      final int offset = hasArchive ? 1 : 0;
+      switch (update.type) {
+        case ChatListUpdate.TYPE_APPEND: {
+          // addMore notifies adapter itself, so apply everything received before
+          if (listChanged) {
+            dispatchChatListDiff(oldChats, changedChatIds);
+            listChanged = false;
+          }
+          addMore(update.appendedChats);
+          oldChats = new ArrayList<>(chats);
+          changedChatIds = new LongSet();
+          continue;
+        }
+        case ChatListUpdate.TYPE_ADD: {
+          TGChat newChat = new TGChat(context.getParentOrSelf(), context.chatList(), update.chat, false);
+          newChat.makeMeasures();
+          addChat(update.toIndex + offset, newChat);
+          flags |= ORDER_INVALIDATE_DECORATIONS;
+          break;
+        }
+        case ChatListUpdate.TYPE_REMOVE: {
+          TGChat removedChat = removeChat(update.fromIndex + offset);
+          if (removedChat.getChatId() != update.chat.id)
+            throw new IllegalStateException();
+          removedChat.updateChatPosition(update.chat.id, update.changeInfo.position, update.changeInfo.sourceChanged(), update.changeInfo.pinStateChanged());
+          flags |= ORDER_INVALIDATE_DECORATIONS;
+          break;
+        }
+        case ChatListUpdate.TYPE_MOVE:
+        case ChatListUpdate.TYPE_CHANGE: {
+          TGChat parsedChat;
+          if (update.type == ChatListUpdate.TYPE_MOVE) {
+            parsedChat = chats.remove(update.fromIndex + offset);
+            chats.add(update.toIndex + offset, parsedChat);
+            flags |= ORDER_INVALIDATE_DECORATIONS;
+          } else {
+            parsedChat = chats.get(update.fromIndex + offset);
+          }
+          if (parsedChat.getChatId() != update.chat.id)
+            throw new IllegalStateException();
+          Tdlib.ChatChange changeInfo = update.changeInfo;
+          parsedChat.updateChatPosition(update.chat.id, changeInfo.position, changeInfo.sourceChanged(), changeInfo.pinStateChanged());
+          if (changeInfo.sourceChanged() || changeInfo.pinStateChanged()) {
+            changedChatIds.add(update.chat.id);
+          }
+          if (changeInfo.metadataChanged()) {
+            flags |= ORDER_INVALIDATE_DECORATIONS;
+          }
+          break;
+        }
+        default:
+          throw new IllegalStateException(Integer.toString(update.type));
+      }
+      listChanged = true;
+    }
+    if (listChanged) {
+      if (dispatchChatListDiff(oldChats, changedChatIds)) {
+        flags |= ORDER_REMAIN_SCROLL;
+      }
+      if (oldChats.size() != chats.size()) {
+        notifyItemChanged(getInfoItemPosition());
+        context.checkListState();
+      }
+    }
     return flags;
   }
 
-  public int updateChat (TdApi.Chat chat, int index, Tdlib.ChatChange changeInfo) {
-    final int chatIndex = hasArchive ? index + 1 : index;
-    TGChat parsedChat = chats.get(chatIndex);
-    if (parsedChat.getChatId() != chat.id)
-      throw new IllegalStateException();
-    parsedChat.updateChatPosition(chat.id, changeInfo.position, changeInfo.sourceChanged(), changeInfo.pinStateChanged());
-    return changeInfo.metadataChanged() ? ORDER_INVALIDATE_DECORATIONS : 0;
+  private boolean dispatchChatListDiff (List<TGChat> oldChats, LongSet changedChatIds) {
+    DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new ChatDiffUtilCallback(oldChats, chats, changedChatIds), true);
+    int firstItem = layoutManager.findFirstVisibleItemPosition();
+    int offset;
+    if (firstItem != -1) {
+      View v = layoutManager.findViewByPosition(firstItem);
+      offset = v != null ? layoutManager.getDecoratedTop(v) : 0;
+    } else {
+      offset = 0;
+    }
+    final boolean[] structureChanged = new boolean[1];
+    // Visible items must keep their position only when items are inserted or moved at or above the first visible one
+    final boolean[] needRestoreAnchor = new boolean[1];
+    diffResult.dispatchUpdatesTo(new ListUpdateCallback() {
+      @Override
+      public void onInserted (int position, int count) {
+        structureChanged[0] = true;
+        int itemPosition = getItemPositionByChatIndex(position);
+        if (itemPosition <= firstItem) {
+          needRestoreAnchor[0] = true;
+        }
+        notifyItemRangeInserted(itemPosition, count);
+      }
+
+      @Override
+      public void onRemoved (int position, int count) {
+        structureChanged[0] = true;
+        notifyItemRangeRemoved(getItemPositionByChatIndex(position), count);
+      }
+
+      @Override
+      public void onMoved (int fromPosition, int toPosition) {
+        structureChanged[0] = true;
+        int fromItemPosition = getItemPositionByChatIndex(fromPosition);
+        int toItemPosition = getItemPositionByChatIndex(toPosition);
+        if (fromItemPosition <= firstItem || toItemPosition <= firstItem) {
+          needRestoreAnchor[0] = true;
+        }
+        notifyItemMoved(fromItemPosition, toItemPosition);
+      }
+
+      @Override
+      public void onChanged (int position, int count, @Nullable Object payload) {
+        notifyItemRangeChanged(getItemPositionByChatIndex(position), count, payload);
+      }
+    });
+    if (needRestoreAnchor[0] && firstItem != -1) {
+      layoutManager.scrollToPositionWithOffset(firstItem, offset);
+    }
+    return structureChanged[0];
   }
 
   public int updateChatPhoto (long chatId, TdApi.ChatPhotoInfo photo) {
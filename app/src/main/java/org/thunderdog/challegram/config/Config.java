@@ -163,6 +163,7 @@ public class Config {
   public static final boolean CROP_ENABLED = true;
   public static final boolean MODERN_VIDEO_TRANSCODING_ENABLED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
   public static final boolean LEGACY_VIDEO_TRANSCODING_ENABLED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && BuildConfig.LEGACY_FLAVOR;
+  public static final boolean STREAMING_VIDEO_TRANSCODING_ENABLED = false; // MODERN_VIDEO_TRANSCODING_ENABLED, until fragmented MP4 output is measured on devices
 
   public static final boolean IN_APP_BROWSER_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1;
 
@@ -217,6 +217,7 @@ public abstract class TGMessage implements InvalidateContentProvider, TdlibDeleg
   protected int mergeTime, mergeIndex;
 
   protected int width;
+  private int layoutVersion;
   protected int height;
 
   protected String time;
@@ -1185,6 +1186,13 @@ public abstract class TGMessage implements InvalidateContentProvider, TdlibDeleg
     return ReplyComponent.height() + Screen.dp(useBubble() ? 3f : 6f) - (useForward() ? Screen.dp(9f) : 0);
   }
 
+  /**
+   * @return Whether layout has been built before the last {@link MessagesManager#rebuildLayouts()} call.
+   */
+  public boolean isLayoutOutdated () {
+    return width != 0 && layoutVersion != manager.getLayoutVersion();
+  }
+
   public void rebuildLayout () {
     final int width = this.width;
     if (width != 0) {
@@ -1206,11 +1214,13 @@ public abstract class TGMessage implements InvalidateContentProvider, TdlibDeleg
   }
 
   public void buildLayout (int width) {
-    if (width == 0 || this.width == width) {
+    final int layoutVersion = manager.getLayoutVersion();
+    if (width == 0 || (this.width == width && this.layoutVersion == layoutVersion)) {
       return;
     }
 
     this.width = width;
+    this.layoutVersion = layoutVersion;
 
     if (useBubbles()) {
       pRealContentX = computeBubbleLeft();
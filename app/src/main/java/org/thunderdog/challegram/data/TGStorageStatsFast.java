@@ -23,7 +23,7 @@ import org.thunderdog.challegram.R;
 import org.thunderdog.challegram.U;
 import org.thunderdog.challegram.core.Lang;
 import org.thunderdog.challegram.emoji.Emoji;
-import org.thunderdog.challegram.loader.gif.LottieCache;
+import org.thunderdog.challegram.loader.gif.LottieFrameStore;
 import org.thunderdog.challegram.mediaview.paint.PaintState;
 import org.thunderdog.challegram.telegram.SessionSnapshot;
 import org.thunderdog.challegram.telegram.TdlibManager;
@@ -77,7 +77,7 @@ public class TGStorageStatsFast {
     this.accountsConfigSize = TdlibManager.getAccountConfigFileSize();
     this.voipConfigSize = VoIPPersistentConfig.getVoipConfigFileSize();
 
-    this.lottieFiles = FileUtils.getAllFiles(LottieCache.getCacheDir());
+    this.lottieFiles = FileUtils.getAllFiles(LottieFrameStore.getCacheDir());
     long lottieSize = 0;
     for (File file : lottieFiles) {
       if (file.isFile())
@@ -157,7 +157,7 @@ public class TGStorageStatsFast {
   }
 
   public boolean deleteLottieFiles () {
-    return LottieCache.instance().clear();
+    return LottieFrameStore.instance().clear();
   }
 
   public boolean deletePrivateCameraMedia () {
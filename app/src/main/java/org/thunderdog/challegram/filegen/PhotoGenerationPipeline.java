@@ -0,0 +1,302 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:55
+ */
+package org.thunderdog.challegram.filegen;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates photos in parallel, e.g. when sending an album.
+ *
+ * Each photo passes through decode, transform and encode stages, each with its own pool of threads,
+ * so decoding of the next photo overlaps with encoding of the previous one.
+ * Amount of photos being processed at once is limited by available heap, as each of them holds
+ * full-size bitmaps until it is encoded. Photos wait for a free slot before they reach the decode stage,
+ * so the ones requested first are always started first.
+ *
+ * Thumbnails are small, so they are generated on a separate thread and never wait for full-size photos.
+ */
+final class PhotoGenerationPipeline {
+  // Decoded image may be up to twice as large as the output limit in each dimension,
+  // and transform stage may hold an additional copy
+  private static final long BYTES_PER_JOB = (long) PhotoGenerationInfo.SIZE_LIMIT * PhotoGenerationInfo.SIZE_LIMIT * 4 * 4 * 2;
+  private static final int MAX_CONCURRENCY = 4;
+
+  static final class Job {
+    final PhotoGenerationInfo info;
+    final long sequence;
+    final boolean isThumb;
+
+    // Decode
+    boolean isTransparent, applyLessCompression, saveToGallery, needRotate;
+    int maxSize;
+    Bitmap bitmap;
+
+    // Transform
+    Bitmap originalBitmap;
+
+    private volatile boolean isCancelled;
+    private long startTime, decodeTime, transformTime;
+
+    Job (PhotoGenerationInfo info, long sequence) {
+      this.info = info;
+      this.sequence = sequence;
+      int resolutionLimit = info.getResolutionLimit();
+      this.isThumb = resolutionLimit > 0 && resolutionLimit <= TdlibFileGenerationManager.BIG_THUMB_RESOLUTION;
+    }
+
+    boolean isCancelled () {
+      return isCancelled;
+    }
+  }
+
+  interface Stages {
+    /**
+     * @return Whether the next stage should be performed. If not, stage must finish or fail generation itself.
+     */
+    boolean decodePhoto (Job job) throws Throwable;
+    boolean transformPhoto (Job job) throws Throwable;
+    void encodePhoto (Job job) throws Throwable;
+    void onPhotoFailed (Job job, Throwable t);
+  }
+
+  private abstract static class StageTask implements Runnable, Comparable<StageTask> {
+    final Job job;
+
+    StageTask (Job job) {
+      this.job = job;
+    }
+
+    @Override
+    public int compareTo (StageTask other) {
+      return Long.compare(job.sequence, other.job.sequence);
+    }
+  }
+
+  private final Stages stages;
+  private final int concurrency;
+  private final PriorityQueue<Job> waitingJobs = new PriorityQueue<>(11, (a, b) -> Long.compare(a.sequence, b.sequence));
+  private int activeCount;
+  private final ThreadPoolExecutor thumbExecutor, decodeExecutor, transformExecutor, encodeExecutor;
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+
+  PhotoGenerationPipeline (Stages stages) {
+    this.stages = stages;
+    int cores = Runtime.getRuntime().availableProcessors();
+    long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
+    // Photos overlap only when worst case of each of them fits into the budget
+    this.concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, (int) (memoryLimit / BYTES_PER_JOB)));
+    int threadCount = Math.max(1, Math.min(concurrency, cores - 1));
+    this.thumbExecutor = newExecutor("PhotoGenThumb", 1);
+    this.decodeExecutor = newExecutor("PhotoGenDecode", threadCount);
+    this.transformExecutor = newExecutor("PhotoGenTransform", threadCount);
+    this.encodeExecutor = newExecutor("PhotoGenEncode", threadCount);
+  }
+
+  private static ThreadPoolExecutor newExecutor (String name, int threadCount) {
+    AtomicInteger threadId = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+      }, name + "#" + threadId.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  public void submit (PhotoGenerationInfo info) {
+    final Job job = new Job(info, sequence.incrementAndGet());
+    info.setOnCancel(() -> job.isCancelled = true);
+    pendingCount.incrementAndGet();
+    job.startTime = SystemClock.uptimeMillis();
+    if (job.isThumb) {
+      thumbExecutor.execute(() -> generateThumb(job));
+    } else {
+      synchronized (waitingJobs) {
+        waitingJobs.add(job);
+      }
+      scheduleNext();
+    }
+  }
+
+  private void generateThumb (Job job) {
+    if (job.isCancelled()) {
+      finish(job, false, true, null);
+      return;
+    }
+    try {
+      if (stages.decodePhoto(job)) {
+        job.decodeTime = SystemClock.uptimeMillis();
+        if (stages.transformPhoto(job)) {
+          job.transformTime = SystemClock.uptimeMillis();
+          stages.encodePhoto(job);
+        }
+      }
+    } catch (Throwable t) {
+      finish(job, false, false, t);
+      return;
+    }
+    finish(job, false, false, null);
+  }
+
+  /**
+   * Moves waiting photos to the decode stage while there are free slots.
+   */
+  private void scheduleNext () {
+    while (true) {
+      final Job job;
+      synchronized (waitingJobs) {
+        if (activeCount >= concurrency || waitingJobs.isEmpty()) {
+          return;
+        }
+        job = waitingJobs.poll();
+        activeCount++;
+      }
+      scheduleDecode(job);
+    }
+  }
+
+  private void scheduleDecode (Job job) {
+    decodeExecutor.execute(new StageTask(job) {
+      @Override
+      public void run () {
+        if (job.isCancelled()) {
+          finish(job, true, true, null);
+          return;
+        }
+        boolean proceed;
+        try {
+          proceed = stages.decodePhoto(job);
+        } catch (Throwable t) {
+          finish(job, true, false, t);
+          return;
+        }
+        job.decodeTime = SystemClock.uptimeMillis();
+        if (proceed) {
+          scheduleTransform(job);
+        } else {
+          finish(job, true, false, null);
+        }
+      }
+    });
+  }
+
+  private void scheduleTransform (Job job) {
+    transformExecutor.execute(new StageTask(job) {
+      @Override
+      public void run () {
+        if (job.isCancelled()) {
+          finish(job, true, true, null);
+          return;
+        }
+        boolean proceed;
+        try {
+          proceed = stages.transformPhoto(job);
+        } catch (Throwable t) {
+          finish(job, true, false, t);
+          return;
+        }
+        job.transformTime = SystemClock.uptimeMillis();
+        if (proceed) {
+          scheduleEncode(job);
+        } else {
+          finish(job, true, false, null);
+        }
+      }
+    });
+  }
+
+  private void scheduleEncode (Job job) {
+    encodeExecutor.execute(new StageTask(job) {
+      @Override
+      public void run () {
+        if (job.isCancelled()) {
+          finish(job, true, true, null);
+          return;
+        }
+        Throwable error = null;
+        try {
+          stages.encodePhoto(job);
+        } catch (Throwable t) {
+          error = t;
+        }
+        finish(job, true, false, error);
+      }
+    });
+  }
+
+  private void finish (Job job, boolean releaseSlot, boolean cancelled, Throwable error) {
+    if (cancelled) {
+      // Generation was cancelled between stages, intermediate bitmaps are no longer needed
+      if (job.originalBitmap != null && job.originalBitmap != job.bitmap && !job.originalBitmap.isRecycled()) {
+        job.originalBitmap.recycle();
+      }
+      if (job.bitmap != null && !job.bitmap.isRecycled()) {
+        job.bitmap.recycle();
+      }
+    }
+    job.bitmap = null;
+    job.originalBitmap = null;
+    if (releaseSlot) {
+      synchronized (waitingJobs) {
+        activeCount--;
+      }
+      scheduleNext();
+    }
+    int remainingCount = pendingCount.decrementAndGet();
+    if (error != null) {
+      stages.onPhotoFailed(job, error);
+    }
+    if (Log.checkLogLevel(Log.LEVEL_VERBOSE)) {
+      long now = SystemClock.uptimeMillis();
+      Log.v("Photo generation #%d %s in %dms (decode: %dms, transform: %dms), concurrency: %d, remaining: %d",
+        job.sequence, cancelled ? "cancelled" : error != null ? "failed" : "finished",
+        now - job.startTime,
+        job.decodeTime != 0 ? job.decodeTime - job.startTime : -1,
+        job.transformTime != 0 && job.decodeTime != 0 ? job.transformTime - job.decodeTime : -1,
+        concurrency, remainingCount
+      );
+    }
+  }
+
+  /**
+   * @return Amount of photos that are waiting or being generated.
+   */
+  public int getPendingCount () {
+    return pendingCount.get();
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    return "PhotoGenerationPipeline { concurrency = " + concurrency + ", pending = " + pendingCount.get() + " }";
+  }
+}
@@ -113,7 +113,10 @@ public final class TdlibFileGenerationManager {
     if (_contentExecutor == null) {
       synchronized (this) {
         if (_contentExecutor == null) {
-          _contentExecutor = new ThreadPoolExecutor(1, 4, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+          // Core size must match maximum size, as with an unbounded queue
+          // ThreadPoolExecutor never creates threads beyond the core size
+          _contentExecutor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+          _contentExecutor.allowCoreThreadTimeOut(true);
         }
       }
     }
@@ -134,7 +137,6 @@ public final class TdlibFileGenerationManager {
     }
   }
 
-  private static final int TASK_GENERATE_PHOTO = 0;
   private static final int TASK_GENERATE_THUMB = 1;
   private static final int TASK_GENERATE_AVATAR = 3;
   private static final int TASK_DOWNLOAD_HTTP = 5;
@@ -147,7 +149,8 @@ public final class TdlibFileGenerationManager {
 
   private final Tdlib tdlib;
 
-  private BaseThread _queue, _thumbQueue;
+  private BaseThread _queue;
+  private PhotoGenerationPipeline _photoPipeline;
   private VideoGen _videoGen;
   private final HashMap<Long, GenerationInfo> pendingTasks = new HashMap<>();
 
@@ -168,15 +171,36 @@ public final class TdlibFileGenerationManager {
     return _queue;
   }
 
-  private BaseThread thumbQueue () {
-    if (_thumbQueue == null) {
+  private PhotoGenerationPipeline photoPipeline () {
+    if (_photoPipeline == null) {
       synchronized (this) {
-        if (_thumbQueue == null) {
-          _thumbQueue = new FileGenQueue(this);
+        if (_photoPipeline == null) {
+          _photoPipeline = new PhotoGenerationPipeline(new PhotoGenerationPipeline.Stages() {
+            @Override
+            public boolean decodePhoto (PhotoGenerationPipeline.Job job) throws Throwable {
+              return TdlibFileGenerationManager.this.decodePhoto(job);
+            }
+
+            @Override
+            public boolean transformPhoto (PhotoGenerationPipeline.Job job) {
+              return TdlibFileGenerationManager.this.transformPhoto(job);
+            }
+
+            @Override
+            public void encodePhoto (PhotoGenerationPipeline.Job job) {
+              TdlibFileGenerationManager.this.encodePhoto(job);
+            }
+
+            @Override
+            public void onPhotoFailed (PhotoGenerationPipeline.Job job, Throwable t) {
+              Log.e("Cannot generate photo", t);
+              failGeneration(job.info, ERROR_UNKNOWN, "Unknown error, see logs for details");
+            }
+          });
         }
       }
     }
-    return _thumbQueue;
+    return _photoPipeline;
   }
 
   private VideoGen videoGen () {
@@ -192,16 +216,6 @@ public final class TdlibFileGenerationManager {
 
   private void process (Message msg) {
     switch (msg.what) {
-      case TASK_GENERATE_PHOTO: {
-        PhotoGenerationInfo info = (PhotoGenerationInfo) msg.obj;
-        try {
-          generatePhoto(info);
-        } catch (Throwable t) {
-          Log.e("Cannot generate photo", t);
-          failGeneration(info, ERROR_UNKNOWN, "Unknown error, see logs for details");
-        }
-        break;
-      }
       case TASK_GENERATE_AVATAR: {
         SimpleGenerationInfo info = (SimpleGenerationInfo) msg.obj;
         try {
@@ -442,16 +456,17 @@ public final class TdlibFileGenerationManager {
       targetQueue = queue();
       targetMessage = TASK_GENERATE_AVATAR;
     } else if (conversion.startsWith(GenerationInfo.TYPE_PHOTO)) {
+      PhotoGenerationInfo photoTask;
       try {
-        task = new PhotoGenerationInfo(generationId, originalPath, destinationPath, conversion);
+        photoTask = new PhotoGenerationInfo(generationId, originalPath, destinationPath, conversion);
       } catch (Throwable t) {
         Log.e("Unable to process input conversion: %d %s", t, StringUtils.isEmpty(conversion) ? 0 : conversion.length(), conversion);
         failGeneration(originalPath, conversion, generationId, ERROR_APP_FAILURE, "Incorrect conversion input: " + conversion);
         return;
       }
-      int resolutionLimit = ((PhotoGenerationInfo) task).getResolutionLimit();
-      targetQueue = resolutionLimit > 0 && resolutionLimit <= BIG_THUMB_RESOLUTION ? thumbQueue() : queue();
-      targetMessage = TASK_GENERATE_PHOTO;
+      pendingTasks.put(generationId, photoTask);
+      photoPipeline().submit(photoTask);
+      return;
     } else if (conversion.startsWith(GenerationInfo.TYPE_VIDEO)) {
       boolean isKnownConversion = tdlib.settings().isKnownConversion(originalPath, conversion);
       if (isKnownConversion) {
@@ -1022,15 +1037,21 @@ public final class TdlibFileGenerationManager {
 
   // Photo
 
-  private void generatePhoto (PhotoGenerationInfo info) throws Throwable {
+  private boolean decodePhoto (PhotoGenerationPipeline.Job job) throws Throwable {
+    final PhotoGenerationInfo info = job.info;
     final String originalPath = info.getOriginalPath();
     Uri uri = originalPath.startsWith("content://") ? Uri.parse(originalPath) : null;
     final boolean applyLessCompression = U.isScreenshotFolder(originalPath);
-    boolean isTransparent = info.getAllowTransparency() || (!applyLessCompression && isTransparent(originalPath, uri));
+    final boolean isTransparent = info.getAllowTransparency() || (!applyLessCompression && isTransparent(originalPath, uri));
 
     final int maxSize = info.getResolutionLimit() != 0 ? info.getResolutionLimit() : PhotoGenerationInfo.SIZE_LIMIT;
     final boolean saveToGallery = Settings.instance().needSaveEditedMediaToGallery() && info.isEdited();
 
+    job.applyLessCompression = applyLessCompression;
+    job.isTransparent = isTransparent;
+    job.maxSize = maxSize;
+    job.saveToGallery = saveToGallery;
+
     Bitmap bitmap = null;
     boolean needRotate = false;
 
@@ -1094,16 +1115,29 @@ public final class TdlibFileGenerationManager {
 
     if (bitmap == null) {
       failGeneration(info, ERROR_APP_FAILURE, "Original image has failed to read");
-      return;
+      return false;
     }
 
+    job.bitmap = bitmap;
+    job.needRotate = needRotate;
+    return true;
+  }
+
+  private boolean transformPhoto (PhotoGenerationPipeline.Job job) {
+    final PhotoGenerationInfo info = job.info;
+    final boolean needRotate = job.needRotate;
+    final boolean saveToGallery = job.saveToGallery;
+    final int maxSize = job.maxSize;
+    Bitmap bitmap = job.bitmap;
+
     if (info.needSpecialProcessing(needRotate)) {
       Bitmap processedBitmap = info.process(bitmap, needRotate);
 
       if (processedBitmap == null) {
         bitmap.recycle();
+        job.bitmap = null;
         failGeneration(info, ERROR_APP_FAILURE, "processedBitmap == null");
-        return;
+        return false;
       }
 
       if (processedBitmap != bitmap) {
@@ -1118,7 +1152,7 @@ public final class TdlibFileGenerationManager {
       bitmap = ImageReader.resizeBitmap(bitmap, maxSize, maxSize, false, true, !saveToGallery);
     }
 
-    if (isTransparent && !info.getAllowTransparency()) {
+    if (job.isTransparent && !info.getAllowTransparency()) {
       try {
         if (bitmap.isMutable()) {
           Canvas c = new Canvas(bitmap);
@@ -1133,14 +1167,25 @@ public final class TdlibFileGenerationManager {
           U.recycle(c);
           if (!saveToGallery) {
             U.recycle(originalBitmap);
+            originalBitmap = null;
           }
         }
       } catch (Throwable ignored) { }
     }
 
-    compress(info, bitmap, info.isFiltered() ? 100 : applyLessCompression ? COMPRESSION_LEVEL_LESS : COMPRESSION_LEVEL, isTransparent && info.getAllowTransparency());
+    job.bitmap = bitmap;
+    job.originalBitmap = originalBitmap;
+    return true;
+  }
+
+  private void encodePhoto (PhotoGenerationPipeline.Job job) {
+    final PhotoGenerationInfo info = job.info;
+    final boolean isTransparent = job.isTransparent;
+    final Bitmap originalBitmap = job.originalBitmap;
+
+    compress(info, job.bitmap, info.isFiltered() ? 100 : job.applyLessCompression ? COMPRESSION_LEVEL_LESS : COMPRESSION_LEVEL, isTransparent && info.getAllowTransparency());
 
-    if (saveToGallery) {
+    if (job.saveToGallery) {
       Background.instance().post(() -> U.savePhotoToGallery(UI.getUiContext(), originalBitmap, isTransparent), 750);
     }
   }
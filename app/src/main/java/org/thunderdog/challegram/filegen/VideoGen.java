@@ -16,6 +16,7 @@ package org.thunderdog.challegram.filegen;
 
 import static tgx.flavor.VideoTransformer.getVideoFrameRate;
 import static tgx.flavor.VideoTransformer.legacyConvertVideoComplex;
+import static tgx.flavor.VideoTransformer.setStreamableOutput;
 
 import android.media.MediaMetadataRetriever;
 import android.os.Build;
@@ -148,6 +149,11 @@ public class VideoGen {
       }
     }
 
+    public void onReadyToUpload (long readyBytes, long expectedSize) {
+      this.readyBytes = readyBytes;
+      reportBytes(expectedSize, readyBytes);
+    }
+
     public void resetProgress (long expectedSize) {
       this.readyBytes = 0;
       reportBytes(expectedSize, 0);
@@ -207,6 +213,10 @@ public class VideoGen {
 
   public interface ProgressCallback {
     void onTranscodeProgress (double progress, long expectedSize);
+    /**
+     * Called when first {@code bytesCount} bytes of the output file are final and can be uploaded
+     * while transcoding is still in progress.
+     */
     void onReadyToUpload (long bytesCount, long expectedSize);
   }
 
@@ -253,7 +263,7 @@ public class VideoGen {
               entry.cancel();
             }
           } else {
-            entry.reportBytes(0, bytesCount);
+            entry.onReadyToUpload(bytesCount, expectedSize);
           }
         }
       }
@@ -372,6 +382,8 @@ public class VideoGen {
     }
   }
 
+  private static final double MIN_PROGRESS_FOR_SIZE_ESTIMATE = .05;
+
   @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
   private void convertVideoComplexV2 (String sourcePath, String destinationPath, VideoGenerationInfo info, Entry entry, ProgressCallback onProgress, Runnable onComplete, RunnableData<String> onCancel, RunnableData<Throwable> onFailure, Runnable after) throws FileNotFoundException {
     MediaMetadataRetriever retriever = U.openRetriever(sourcePath);
@@ -495,6 +507,12 @@ public class VideoGen {
         .build());
     }
 
+    // Fragmented MP4 is written strictly sequentially, so TDLib can upload
+    // finished fragments while the rest of the video is still being encoded
+    final boolean isStreamable = Config.STREAMING_VIDEO_TRANSCODING_ENABLED && setStreamableOutput(transformerBuilder);
+    // Output is not expected to be much larger than the source
+    final long maxExpectedSize = new File(sourcePath).length() * 2;
+
     entry.transformer = transformerBuilder.build();
 
     ProgressHolder progressHolder = new ProgressHolder();
@@ -513,7 +531,19 @@ public class VideoGen {
           if (progressState == Transformer.PROGRESS_STATE_AVAILABLE) {
             double progress = (double) progressHolder.progress / 100.0;
             long fileSize = outFile.length();
-            onProgress.onTranscodeProgress(progress, fileSize);
+            if (isStreamable) {
+              // Early estimates are too rough, so size stays unknown until enough has been encoded
+              long expectedSize = 0;
+              if (progress >= MIN_PROGRESS_FOR_SIZE_ESTIMATE) {
+                expectedSize = Math.max(fileSize, (long) ((double) fileSize / progress));
+                if (maxExpectedSize > 0) {
+                  expectedSize = Math.max(fileSize, Math.min(expectedSize, maxExpectedSize));
+                }
+              }
+              onProgress.onReadyToUpload(fileSize, expectedSize);
+            } else {
+              onProgress.onTranscodeProgress(progress, fileSize);
+            }
           }
           queue.post(this, 500L);
         }
@@ -33,6 +33,7 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
   private ImageFile file;
 
   private volatile boolean isCancelled;
+  private volatile int decodePriority = ImageReader.PRIORITY_PREFETCH;
 
   public ImageActor (ImageFile file) {
     this.file = file;
@@ -42,6 +43,7 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
     this.isCancelled = true;
     if (cancellationSignal != null)
       cancellationSignal.cancel();
+    ImageReader.instance().cancelDecode(this, file);
     if (file instanceof ImageApicFile) {
       ImageApicFile apicFile = (ImageApicFile) file;
       TdlibManager.instance().audio().cancelApic(apicFile.tdlib(), apicFile.getMessage(), this);
@@ -52,6 +54,17 @@ public class ImageActor implements ImageReader.Listener, AudioController.ApicLis
     return isCancelled;
   }
 
+  public int getDecodePriority () {
+    return decodePriority;
+  }
+
+  public void raiseDecodePriority (int priority) {
+    if (priority < decodePriority) {
+      decodePriority = priority;
+      ImageReader.instance().updateDecodePriority(this, file, priority);
+    }
+  }
+
   private CancellationSignal cancellationSignal;
 
   public CancellationSignal getCancellationSignal () {
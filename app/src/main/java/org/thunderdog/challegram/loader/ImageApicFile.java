@@ -52,4 +52,9 @@ public class ImageApicFile extends ImageFile {
       "_" +
       message.id;
   }
+
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
 }
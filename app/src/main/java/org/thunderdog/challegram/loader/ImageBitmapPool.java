@@ -0,0 +1,299 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 17:10
+ */
+package org.thunderdog.challegram.loader;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityManagerCompat;
+
+import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.tool.UI;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import me.vkryl.core.MathUtils;
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Pool of mutable bitmaps no longer displayed anywhere, reused as {@link BitmapFactory.Options#inBitmap}.
+ *
+ * Bitmaps are bucketed by config and allocation size. Since KitKat any bitmap with large enough
+ * allocation can be reused, so the smallest bitmap that fits is taken, but not larger than
+ * {@link #MAX_SIZE_MULTIPLE} times the required size to avoid retaining huge allocations for small images.
+ */
+public final class ImageBitmapPool {
+  private static ImageBitmapPool instance;
+
+  public static ImageBitmapPool instance () {
+    if (instance == null) {
+      synchronized (ImageBitmapPool.class) {
+        if (instance == null) {
+          instance = new ImageBitmapPool(getDefaultMaxByteCount());
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static final int MAX_SIZE_MULTIPLE = 2;
+
+  private static long getDefaultMaxByteCount () {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      // Before KitKat inBitmap requires exact size match and inSampleSize = 1
+      return 0;
+    }
+    ActivityManager am = (ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+    if (ActivityManagerCompat.isLowRamDevice(am)) {
+      return 0;
+    }
+    return ByteUnit.MIB.toBytes(MathUtils.clamp(am.getLargeMemoryClass() / 32, 4, 16));
+  }
+
+  private final TreeMap<Integer, ArrayList<Bitmap>> argbBuckets = new TreeMap<>();
+  private final TreeMap<Integer, ArrayList<Bitmap>> rgb565Buckets = new TreeMap<>();
+  // Insertion order is used for eviction, set protects against releasing the same bitmap twice
+  private final LinkedHashSet<Bitmap> pooled = new LinkedHashSet<>();
+
+  private long maxByteCount, byteCount;
+  private long hitCount, missCount, putCount, evictionCount, rejectCount;
+
+  private ImageBitmapPool (long maxByteCount) {
+    this.maxByteCount = maxByteCount;
+  }
+
+  public boolean isEnabled () {
+    return maxByteCount > 0;
+  }
+
+  @Nullable
+  private TreeMap<Integer, ArrayList<Bitmap>> getBuckets (@Nullable Bitmap.Config config) {
+    if (config == Bitmap.Config.ARGB_8888) {
+      return argbBuckets;
+    } else if (config == Bitmap.Config.RGB_565) {
+      return rgb565Buckets;
+    }
+    return null;
+  }
+
+  private static int getBytesPerPixel (Bitmap.Config config) {
+    return config == Bitmap.Config.RGB_565 ? 2 : 4;
+  }
+
+  /**
+   * Sets {@link BitmapFactory.Options#inBitmap} to a pooled bitmap large enough to hold the decoded image.
+   *
+   * {@code opts} must contain image bounds obtained with {@link BitmapFactory.Options#inJustDecodeBounds}.
+   *
+   * @return Whether pooled bitmap has been found.
+   */
+  public boolean obtainInBitmap (BitmapFactory.Options opts) {
+    if (!isEnabled() || opts.inPurgeable || opts.outWidth <= 0 || opts.outHeight <= 0) {
+      return false;
+    }
+    final Bitmap.Config config = opts.inPreferredConfig != null ? opts.inPreferredConfig : Bitmap.Config.ARGB_8888;
+    final int sampleSize = Math.max(1, opts.inSampleSize);
+    final long requiredByteCount = (long) ((opts.outWidth + sampleSize - 1) / sampleSize) * ((opts.outHeight + sampleSize - 1) / sampleSize) * getBytesPerPixel(config);
+    if (requiredByteCount > Integer.MAX_VALUE / MAX_SIZE_MULTIPLE) {
+      return false;
+    }
+    final Bitmap bitmap;
+    synchronized (this) {
+      TreeMap<Integer, ArrayList<Bitmap>> buckets = getBuckets(config);
+      Map.Entry<Integer, ArrayList<Bitmap>> bucket = buckets != null ? buckets.ceilingEntry((int) requiredByteCount) : null;
+      if (bucket == null || bucket.getKey() > requiredByteCount * MAX_SIZE_MULTIPLE) {
+        missCount++;
+        return false;
+      }
+      ArrayList<Bitmap> bitmaps = bucket.getValue();
+      bitmap = bitmaps.remove(bitmaps.size() - 1);
+      if (bitmaps.isEmpty()) {
+        buckets.remove(bucket.getKey());
+      }
+      pooled.remove(bitmap);
+      byteCount -= bucket.getKey();
+      hitCount++;
+    }
+    opts.inBitmap = bitmap;
+    opts.inMutable = true;
+    return true;
+  }
+
+  /**
+   * @return Mutable bitmap of the specified size, either reconfigured pooled one or a newly created one.
+   */
+  @NonNull
+  public Bitmap obtain (int width, int height, Bitmap.Config config) {
+    if (isEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      BitmapFactory.Options opts = new BitmapFactory.Options();
+      opts.outWidth = width;
+      opts.outHeight = height;
+      opts.inPreferredConfig = config;
+      if (obtainInBitmap(opts)) {
+        Bitmap bitmap = opts.inBitmap;
+        try {
+          bitmap.reconfigure(width, height, config);
+          return bitmap;
+        } catch (Throwable t) {
+          onInBitmapRejected(opts);
+        }
+      }
+    }
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Should be called when decoder refused bitmap set by {@link #obtainInBitmap(BitmapFactory.Options)}.
+   */
+  public void onInBitmapRejected (BitmapFactory.Options opts) {
+    Bitmap bitmap = opts.inBitmap;
+    opts.inBitmap = null;
+    if (bitmap != null) {
+      synchronized (this) {
+        rejectCount++;
+      }
+      U.recycle(bitmap);
+    }
+  }
+
+  /**
+   * Takes bitmap that is no longer referenced anywhere. Bitmaps that cannot be reused are recycled.
+   */
+  public void release (@Nullable Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+    if (!isEnabled() || !bitmap.isMutable()) {
+      U.recycle(bitmap);
+      return;
+    }
+    final TreeMap<Integer, ArrayList<Bitmap>> buckets = getBuckets(bitmap.getConfig());
+    final int size = ImageCacheTier.byteCount(bitmap);
+    ArrayList<Bitmap> evicted = null;
+    boolean accepted = false;
+    synchronized (this) {
+      if (pooled.contains(bitmap)) {
+        // Already pooled, e.g. released by both hot tier and last reference
+        return;
+      }
+      if (buckets != null && size <= maxByteCount / 2) {
+        ArrayList<Bitmap> bitmaps = buckets.get(size);
+        if (bitmaps == null) {
+          bitmaps = new ArrayList<>();
+          buckets.put(size, bitmaps);
+        }
+        bitmaps.add(bitmap);
+        pooled.add(bitmap);
+        byteCount += size;
+        putCount++;
+        accepted = true;
+        evicted = trimLocked(maxByteCount);
+      }
+    }
+    if (!accepted) {
+      U.recycle(bitmap);
+    }
+    recycleAll(evicted);
+  }
+
+  private ArrayList<Bitmap> trimLocked (long maxByteCount) {
+    ArrayList<Bitmap> evicted = null;
+    Iterator<Bitmap> itr = pooled.iterator();
+    while (byteCount > maxByteCount && itr.hasNext()) {
+      Bitmap bitmap = itr.next();
+      itr.remove();
+      TreeMap<Integer, ArrayList<Bitmap>> buckets = getBuckets(bitmap.getConfig());
+      int size = ImageCacheTier.byteCount(bitmap);
+      if (buckets != null) {
+        ArrayList<Bitmap> bitmaps = buckets.get(size);
+        if (bitmaps != null && bitmaps.remove(bitmap) && bitmaps.isEmpty()) {
+          buckets.remove(size);
+        }
+      }
+      byteCount -= size;
+      evictionCount++;
+      if (evicted == null) {
+        evicted = new ArrayList<>();
+      }
+      evicted.add(bitmap);
+    }
+    return evicted;
+  }
+
+  private static void recycleAll (@Nullable ArrayList<Bitmap> bitmaps) {
+    if (bitmaps != null) {
+      for (Bitmap bitmap : bitmaps) {
+        U.recycle(bitmap);
+      }
+    }
+  }
+
+  public void evictAll () {
+    ArrayList<Bitmap> evicted;
+    synchronized (this) {
+      evicted = trimLocked(0);
+    }
+    recycleAll(evicted);
+  }
+
+  public void onTrimMemory (int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      evictAll();
+    } else {
+      ArrayList<Bitmap> evicted;
+      synchronized (this) {
+        evicted = trimLocked(maxByteCount / 2);
+      }
+      recycleAll(evicted);
+    }
+  }
+
+  // Stats
+
+  public synchronized long getByteCount () {
+    return byteCount;
+  }
+
+  public synchronized long getHitCount () {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount () {
+    return missCount;
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    long requests = hitCount + missCount;
+    int hitPercent = requests != 0 ? (int) (100 * hitCount / requests) : 0;
+    return String.format(Locale.US, "ImageBitmapPool { %.2f/%.2f MiB, bitmaps = %d, hits = %d, misses = %d (%d%% hit rate), puts = %d, evictions = %d, rejects = %d }",
+      ByteUnit.BYTE.toMiB(byteCount), ByteUnit.BYTE.toMiB(maxByteCount),
+      pooled.size(),
+      hitCount, missCount, hitPercent, putCount, evictionCount, rejectCount
+    );
+  }
+}
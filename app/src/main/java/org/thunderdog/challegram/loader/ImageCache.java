@@ -15,23 +15,26 @@
 package org.thunderdog.challegram.loader;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Build;
-import android.util.LruCache;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+import androidx.core.app.ActivityManagerCompat;
 
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.U;
 import org.thunderdog.challegram.tool.UI;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.IdentityHashMap;
 
+import me.vkryl.core.MathUtils;
+import me.vkryl.core.collection.LongSparseIntArray;
 import me.vkryl.core.unit.ByteUnit;
 
 public class ImageCache {
@@ -44,82 +47,140 @@ public class ImageCache {
     return instance;
   }
 
-  public static HashMap<String, AtomicInteger> getReferenceCounters () {
+  public static LongSparseIntArray getReferenceCounters () {
     return instance().getCounters();
   }
 
-  private final HashMap<String, AtomicInteger> counters;
-  private final HashMap<String, Integer> rotations;
-  private final HashMap<String, WeakReference<Bitmap>> references;
-  private class BitmapLruCache extends LruCache<String, Bitmap> {
-    public BitmapLruCache (int maxSize) {
-      super(maxSize);
-    }
+  private final LongSparseIntArray counters;
+  private final LongSparseIntArray rotations;
+  private final LongSparseArray<WeakReference<Bitmap>> references;
+
+  private static final class BitmapReference {
+    int count;
+    boolean cached;
+  }
+
+  /**
+   * Receivers may keep displaying a bitmap under a different key, e.g. with {@link ImageFile#suppressEmptyBundle()},
+   * so bitmaps are released to {@link ImageBitmapPool} only when no key references them and hot tier no longer holds them.
+   */
+  private final IdentityHashMap<Bitmap, BitmapReference> bitmapReferences = new IdentityHashMap<>();
+
+  private static final boolean ALLOW_REFERENCES = true;
+
+  /**
+   * Percentage of a tier single account is allowed to occupy while other accounts have cached bitmaps.
+   */
+  private static final int ACCOUNT_QUOTA_PERCENTAGE = 75;
+
+  /**
+   * Bitmaps evicted from hot tier are downscaled by this factor on each side before moving to the warm tier.
+   */
+  private static final int WARM_TIER_SCALE = 2;
+  private static final int WARM_TIER_MIN_SIZE = 160;
+
+  private static final long PRESSURE_COOLDOWN_MS = 30_000;
 
-    @Override
-    protected int sizeOf (String key, Bitmap value) {
-      if (value == null || value.isRecycled())
-        return 1;
-      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
-        return value.getRowBytes() * value.getHeight();
-      } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
-        return value.getByteCount();
+  private final long hotTierBudget, warmTierBudget;
+  private final ImageCacheTier hot, warm;
+  private volatile long pressureUntil;
+
+  private ImageCache () {
+    counters = new LongSparseIntArray();
+    rotations = new LongSparseIntArray();
+    references = new LongSparseArray<>();
+    hotTierBudget = getHotTierBudget();
+    warmTierBudget = hotTierBudget / (WARM_TIER_SCALE * WARM_TIER_SCALE);
+    hot = new ImageCacheTier("hot", hotTierBudget, ACCOUNT_QUOTA_PERCENTAGE, this::onHotEntryRemoved);
+    warm = new ImageCacheTier("warm", warmTierBudget, ACCOUNT_QUOTA_PERCENTAGE, this::onWarmEntryRemoved);
+  }
+
+  private static long getHotTierBudget () {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+      ActivityManager am = (ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+      int mib;
+      if (ActivityManagerCompat.isLowRamDevice(am)) {
+        mib = MathUtils.clamp(am.getMemoryClass() / 16, 3, 8);
       } else {
-        return value.getAllocationByteCount();
+        // largeHeap is requested in manifest, so large memory class is the actual heap limit
+        mib = MathUtils.clamp(am.getLargeMemoryClass() / 6, 15, 128);
       }
+      return ByteUnit.MIB.toBytes(mib);
+    } else {
+      return ByteUnit.MIB.toBytes(3);
     }
+  }
 
-    @Override
-    protected void entryRemoved (boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
-      if (!counters.containsKey(key)) {
-        if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-          Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in entryRemoved", key);
+  private boolean isUnderMemoryPressure () {
+    return pressureUntil != 0 && SystemClock.elapsedRealtime() < pressureUntil;
+  }
+
+  private void onHotEntryRemoved (ImageCacheTier tier, boolean evicted, long key, int accountId, Bitmap bitmap) {
+    synchronized (counters) {
+      BitmapReference reference = bitmapReferences.get(bitmap);
+      if (reference != null) {
+        reference.cached = false;
+        if (reference.count != 0) {
+          // Still displayed somewhere, removeReference will take care of it
+          return;
         }
-        U.recycle(oldValue);
+        bitmapReferences.remove(bitmap);
+      }
+      if (ALLOW_REFERENCES) {
+        // Bitmap may be reused by ImageBitmapPool, so it must not be found by key anymore
+        references.remove(key);
       }
     }
+    if (evicted && !isUnderMemoryPressure()) {
+      Bitmap preview = createPreview(bitmap);
+      if (preview != null) {
+        warm.put(key, accountId, preview);
+      }
+    }
+    if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.v(Log.TAG_IMAGE_LOADER, "#%x: releasing bitmap in entryRemoved", key);
+    }
+    ImageBitmapPool.instance().release(bitmap);
   }
 
-  private final BitmapLruCache memcache;
-
-  private static final boolean ALLOW_REFERENCES = true;
-
-  private ImageCache () {
-    counters = new HashMap<>();
-    rotations = new HashMap<>();
-    memcache = new BitmapLruCache(getMemcacheSize());
-    references = new HashMap<>();
-  }
-
-  private boolean hasInMemcache (String key) {
-    return memcache.get(key) != null;
+  private void onWarmEntryRemoved (ImageCacheTier tier, boolean evicted, long key, int accountId, Bitmap bitmap) {
+    ImageBitmapPool.instance().release(bitmap);
   }
 
-  private int getMemcacheSize () {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-      int mib = Math.min(15, ((ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() / 7);
-      return (int) ByteUnit.MIB.toBytes(mib);
-    } else {
-      return (int) ByteUnit.MIB.toBytes(3);
+  @Nullable
+  private static Bitmap createPreview (Bitmap bitmap) {
+    if (!U.isValidBitmap(bitmap) || Math.max(bitmap.getWidth(), bitmap.getHeight()) < WARM_TIER_MIN_SIZE) {
+      return null;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+      return null;
+    }
+    try {
+      return Bitmap.createScaledBitmap(bitmap, Math.max(1, bitmap.getWidth() / WARM_TIER_SCALE), Math.max(1, bitmap.getHeight() / WARM_TIER_SCALE), true);
+    } catch (Throwable t) {
+      Log.w(Log.TAG_IMAGE_LOADER, "Cannot create warm tier copy", t);
+      return null;
     }
   }
 
-  public HashMap<String, AtomicInteger> getCounters () {
+  public LongSparseIntArray getCounters () {
     return counters;
   }
 
   public void addReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
       synchronized (counters) {
-        final String key = file.toString();
-        AtomicInteger count = counters.get(key);
-        if (count != null) {
-          count.incrementAndGet();
-        } else {
-          counters.put(key, count = new AtomicInteger(1));
+        final long key = file.getCacheKey();
+        final int count = counters.get(key) + 1;
+        counters.put(key, count);
+        BitmapReference reference = bitmapReferences.get(bitmap);
+        if (reference == null) {
+          reference = new BitmapReference();
+          bitmapReferences.put(bitmap, reference);
         }
+        reference.count++;
         if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-          Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference++: %d", key, count.get());
+          Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference++: %d", file.toString(), count);
         }
       }
     } else {
@@ -132,27 +193,29 @@ public class ImageCache {
   public void removeReference (ImageFile file, Bitmap bitmap) {
     if (file != null && bitmap != null) {
       synchronized (counters) {
-        String key = file.toString();
+        final long key = file.getCacheKey();
 
-        AtomicInteger count = counters.get(key);
-        if (count != null) {
-          int result = count.decrementAndGet();
-          if (result < 0)
-            throw new IllegalStateException("key:" + key);
+        final int count = counters.get(key);
+        if (count != 0) {
+          final int result = count - 1;
           if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-            Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference--: %d", key, result);
+            Log.v(Log.TAG_IMAGE_LOADER, "#%s: reference--: %d", file.toString(), result);
           }
           if (result == 0) {
-            counters.remove(key);
-            if (!hasInMemcache(key)) {
-              if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
-                Log.v(Log.TAG_IMAGE_LOADER, "#%s: recycling bitmap in removeReference", key);
-              }
-              U.recycle(bitmap);
-            }
+            counters.delete(key);
             if (ALLOW_REFERENCES) {
               references.remove(key);
             }
+          } else {
+            counters.put(key, result);
+          }
+          BitmapReference reference = bitmapReferences.get(bitmap);
+          if (reference != null && --reference.count == 0 && !reference.cached) {
+            bitmapReferences.remove(bitmap);
+            if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+              Log.v(Log.TAG_IMAGE_LOADER, "#%s: releasing bitmap in removeReference", file.toString());
+            }
+            ImageBitmapPool.instance().release(bitmap);
           }
         }
       }
@@ -168,26 +231,37 @@ public class ImageCache {
   }
 
   public void putBitmap (ImageFile file, Bitmap bitmap) {
-    final String key = file.toString();
-    memcache.put(key, bitmap);
-    if (file.getRotation() != 0) {
-      rotations.put(key, file.getRotation());
+    final long key = file.getCacheKey();
+    if (pressureUntil != 0 && !isUnderMemoryPressure()) {
+      pressureUntil = 0;
+      hot.setMaxByteCount(hotTierBudget);
+      warm.setMaxByteCount(warmTierBudget);
     }
-    if (ALLOW_REFERENCES) {
-      synchronized (counters) {
+    warm.remove(key);
+    synchronized (counters) {
+      BitmapReference reference = bitmapReferences.get(bitmap);
+      if (reference == null) {
+        reference = new BitmapReference();
+        bitmapReferences.put(bitmap, reference);
+      }
+      reference.cached = true;
+    }
+    hot.put(key, file.accountId(), bitmap);
+    synchronized (counters) {
+      if (file.getRotation() != 0) {
+        rotations.put(key, file.getRotation());
+      }
+      if (ALLOW_REFERENCES) {
         references.put(key, new WeakReference<>(bitmap));
       }
     }
   }
 
   public Bitmap getBitmap (ImageFile file) {
-    final String key = file.toString();
-    final Bitmap cached = memcache.get(key);
+    final long key = file.getCacheKey();
+    final Bitmap cached = hot.get(key);
     if (cached != null) {
-      Integer rotation = rotations.get(key);
-      if (rotation != null) {
-        file.setRotation(rotation);
-      }
+      restoreRotation(file, key);
     }
     if (ALLOW_REFERENCES && cached == null) {
       synchronized (counters) {
@@ -203,37 +277,99 @@ public class ImageCache {
     return cached;
   }
 
+  /**
+   * Returns downscaled copy of a bitmap that was previously evicted from the hot tier.
+   *
+   * Ownership of the returned bitmap is transferred to the caller,
+   * who should display it only until full-resolution bitmap is decoded.
+   */
+  @Nullable
+  public Bitmap takePreviewBitmap (ImageFile file) {
+    final long key = file.getCacheKey();
+    final Bitmap preview = warm.take(key);
+    if (U.isValidBitmap(preview)) {
+      restoreRotation(file, key);
+      return preview;
+    }
+    return null;
+  }
+
+  private void restoreRotation (ImageFile file, long key) {
+    final int rotation;
+    synchronized (counters) {
+      rotation = rotations.get(key);
+    }
+    if (rotation != 0) {
+      file.setRotation(rotation);
+    }
+  }
+
+  public void onTrimMemory (int level) {
+    final int hotPercentage;
+    final boolean dropWarm;
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+      hotPercentage = 0;
+      dropWarm = true;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+      hotPercentage = 25;
+      dropWarm = true;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      hotPercentage = 50;
+      dropWarm = true;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+      hotPercentage = 100;
+      dropWarm = true;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      hotPercentage = 25;
+      dropWarm = true;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      hotPercentage = 50;
+      dropWarm = true;
+    } else {
+      hotPercentage = 75;
+      dropWarm = false;
+    }
+    pressureUntil = SystemClock.elapsedRealtime() + PRESSURE_COOLDOWN_MS;
+    if (dropWarm) {
+      warm.evictAll();
+    } else {
+      warm.setMaxByteCount(warmTierBudget / 2);
+    }
+    hot.setMaxByteCount(hotTierBudget / 100 * hotPercentage);
+    ImageBitmapPool.instance().onTrimMemory(level);
+    if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.i(Log.TAG_IMAGE_LOADER, "onTrimMemory(%d): %s", level, this);
+    }
+  }
+
+  public static void trimMemory (int level) {
+    if (instance != null) {
+      instance.onTrimMemory(level);
+    }
+  }
+
   @Override
   @NonNull
   public String toString () {
-    return "ImageCache { counters = " + counters.size() + ", memcache = " + memcache.size() + " }";
+    return "ImageCache { counters = " + counters.size() + ", " + hot + ", " + warm + ", " + ImageBitmapPool.instance() + " }";
   }
 
   public void clear (boolean withMemcache) {
     synchronized (counters) {
       if (withMemcache) {
         counters.clear();
+        bitmapReferences.clear();
       }
     }
     if (withMemcache) {
-      memcache.evictAll();
+      hot.evictAll();
+      warm.evictAll();
+      ImageBitmapPool.instance().evictAll();
     }
   }
 
   public void clearForAccount (int accountId) {
-    synchronized (counters) {
-      final String prefix = "account" + accountId + "_";
-      /*U.removeByPrefix(counters, prefix);
-      U.removeByPrefix(rotations, prefix);
-      if (ALLOW_REFERENCES) {
-        U.removeByPrefix(references, prefix);
-      }*/
-      Set<String> snapshot = memcache.snapshot().keySet();
-      for (String key : snapshot) {
-        if (key.startsWith(prefix)) {
-          memcache.remove(key);
-        }
-      }
-    }
+    hot.removeAccount(accountId);
+    warm.removeAccount(accountId);
   }
 }
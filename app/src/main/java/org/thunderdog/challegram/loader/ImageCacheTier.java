@@ -0,0 +1,396 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 12:04
+ */
+package org.thunderdog.challegram.loader;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+import androidx.collection.SparseArrayCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Byte-budgeted LRU bitmap storage used by {@link ImageCache}.
+ *
+ * Entries are additionally partitioned by account, so that a single account
+ * cannot occupy more than its quota while other accounts have cached bitmaps,
+ * and so that all entries of an account can be dropped without walking the whole tier.
+ *
+ * Recency order is kept in intrusive linked lists, so lookups by {@link ImageKey} do not allocate.
+ */
+final class ImageCacheTier {
+  interface Callback {
+    void onEntryRemoved (ImageCacheTier tier, boolean evicted, long key, int accountId, Bitmap bitmap);
+  }
+
+  private static class Entry {
+    final long key;
+    final int accountId;
+    final Bitmap bitmap;
+    final int byteCount;
+
+    Entry prev, next;
+    Entry partitionPrev, partitionNext;
+
+    Entry (long key, int accountId, Bitmap bitmap) {
+      this.key = key;
+      this.accountId = accountId;
+      this.bitmap = bitmap;
+      this.byteCount = byteCount(bitmap);
+    }
+  }
+
+  private static class Partition {
+    Entry head, tail;
+    long byteCount;
+
+    void linkLast (Entry entry) {
+      entry.partitionPrev = tail;
+      entry.partitionNext = null;
+      if (tail != null) {
+        tail.partitionNext = entry;
+      } else {
+        head = entry;
+      }
+      tail = entry;
+      byteCount += entry.byteCount;
+    }
+
+    void unlink (Entry entry) {
+      if (entry.partitionPrev != null) {
+        entry.partitionPrev.partitionNext = entry.partitionNext;
+      } else {
+        head = entry.partitionNext;
+      }
+      if (entry.partitionNext != null) {
+        entry.partitionNext.partitionPrev = entry.partitionPrev;
+      } else {
+        tail = entry.partitionPrev;
+      }
+      entry.partitionPrev = entry.partitionNext = null;
+      byteCount -= entry.byteCount;
+    }
+
+    boolean isEmpty () {
+      return head == null;
+    }
+  }
+
+  private final String name;
+  private final Callback callback;
+  private final int accountQuotaPercentage;
+
+  private final LongSparseArray<Entry> entries = new LongSparseArray<>();
+  private final SparseArrayCompat<Partition> partitions = new SparseArrayCompat<>();
+  private Entry head, tail;
+
+  private long maxByteCount, byteCount;
+  private long hitCount, missCount, putCount, evictionCount;
+
+  ImageCacheTier (String name, long maxByteCount, int accountQuotaPercentage, Callback callback) {
+    this.name = name;
+    this.maxByteCount = maxByteCount;
+    this.accountQuotaPercentage = accountQuotaPercentage;
+    this.callback = callback;
+  }
+
+  public static int byteCount (@Nullable Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled())
+      return 1;
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+      return bitmap.getRowBytes() * bitmap.getHeight();
+    } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+      return bitmap.getByteCount();
+    } else {
+      return bitmap.getAllocationByteCount();
+    }
+  }
+
+  public String getName () {
+    return name;
+  }
+
+  @Nullable
+  public Bitmap get (long key) {
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        moveToLast(entry);
+        hitCount++;
+        return entry.bitmap;
+      }
+      missCount++;
+      return null;
+    }
+  }
+
+  public boolean contains (long key) {
+    synchronized (this) {
+      return entries.containsKey(key);
+    }
+  }
+
+  public void put (long key, int accountId, @NonNull Bitmap bitmap) {
+    Entry previous;
+    List<Entry> evicted;
+    synchronized (this) {
+      putCount++;
+      Entry entry = new Entry(key, accountId, bitmap);
+      previous = removeEntry(key);
+      entries.put(key, entry);
+      linkLast(entry);
+      evicted = trimLocked(maxByteCount, true, accountId);
+    }
+    if (previous != null && previous.bitmap != bitmap) {
+      callback.onEntryRemoved(this, false, previous.key, previous.accountId, previous.bitmap);
+    }
+    dispatchRemoved(evicted, true);
+  }
+
+  /**
+   * Removes entry without notifying {@link Callback}, the caller becomes responsible for the bitmap.
+   */
+  @Nullable
+  public Bitmap take (long key) {
+    synchronized (this) {
+      Entry entry = removeEntry(key);
+      if (entry != null) {
+        hitCount++;
+        return entry.bitmap;
+      }
+      missCount++;
+      return null;
+    }
+  }
+
+  public void remove (long key) {
+    Entry entry;
+    synchronized (this) {
+      entry = removeEntry(key);
+    }
+    if (entry != null) {
+      callback.onEntryRemoved(this, false, entry.key, entry.accountId, entry.bitmap);
+    }
+  }
+
+  public void removeAccount (int accountId) {
+    List<Entry> removed = null;
+    synchronized (this) {
+      Partition partition = partitions.get(accountId);
+      if (partition != null) {
+        removed = new ArrayList<>();
+        while (!partition.isEmpty()) {
+          Entry entry = partition.head;
+          removeEntry(entry.key);
+          removed.add(entry);
+        }
+      }
+    }
+    dispatchRemoved(removed, false);
+  }
+
+  public void evictAll () {
+    List<Entry> removed;
+    synchronized (this) {
+      removed = trimLocked(-1, false, 0);
+    }
+    dispatchRemoved(removed, false);
+  }
+
+  public void trimToSize (long maxByteCount) {
+    List<Entry> evicted;
+    synchronized (this) {
+      evicted = trimLocked(maxByteCount, false, 0);
+    }
+    dispatchRemoved(evicted, true);
+  }
+
+  public void setMaxByteCount (long maxByteCount) {
+    List<Entry> evicted;
+    synchronized (this) {
+      if (this.maxByteCount == maxByteCount)
+        return;
+      this.maxByteCount = maxByteCount;
+      evicted = trimLocked(maxByteCount, false, 0);
+    }
+    dispatchRemoved(evicted, true);
+  }
+
+  private void dispatchRemoved (@Nullable List<Entry> removed, boolean evicted) {
+    if (removed != null) {
+      for (Entry entry : removed) {
+        callback.onEntryRemoved(this, evicted, entry.key, entry.accountId, entry.bitmap);
+      }
+    }
+  }
+
+  private void linkLast (Entry entry) {
+    entry.prev = tail;
+    entry.next = null;
+    if (tail != null) {
+      tail.next = entry;
+    } else {
+      head = entry;
+    }
+    tail = entry;
+    byteCount += entry.byteCount;
+
+    Partition partition = partitions.get(entry.accountId);
+    if (partition == null) {
+      partition = new Partition();
+      partitions.put(entry.accountId, partition);
+    }
+    partition.linkLast(entry);
+  }
+
+  private void moveToLast (Entry entry) {
+    if (tail != entry) {
+      if (entry.prev != null) {
+        entry.prev.next = entry.next;
+      } else {
+        head = entry.next;
+      }
+      entry.next.prev = entry.prev;
+      entry.prev = tail;
+      entry.next = null;
+      tail.next = entry;
+      tail = entry;
+    }
+    Partition partition = partitions.get(entry.accountId);
+    if (partition != null && partition.tail != entry) {
+      partition.unlink(entry);
+      partition.linkLast(entry);
+    }
+  }
+
+  private void unlink (Entry entry) {
+    if (entry.prev != null) {
+      entry.prev.next = entry.next;
+    } else {
+      head = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    } else {
+      tail = entry.prev;
+    }
+    entry.prev = entry.next = null;
+    byteCount -= entry.byteCount;
+
+    Partition partition = partitions.get(entry.accountId);
+    if (partition != null) {
+      partition.unlink(entry);
+      if (partition.isEmpty()) {
+        partitions.remove(entry.accountId);
+      }
+    }
+  }
+
+  private Entry removeEntry (long key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      entries.remove(key);
+      unlink(entry);
+    }
+    return entry;
+  }
+
+  private List<Entry> trimLocked (long maxByteCount, boolean checkQuota, int accountId) {
+    List<Entry> evicted = null;
+    while (byteCount > maxByteCount && head != null) {
+      Entry eldest = head;
+      removeEntry(eldest.key);
+      evicted = addEvicted(evicted, eldest);
+    }
+    if (checkQuota && partitions.size() > 1) {
+      Partition partition = partitions.get(accountId);
+      long quota = maxByteCount / 100 * accountQuotaPercentage;
+      while (partition != null && partition.byteCount > quota && !partition.isEmpty()) {
+        Entry eldest = partition.head;
+        removeEntry(eldest.key);
+        evicted = addEvicted(evicted, eldest);
+      }
+    }
+    return evicted;
+  }
+
+  private List<Entry> addEvicted (@Nullable List<Entry> evicted, Entry entry) {
+    evictionCount++;
+    if (evicted == null) {
+      evicted = new ArrayList<>();
+    }
+    evicted.add(entry);
+    return evicted;
+  }
+
+  // Stats
+
+  public synchronized long getByteCount () {
+    return byteCount;
+  }
+
+  public synchronized long getMaxByteCount () {
+    return maxByteCount;
+  }
+
+  public synchronized int getEntryCount () {
+    return entries.size();
+  }
+
+  public synchronized long getAccountByteCount (int accountId) {
+    Partition partition = partitions.get(accountId);
+    return partition != null ? partition.byteCount : 0;
+  }
+
+  public synchronized long getHitCount () {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount () {
+    return missCount;
+  }
+
+  public synchronized long getPutCount () {
+    return putCount;
+  }
+
+  public synchronized long getEvictionCount () {
+    return evictionCount;
+  }
+
+  public synchronized void resetStats () {
+    hitCount = missCount = putCount = evictionCount = 0;
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    long accesses = hitCount + missCount;
+    int hitPercent = accesses != 0 ? (int) (100 * hitCount / accesses) : 0;
+    return String.format(Locale.US, "%s { %.2f/%.2f MiB, entries = %d, accounts = %d, hits = %d, misses = %d (%d%% hit rate), puts = %d, evictions = %d }",
+      name,
+      ByteUnit.BYTE.toMiB(byteCount), ByteUnit.BYTE.toMiB(maxByteCount),
+      entries.size(), partitions.size(),
+      hitCount, missCount, hitPercent, putCount, evictionCount
+    );
+  }
+}
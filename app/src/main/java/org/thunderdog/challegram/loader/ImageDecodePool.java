@@ -0,0 +1,253 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:20
+ */
+package org.thunderdog.challegram.loader;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LongSparseArray;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.util.PercentileSampler;
+
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.vkryl.core.MathUtils;
+
+/**
+ * Bounded pool of decoder threads used by {@link ImageReader}.
+ *
+ * Queued decodes are ordered by {@link ImageReader#PRIORITY_VISIBLE priority} and then by request order.
+ * Decodes of cancelled actors are dropped from the queue, and repeated requests for the same {@link ImageFile#getCacheKey() key}
+ * are merged into a single decode.
+ */
+final class ImageDecodePool {
+  private static final int STATS_LOG_INTERVAL = 200;
+
+  private static class Result implements ImageReader.Listener {
+    boolean isLoaded, success;
+    Bitmap bitmap;
+
+    @Override
+    public void onImageLoaded (boolean success, Bitmap result) {
+      this.isLoaded = true;
+      this.success = success;
+      this.bitmap = result;
+    }
+  }
+
+  private final class DecodeTask implements Runnable, Comparable<DecodeTask> {
+    final long key;
+    final long order;
+    int priority;
+    long enqueueTime;
+
+    ImageActor actor;
+    ImageFile file;
+    String path;
+    ImageReader.Listener listener;
+
+    // Request for the same key received while this task was being decoded for an already cancelled actor
+    DecodeTask successor;
+
+    DecodeTask (long key, long order, int priority) {
+      this.key = key;
+      this.order = order;
+      this.priority = priority;
+      this.enqueueTime = SystemClock.uptimeMillis();
+    }
+
+    void set (ImageActor actor, ImageFile file, String path, ImageReader.Listener listener) {
+      this.actor = actor;
+      this.file = file;
+      this.path = path;
+      this.listener = listener;
+    }
+
+    @Override
+    public int compareTo (DecodeTask other) {
+      if (priority != other.priority) {
+        return Integer.compare(priority, other.priority);
+      }
+      return Long.compare(order, other.order);
+    }
+
+    @Override
+    public void run () {
+      runTask(this);
+    }
+  }
+
+  private final int threadCount;
+  private final ThreadPoolExecutor executor;
+  private final LongSparseArray<DecodeTask> pendingTasks = new LongSparseArray<>();
+  private final LongSparseArray<DecodeTask> runningTasks = new LongSparseArray<>();
+  private long order;
+
+  private final PercentileSampler decodeTime = new PercentileSampler("decode_ms", 256);
+  private final PercentileSampler waitTime = new PercentileSampler("wait_ms", 256);
+  private final PercentileSampler queueDepth = new PercentileSampler("queue_depth", 256);
+
+  ImageDecodePool () {
+    this.threadCount = MathUtils.clamp(Runtime.getRuntime().availableProcessors() - 1, 2, 6);
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r ->
+      new Thread(r, "ImageDecodeThread#" + threadNumber.incrementAndGet())
+    );
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  public void submit (ImageActor actor, ImageFile file, String path, ImageReader.Listener listener, int priority) {
+    final long key = file.getCacheKey();
+    DecodeTask task;
+    synchronized (this) {
+      DecodeTask pendingTask = pendingTasks.get(key);
+      if (pendingTask != null && (pendingTask.actor == actor || pendingTask.actor.isCancelled())) {
+        pendingTask.set(actor, file, path, listener);
+        if (priority < pendingTask.priority && executor.remove(pendingTask)) {
+          pendingTask.priority = priority;
+          executor.execute(pendingTask);
+        }
+        if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+          Log.v(Log.TAG_IMAGE_LOADER, "#%s: merged with queued decode", file.toString());
+        }
+        return;
+      }
+      task = new DecodeTask(key, ++order, priority);
+      task.set(actor, file, path, listener);
+      DecodeTask runningTask = runningTasks.get(key);
+      if (runningTask != null && runningTask.successor == null && runningTask.actor.isCancelled()) {
+        runningTask.successor = task;
+        if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+          Log.v(Log.TAG_IMAGE_LOADER, "#%s: waiting for running decode", file.toString());
+        }
+        return;
+      }
+      if (pendingTask == null) {
+        pendingTasks.put(key, task);
+      }
+      queueDepth.add(executor.getQueue().size());
+    }
+    executor.execute(task);
+  }
+
+  public void updatePriority (ImageActor actor, ImageFile file, int priority) {
+    synchronized (this) {
+      DecodeTask pendingTask = pendingTasks.get(file.getCacheKey());
+      if (pendingTask != null && pendingTask.actor == actor && priority < pendingTask.priority && executor.remove(pendingTask)) {
+        pendingTask.priority = priority;
+        executor.execute(pendingTask);
+      }
+    }
+  }
+
+  public void cancel (ImageActor actor, ImageFile file) {
+    final long key = file.getCacheKey();
+    synchronized (this) {
+      DecodeTask pendingTask = pendingTasks.get(key);
+      if (pendingTask != null && pendingTask.actor == actor) {
+        pendingTasks.remove(key);
+        executor.remove(pendingTask);
+      }
+      DecodeTask runningTask = runningTasks.get(key);
+      if (runningTask != null && runningTask.successor != null && runningTask.successor.actor == actor) {
+        runningTask.successor = null;
+      }
+    }
+  }
+
+  private void runTask (DecodeTask task) {
+    final ImageActor actor;
+    final ImageFile file;
+    final String path;
+    final ImageReader.Listener listener;
+    synchronized (this) {
+      if (pendingTasks.get(task.key) == task) {
+        pendingTasks.remove(task.key);
+      }
+      actor = task.actor;
+      file = task.file;
+      path = task.path;
+      listener = task.listener;
+      if (actor.isCancelled()) {
+        return;
+      }
+      if (runningTasks.get(task.key) == null) {
+        runningTasks.put(task.key, task);
+      }
+    }
+
+    final long startTime = SystemClock.uptimeMillis();
+    waitTime.add(startTime - task.enqueueTime);
+
+    Result result = new Result();
+    try {
+      ImageReader.instance().decode(actor, file, path, result);
+    } catch (Throwable t) {
+      Log.e(Log.TAG_IMAGE_LOADER, "#%s: decode failed", t, file.toString());
+      result.onImageLoaded(false, null);
+    }
+
+    decodeTime.add(SystemClock.uptimeMillis() - startTime);
+    if (decodeTime.getTotalCount() % STATS_LOG_INTERVAL == 0 && Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.i(Log.TAG_IMAGE_LOADER, "%s", toString());
+    }
+
+    DecodeTask successor;
+    synchronized (this) {
+      if (runningTasks.get(task.key) == task) {
+        runningTasks.remove(task.key);
+      }
+      successor = task.successor;
+      task.successor = null;
+    }
+
+    if (successor != null) {
+      if (result.isLoaded && result.success) {
+        // Receiver that requested the image has gone while decoding, but another one requested the same image
+        if (successor.file != file && successor.file.getRotation() != file.getRotation()) {
+          successor.file.setRotation(file.getRotation());
+        }
+        successor.listener.onImageLoaded(true, result.bitmap);
+      } else {
+        if (result.isLoaded && result.bitmap != null) {
+          result.bitmap.recycle();
+        }
+        submit(successor.actor, successor.file, successor.path, successor.listener, successor.priority);
+      }
+    } else if (result.isLoaded) {
+      listener.onImageLoaded(result.success, result.bitmap);
+    }
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    int pendingCount, runningCount;
+    synchronized (this) {
+      pendingCount = pendingTasks.size();
+      runningCount = runningTasks.size();
+    }
+    return String.format(Locale.US, "ImageDecodePool { threads = %d, queued = %d, running = %d, %s, %s, %s }",
+      threadCount, pendingCount, runningCount,
+      decodeTime, waitTime, queueDepth
+    );
+  }
+}
@@ -0,0 +1,421 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 18:02
+ */
+package org.thunderdog.challegram.loader;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityManagerCompat;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.U;
+import org.thunderdog.challegram.core.BaseThread;
+import org.thunderdog.challegram.tool.UI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Persistent cache of already downscaled images, stored as JPEG (or PNG, when image has alpha),
+ * so that previews can be displayed after app restart with a single small read and without decoding originals.
+ *
+ * Entries are keyed by {@link TdApi.RemoteFile#uniqueId}, which, unlike file identifiers, stays the same across restarts,
+ * and by the same decode parameters that are part of {@link ImageFile} key. Entries are removed in LRU order
+ * once cache exceeds its size limit, and whenever TDLib reports that the source file is no longer available.
+ */
+public final class ImageDiskCache {
+  private static ImageDiskCache instance;
+
+  public static ImageDiskCache instance () {
+    if (instance == null) {
+      synchronized (ImageDiskCache.class) {
+        if (instance == null) {
+          instance = new ImageDiskCache();
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static final int MAGIC = 0x54475854; // TGXT
+  private static final int VERSION = 2;
+  private static final int JPEG_QUALITY = 87;
+  private static final int HEADER_SIZE = 32;
+
+  private static final int CONFIG_ARGB_8888 = 0;
+  private static final int CONFIG_RGB_565 = 1;
+
+  /**
+   * Only images requested in sizes up to this one are cached: these are previews, for which decoding original is the most wasteful.
+   */
+  private static final int MAX_IMAGE_SIZE = 320;
+
+  private final File directory;
+  private final long maxByteCount;
+  private final BaseThread writeThread;
+
+  // File name -> size in bytes, in access order
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, .75f, true);
+  // Source prefix -> number of cached variants, allows ignoring invalidation of files that were never cached
+  private final HashMap<String, Integer> sourceCounts = new HashMap<>();
+  private boolean isLoaded;
+  private long byteCount;
+  private long hitCount, missCount;
+
+  private final ThreadLocal<byte[]> readBuffer = new ThreadLocal<>();
+
+  private ImageDiskCache () {
+    this.directory = new File(UI.getAppContext().getCacheDir(), "image_thumbs");
+    ActivityManager am = (ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+    this.maxByteCount = ByteUnit.MIB.toBytes(ActivityManagerCompat.isLowRamDevice(am) ? 16 : 64);
+    this.writeThread = new BaseThread("ImageDiskCacheThread");
+  }
+
+  public static boolean isSupported (ImageFile file) {
+    if (file.getClass() != ImageFile.class && !(file instanceof ImageFileRemote)) {
+      // Local, gallery, generated and other custom files are cheap to decode or not persistent
+      return false;
+    }
+    final int size = file.getSize();
+    if (size <= 0 || size > MAX_IMAGE_SIZE || !file.shouldBeCached() || file.isPrivate() || file.isVector() || file.isContentUri() || file.getBytes() != null) {
+      return false;
+    }
+    final TdApi.File rawFile = file.getFile();
+    return rawFile != null && rawFile.remote != null && !StringUtils.isEmpty(rawFile.remote.uniqueId);
+  }
+
+  private static String getSourcePrefix (String uniqueId) {
+    return Long.toHexString(ImageKey.hash(uniqueId) & Long.MAX_VALUE) + "_";
+  }
+
+  private static String getFileName (ImageFile file) {
+    int variant = file.getSize();
+    if (file.needDecodeSquare()) {
+      variant |= 1 << 16;
+    }
+    if (file.isSwOnly()) {
+      variant |= 1 << 17;
+    }
+    return getSourcePrefix(file.getFile().remote.uniqueId) + Integer.toHexString(variant);
+  }
+
+  private void ensureLoadedLocked () {
+    if (isLoaded) {
+      return;
+    }
+    isLoaded = true;
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+    for (File file : files) {
+      if (file.getName().endsWith(".tmp")) {
+        file.delete();
+        continue;
+      }
+      putEntryLocked(file.getName(), file.length());
+    }
+  }
+
+  private static String getFileNamePrefix (String name) {
+    return name.substring(0, name.indexOf('_') + 1);
+  }
+
+  private void putEntryLocked (String name, long size) {
+    Long previousSize = entries.put(name, size);
+    if (previousSize != null) {
+      byteCount -= previousSize;
+    } else {
+      String prefix = getFileNamePrefix(name);
+      Integer count = sourceCounts.get(prefix);
+      sourceCounts.put(prefix, count != null ? count + 1 : 1);
+    }
+    byteCount += size;
+  }
+
+  private void onEntryRemovedLocked (String name, long size) {
+    byteCount -= size;
+    String prefix = getFileNamePrefix(name);
+    Integer count = sourceCounts.get(prefix);
+    if (count == null || count <= 1) {
+      sourceCounts.remove(prefix);
+    } else {
+      sourceCounts.put(prefix, count - 1);
+    }
+  }
+
+  @Nullable
+  public Bitmap get (ImageFile file) {
+    final String name = getFileName(file);
+    synchronized (this) {
+      ensureLoadedLocked();
+      if (entries.get(name) == null) {
+        missCount++;
+        return null;
+      }
+    }
+    Bitmap bitmap = null;
+    try (RandomAccessFile f = new RandomAccessFile(new File(directory, name), "r")) {
+      final int length = (int) f.length();
+      byte[] data = readBuffer.get();
+      if (data == null || data.length < length) {
+        readBuffer.set(data = new byte[length]);
+      }
+      f.readFully(data, 0, length);
+      ByteBuffer buffer = ByteBuffer.wrap(data, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IllegalStateException("Unknown format");
+      }
+      final int width = buffer.getInt();
+      final int height = buffer.getInt();
+      final Bitmap.Config config = buffer.getInt() == CONFIG_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+      final int rotation = buffer.getInt();
+      final long sourceSize = buffer.getLong();
+      if (sourceSize != file.getFile().size) {
+        throw new IllegalStateException("Source file changed");
+      }
+      bitmap = decode(data, length, width, height, config);
+      if (bitmap == null) {
+        throw new IllegalStateException("Cannot decode entry");
+      }
+      if (rotation != 0) {
+        file.setRotation(rotation);
+      }
+    } catch (Throwable t) {
+      Log.w(Log.TAG_IMAGE_LOADER, "#%s: cannot read disk cache entry", t, file.toString());
+      if (bitmap != null) {
+        ImageBitmapPool.instance().release(bitmap);
+        bitmap = null;
+      }
+      remove(name);
+    }
+    synchronized (this) {
+      if (bitmap != null) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+    }
+    if (bitmap != null && Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
+      Log.v(Log.TAG_IMAGE_LOADER, "#%s: loaded from disk cache, %dx%d", file.toString(), bitmap.getWidth(), bitmap.getHeight());
+    }
+    return bitmap;
+  }
+
+  @Nullable
+  private static Bitmap decode (byte[] data, int length, int width, int height, Bitmap.Config config) {
+    BitmapFactory.Options opts = new BitmapFactory.Options();
+    opts.outWidth = width;
+    opts.outHeight = height;
+    opts.inSampleSize = 1;
+    opts.inPreferredConfig = config;
+    if (ImageBitmapPool.instance().obtainInBitmap(opts)) {
+      Bitmap bitmap = null;
+      try {
+        bitmap = BitmapFactory.decodeByteArray(data, HEADER_SIZE, length - HEADER_SIZE, opts);
+      } catch (IllegalArgumentException e) {
+        Log.w(Log.TAG_IMAGE_LOADER, "Cannot reuse bitmap", e);
+      }
+      if (bitmap != null) {
+        return bitmap;
+      }
+      ImageBitmapPool.instance().onInBitmapRejected(opts);
+    }
+    return BitmapFactory.decodeByteArray(data, HEADER_SIZE, length - HEADER_SIZE, opts);
+  }
+
+  /**
+   * Copies the decoded image and schedules compressing and writing it to disk.
+   */
+  public void put (ImageFile file, Bitmap bitmap) {
+    final int config;
+    if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+      config = CONFIG_ARGB_8888;
+    } else if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+      config = CONFIG_RGB_565;
+    } else {
+      return;
+    }
+    final String name = getFileName(file);
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(bitmap.getWidth());
+    header.putInt(bitmap.getHeight());
+    header.putInt(config);
+    header.putInt(file.getRotation());
+    header.putLong(file.getFile().size);
+    final Bitmap copy;
+    try {
+      // Bitmap may be reused by ImageBitmapPool before it is compressed
+      copy = bitmap.copy(bitmap.getConfig(), false);
+    } catch (Throwable t) {
+      Log.w(Log.TAG_IMAGE_LOADER, "#%s: cannot copy bitmap for disk cache", t, file.toString());
+      return;
+    }
+    if (copy == null) {
+      return;
+    }
+    writeThread.post(() -> {
+      byte[] data = compress(header.array(), copy);
+      U.recycle(copy);
+      if (data != null) {
+        write(name, data);
+      }
+    }, 0);
+  }
+
+  @Nullable
+  private static byte[] compress (byte[] header, Bitmap bitmap) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + bitmap.getWidth() * bitmap.getHeight() / 4);
+    out.write(header, 0, header.length);
+    final boolean hasAlpha = bitmap.getConfig() != Bitmap.Config.RGB_565 && bitmap.hasAlpha();
+    try {
+      if (!bitmap.compress(hasAlpha ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+        return null;
+      }
+    } catch (Throwable t) {
+      Log.w(Log.TAG_IMAGE_LOADER, "Cannot compress disk cache entry", t);
+      return null;
+    }
+    return out.toByteArray();
+  }
+
+  private void write (String name, byte[] data) {
+    if (!directory.exists() && !directory.mkdirs()) {
+      return;
+    }
+    File tempFile = new File(directory, name + ".tmp");
+    File targetFile = new File(directory, name);
+    try (FileOutputStream out = new FileOutputStream(tempFile)) {
+      out.write(data);
+    } catch (Throwable t) {
+      Log.w(Log.TAG_IMAGE_LOADER, "Cannot write disk cache entry", t);
+      tempFile.delete();
+      return;
+    }
+    if (!tempFile.renameTo(targetFile)) {
+      tempFile.delete();
+      return;
+    }
+    ArrayList<String> evicted = null;
+    synchronized (this) {
+      ensureLoadedLocked();
+      putEntryLocked(name, data.length);
+      Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+      while (byteCount > maxByteCount && it.hasNext()) {
+        Map.Entry<String, Long> entry = it.next();
+        if (entry.getKey().equals(name)) {
+          continue;
+        }
+        it.remove();
+        onEntryRemovedLocked(entry.getKey(), entry.getValue());
+        if (evicted == null) {
+          evicted = new ArrayList<>();
+        }
+        evicted.add(entry.getKey());
+      }
+    }
+    if (evicted != null) {
+      for (String evictedName : evicted) {
+        new File(directory, evictedName).delete();
+      }
+    }
+  }
+
+  private void remove (String name) {
+    synchronized (this) {
+      Long size = entries.remove(name);
+      if (size == null) {
+        return;
+      }
+      onEntryRemovedLocked(name, size);
+    }
+    writeThread.post(() -> new File(directory, name).delete(), 0);
+  }
+
+  /**
+   * Removes all cached variants of the file, e.g. when it was deleted by TDLib.
+   */
+  public void invalidate (@Nullable String uniqueId) {
+    if (StringUtils.isEmpty(uniqueId)) {
+      return;
+    }
+    final String prefix = getSourcePrefix(uniqueId);
+    synchronized (this) {
+      if (isLoaded && !sourceCounts.containsKey(prefix)) {
+        return;
+      }
+    }
+    writeThread.post(() -> {
+      ArrayList<String> removed = null;
+      synchronized (this) {
+        ensureLoadedLocked();
+        if (!sourceCounts.containsKey(prefix)) {
+          return;
+        }
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<String, Long> entry = it.next();
+          if (entry.getKey().startsWith(prefix)) {
+            it.remove();
+            onEntryRemovedLocked(entry.getKey(), entry.getValue());
+            if (removed == null) {
+              removed = new ArrayList<>();
+            }
+            removed.add(entry.getKey());
+          }
+        }
+      }
+      if (removed != null) {
+        for (String name : removed) {
+          new File(directory, name).delete();
+        }
+      }
+    }, 0);
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    long requests = hitCount + missCount;
+    int hitPercent = requests != 0 ? (int) (100 * hitCount / requests) : 0;
+    return String.format(Locale.US, "ImageDiskCache { %.2f/%.2f MiB, entries = %d, hits = %d, misses = %d (%d%% hit rate) }",
+      ByteUnit.BYTE.toMiB(byteCount), ByteUnit.BYTE.toMiB(maxByteCount),
+      entries.size(),
+      hitCount, missCount, hitPercent
+    );
+  }
+}
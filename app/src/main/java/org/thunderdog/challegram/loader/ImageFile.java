@@ -80,6 +80,8 @@ public class ImageFile {
   private int size, blurRadius, scaleType;
   private int flags;
   protected String key;
+  private long cacheKey;
+  private boolean hasCacheKey;
 
   protected final byte[] bytes;
 
@@ -387,12 +389,23 @@ public class ImageFile {
 
   @Override
   public final int hashCode () {
-    return toString().hashCode();
+    return ImageKey.hashCode(getCacheKey());
   }
 
   @Override
   public boolean equals (Object object) {
-    return object instanceof ImageFile && toString().equals(object.toString());
+    if (this == object) {
+      return true;
+    }
+    if (!(object instanceof ImageFile)) {
+      return false;
+    }
+    final long cacheKey = getCacheKey();
+    if (cacheKey != ((ImageFile) object).getCacheKey()) {
+      return false;
+    }
+    // Packed keys hold all fields of the string key, hashed ones may collide
+    return !ImageKey.isHashed(cacheKey) || toString().equals(object.toString());
   }
 
   protected final StringBuilder buildStandardKey (StringBuilder b) {
@@ -415,6 +428,33 @@ public class ImageFile {
     return buildStandardKey(new StringBuilder()).toString();
   }
 
+  /**
+   * Must be overridden along with {@link #buildImageKey()},
+   * so that cache key changes whenever string key does.
+   */
+  protected long buildCacheKey () {
+    final int accountId = accountId();
+    if (!ImageKey.canPack(accountId, size)) {
+      return ImageKey.hash(toString());
+    }
+    int keyFlags = 0;
+    if ((flags & FLAG_DECODE_SQUARE) != 0) {
+      keyFlags |= ImageKey.FLAG_SQUARE;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && (flags & FLAG_FORCE_SW_RENDER) != 0) {
+      keyFlags |= ImageKey.FLAG_SW;
+    }
+    return ImageKey.pack(accountId, Td.getId(file), size, keyFlags);
+  }
+
+  public final long getCacheKey () {
+    if (!hasCacheKey) {
+      cacheKey = buildCacheKey();
+      hasCacheKey = true;
+    }
+    return cacheKey;
+  }
+
   @Override
   @NonNull
   public final String toString () {
@@ -425,23 +465,23 @@ public class ImageFile {
     return TYPE_BASIC;
   }
 
-  static String getFileLoadKey (int accountId, int fileId) {
-    return accountId + "_" + fileId;
+  static long getFileLoadKey (int accountId, int fileId) {
+    return ImageKey.fileLoadKey(accountId, fileId);
   }
 
-  static String getFileLoadKey (Tdlib tdlib, int fileId) {
+  static long getFileLoadKey (Tdlib tdlib, int fileId) {
     return getFileLoadKey(tdlib != null ? tdlib.id() : TdlibAccount.NO_ID, fileId);
   }
 
-  static String getFileLoadKey (int accountId, String remoteFileId) {
-    return accountId + "_" + remoteFileId;
+  static long getFileLoadKey (int accountId, String remoteFileId) {
+    return ImageKey.fileLoadKey(accountId, remoteFileId);
   }
 
-  static String getFileLoadKey (Tdlib tdlib, String remoteFileId) {
+  static long getFileLoadKey (Tdlib tdlib, String remoteFileId) {
     return getFileLoadKey(tdlib != null ? tdlib.id() : TdlibAccount.NO_ID, remoteFileId);
   }
 
-  public String getFileLoadKey () {
+  public long getFileLoadKey () {
     return getFileLoadKey(accountId(), file.id);
   }
 
@@ -534,6 +574,7 @@ public class ImageFile {
 
   public void notifyChanged () {
     this.key = null;
+    this.hasCacheKey = false;
     if (changeListeners != null) {
       for (ChangeListener listener : changeListeners) {
         listener.onImageChanged(this);
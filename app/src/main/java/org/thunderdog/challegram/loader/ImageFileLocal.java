@@ -81,6 +81,11 @@ public class ImageFileLocal extends ImageFile {
     return (needDecodeSquare() ? path + "?square" : path) + "_" + getSize();
   }
 
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
+
   @Override
   public byte getType () {
     return TYPE_LOCAL;
@@ -56,7 +56,7 @@ public class ImageFileRemote extends ImageFile {
   }
 
   @Override
-  public final String getFileLoadKey () {
+  public final long getFileLoadKey () {
     return ImageFile.getFileLoadKey(accountId(), forceRemoteId != null ? forceRemoteId : file.remote.id);
   }
 
@@ -66,7 +66,12 @@ public class ImageFileRemote extends ImageFile {
 
   @Override
   protected String buildImageKey () {
-    return getFileLoadKey() + (needDecodeSquare() ? "_square" : "");
+    return accountId() + "_" + (forceRemoteId != null ? forceRemoteId : file.remote.id) + (needDecodeSquare() ? "_square" : "");
+  }
+
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
   }
 
   @Override
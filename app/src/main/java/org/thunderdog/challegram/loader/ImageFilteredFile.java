@@ -71,4 +71,9 @@ public class ImageFilteredFile extends ImageFile {
   protected String buildImageKey () {
     return "filtered_" + filterSessionId;
   }
+
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
 }
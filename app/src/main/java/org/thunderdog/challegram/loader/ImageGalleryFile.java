@@ -382,6 +382,11 @@ public class ImageGalleryFile extends ImageFile implements Comparable<ImageGalle
     return file.local.path + "?" + (startTimeUs > 0 ? startTimeUs : "") + (needThumb() ? "thumb" + id : "");
   }
 
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
+
   public int getVisualRotationWithCropRotation () {
     CropState cropState = getCropState();
     if (cropState != null) {
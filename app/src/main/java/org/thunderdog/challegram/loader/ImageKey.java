@@ -0,0 +1,96 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 14:20
+ */
+package org.thunderdog.challegram.loader;
+
+import org.thunderdog.challegram.telegram.TdlibAccount;
+
+/**
+ * 64-bit keys used by image and gif loaders instead of string keys.
+ *
+ * Layout of packed keys (sign bit is not set):
+ * bits 56..62: account id + 1 ({@link TdlibAccount#NO_ID} is stored as 0),
+ * bits 24..55: file id,
+ * bits 8..23: requested size,
+ * bits 0..7: key flags.
+ *
+ * Keys that cannot be packed (e.g. ones that include local paths) are represented
+ * by 63-bit hash of their string form with the sign bit set, so they never collide with packed keys.
+ *
+ * File load keys store account id + 1 in bits 47..62 and either file id,
+ * or 47-bit hash of remote file id with the sign bit set.
+ */
+public final class ImageKey {
+  private ImageKey () { }
+
+  public static final int FLAG_SQUARE = 1;
+  public static final int FLAG_SW = 1 << 1;
+
+  private static final long HASHED_BIT = 1L << 63;
+  private static final int ACCOUNT_SHIFT = 56;
+  private static final long ACCOUNT_MASK = 0x7fL;
+  private static final int LOAD_ACCOUNT_SHIFT = 47;
+  private static final long LOAD_ACCOUNT_MASK = 0xffffL;
+  private static final long LOAD_HASH_MASK = (1L << LOAD_ACCOUNT_SHIFT) - 1;
+  private static final int MAX_SIZE = 0xffff;
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  public static boolean canPack (int accountId, int size) {
+    return accountId >= TdlibAccount.NO_ID && accountId < ACCOUNT_MASK && size >= 0 && size <= MAX_SIZE;
+  }
+
+  public static long pack (int accountId, int fileId, int size, int flags) {
+    return ((long) (accountId + 1) << ACCOUNT_SHIFT) |
+      (((long) fileId & 0xffffffffL) << 24) |
+      ((long) (size & MAX_SIZE) << 8) |
+      (flags & 0xff);
+  }
+
+  public static long hash (String key) {
+    long hash = FNV_OFFSET_BASIS;
+    final int length = key.length();
+    for (int i = 0; i < length; i++) {
+      hash ^= key.charAt(i);
+      hash *= FNV_PRIME;
+    }
+    return hash | HASHED_BIT;
+  }
+
+  /**
+   * @return Whether key is a hash of the string key, so two different keys may share it.
+   */
+  public static boolean isHashed (long key) {
+    return (key & HASHED_BIT) != 0;
+  }
+
+  // File load keys
+
+  public static long fileLoadKey (int accountId, int fileId) {
+    return (((long) (accountId + 1) & LOAD_ACCOUNT_MASK) << LOAD_ACCOUNT_SHIFT) | ((long) fileId & 0xffffffffL);
+  }
+
+  public static long fileLoadKey (int accountId, String remoteFileId) {
+    return HASHED_BIT | (((long) (accountId + 1) & LOAD_ACCOUNT_MASK) << LOAD_ACCOUNT_SHIFT) | (hash(remoteFileId) & LOAD_HASH_MASK);
+  }
+
+  public static int fileLoadKeyAccountId (long fileLoadKey) {
+    return (int) ((fileLoadKey >>> LOAD_ACCOUNT_SHIFT) & LOAD_ACCOUNT_MASK) - 1;
+  }
+
+  public static int hashCode (long key) {
+    return (int) (key ^ (key >>> 32));
+  }
+}
@@ -18,6 +18,7 @@ import android.graphics.Bitmap;
 
 import androidx.annotation.Keep;
 import androidx.collection.ArraySet;
+import androidx.collection.LongSparseArray;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.Log;
@@ -28,12 +29,11 @@ import org.thunderdog.challegram.telegram.TdlibAccount;
 import org.thunderdog.challegram.telegram.TdlibFilesManager;
 import org.thunderdog.challegram.tool.UI;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import me.vkryl.core.collection.LongList;
+
 public class ImageLoader {
   private static ImageLoader instance;
 
@@ -46,8 +46,8 @@ public class ImageLoader {
 
   private final ImageThread thread = new ImageThread();
 
-  private final HashMap<String, ImageWatchers> watchers = new HashMap<>();
-  private final HashMap<String, ArrayList<String>> workers = new HashMap<>();
+  private final LongSparseArray<ImageWatchers> watchers = new LongSparseArray<>();
+  private final LongSparseArray<LongList> workers = new LongSparseArray<>();
 
   private ImageLoader () {
     ImageCache.instance();
@@ -82,36 +82,38 @@ public class ImageLoader {
       Log.d(Log.TAG_IMAGE_LOADER, "#%s: requestFile called: type: %s, %s", file.toString(), file.getClass().getSimpleName(), file.getFilePath());
     }
 
+    final long key = file.getCacheKey();
     ImageWatchers record;
 
     synchronized (watchers) {
-      record = watchers.get(file.toString());
+      record = watchers.get(key);
     }
 
     if (record == null) {
       ImageActor actor = new ImageActor(file);
+      actor.raiseDecodePriority(reference.getDecodePriority());
       record = new ImageWatchers(file, actor, reference);
       synchronized (watchers) {
-        watchers.put(file.toString(), record);
+        watchers.put(key, record);
       }
       if (actor.act()) {
         synchronized (watchers) {
           final int fileId = file.getId();
           final Tdlib tdlib = file.tdlib();
           final boolean isPersistent = file instanceof ImageFileRemote;
-          final String cacheKey = file.getFileLoadKey();
+          final long loadKey = file.getFileLoadKey();
 
-          ArrayList<String> actors = workers.get(cacheKey);
+          LongList actors = workers.get(loadKey);
 
           if (actors == null) {
-            actors = new ArrayList<>();
-            actors.add(file.toString());
+            actors = new LongList(2);
+            actors.append(key);
 
             if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
               Log.v(Log.TAG_IMAGE_LOADER, "#%s: loading from remote", file.toString());
             }
 
-            workers.put(cacheKey, actors);
+            workers.put(loadKey, actors);
 
             if (isPersistent) {
               ((ImageFileRemote) file).extractFile(object -> {
@@ -132,11 +134,11 @@ public class ImageLoader {
               }
             }
           } else {
-            if (!actors.contains(file.toString())) {
+            if (!actors.contains(key)) {
               if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
                 Log.v(Log.TAG_IMAGE_LOADER, "#%s: another actor added to the loading list, total: %d", file.toString(), actors.size() + 1);
               }
-              actors.add(file.toString());
+              actors.append(key);
             }
           }
         }
@@ -146,7 +148,9 @@ public class ImageLoader {
         if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
           Log.v(Log.TAG_IMAGE_LOADER, "#%s: another watcher joined same actor, total: %d", file.toString(), watchers.size() + 1);
         }
-        record.addWatcher(reference);
+        if (record.addWatcher(reference)) {
+          record.getActor().raiseDecodePriority(reference.getDecodePriority());
+        }
       }
     }
   }
@@ -160,7 +164,7 @@ public class ImageLoader {
     Tdlib tdlib = persistentFile.tdlib();
 
     synchronized (watchers) {
-      ArrayList<String> actors = workers.get(persistentFile.getFileLoadKey());
+      LongList actors = workers.get(persistentFile.getFileLoadKey());
       if (actors != null && !actors.isEmpty()) {
         workers.put(ImageFile.getFileLoadKey(tdlib, file.id), actors);
       }
@@ -192,26 +196,28 @@ public class ImageLoader {
     }
 
     synchronized (watchers) {
-      ArrayList<String> itemsToRemove = null;
-      Set<Map.Entry<String, ImageWatchers>> entrySet = watchers.entrySet();
+      LongList itemsToRemove = null;
 
-      for (Map.Entry<String, ImageWatchers> entry : entrySet) {
-        ImageWatchers record = entry.getValue();
+      final int size = watchers.size();
+      for (int i = 0; i < size; i++) {
+        ImageWatchers record = watchers.valueAt(i);
 
         if (record.removeWatcher(reference) && !record.hasWatchers()) {
           if (itemsToRemove == null) {
-            itemsToRemove = new ArrayList<>();
+            itemsToRemove = new LongList(1);
           }
 
-          itemsToRemove.add(entry.getKey());
+          itemsToRemove.append(watchers.keyAt(i));
         }
       }
 
       if (itemsToRemove != null) {
-        for (String item : itemsToRemove) {
-          ImageWatchers record = watchers.remove(item);
+        for (int i = 0; i < itemsToRemove.size(); i++) {
+          final long item = itemsToRemove.get(i);
+          ImageWatchers record = watchers.get(item);
 
           if (record != null) {
+            watchers.remove(item);
             record.getActor().cancel();
 
             final ImageFile file = record.getFile();
@@ -220,10 +226,10 @@ public class ImageLoader {
               continue;
             }
             final boolean isPersistent = file instanceof ImageFileRemote;
-            final String cacheKey = file.getFileLoadKey();
-            final ArrayList<String> actors = workers.get(cacheKey);
+            final long loadKey = file.getFileLoadKey();
+            final LongList actors = workers.get(loadKey);
             if (actors != null && actors.remove(item) && actors.isEmpty()) {
-              workers.remove(cacheKey);
+              workers.remove(loadKey);
               if (isPersistent && ((ImageFileRemote) file).isRemoteFileReady()) {
                 workers.remove(ImageFile.getFileLoadKey(tdlib, file.getId()));
               }
@@ -241,11 +247,9 @@ public class ImageLoader {
     boolean found = false;
 
     synchronized (watchers) {
-      String cacheKey = ImageFile.getFileLoadKey(tdlib, file.id);
-      ArrayList<String> actors = workers.get(cacheKey); // remoteFiles.get(file.id) != null ? loadingRemoteFiles.get(file.remote.id) : loadingFiles.get(file.id);
+      LongList actors = workers.get(ImageFile.getFileLoadKey(tdlib, file.id)); // remoteFiles.get(file.id) != null ? loadingRemoteFiles.get(file.remote.id) : loadingFiles.get(file.id);
       if (actors == null) {
-        cacheKey = ImageFile.getFileLoadKey(tdlib, file.remote.id);
-        actors = workers.get(cacheKey);
+        actors = workers.get(ImageFile.getFileLoadKey(tdlib, file.remote.id));
       }
 
       if (actors == null) {
@@ -254,8 +258,8 @@ public class ImageLoader {
 
       float progress = TD.getFileProgress(file);
 
-      for (String actor : actors) {
-        ImageWatchers record = watchers.get(actor);
+      for (int i = 0; i < actors.size(); i++) {
+        ImageWatchers record = watchers.get(actors.get(i));
         if (record != null) {
           record.getFile().updateFile(file);
           record.getActor().onProgress(file);
@@ -282,14 +286,14 @@ public class ImageLoader {
     boolean found = false;
 
     synchronized (watchers) {
-      ArrayList<String> actors = workers.get(ImageFile.getFileLoadKey(tdlib, file.id));
+      LongList actors = workers.get(ImageFile.getFileLoadKey(tdlib, file.id));
       if (actors == null) {
         actors = workers.get(ImageFile.getFileLoadKey(tdlib, file.remote.id));
       }
 
       if (actors != null) {
-        for (String actor : actors) {
-          ImageWatchers record = watchers.get(actor);
+        for (int i = 0; i < actors.size(); i++) {
+          ImageWatchers record = watchers.get(actors.get(i));
           if (record != null) {
             thread.onLoad(record.getActor(), file);
             found = true;
@@ -315,8 +319,10 @@ public class ImageLoader {
       return;
     }
 
+    final long key = file.getCacheKey();
+
     synchronized (watchers) {
-      ImageWatchers record = watchers.get(file.toString());
+      ImageWatchers record = watchers.get(key);
 
       if (Log.isEnabled(Log.TAG_IMAGE_LOADER)) {
         if (success) {
@@ -327,7 +333,7 @@ public class ImageLoader {
       }
 
       if (record != null) {
-        watchers.remove(file.toString());
+        watchers.remove(key);
 
         for (WatcherReference reference : record.getWatchers()) {
           reference.imageLoaded(file, success, bitmap);
@@ -346,12 +352,12 @@ public class ImageLoader {
 
       final boolean isRemote = file instanceof ImageFileRemote;
       final Tdlib tdlib = file.tdlib();
-      final String cacheKey = file.getFileLoadKey();
-      ArrayList<String> actors = workers.get(cacheKey);
+      final long loadKey = file.getFileLoadKey();
+      LongList actors = workers.get(loadKey);
 
       if (actors != null) {
-        if (actors.remove(file.toString()) && actors.isEmpty()) {
-          workers.remove(cacheKey);
+        if (actors.remove(key) && actors.isEmpty()) {
+          workers.remove(loadKey);
           if (isRemote && ((ImageFileRemote) file).isRemoteFileReady()) {
             workers.remove(ImageFile.getFileLoadKey(tdlib, file.getId()));
           }
@@ -370,34 +376,17 @@ public class ImageLoader {
       if (accountId == TdlibAccount.NO_ID) {
         workers.clear();
       } else {
-        Set<Map.Entry<String, ArrayList<String>>> entrySet = workers.entrySet();
-        ArrayList<String> keysToRemove = null;
-        String prefix = accountId + "_";
-        // String remotePrefix = accountId + "_remote_";
-        for (Map.Entry<String, ArrayList<String>> entry : entrySet) {
-          String key = entry.getKey();
-          if (key.startsWith(prefix)) {
-            if (keysToRemove == null) {
-              keysToRemove = new ArrayList<>();
-            }
-            keysToRemove.add(key);
-          }
-        }
-        if (keysToRemove != null) {
-          for (String key : keysToRemove) {
-            ArrayList<String> actors = workers.remove(key);
-            if (actors != null && !actors.isEmpty()) {
-              // TODO ?
-            }
+        for (int i = workers.size() - 1; i >= 0; i--) {
+          if (ImageKey.fileLoadKeyAccountId(workers.keyAt(i)) == accountId) {
+            workers.removeAt(i);
           }
         }
       }
 
       if (!watchers.isEmpty()) {
-        Set<Map.Entry<String, ImageWatchers>> entrySet = watchers.entrySet();
-
-        for (Map.Entry<String, ImageWatchers> entry : entrySet) {
-          ImageWatchers record = entry.getValue();
+        final int size = watchers.size();
+        for (int i = 0; i < size; i++) {
+          ImageWatchers record = watchers.valueAt(i);
 
           ImageFile file = record.getFile();
           if (accountId != TdlibAccount.NO_ID && file.accountId() != accountId) {
@@ -39,6 +39,11 @@ public class ImageMp3File extends ImageFile {
     return getSize() != 0 ? path + "?" + getSize() : path;
   }
 
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
+
   @Override
   public byte getType () {
     return TYPE_MP3;
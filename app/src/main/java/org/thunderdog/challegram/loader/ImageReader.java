@@ -58,14 +58,19 @@ public class ImageReader {
     return instance;
   }
 
-  private static byte[] bytesThumb;
+  public static final int PRIORITY_VISIBLE = 0;
+  public static final int PRIORITY_PREFETCH = 1;
+  public static final int PRIORITY_OFFSCREEN = 2;
 
-  private final ImageReaderThread imageThread, videoThread, memThread;
+  private static final ThreadLocal<byte[]> bytesThumb = new ThreadLocal<>();
+
+  private final ImageReaderThread imageThread, videoThread;
+  private final ImageDecodePool decodePool;
 
   private ImageReader () {
     imageThread = new ImageReaderThread();
     videoThread = new ImageReaderThread();
-    memThread = new ImageReaderThread();
+    decodePool = new ImageDecodePool();
   }
 
   public void post (Runnable r) {
@@ -76,15 +81,24 @@ public class ImageReader {
     videoThread.post(r, 0);
   }
 
-  @SuppressWarnings (value={"SpellCheckingInspection", "deprecation"})
   public void readImage (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
-    ImageReaderThread thread = file.getBytes() != null ? memThread : file instanceof ImageVideoThumbFile || file instanceof ImageMp3File || (file instanceof ImageGalleryFile && ((ImageGalleryFile) file).isVideo()) ? videoThread : imageThread;
+    decodePool.submit(actor, file, path, listener, actor.getDecodePriority());
+  }
 
-    if (Thread.currentThread() != thread) {
-      thread.readImage(actor, file, path, listener);
-      return;
-    }
+  void updateDecodePriority (ImageActor actor, ImageFile file, int priority) {
+    decodePool.updatePriority(actor, file, priority);
+  }
+
+  void cancelDecode (ImageActor actor, ImageFile file) {
+    decodePool.cancel(actor, file);
+  }
 
+  public String getDecodeStats () {
+    return decodePool.toString();
+  }
+
+  @SuppressWarnings (value={"SpellCheckingInspection", "deprecation"})
+  void decode (final ImageActor actor, final ImageFile file, final String path, final Listener listener) {
     if (actor.isCancelled()) {
       return;
     }
@@ -128,7 +142,19 @@ public class ImageReader {
       return;
     }
 
+    final boolean useDiskCache = ImageDiskCache.isSupported(file);
+    if (useDiskCache) {
+      Bitmap bitmap = ImageDiskCache.instance().get(file);
+      if (bitmap != null) {
+        listener.onImageLoaded(true, bitmap);
+        return;
+      }
+    }
+
     Bitmap bitmap = readImage(file, path);
+    if (bitmap != null && useDiskCache) {
+      ImageDiskCache.instance().put(file, bitmap);
+    }
     listener.onImageLoaded(bitmap != null, bitmap);
   }
 
@@ -311,9 +337,9 @@ public class ImageReader {
             bitmap = null;
           } else {
             int len = (int) f.length();
-            byte[] data = bytesThumb != null && bytesThumb.length >= len ? bytesThumb : null;
-            if (data == null) {
-              bytesThumb = data = new byte[len];
+            byte[] data = bytesThumb.get();
+            if (data == null || data.length < len) {
+              bytesThumb.set(data = new byte[len]);
             }
             f.readFully(data, 0, len);
             bitmap = BitmapFactory.decodeByteArray(data, 0, len, opts);
@@ -353,9 +379,7 @@ public class ImageReader {
           }
 
           if (bitmap == null) {
-            try (FileInputStream is = new FileInputStream(cacheFile)) {
-              bitmap = BitmapFactory.decodeStream(is, null, opts);
-            }
+            bitmap = decodeFileReusing(cacheFile, opts);
           }
         }
       }
@@ -431,7 +455,20 @@ public class ImageReader {
     }
     opts.inPreferredConfig = Bitmap.Config.ARGB_8888;
 
-    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+    Bitmap bitmap = null;
+    if (maxSize != 0 && ImageBitmapPool.instance().obtainInBitmap(opts)) {
+      try {
+        bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+      } catch (IllegalArgumentException e) {
+        Log.w(Log.TAG_IMAGE_LOADER, "Cannot reuse bitmap", e);
+      }
+      if (bitmap == null) {
+        ImageBitmapPool.instance().onInBitmapRejected(opts);
+      }
+    }
+    if (bitmap == null) {
+      bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+    }
 
     if (bitmap != null) {
       if (maxSize > 0 && Math.max(bitmap.getWidth(), bitmap.getHeight()) > maxSize && scaleToFit) {
@@ -649,6 +686,28 @@ public class ImageReader {
     decodeFile(path, opts);
   }
 
+  /**
+   * Decodes file into a bitmap taken from {@link ImageBitmapPool}, when possible.
+   *
+   * {@code opts} must contain image bounds obtained with {@link BitmapFactory.Options#inJustDecodeBounds}.
+   */
+  private static Bitmap decodeFileReusing (File file, BitmapFactory.Options opts) throws IOException {
+    if (ImageBitmapPool.instance().obtainInBitmap(opts)) {
+      try (FileInputStream is = new FileInputStream(file)) {
+        Bitmap bitmap = BitmapFactory.decodeStream(is, null, opts);
+        if (bitmap != null) {
+          return bitmap;
+        }
+      } catch (IllegalArgumentException e) {
+        Log.w(Log.TAG_IMAGE_LOADER, "Cannot reuse bitmap", e);
+      }
+      ImageBitmapPool.instance().onInBitmapRejected(opts);
+    }
+    try (FileInputStream is = new FileInputStream(file)) {
+      return BitmapFactory.decodeStream(is, null, opts);
+    }
+  }
+
   public static Bitmap decodeFile (String path, BitmapFactory.Options opts) {
     try (InputStream is = U.openInputStream(path)) {
       return BitmapFactory.decodeStream(is, null, opts);
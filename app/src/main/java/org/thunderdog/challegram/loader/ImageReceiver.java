@@ -29,6 +29,8 @@ import android.view.View;
 
 import androidx.annotation.FloatRange;
 import androidx.annotation.Nullable;
+import androidx.core.os.TraceCompat;
+import androidx.core.view.ViewCompat;
 
 import org.drinkmore.Tracer;
 import org.thunderdog.challegram.Log;
@@ -61,6 +63,8 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
   private float alpha = 1f, progress;
 
   private boolean isDetached, needProgress, animationDisabled;
+  // Snapshot of view state taken on UI thread, read by ImageThread when ordering decodes
+  private volatile int decodePriority = ImageReader.PRIORITY_VISIBLE;
   private float radius;
 
   private int left, top, right, bottom;
@@ -682,11 +686,24 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
     this.needProgress = true;
   }
 
+  // Measured by ChatBenchmarks in baseline-profile module
+  private static final String TRACE_SECTION_REQUEST_FILE = "ImageReceiver:requestFile";
+
   public void requestFile (ImageFile file) {
+    TraceCompat.beginSection(TRACE_SECTION_REQUEST_FILE);
+    try {
+      requestFileImpl(file);
+    } finally {
+      TraceCompat.endSection();
+    }
+  }
+
+  private void requestFileImpl (ImageFile file) {
     if (isDetached) {
       cachedFile = file;
       return;
     }
+    updateDecodePriority();
 
     /*final int accountId1 = this.file == null ? TdlibAccount.NO_ID : this.file.accountId();
     final int accountId2 = file == null ? TdlibAccount.NO_ID : file.accountId();
@@ -714,10 +731,21 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
         }
 
         if (!U.isValidBitmap(bitmap)) {
-          boolean changed = alpha != 0f;
-          forceAlpha(0f);
-          if (!setBundle(file, file.suppressEmptyBundle() && U.isValidBitmap(this.bitmap) ? this.bitmap : null, true) && changed) {
-            invalidate();
+          Bitmap preview = ImageCache.instance().takePreviewBitmap(file);
+          if (preview != null) {
+            // Downscaled copy is displayed until full-resolution bitmap is decoded again
+            boolean changed = alpha != 1f;
+            forceAlpha(1f);
+            if (!setBundleImpl(file, preview, true, true) && changed) {
+              invalidate();
+            }
+          } else {
+            boolean changed = alpha != 0f;
+            forceAlpha(0f);
+            Bitmap emptyBundle = file.suppressEmptyBundle() && U.isValidBitmap(this.bitmap) ? this.bitmap : null;
+            if (!setBundleImpl(file, emptyBundle, true, emptyBundle != null && emptyBundle == previewBitmap) && changed) {
+              invalidate();
+            }
           }
 
           if (!file.isCacheOnly()) {
@@ -778,13 +806,26 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
   // returns @boolean invalidated
 
   private static boolean sameFiles (ImageFile file1, ImageFile file2) {
-    return (file1 == file2) || ((file1 != null ? file1.getType() : 0) == (file2 != null ? file2.getType() : 0) && StringUtils.equalsOrBothEmpty(file1 != null ? file1.toString() : null, file2 != null ? file2.toString() : null));
+    if (file1 == file2)
+      return true;
+    if (file1 == null || file2 == null)
+      return false;
+    return file1.getType() == file2.getType() && file1.equals(file2);
   }
 
+  // Downscaled bitmap taken from ImageCache warm tier. It is owned by this receiver,
+  // so it is not reference-counted under the key of the full-size image
+  private @Nullable Bitmap previewBitmap;
+
   public boolean setBundle (ImageFile file, Bitmap bitmap, boolean local) {
+    return setBundleImpl(file, bitmap, local, false);
+  }
+
+  private boolean setBundleImpl (ImageFile file, Bitmap bitmap, boolean local, boolean isPreview) {
     if (this.file == null && file == null) {
       return false;
     }
+    final Bitmap oldPreviewBitmap = this.previewBitmap;
 
     /*final int fileType1 = this.file == null ? 0 : this.file.getType();
     final int fileType2 = file == null ? 0 : file.getType();
@@ -809,12 +850,12 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
 
       if (oldBitmap != bitmap) {
         synchronized (ImageCache.getReferenceCounters()) {
-          if (needRefs1 && oldBitmap != null) {
-            ImageCache.instance().removeReference(oldFile, oldBitmap);
-          }
-          if (needRefs2 && bitmap != null) {
+          if (needRefs2 && bitmap != null && !isPreview) {
             ImageCache.instance().addReference(file, bitmap);
           }
+          if (needRefs1 && oldBitmap != null && oldBitmap != oldPreviewBitmap) {
+            ImageCache.instance().removeReference(oldFile, oldBitmap);
+          }
           setBitmap(bitmap);
           bitmapChanged = true;
         }
@@ -843,12 +884,13 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
           }
         }
 
-        if (needRefs1 && oldFile != null) {
-          ImageCache.instance().removeReference(oldFile, oldBitmap);
-        }
-        if (needRefs2 && file != null && bitmap != null) {
+        // Reference is added first, so bitmap kept on screen under the new file is not released in between
+        if (needRefs2 && file != null && bitmap != null && !isPreview) {
           ImageCache.instance().addReference(file, bitmap);
         }
+        if (needRefs1 && oldFile != null && (oldBitmap == null || oldBitmap != oldPreviewBitmap)) {
+          ImageCache.instance().removeReference(oldFile, oldBitmap);
+        }
       }
 
       if (oldBitmap != bitmap) {
@@ -856,6 +898,16 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
       }
     }
 
+    if (isPreview) {
+      this.previewBitmap = bitmap;
+    } else if (oldPreviewBitmap != null && oldPreviewBitmap != this.bitmap) {
+      this.previewBitmap = null;
+    }
+    if (oldPreviewBitmap != null && oldPreviewBitmap != this.bitmap) {
+      // Full-size bitmap has arrived or receiver was cleared, preview is no longer displayed
+      ImageBitmapPool.instance().release(oldPreviewBitmap);
+    }
+
     if (U.isValidBitmap(bitmap)) {
       if (radius > 0) {
         if (bitmapChanged) {
@@ -921,6 +973,7 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
 
   @Override
   public void attach () {
+    updateDecodePriority();
     if (isDetached) {
       isDetached = false;
       if (this.cachedFile != null) {
@@ -932,6 +985,7 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
 
   @Override
   public void detach () {
+    updateDecodePriority();
     if (!isDetached) {
       isDetached = true;
       if (this.file != null) {
@@ -1010,6 +1064,26 @@ public class ImageReceiver implements Watcher, ValueAnimator.AnimatorUpdateListe
     }
   }
 
+  @Override
+  public int getDecodePriority () {
+    return decodePriority;
+  }
+
+  private void updateDecodePriority () {
+    decodePriority = computeDecodePriority();
+  }
+
+  private int computeDecodePriority () {
+    if (view == null) {
+      return ImageReader.PRIORITY_VISIBLE;
+    }
+    if (!ViewCompat.isAttachedToWindow(view)) {
+      // Bound, but not yet laid out, e.g. prefetched by RecyclerView
+      return ImageReader.PRIORITY_PREFETCH;
+    }
+    return view.getWindowVisibility() == View.VISIBLE ? ImageReader.PRIORITY_VISIBLE : ImageReader.PRIORITY_OFFSCREEN;
+  }
+
   private void dispatchCompleted () {
     if (completeListener != null) {
       completeListener.onComplete(this, file);
@@ -84,6 +84,11 @@ public class ImageVideoThumbFile extends ImageFile {
     return b.toString();
   }
 
+  @Override
+  protected long buildCacheKey () {
+    return ImageKey.hash(toString());
+  }
+
   @Override
   public byte getType () {
     return TYPE_VIDEO_THUMB;
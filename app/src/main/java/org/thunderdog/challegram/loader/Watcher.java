@@ -19,4 +19,7 @@ import android.graphics.Bitmap;
 public interface Watcher {
   void imageLoaded (ImageFile file, boolean successful, Bitmap bitmap);
   default void imageProgress (ImageFile file, float progress) { }
+  default int getDecodePriority () {
+    return ImageReader.PRIORITY_PREFETCH;
+  }
 }
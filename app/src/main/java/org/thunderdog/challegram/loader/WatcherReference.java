@@ -33,6 +33,11 @@ public class WatcherReference {
     }
   }
 
+  public int getDecodePriority () {
+    Watcher watcher = reference.get();
+    return watcher != null ? watcher.getDecodePriority() : ImageReader.PRIORITY_OFFSCREEN;
+  }
+
   public void imageProgress (ImageFile file, float progress) {
     Watcher watcher = reference.get();
     if (watcher != null) {
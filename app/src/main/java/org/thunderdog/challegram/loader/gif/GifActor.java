@@ -15,8 +15,10 @@
 package org.thunderdog.challegram.loader.gif;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 import android.view.View;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -39,6 +41,7 @@ import org.thunderdog.challegram.tool.Screen;
 import org.thunderdog.challegram.ui.EmojiMediaListController;
 import org.thunderdog.challegram.ui.StickersListController;
 import org.thunderdog.challegram.unsorted.Settings;
+import org.thunderdog.challegram.util.PercentileSampler;
 
 import java.io.File;
 import java.lang.annotation.Retention;
@@ -74,7 +77,14 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
   private @Nullable GifState gif;
   private final long[] metadata;
   private final double[] lottieMetadata;
-  private final GifThread thread;
+  private final GifScheduler scheduler;
+  private final GifScheduler.Job decodeJob;
+  private final Runnable prepareNextFrameTask = this::prepareNextFrameIfDisplayed;
+  private final Runnable prepareStartFrameTask = this::prepareStartFrame;
+  private final Runnable destroyTask = this::onDestroy;
+  private final PercentileSampler frameDecodeTime = new PercentileSampler("frame_decode_ms", 32);
+  private volatile int droppedFrameCount;
+  private volatile boolean awaitingDisplay;
   private final boolean isLottie;
   private int lottieCacheState = LOTTIE_CACHE_NONE;
 
@@ -89,14 +99,15 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
 
   private final boolean isPlayOnce;
 
-  public GifActor (final GifFile file, GifThread thread) {
+  public GifActor (final GifFile file, GifScheduler scheduler) {
     this.isPlayOnce = file.isPlayOnce();
     file.setVibrationPattern(Emoji.VIBRATION_PATTERN_NONE);
     this.maxFrameRate = file.hasOptimizations() || Settings.instance().getNewSetting(Settings.SETTING_FLAG_LIMIT_STICKERS_FPS) ? REDUCED_MAX_FRAME_RATE : DEFAULT_MAX_FRAME_RATE;
     this.isLottie = file.getGifType() == GifFile.TYPE_TG_LOTTIE;
     this.metadata = new long[N.DECODER_METADATA_ARRAY_SIZE];
     this.lottieMetadata = new double[3];
-    this.thread = thread;
+    this.scheduler = scheduler;
+    this.decodeJob = new GifScheduler.Job(this);
     this.file = file;
     this.isPlaybackFrozen = isFrozen(file);
 
@@ -209,7 +220,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         file.tdlib().client().send(new TdApi.CancelDownloadFile(file.getFileId(), false), fileLoadHandler);
         flags &= ~FLAG_LOADING_FILE;
       } else {
-        thread.onDestroy(this);
+        scheduler.post(decodeJob, destroyTask);
       }
     }
   }
@@ -241,7 +252,8 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     Td.copyTo(file, localFile);
 
     if ((flags & FLAG_CANCELLED) == 0) {
-      thread.startDecoding(this, file.local.path);
+      final String path = file.local.path;
+      scheduler.post(decodeJob, () -> startDecoding(path));
     }
   }
 
@@ -303,12 +315,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
           nativePtr = 0;
         }
         if (lottieCacheFile != null) {
-          LottieCache.instance().checkFile(file,
-            lottieCacheFile,
-            deleteLottieCacheFile || file.isOneTimeCache(),
-            lottieCacheFileSize,
-            file.getFitzpatrickType()
-          );
+          LottieFrameStore.instance().release(lottieCacheFile, deleteLottieCacheFile || file.isOneTimeCache());
         }
       } else {
         N.destroyDecoder(nativePtr);
@@ -371,20 +378,17 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     }
     int rotation = !isLottie ? U.getVideoRotation(path) : 0;
     int queueSize = file.isStill() ? 1 : isLottie ? 2 : GifState.DEFAULT_QUEUE_SIZE;
-    GifState gif = new GifState(width, height, rotation, this, queueSize);
+    if (isLottie) {
+      frameCacheKey = GifFrameCache.animationKey(file, width, height);
+    }
+    GifState gif = new GifState(width, height, rotation, this, queueSize, isLottie);
     gif.setFrozen(isPlayingRoundVideo);
     boolean success = false;
     try {
       success = gif.init(frame -> {
         if (isLottie) {
           long startFrame = file.needDecodeLastFrame() || file.hasLooped() ? totalFrameCount - 1 : 0;
-          synchronized (nativeSync) {
-            if (nativePtr != 0 && N.getLottieFrame(nativePtr, frame.bitmap, (long) (lastFrameNo = startFrame))) {
-              frame.no = startFrame;
-              return true;
-            }
-          }
-          return false;
+          return readLottieFrame(gif, frame, startFrame);
         } else {
           int ret = N.getVideoFrame(nativePtr, frame.bitmap, metadata);
           frame.no = lastTimeStamp = metadata[3];
@@ -411,6 +415,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
   private volatile double lastFrameNo;
   private long totalFrameCount;
   private double frameRate;
+  private long frameCacheKey;
 
   // GifStage thread
   public void onGifLoaded (GifState gif) {
@@ -418,20 +423,37 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       this.gif = gif;
     }
     if (!isPlaybackFrozen) {
-      thread.prepareNextFrame(this);
       scheduleNext(false);
+      scheduler.post(decodeJob, prepareNextFrameTask);
     } else {
       GifBridge.instance().dispatchGifFrameChanged(file, gif, false);
     }
   }
 
-  private double findLastFrameNo () {
-    final double delta = frameDelta();
-    double frameNo = 0;
-    while (frameNo + delta < totalFrameCount) {
-      frameNo += delta;
+  /**
+   * Takes Lottie frame from {@link GifFrameCache}, or renders it there, if it has not been rendered by any actor yet.
+   *
+   * @return false, if decoder has been destroyed or failed to render the frame.
+   */
+  private boolean readLottieFrame (GifState gif, GifState.Frame frame, double frameNo) {
+    final long no = (long) frameNo;
+    final GifFrameCache cache = GifFrameCache.instance();
+    GifFrameCache.Entry entry = cache.acquire(frameCacheKey, no);
+    boolean rendered = true;
+    if (entry == null) {
+      final Bitmap bitmap = cache.obtainBitmap(gif.width(), gif.height());
+      synchronized (nativeSync) {
+        if (nativePtr == 0) {
+          cache.releaseBitmap(bitmap);
+          return false;
+        }
+        rendered = N.getLottieFrame(nativePtr, bitmap, no);
+      }
+      entry = cache.put(frameCacheKey, no, bitmap, rendered);
     }
-    return frameNo;
+    frame.setShared(entry);
+    lastFrameNo = frameNo;
+    return rendered;
   }
 
   public boolean seekToStart () {
@@ -455,6 +477,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
   }
 
   private static final double DEFAULT_MAX_FRAME_RATE = 60.0;
+  private static final long HIGH_PRIORITY_DEADLINE_ADVANCE_MS = 16;
   private static final double REDUCED_MAX_FRAME_RATE = 30.0;
 
   private File lottieCacheFile;
@@ -471,6 +494,47 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
     int OK = 0, NEED_CREATE = 1, ERROR = 2, CANCELED = 3;
   }
 
+  // Decoder thread
+  private void prepareNextFrameIfDisplayed () {
+    if (!isPlayingRoundVideo && !GifBridge.instance().isDisplayed(file)) {
+      droppedFrameCount++;
+      if (!awaitingDisplay) {
+        awaitingDisplay = true;
+        // Receivers that are still visible, but haven't been drawn recently, resume playback on their next draw
+        GifBridge.instance().requestDisplay(file);
+      }
+      return;
+    }
+    final long startTime = SystemClock.uptimeMillis();
+    prepareNextFrame();
+    frameDecodeTime.add(SystemClock.uptimeMillis() - startTime);
+  }
+
+  /**
+   * @return Deadline of the frame currently being prepared, used to order decoding across all animations.
+   */
+  @AnyThread
+  long getFrameDeadline () {
+    final GifState gif = this.gif;
+    if (gif == null) {
+      // Opening or closing decoder
+      return 0;
+    }
+    long deadline = gif.getNextFrameDeadline();
+    if (file.isHighPriorityForDecode()) {
+      deadline -= HIGH_PRIORITY_DEADLINE_ADVANCE_MS;
+    }
+    return deadline;
+  }
+
+  public PercentileSampler getFrameDecodeTime () {
+    return frameDecodeTime;
+  }
+
+  public int getDroppedFrameCount () {
+    return droppedFrameCount;
+  }
+
   // Decoder thread
   public void prepareNextFrame () {
     GifState gif;
@@ -514,34 +578,34 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       if (isLottie) {
         switch (lottieCacheState) {
           case LOTTIE_CACHE_NONE: {
-            lottieCacheFile = LottieCache.getCacheFile(
+            lottieCacheFile = LottieFrameStore.instance().acquire(
               file,
               file.isOneTimeCache(),
-              lottieCacheFileSize = Math.max(free.getWidth(), free.getHeight()),
+              lottieCacheFileSize = Math.max(gif.width(), gif.height()),
               file.getFitzpatrickType(),
-              file.getOptimizationMode() == GifFile.OptimizationMode.EMOJI ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(2),
-              8
+              file.getOptimizationMode() == GifFile.OptimizationMode.EMOJI ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(2)
             );
             // final boolean cacheExisted = lottieCacheFile != null && lottieCacheFile.exists();
             int status;
             boolean skipOddFrames = frameRate == 60.0 && maxFrameRate == 30.0;
             // final long startTime = SystemClock.uptimeMillis();
+            // Frames are shared through GifFrameCache, so cache is created using a scratch bitmap.
+            // First frame is rendered by the decoder, as currently displayed frame is not necessarily the first one
+            final Bitmap scratchBitmap = GifFrameCache.instance().obtainBitmap(gif.width(), gif.height());
             synchronized (nativeSync) {
               status =
                 nativePtr == 0 ? LottieCacheStatus.CANCELED :
                 lottieCacheFile == null ? LottieCacheStatus.ERROR :
-                N.createLottieCache(nativePtr, lottieCacheFile.getPath(), gif.getBitmap(false), free.bitmap, false, skipOddFrames);
+                N.createLottieCache(nativePtr, lottieCacheFile.getPath(), null, scratchBitmap, false, skipOddFrames);
+            }
+            if (status != LottieCacheStatus.NEED_CREATE) {
+              GifFrameCache.instance().releaseBitmap(scratchBitmap);
             }
             switch (status) {
               case LottieCacheStatus.OK: {
                 // Log.i("validated lottie cache file in %dms", SystemClock.uptimeMillis() - startTime);
                 lottieCacheState = LOTTIE_CACHE_CREATED;
-                synchronized (nativeSync) {
-                  if (nativePtr != 0) {
-                    N.getLottieFrame(nativePtr, free.bitmap, free.no = (long) (lastFrameNo = nextFrameNo));
-                    success = true;
-                  }
-                }
+                success = readLottieFrame(gif, free, nextFrameNo);
                 break;
               }
               case LottieCacheStatus.NEED_CREATE: {
@@ -550,27 +614,25 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
                 }*/
                 lottieCacheState = LOTTIE_CACHE_CREATING;
                 async = true;
-                LottieCache.instance().thread(file.getOptimizationMode()).post(() -> {
+                LottieFrameStore.instance().thread(file.getOptimizationMode()).post(() -> {
                   int newStatus;
                   synchronized (nativeSync) {
-                    if (nativePtr == 0)
-                      return;
                     // long elapsed = SystemClock.uptimeMillis();
-                    newStatus = N.createLottieCache(nativePtr, lottieCacheFile.getPath(), gif.getBitmap(false), free.bitmap, true, skipOddFrames);
+                    newStatus = nativePtr == 0 ? LottieCacheStatus.CANCELED : N.createLottieCache(nativePtr, lottieCacheFile.getPath(), null, scratchBitmap, true, skipOddFrames);
                     // Log.i("created lottie cache in %dms, skipOdd:%b, resolution:%d", SystemClock.uptimeMillis() - elapsed, skipOddFrames, lottieCacheFileSize);
                   }
+                  GifFrameCache.instance().releaseBitmap(scratchBitmap);
+                  if (newStatus == LottieCacheStatus.CANCELED)
+                    return;
                   if (newStatus == 0) {
-                    free.no = (long) (lastFrameNo = findLastFrameNo());
+                    LottieFrameStore.instance().onFileWritten(lottieCacheFile);
                     lottieCacheState = LOTTIE_CACHE_CREATED;
-                    if (free.no != nextFrameNo) {
-                      synchronized (nativeSync) {
-                        if (nativePtr == 0)
-                          return;
-                        N.getLottieFrame(nativePtr, free.bitmap, free.no = (long) (lastFrameNo = nextFrameNo));
-                      }
+                    if (readLottieFrame(gif, free, nextFrameNo)) {
+                      gif.addBusy(free);
+                      GifBridge.instance().nextFrameReady(this, false);
+                    } else {
+                      gif.addFree(free);
                     }
-                    gif.addBusy(free);
-                    GifBridge.instance().nextFrameReady(this, false);
                   } else {
                     gif.addFree(free);
                   }
@@ -587,12 +649,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
           }
           case LOTTIE_CACHE_CREATED:
           case LOTTIE_CACHE_ERROR: {
-            synchronized (nativeSync) {
-              if (nativePtr != 0) {
-                N.getLottieFrame(nativePtr, free.bitmap, free.no = (long) (lastFrameNo = nextFrameNo));
-                success = true;
-              }
-            }
+            success = readLottieFrame(gif, free, nextFrameNo);
             break;
           }
         }
@@ -688,7 +745,11 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
 
     synchronized (this) {
       if ((flags & FLAG_CANCELLED) == 0) {
-        if (GifBridge.instance().scheduleNextFrame(this, file.getFileId(), force ? 0 : frameDelayMs, force)) {
+        final long delay = force ? 0 : frameDelayMs;
+        if (GifBridge.instance().scheduleNextFrame(this, file.getFileId(), delay, force)) {
+          if (gif != null) {
+            gif.setNextFrameDeadline(SystemClock.uptimeMillis() + delay);
+          }
           if (gif == null || !gif.isFrozen()) {
             this.lastTimeStamp = nextTimeStamp;
           }
@@ -721,7 +782,8 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
       awaitingResume = false;
       return true;
     }
-    return false;
+    // Frame was dropped while off-screen, restart playback once displayed again
+    return awaitingDisplay;
   }
 
   private static final int VIBRATE_MAIN = 3;
@@ -787,7 +849,7 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
         }
         if (isPlayingRoundVideo) {
           if (TdlibManager.instance().player().isPlayingMessage(file.getChatId(), file.getMessageId())) {
-            thread.prepareStartFrame(this);
+            scheduler.post(decodeJob, prepareStartFrameTask);
             if (lastTimeStamp != 0) {
               scheduleNext(true);
             }
@@ -795,8 +857,9 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
           return false;
         }
         if (GifBridge.instance().canScheduleNextFrame(this, file.getFileId())) {
-          thread.prepareNextFrame(this);
+          awaitingDisplay = false;
           scheduleNext(false);
+          scheduler.post(decodeJob, prepareNextFrameTask);
           return true;
         }
       }
@@ -806,6 +869,9 @@ public class GifActor implements GifState.Callback, TGPlayerController.TrackChan
 
   // Decoder thread
   public void onDestroy () {
+    if (frameDecodeTime.getTotalCount() > 0 && Log.isEnabled(Log.TAG_GIF_LOADER)) {
+      Log.i(Log.TAG_GIF_LOADER, "#%s: %s, dropped: %d, %s", file.toString(), frameDecodeTime, droppedFrameCount, scheduler);
+    }
     destroyDecoder();
     if (file != null && file.isRoundVideo()) {
       TdlibManager.instance().player().removeTrackChangeListener(this);
@@ -20,16 +20,18 @@ import androidx.annotation.AnyThread;
 import androidx.annotation.Keep;
 import androidx.annotation.UiThread;
 import androidx.collection.ArraySet;
+import androidx.collection.LongSparseArray;
+import androidx.collection.SparseArrayCompat;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.telegram.Tdlib;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import me.vkryl.core.collection.LongList;
 import me.vkryl.core.lambda.RunnableData;
 import tgx.td.Td;
 
@@ -43,53 +45,15 @@ public class GifBridge {
     return instance;
   }
 
-  private static final int THREAD_POOL_SIZE = 2;
   private final GifBridgeThread thread;
-  private final HashMap<String, GifRecord> records = new HashMap<>();
-  private final HashMap<Integer, ArrayList<GifRecord>> fileIdToRecordList = new HashMap<>();
+  private final LongSparseArray<GifRecord> records = new LongSparseArray<>();
+  private final SparseArrayCompat<ArrayList<GifRecord>> fileIdToRecordList = new SparseArrayCompat<>();
   private final ArrayList<GifRecord> playingRoundVideos = new ArrayList<>();
-  // TODO: rework to executors
-  private int lastUsedThread, lastUsedEmojiThread;
-  private final GifThread[] threads, emojiThreads;
-  private final GifThread[] lottieThreads;
+  private final GifScheduler scheduler;
 
   private GifBridge () {
     thread = new GifBridgeThread();
-    // TODO: rework to executors
-    threads = new GifThread[THREAD_POOL_SIZE];
-    for (int i = 0; i < threads.length; i++) {
-      threads[i] = new GifThread(i);
-    }
-    emojiThreads = new GifThread[THREAD_POOL_SIZE];
-    for (int i = 0; i < emojiThreads.length; i++) {
-      emojiThreads[i] = new GifThread(i);
-    }
-    lottieThreads = new GifThread[5];
-    for (int i = 0; i < lottieThreads.length; i++) {
-      lottieThreads[i] = new GifThread(i);
-    }
-  }
-
-  private GifThread obtainFrameThread (GifFile file) {
-    if (file.getGifType() == GifFile.TYPE_TG_LOTTIE) {
-      if (file.isHighPriorityForDecode()) {
-        return lottieThreads[lottieThreads.length - 1];
-      }
-      return lottieThreads[file.getOptimizationMode()];
-    } else {
-      // TODO rework to executors
-      if (file.getOptimizationMode() == GifFile.OptimizationMode.EMOJI) {
-        if (++lastUsedEmojiThread == THREAD_POOL_SIZE) {
-          lastUsedEmojiThread = 0;
-        }
-        return emojiThreads[lastUsedEmojiThread];
-      } else {
-        if (++lastUsedThread == THREAD_POOL_SIZE) {
-          lastUsedThread = 0;
-        }
-        return threads[lastUsedThread];
-      }
-    }
+    scheduler = new GifScheduler();
   }
 
   public GifBridgeThread getBaseThread () {
@@ -115,16 +79,16 @@ public class GifBridge {
       return;
     }
 
-    String key = file.toString();
+    final long key = file.getCacheKey();
 
     if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
-      Log.i(Log.TAG_GIF_LOADER, "#%s: requestFile, type: %s, path: %s", key, file.getClass().getSimpleName(), file.getFilePath());
+      Log.i(Log.TAG_GIF_LOADER, "#%s: requestFile, type: %s, path: %s", file.toString(), file.getClass().getSimpleName(), file.getFilePath());
     }
 
     GifRecord record = records.get(key);
 
     if (record == null) {
-      GifActor actor = new GifActor(file, obtainFrameThread(file));
+      GifActor actor = new GifActor(file, scheduler);
       record = new GifRecord(file, actor, reference);
       synchronized (records) {
         records.put(key, record);
@@ -139,12 +103,12 @@ public class GifBridge {
         }
       }
       if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
-        Log.i(Log.TAG_GIF_LOADER, "#%s: actor started", key);
+        Log.i(Log.TAG_GIF_LOADER, "#%s: actor started", file.toString());
       }
       actor.act();
     } else {
       if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
-        Log.i(Log.TAG_GIF_LOADER, "#%s: watched joined existing actor", key);
+        Log.i(Log.TAG_GIF_LOADER, "#%s: watched joined existing actor", file.toString());
       }
       synchronized (records) {
         record.addWatcher(reference);
@@ -154,7 +118,7 @@ public class GifBridge {
 
   public View findAnyView (GifFile file) {
     synchronized (records) {
-      GifRecord record = records.get(file.toString());
+      GifRecord record = records.get(file.getCacheKey());
       if (record == null || !record.hasWatchers())
         return null;
       for (GifWatcherReference reference : record.getWatchers()) {
@@ -166,6 +130,49 @@ public class GifBridge {
     return null;
   }
 
+  @AnyThread
+  boolean isDisplayed (GifFile file) {
+    synchronized (records) {
+      GifRecord record = records.get(file.getCacheKey());
+      if (record == null || !record.hasWatchers())
+        return false;
+      for (GifWatcherReference reference : record.getWatchers()) {
+        if (reference.isDisplayed(file))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Invalidates all receivers of the file, so the ones that are actually visible are drawn again.
+   */
+  @AnyThread
+  void requestDisplay (GifFile file) {
+    GifReceiver.getHandler().post(() -> {
+      synchronized (records) {
+        GifRecord record = records.get(file.getCacheKey());
+        if (record != null) {
+          for (GifWatcherReference reference : record.getWatchers()) {
+            reference.gifFrameChanged(file, false);
+          }
+        }
+      }
+    });
+  }
+
+  public String getFrameStats () {
+    StringBuilder b = new StringBuilder(scheduler.toString());
+    synchronized (records) {
+      for (int i = 0; i < records.size(); i++) {
+        GifActor actor = records.valueAt(i).getActor();
+        b.append("\n").append(records.valueAt(i).getFile()).append(": ")
+          .append(actor.getFrameDecodeTime()).append(", dropped = ").append(actor.getDroppedFrameCount());
+      }
+    }
+    return b.toString();
+  }
+
   public void removeWatcher (GifWatcherReference reference) {
     if (thread != Thread.currentThread()) {
       thread.removeWatcher(reference);
@@ -173,14 +180,15 @@ public class GifBridge {
     }
 
     synchronized (records) {
-      ArrayList<String> itemsToRemove = null;
-      for (HashMap.Entry<String, GifRecord> entry : records.entrySet()) {
-        GifRecord record = entry.getValue();
+      LongList itemsToRemove = null;
+      final int size = records.size();
+      for (int i = 0; i < size; i++) {
+        GifRecord record = records.valueAt(i);
         if (record.removeWatcher(reference) && !record.hasWatchers()) {
           if (itemsToRemove == null) {
-            itemsToRemove = new ArrayList<>();
+            itemsToRemove = new LongList(1);
           }
-          itemsToRemove.add(entry.getKey());
+          itemsToRemove.append(records.keyAt(i));
           int fileId = record.getFile().getFileId();
           ArrayList<GifRecord> recordList = fileIdToRecordList.get(fileId);
           if (recordList != null && recordList.remove(record) && recordList.isEmpty()) {
@@ -192,9 +200,11 @@ public class GifBridge {
         }
       }
       if (itemsToRemove != null) {
-        for (String item : itemsToRemove) {
-          GifRecord record = records.remove(item);
+        for (int i = 0; i < itemsToRemove.size(); i++) {
+          final long item = itemsToRemove.get(i);
+          GifRecord record = records.get(item);
           if (record != null) {
+            records.remove(item);
             record.getActor().cancel();
             if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
               Log.i(Log.TAG_GIF_LOADER, "#%s: actor cancelled", record.getFile().toString());
@@ -270,7 +280,7 @@ public class GifBridge {
     }
 
     synchronized (records) {
-      GifRecord record = records.get(file.toString());
+      GifRecord record = records.get(file.getCacheKey());
 
       if (record != null) {
         for (GifWatcherReference reference : record.getWatchers()) {
@@ -292,7 +302,7 @@ public class GifBridge {
   void onGifFrameDeadlineReached (GifFile file, GifState gif, boolean isRestart) {
     synchronized (records) {
       if (gif.setCanApplyNext()) {
-        GifRecord record = records.get(file.toString());
+        GifRecord record = records.get(file.getCacheKey());
         if (record != null) {
           for (GifWatcherReference reference : record.getWatchers()) {
             reference.gifFrameChanged(file, isRestart);
@@ -22,6 +22,7 @@ import androidx.annotation.NonNull;
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.data.TD;
 import org.thunderdog.challegram.emoji.Emoji;
+import org.thunderdog.challegram.loader.ImageKey;
 import org.thunderdog.challegram.telegram.Tdlib;
 import org.thunderdog.challegram.telegram.TdlibAccount;
 import org.thunderdog.challegram.unsorted.Settings;
@@ -366,7 +367,7 @@ public class GifFile {
 
   @Override
   public int hashCode () {
-    return toString().hashCode();
+    return ImageKey.hashCode(getCacheKey());
   }
 
   protected final StringBuilder makeCommonKey (StringBuilder b) {
@@ -403,6 +404,17 @@ public class GifFile {
     return key != null ? key : (key = makeGifKey());
   }
 
+  private long cacheKey;
+  private boolean hasCacheKey;
+
+  public final long getCacheKey () {
+    if (!hasCacheKey) {
+      cacheKey = ImageKey.hash(toString());
+      hasCacheKey = true;
+    }
+    return cacheKey;
+  }
+
   // Round video
 
   public void setIsRoundVideo (long chatId, long messageId) {
@@ -0,0 +1,313 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 19:35
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+import androidx.core.app.ActivityManagerCompat;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.loader.ImageBitmapPool;
+import org.thunderdog.challegram.loader.ImageKey;
+import org.thunderdog.challegram.telegram.TdlibAccount;
+import org.thunderdog.challegram.tool.UI;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import me.vkryl.core.MathUtils;
+import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Reference-counted frames of Lottie animations shared between all {@link GifActor}s
+ * that play the same animation at the same resolution.
+ *
+ * Frames are keyed by animation, resolution and frame index, so each frame is rendered once
+ * no matter how many times the animation is displayed, even when actors are not shared
+ * (e.g. {@link GifFile#isPlayOnce() play once} emoji, which play independently).
+ *
+ * Frames no longer referenced by any actor stay in the cache until the byte budget is exceeded,
+ * and are then released to {@link ImageBitmapPool} in LRU order.
+ */
+public final class GifFrameCache {
+  private static GifFrameCache instance;
+
+  public static GifFrameCache instance () {
+    if (instance == null) {
+      synchronized (GifFrameCache.class) {
+        if (instance == null) {
+          instance = new GifFrameCache(getDefaultMaxByteCount());
+        }
+      }
+    }
+    return instance;
+  }
+
+  public static void trimMemory (int level) {
+    if (instance != null) {
+      instance.onTrimMemory(level);
+    }
+  }
+
+  private static long getDefaultMaxByteCount () {
+    ActivityManager am = (ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+    if (ActivityManagerCompat.isLowRamDevice(am)) {
+      return ByteUnit.MIB.toBytes(4);
+    }
+    return ByteUnit.MIB.toBytes(MathUtils.clamp(am.getLargeMemoryClass() / 24, 6, 24));
+  }
+
+  public static final class Entry {
+    private final long animationKey;
+    private final long frameNo;
+    private final Bitmap bitmap;
+    private final int byteCount;
+    private boolean isCached;
+    private int refCount;
+
+    // LRU list of unreferenced entries
+    private Entry prev, next;
+
+    private Entry (long animationKey, long frameNo, Bitmap bitmap) {
+      this.animationKey = animationKey;
+      this.frameNo = frameNo;
+      this.bitmap = bitmap;
+      this.byteCount = bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    public Bitmap getBitmap () {
+      return bitmap;
+    }
+
+    public long getFrameNo () {
+      return frameNo;
+    }
+  }
+
+  /**
+   * @return Key identifying frames of the animation rendered at the specified resolution.
+   */
+  public static long animationKey (GifFile file, int width, int height) {
+    TdApi.File tdFile = file.getFile();
+    StringBuilder b = new StringBuilder();
+    if (tdFile.remote != null && !StringUtils.isEmpty(tdFile.remote.uniqueId)) {
+      b.append(tdFile.remote.uniqueId);
+    } else {
+      b.append(file.tdlib() != null ? file.tdlib().id() : TdlibAccount.NO_ID).append('_').append(tdFile.id);
+    }
+    b.append(',').append(width).append('x').append(height);
+    if (file.getFitzpatrickType() != 0) {
+      b.append(",f").append(file.getFitzpatrickType());
+    }
+    return ImageKey.hash(b.toString());
+  }
+
+  private static long frameKey (long animationKey, long frameNo) {
+    long key = animationKey ^ (frameNo * 0x9e3779b97f4a7c15L);
+    key ^= key >>> 31;
+    return key;
+  }
+
+  private final LongSparseArray<Entry> entries = new LongSparseArray<>();
+  private Entry head, tail; // head is the least recently released
+  private final long maxByteCount;
+  private long byteCount, unreferencedByteCount;
+  private long hitCount, missCount, evictionCount, overflowCount;
+
+  private GifFrameCache (long maxByteCount) {
+    this.maxByteCount = maxByteCount;
+  }
+
+  /**
+   * @return Cached frame with incremented reference count, or {@code null} if frame has not been rendered yet.
+   */
+  @Nullable
+  public Entry acquire (long animationKey, long frameNo) {
+    synchronized (this) {
+      Entry entry = entries.get(frameKey(animationKey, frameNo));
+      if (entry == null || entry.animationKey != animationKey || entry.frameNo != frameNo) {
+        missCount++;
+        return null;
+      }
+      if (entry.refCount++ == 0) {
+        unlinkLocked(entry);
+      }
+      hitCount++;
+      return entry;
+    }
+  }
+
+  /**
+   * Obtains bitmap to render a new frame to. Must be passed to {@link #put} or returned with {@link #releaseBitmap}.
+   */
+  @NonNull
+  public Bitmap obtainBitmap (int width, int height) {
+    return ImageBitmapPool.instance().obtain(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  public void releaseBitmap (Bitmap bitmap) {
+    ImageBitmapPool.instance().release(bitmap);
+  }
+
+  /**
+   * Stores rendered frame. When the same frame has been rendered concurrently by another actor,
+   * the {@code bitmap} is released and the existing frame is returned instead.
+   *
+   * @param cacheable Whether frame can be shared, i.e. it has been rendered successfully.
+   * @return Frame with reference count of 1 owned by the caller.
+   */
+  @NonNull
+  public Entry put (long animationKey, long frameNo, Bitmap bitmap, boolean cacheable) {
+    final Entry newEntry = new Entry(animationKey, frameNo, bitmap);
+    final long key = frameKey(animationKey, frameNo);
+    ArrayList<Entry> evicted = null;
+    Entry result = newEntry;
+    synchronized (this) {
+      Entry existing = cacheable ? entries.get(key) : null;
+      if (existing != null && existing.animationKey == animationKey && existing.frameNo == frameNo) {
+        if (existing.refCount++ == 0) {
+          unlinkLocked(existing);
+        }
+        result = existing;
+      } else {
+        newEntry.refCount = 1;
+        if (cacheable && existing == null && newEntry.byteCount <= maxByteCount / 4) {
+          evicted = trimLocked(maxByteCount - newEntry.byteCount);
+        }
+        if (cacheable && existing == null && byteCount + newEntry.byteCount <= maxByteCount) {
+          newEntry.isCached = true;
+          entries.put(key, newEntry);
+          byteCount += newEntry.byteCount;
+        } else {
+          // All cached frames are in use or key collision, frame will be owned by the caller only
+          overflowCount++;
+        }
+      }
+    }
+    if (result != newEntry) {
+      releaseBitmap(bitmap);
+    }
+    releaseAll(evicted);
+    return result;
+  }
+
+  public void release (@Nullable Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    boolean releaseBitmap = false;
+    ArrayList<Entry> evicted = null;
+    synchronized (this) {
+      if (entry.refCount <= 0) {
+        throw new IllegalStateException();
+      }
+      if (--entry.refCount == 0) {
+        if (entry.isCached) {
+          linkLocked(entry);
+          evicted = trimLocked(maxByteCount);
+        } else {
+          releaseBitmap = true;
+        }
+      }
+    }
+    if (releaseBitmap) {
+      releaseBitmap(entry.bitmap);
+    }
+    releaseAll(evicted);
+  }
+
+  private void linkLocked (Entry entry) {
+    entry.prev = tail;
+    entry.next = null;
+    if (tail != null) {
+      tail.next = entry;
+    } else {
+      head = entry;
+    }
+    tail = entry;
+    unreferencedByteCount += entry.byteCount;
+  }
+
+  private void unlinkLocked (Entry entry) {
+    if (entry.prev != null) {
+      entry.prev.next = entry.next;
+    } else {
+      head = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    } else {
+      tail = entry.prev;
+    }
+    entry.prev = entry.next = null;
+    unreferencedByteCount -= entry.byteCount;
+  }
+
+  private ArrayList<Entry> trimLocked (long maxByteCount) {
+    ArrayList<Entry> evicted = null;
+    while (byteCount > maxByteCount && head != null) {
+      Entry entry = head;
+      unlinkLocked(entry);
+      entries.remove(frameKey(entry.animationKey, entry.frameNo));
+      entry.isCached = false;
+      byteCount -= entry.byteCount;
+      evictionCount++;
+      if (evicted == null) {
+        evicted = new ArrayList<>();
+      }
+      evicted.add(entry);
+    }
+    return evicted;
+  }
+
+  private void releaseAll (@Nullable ArrayList<Entry> entries) {
+    if (entries != null) {
+      for (Entry entry : entries) {
+        releaseBitmap(entry.bitmap);
+      }
+    }
+  }
+
+  public void onTrimMemory (int level) {
+    ArrayList<Entry> evicted;
+    synchronized (this) {
+      evicted = trimLocked(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ? 0 : maxByteCount / 2);
+    }
+    releaseAll(evicted);
+    if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+      Log.i(Log.TAG_GIF_LOADER, "onTrimMemory(%d): %s", level, this);
+    }
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    long requests = hitCount + missCount;
+    int hitPercent = requests != 0 ? (int) (100 * hitCount / requests) : 0;
+    return String.format(Locale.US, "GifFrameCache { %.2f/%.2f MiB (%.2f MiB unused), frames = %d, hits = %d, misses = %d (%d%% hit rate), evictions = %d, overflows = %d }",
+      ByteUnit.BYTE.toMiB(byteCount), ByteUnit.BYTE.toMiB(maxByteCount), ByteUnit.BYTE.toMiB(unreferencedByteCount),
+      entries.size(),
+      hitCount, missCount, hitPercent, evictionCount, overflowCount
+    );
+  }
+}
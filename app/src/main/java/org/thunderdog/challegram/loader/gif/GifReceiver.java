@@ -30,6 +30,7 @@ import android.view.View;
 import androidx.annotation.AnyThread;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
+import androidx.core.view.ViewCompat;
 
 import org.thunderdog.challegram.N;
 import org.thunderdog.challegram.U;
@@ -75,6 +76,12 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
 
   private GifFile file, cachedFile;
   private boolean isDetached;
+  // Snapshot of displayed file taken on UI thread, read by decoder thread to drop frames
+  private volatile int displayedFileId;
+  // Receiver that stops drawing without being detached (hidden parent, zero alpha, covered by an overlay)
+  // is no longer considered displayed after this timeout
+  private static final long DRAW_TIMEOUT_MS = 1000;
+  private volatile long lastDrawTime;
   private float progress;
 
   private float alpha = 1f;
@@ -138,6 +145,23 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
     return this.file != null && this.file.getFileId() == file.getFileId() ? view : null;
   }
 
+  @Override
+  public boolean isDisplayed (GifFile file) {
+    int displayedFileId = this.displayedFileId;
+    return displayedFileId != 0 && displayedFileId == file.getFileId() && SystemClock.uptimeMillis() - lastDrawTime <= DRAW_TIMEOUT_MS;
+  }
+
+  @UiThread
+  private void updateDisplayedState () {
+    boolean isDisplayed = !isDetached && file != null && (view == null || (ViewCompat.isAttachedToWindow(view) && view.getWindowVisibility() == View.VISIBLE));
+    int displayedFileId = isDisplayed ? file.getFileId() : 0;
+    if (displayedFileId != 0 && this.displayedFileId != displayedFileId) {
+      // Receiver is expected to be drawn shortly
+      this.lastDrawTime = SystemClock.uptimeMillis();
+    }
+    this.displayedFileId = displayedFileId;
+  }
+
   // Getters/Setters
 
   public boolean setBounds (int left, int top, int right, int bottom) {
@@ -335,6 +359,7 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
         GifBridge.instance().removeWatcher(reference);
       }
       this.file = file;
+      updateDisplayedState();
       this.state = file == null || file instanceof GifFileRemote || !TD.isFileLoaded(file.getFile()) ? 0 : STATE_LOADED;
       this.gif = null;
       if (fileId2 != 0) {
@@ -361,6 +386,7 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
         this.cachedFile = null;
       }
     }
+    updateDisplayedState();
   }
 
   @Override
@@ -374,6 +400,7 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
         isDetached = true;
       }
     }
+    updateDisplayedState();
   }
 
   @Override
@@ -792,6 +819,11 @@ public class GifReceiver implements GifWatcher, Runnable, Receiver {
     if (file == null) {
       return;
     }
+    lastDrawTime = SystemClock.uptimeMillis();
+    if (displayedFileId == 0) {
+      // Window became visible again
+      updateDisplayedState();
+    }
 
     if (gif != null) {
       boolean isFirstFrame = false;
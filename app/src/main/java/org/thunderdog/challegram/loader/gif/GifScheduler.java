@@ -0,0 +1,230 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 18:40
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import me.vkryl.core.MathUtils;
+
+/**
+ * Shared pool of decoder threads used by all {@link GifActor}s.
+ *
+ * Operations of a single actor are executed one at a time and in order, as native decoder is not thread-safe.
+ * Each actor is queued on the worker that executed it last, ordered by the deadline of the frame being prepared.
+ * Idle workers steal jobs from the most loaded worker. The amount of workers grows while frames
+ * are prepared past their deadlines, and shrinks back once extra workers stay idle.
+ */
+final class GifScheduler {
+  private static final int MIN_WORKER_COUNT = 2;
+  private static final long OVERDUE_THRESHOLD_MS = 8;
+  private static final long IDLE_TIMEOUT_MS = 10_000;
+
+  private static final Comparator<Job> DEADLINE_ORDER = (a, b) -> {
+    if (a.deadline != b.deadline) {
+      return Long.compare(a.deadline, b.deadline);
+    }
+    return Long.compare(a.order, b.order);
+  };
+
+  /**
+   * Operation queue of a single {@link GifActor}.
+   */
+  static final class Job {
+    private final GifActor actor;
+    private final ArrayDeque<Runnable> ops = new ArrayDeque<>(2);
+
+    private Worker worker;
+    private long deadline, order;
+    private boolean isQueued, isRunning;
+
+    Job (GifActor actor) {
+      this.actor = actor;
+    }
+  }
+
+  private final class Worker extends Thread {
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(11, DEADLINE_ORDER);
+    private boolean isBusy;
+    private long idleSince;
+
+    Worker (int id) {
+      super("GifThread#" + id);
+    }
+
+    @Override
+    public void run () {
+      while (true) {
+        final Job job;
+        final Runnable op;
+        synchronized (lock) {
+          Job nextJob;
+          while ((nextJob = takeJobLocked(this)) == null) {
+            long idleTime = SystemClock.uptimeMillis() - idleSince;
+            if (workers.size() > MIN_WORKER_COUNT && idleTime >= IDLE_TIMEOUT_MS) {
+              workers.remove(this);
+              if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+                Log.i(Log.TAG_GIF_LOADER, "%s retired, workers: %d", getName(), workers.size());
+              }
+              return;
+            }
+            try {
+              lock.wait(IDLE_TIMEOUT_MS - Math.min(idleTime, IDLE_TIMEOUT_MS - 1));
+            } catch (InterruptedException ignored) { }
+          }
+          job = nextJob;
+          op = job.ops.poll();
+          job.isRunning = true;
+          job.worker = this;
+          isBusy = true;
+          busyWorkerCount++;
+        }
+        try {
+          if (op != null) {
+            op.run();
+          }
+        } catch (Throwable t) {
+          Log.e(Log.TAG_GIF_LOADER, "GifActor operation failed", t);
+        }
+        synchronized (lock) {
+          job.isRunning = false;
+          isBusy = false;
+          busyWorkerCount--;
+          idleSince = SystemClock.uptimeMillis();
+          if (!job.ops.isEmpty()) {
+            enqueueLocked(job);
+          }
+        }
+      }
+    }
+  }
+
+  private final Object lock = new Object();
+  private final ArrayList<Worker> workers = new ArrayList<>();
+  private final int maxWorkerCount;
+  private int busyWorkerCount, queuedJobCount, lastWorkerId;
+  private long order;
+  private long stealCount, overdueCount, maxWorkerCountReached;
+
+  GifScheduler () {
+    this.maxWorkerCount = MathUtils.clamp(Runtime.getRuntime().availableProcessors() - 1, MIN_WORKER_COUNT, 6);
+    synchronized (lock) {
+      for (int i = 0; i < MIN_WORKER_COUNT; i++) {
+        addWorkerLocked();
+      }
+    }
+  }
+
+  /**
+   * Queues operation for the actor. Operations of the same job never run concurrently.
+   */
+  void post (Job job, Runnable op) {
+    synchronized (lock) {
+      job.ops.offer(op);
+      if (job.isQueued) {
+        long deadline = job.actor.getFrameDeadline();
+        if (deadline < job.deadline && job.worker.queue.remove(job)) {
+          job.deadline = deadline;
+          job.worker.queue.add(job);
+        }
+      } else if (!job.isRunning) {
+        enqueueLocked(job);
+      }
+    }
+  }
+
+  private void enqueueLocked (Job job) {
+    Worker target = job.worker;
+    if (target == null || !workers.contains(target)) {
+      target = null;
+      for (Worker worker : workers) {
+        if (target == null || getLoad(worker) < getLoad(target)) {
+          target = worker;
+        }
+      }
+    }
+    job.deadline = job.actor.getFrameDeadline();
+    job.order = ++order;
+    job.worker = target;
+    job.isQueued = true;
+    //noinspection ConstantConditions
+    target.queue.add(job);
+    queuedJobCount++;
+    lock.notifyAll();
+  }
+
+  private static int getLoad (Worker worker) {
+    return worker.queue.size() + (worker.isBusy ? 1 : 0);
+  }
+
+  private Job takeJobLocked (Worker worker) {
+    Job job = worker.queue.poll();
+    if (job == null) {
+      Worker victim = null;
+      for (Worker other : workers) {
+        if (other != worker && !other.queue.isEmpty() && (victim == null || other.queue.size() > victim.queue.size())) {
+          victim = other;
+        }
+      }
+      if (victim == null) {
+        return null;
+      }
+      job = victim.queue.poll();
+      stealCount++;
+    }
+    //noinspection ConstantConditions
+    job.isQueued = false;
+    queuedJobCount--;
+    if (job.deadline != 0 && SystemClock.uptimeMillis() - job.deadline > OVERDUE_THRESHOLD_MS) {
+      overdueCount++;
+      if (queuedJobCount > 0 && busyWorkerCount + 1 >= workers.size() && workers.size() < maxWorkerCount) {
+        addWorkerLocked();
+        if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+          Log.i(Log.TAG_GIF_LOADER, "Frames are late, workers: %d, %s", workers.size(), this);
+        }
+      }
+    }
+    return job;
+  }
+
+  private void addWorkerLocked () {
+    Worker worker = new Worker(lastWorkerId++);
+    worker.idleSince = SystemClock.uptimeMillis();
+    workers.add(worker);
+    maxWorkerCountReached = Math.max(maxWorkerCountReached, workers.size());
+    worker.start();
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    synchronized (lock) {
+      return String.format(Locale.US, "GifScheduler { workers = %d/%d (peak %d), busy = %d, queued = %d, steals = %d, overdue = %d }",
+        workers.size(), maxWorkerCount, maxWorkerCountReached,
+        busyWorkerCount, queuedJobCount,
+        stealCount, overdueCount
+      );
+    }
+  }
+}
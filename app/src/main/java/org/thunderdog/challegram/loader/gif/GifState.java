@@ -27,19 +27,43 @@ public class GifState {
   static final int DEFAULT_QUEUE_SIZE = 3;
 
   public static class Frame {
-    public final Bitmap bitmap;
+    public Bitmap bitmap;
     public long no;
+    private GifFrameCache.Entry shared;
 
     public Frame (Bitmap bitmap) {
       this.bitmap = bitmap;
     }
 
+    /**
+     * Displays frame from {@link GifFrameCache} instead of an own bitmap.
+     */
+    public void setShared (GifFrameCache.Entry shared) {
+      releaseShared();
+      this.shared = shared;
+      this.bitmap = shared.getBitmap();
+      this.no = shared.getFrameNo();
+    }
+
+    void releaseShared () {
+      if (shared != null) {
+        GifFrameCache.Entry shared = this.shared;
+        this.shared = null;
+        this.bitmap = null;
+        GifFrameCache.instance().release(shared);
+      }
+    }
+
     public boolean isRecycled () {
-      return bitmap.isRecycled();
+      return bitmap == null || bitmap.isRecycled();
     }
 
     public void recycle () {
-      bitmap.recycle();
+      if (shared != null) {
+        releaseShared();
+      } else {
+        bitmap.recycle();
+      }
     }
 
     public int getWidth () {
@@ -61,8 +85,19 @@ public class GifState {
   private final Callback callback;
   private int flags;
   private final int queueSize;
+  private final boolean sharedFrames;
+  private volatile long nextFrameDeadline;
 
   public GifState (int width, int height, int rotation, Callback callback, int queueSize) {
+    this(width, height, rotation, callback, queueSize, false);
+  }
+
+  /**
+   * @param sharedFrames Whether frames display bitmaps from {@link GifFrameCache}
+   * instead of allocating own bitmaps.
+   */
+  public GifState (int width, int height, int rotation, Callback callback, int queueSize, boolean sharedFrames) {
+    this.sharedFrames = sharedFrames;
     this.width = width;
     this.height = height;
     this.rotation = rotation;
@@ -85,9 +120,12 @@ public class GifState {
   public boolean init (FrameReader reader, int numInit, Bitmap.Config config) {
     synchronized (busy) {
       for (int i = 0; i < queueSize; i++) {
-        Bitmap bitmap = Bitmap.createBitmap(width, height, config);
-        if (bitmap == null) {
-          return false;
+        Bitmap bitmap = null;
+        if (!sharedFrames) {
+          bitmap = Bitmap.createBitmap(width, height, config);
+          if (bitmap == null) {
+            return false;
+          }
         }
         Frame frame = new Frame(bitmap);
         if (i < numInit) {
@@ -109,10 +147,21 @@ public class GifState {
     }
   }
 
+  public boolean hasSharedFrames () {
+    return sharedFrames;
+  }
+
   public void addFree (Frame busy) {
     synchronized (this.busy) {
-      free.offer(busy);
+      offerFree(busy);
+    }
+  }
+
+  private void offerFree (Frame frame) {
+    if (sharedFrames && frame != null) {
+      frame.releaseShared();
     }
+    free.offer(frame);
   }
 
   public Queue<Frame> getBusyList () {
@@ -122,7 +171,7 @@ public class GifState {
   public void addBusyPrioritized (Frame free) {
     synchronized (busy) {
       while (!busy.isEmpty()) {
-        this.free.offer(busy.removeLast());
+        offerFree(busy.removeLast());
       }
       busy.offer(free);
     }
@@ -136,7 +185,7 @@ public class GifState {
   public void clearBusy () {
     synchronized (busy) {
       while (busy.size() > 1) {
-        free.offer(busy.removeLast());
+        offerFree(busy.removeLast());
       }
     }
   }
@@ -180,6 +229,17 @@ public class GifState {
     return (flags & FLAG_FROZEN) != 0;
   }
 
+  /**
+   * @param deadline {@link android.os.SystemClock#uptimeMillis()} at which the next frame is expected to be displayed.
+   */
+  public void setNextFrameDeadline (long deadline) {
+    this.nextFrameDeadline = deadline;
+  }
+
+  public long getNextFrameDeadline () {
+    return nextFrameDeadline;
+  }
+
   public void applyNext () {
     synchronized (busy) {
       final boolean canApplyNext = (flags & FLAG_APPLY_NEXT) != 0;
@@ -190,7 +250,7 @@ public class GifState {
             if (busy != null) {
               callback.onApplyNextFrame(busy.no);
             }
-            free.offer(busy);
+            offerFree(busy);
           }
           callback.onRequestNextFrame();
         }
@@ -23,4 +23,7 @@ public interface GifWatcher {
   default View findTargetView (GifFile file) {
     return null;
   }
+  default boolean isDisplayed (GifFile file) {
+    return true;
+  }
 }
@@ -53,4 +53,9 @@ public class GifWatcherReference {
     GifWatcher watcher = reference.get();
     return watcher != null ? watcher.findTargetView(file) : null;
   }
+
+  public boolean isDisplayed (GifFile file) {
+    GifWatcher watcher = reference.get();
+    return watcher != null && watcher.isDisplayed(file);
+  }
 }
@@ -0,0 +1,481 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 20:25
+ */
+package org.thunderdog.challegram.loader.gif;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityManagerCompat;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.core.BaseThread;
+import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.telegram.TdlibAccount;
+import org.thunderdog.challegram.tool.UI;
+import org.thunderdog.challegram.unsorted.Settings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import me.vkryl.core.FileUtils;
+import me.vkryl.core.StringUtils;
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Disk store of pre-rendered Lottie frames.
+ *
+ * Each animation is stored in a single file created by {@code N.createLottieCache}: LZ4-compressed frames
+ * appended one after another, followed by a frame offset index, so that the decoder memory-maps the file and reads any frame directly.
+ *
+ * All files are tracked in a single manifest with their sizes, expiration and last access times,
+ * so eviction never has to list directories or scan settings. Files are removed once they expire and are no longer displayed,
+ * and in LRU order once the store exceeds its size limit.
+ */
+public final class LottieFrameStore {
+  private static LottieFrameStore instance;
+
+  public static LottieFrameStore instance () {
+    if (instance == null) {
+      synchronized (LottieFrameStore.class) {
+        if (instance == null) {
+          instance = new LottieFrameStore();
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static final int MANIFEST_MAGIC = 0x54475346; // TGSF
+  private static final int MANIFEST_VERSION = 1;
+  private static final String MANIFEST_NAME = "manifest";
+  private static final long MANIFEST_SAVE_DELAY_MS = 2000;
+  private static final long TEMP_FILE_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+  private static final String REMOVED_DIR_SUFFIX = "_removed_";
+
+  // Keys used by the previous implementation, which tracked files in settings
+  private static final String LEGACY_KEY_PREFIX = "lottie_";
+
+  private static class Entry {
+    final String path;
+    long size, expiresAt, accessTime;
+    int useCount;
+
+    Entry (String path, long size, long expiresAt, long accessTime) {
+      this.path = path;
+      this.size = size;
+      this.expiresAt = expiresAt;
+      this.accessTime = accessTime;
+    }
+  }
+
+  private final BaseThread storeThread = new BaseThread("LottieFrameStoreThread");
+  private final BaseThread[] creationThreads = new BaseThread[4];
+  private final long maxByteCount;
+
+  // Path relative to cache dir -> entry, in access order
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, .75f, true);
+  private boolean isLoaded, isSaveScheduled;
+  private long byteCount;
+  private long nextExpirationTime;
+
+  private LottieFrameStore () {
+    ActivityManager am = (ActivityManager) UI.getAppContext().getSystemService(Context.ACTIVITY_SERVICE);
+    this.maxByteCount = ByteUnit.MIB.toBytes(ActivityManagerCompat.isLowRamDevice(am) ? 32 : 96);
+  }
+
+  public static File getCacheDir () {
+    return new File(TD.getCacheDir(true), "tgs");
+  }
+
+  private static File getManifestFile () {
+    return new File(getCacheDir(), MANIFEST_NAME);
+  }
+
+  /**
+   * Thread on which frames of the animations with the specified {@link GifFile.OptimizationMode} are pre-rendered.
+   */
+  public BaseThread thread (int optimizationMode) {
+    synchronized (creationThreads) {
+      if (creationThreads[optimizationMode] == null) {
+        creationThreads[optimizationMode] = new BaseThread("LottieFrameStoreThread-" + optimizationMode);
+      }
+      return creationThreads[optimizationMode];
+    }
+  }
+
+  private static String getRelativePath (int accountId, int size, boolean oneTime, int fitzpatrickType, String originalFileName) {
+    String folderName = oneTime ? "thumbs" + size : Integer.toString(size);
+    if (fitzpatrickType != 0) {
+      folderName += "_" + fitzpatrickType;
+    }
+    return accountId + "/" + folderName + "/" + originalFileName;
+  }
+
+  /**
+   * Returns file that holds frames of the animation, which is marked as used until {@link #release} is called.
+   *
+   * @param oneTime Whether file should be deleted as soon as animation is no longer displayed.
+   * @param keepAliveMs How long file should be kept after last use.
+   */
+  @Nullable
+  public File acquire (GifFile file, boolean oneTime, int size, int fitzpatrickType, long keepAliveMs) {
+    final int accountId = file.tdlib() != null ? file.tdlib().id() : TdlibAccount.NO_ID;
+    final String originalFileName = new File(file.getFilePath()).getName();
+    if (StringUtils.isEmpty(originalFileName)) {
+      return null;
+    }
+    final String path = getRelativePath(accountId, size, oneTime, fitzpatrickType, originalFileName);
+    final File cacheFile = new File(getCacheDir(), path);
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      ensureLoadedLocked();
+      if (!FileUtils.createDirectory(cacheFile.getParentFile())) {
+        return null;
+      }
+      Entry entry = entries.get(path);
+      if (entry == null) {
+        entry = new Entry(path, 0, 0, now);
+        entries.put(path, entry);
+      }
+      entry.useCount++;
+      entry.accessTime = now;
+      entry.expiresAt = oneTime ? 0 : Math.max(entry.expiresAt, now + keepAliveMs);
+    }
+    return cacheFile;
+  }
+
+  /**
+   * Marks file returned by {@link #acquire} as no longer used.
+   *
+   * @param delete Whether file should be deleted, e.g. because it is broken or it is a one-time cache.
+   */
+  public void release (File cacheFile, boolean delete) {
+    storeThread.post(() -> {
+      final String path = getRelativePath(cacheFile);
+      final long now = System.currentTimeMillis();
+      ArrayList<File> removedFiles = null;
+      final long nextExpirationTime;
+      synchronized (this) {
+        ensureLoadedLocked();
+        Entry entry = path != null ? entries.get(path) : null;
+        if (entry != null) {
+          entry.useCount = Math.max(0, entry.useCount - 1);
+          entry.accessTime = now;
+          if (delete || (entry.useCount == 0 && entry.expiresAt <= now)) {
+            removeEntryLocked(entry);
+            removedFiles = new ArrayList<>();
+            removedFiles.add(cacheFile);
+          } else {
+            byteCount -= entry.size;
+            entry.size = cacheFile.length();
+            byteCount += entry.size;
+          }
+        } else if (delete) {
+          removedFiles = new ArrayList<>();
+          removedFiles.add(cacheFile);
+        }
+        removedFiles = trimLocked(now, removedFiles);
+        nextExpirationTime = this.nextExpirationTime;
+      }
+      deleteFiles(removedFiles);
+      scheduleSave();
+      scheduleGc(nextExpirationTime, now);
+    }, 0);
+  }
+
+  /**
+   * Updates size of the file returned by {@link #acquire} once its frames have been written,
+   * so size limit is checked against the actual size, not the one from the last {@link #release}.
+   */
+  public void onFileWritten (File cacheFile) {
+    storeThread.post(() -> {
+      final String path = getRelativePath(cacheFile);
+      final long now = System.currentTimeMillis();
+      final ArrayList<File> removedFiles;
+      final long nextExpirationTime;
+      synchronized (this) {
+        ensureLoadedLocked();
+        Entry entry = path != null ? entries.get(path) : null;
+        if (entry == null) {
+          return;
+        }
+        byteCount -= entry.size;
+        entry.size = cacheFile.length();
+        byteCount += entry.size;
+        removedFiles = trimLocked(now, null);
+        nextExpirationTime = this.nextExpirationTime;
+      }
+      deleteFiles(removedFiles);
+      scheduleSave();
+      scheduleGc(nextExpirationTime, now);
+    }, 0);
+  }
+
+  @Nullable
+  private static String getRelativePath (File cacheFile) {
+    String cacheDir = getCacheDir().getPath() + File.separator;
+    String path = cacheFile.getPath();
+    return path.startsWith(cacheDir) ? path.substring(cacheDir.length()) : null;
+  }
+
+  private void removeEntryLocked (Entry entry) {
+    entries.remove(entry.path);
+    byteCount -= entry.size;
+  }
+
+  /**
+   * Removes expired entries and least recently used entries over the size limit, except the ones in use.
+   */
+  private ArrayList<File> trimLocked (long now, @Nullable ArrayList<File> removedFiles) {
+    final File cacheDir = getCacheDir();
+    nextExpirationTime = 0;
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next().getValue();
+      if (entry.useCount > 0) {
+        continue;
+      }
+      if (entry.expiresAt <= now || byteCount > maxByteCount) {
+        it.remove();
+        byteCount -= entry.size;
+        if (removedFiles == null) {
+          removedFiles = new ArrayList<>();
+        }
+        removedFiles.add(new File(cacheDir, entry.path));
+      } else if (nextExpirationTime == 0 || entry.expiresAt < nextExpirationTime) {
+        nextExpirationTime = entry.expiresAt;
+      }
+    }
+    return removedFiles;
+  }
+
+  private static void deleteFiles (@Nullable ArrayList<File> files) {
+    if (files != null) {
+      for (File file : files) {
+        if (file.exists() && !file.delete()) {
+          Log.w(Log.TAG_GIF_LOADER, "Cannot delete lottie cache file: %s", file.getPath());
+        }
+      }
+    }
+  }
+
+  // Manifest
+
+  private void ensureLoadedLocked () {
+    if (isLoaded) {
+      return;
+    }
+    isLoaded = true;
+    File manifestFile = getManifestFile();
+    if (!manifestFile.exists()) {
+      // Files created by the previous implementation are in incompatible format and tracked in settings
+      deleteCacheDirLocked(true);
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+      if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+        throw new IOException("Unknown manifest format");
+      }
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+        entries.put(entry.path, entry);
+        byteCount += entry.size;
+      }
+    } catch (IOException e) {
+      Log.e(Log.TAG_GIF_LOADER, "Cannot read lottie cache manifest, resetting", e);
+      entries.clear();
+      byteCount = 0;
+      deleteCacheDirLocked(false);
+    }
+  }
+
+  /**
+   * Moves cache directory aside, so it can be filled again right away, and deletes it on {@link #storeThread},
+   * as this is called from decoder threads.
+   */
+  private void deleteCacheDirLocked (boolean removeLegacySettings) {
+    final File cacheDir = getCacheDir();
+    final File removedDir = new File(cacheDir.getParentFile(), cacheDir.getName() + REMOVED_DIR_SUFFIX + System.currentTimeMillis());
+    final File dirToDelete = !cacheDir.exists() || cacheDir.renameTo(removedDir) ? removedDir : cacheDir;
+    storeThread.post(() -> {
+      if (dirToDelete.exists()) {
+        FileUtils.delete(dirToDelete, true);
+      }
+      if (removeLegacySettings) {
+        Settings.instance().pmc().removeByPrefix(LEGACY_KEY_PREFIX);
+      }
+    }, 0);
+    // Empty manifest prevents doing this again on the next launch
+    scheduleSave();
+  }
+
+  private void scheduleSave () {
+    synchronized (this) {
+      if (isSaveScheduled) {
+        return;
+      }
+      isSaveScheduled = true;
+    }
+    storeThread.post(this::save, MANIFEST_SAVE_DELAY_MS);
+  }
+
+  private void save () {
+    final ArrayList<Entry> snapshot;
+    synchronized (this) {
+      isSaveScheduled = false;
+      snapshot = new ArrayList<>(entries.size());
+      for (Entry entry : entries.values()) {
+        snapshot.add(new Entry(entry.path, entry.size, entry.expiresAt, entry.accessTime));
+      }
+    }
+    final File cacheDir = getCacheDir();
+    if (!FileUtils.createDirectory(cacheDir)) {
+      return;
+    }
+    final File manifestFile = getManifestFile();
+    final File tempFile = new File(cacheDir, MANIFEST_NAME + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(MANIFEST_MAGIC);
+      out.writeInt(MANIFEST_VERSION);
+      out.writeInt(snapshot.size());
+      // Least recently used entries go first, so access order is restored on load
+      for (Entry entry : snapshot) {
+        out.writeUTF(entry.path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.expiresAt);
+        out.writeLong(entry.accessTime);
+      }
+    } catch (IOException e) {
+      Log.e(Log.TAG_GIF_LOADER, "Cannot write lottie cache manifest", e);
+      tempFile.delete();
+      return;
+    }
+    if (!tempFile.renameTo(manifestFile)) {
+      tempFile.delete();
+    }
+  }
+
+  // GC
+
+  private final Runnable gcRunnable = this::gc;
+
+  /**
+   * Removes expired files, files over the size limit and files that are not tracked by the manifest.
+   */
+  public void gc () {
+    storeThread.post(() -> {
+      final long now = System.currentTimeMillis();
+      final ArrayList<File> removedFiles;
+      final Set<String> knownPaths;
+      final long nextExpirationTime;
+      synchronized (this) {
+        ensureLoadedLocked();
+        removedFiles = trimLocked(now, null);
+        knownPaths = new HashSet<>(entries.keySet());
+        nextExpirationTime = this.nextExpirationTime;
+      }
+      deleteFiles(removedFiles);
+      deleteRemovedDirs();
+      final int orphanCount = deleteUntrackedFiles(getCacheDir(), "", knownPaths, now);
+      scheduleSave();
+      scheduleGc(nextExpirationTime, now);
+      if (Log.isEnabled(Log.TAG_GIF_LOADER)) {
+        Log.i(Log.TAG_GIF_LOADER, "Lottie cache gc, removed: %d, untracked: %d, %s", removedFiles != null ? removedFiles.size() : 0, orphanCount, this);
+      }
+    }, 0);
+  }
+
+  private void scheduleGc (long nextExpirationTime, long now) {
+    storeThread.getHandler().removeCallbacks(gcRunnable);
+    if (nextExpirationTime != 0) {
+      storeThread.post(gcRunnable, Math.max(0, nextExpirationTime - now));
+    }
+  }
+
+  private static void deleteRemovedDirs () {
+    // Left over when process was killed before they were deleted
+    final File cacheDir = getCacheDir();
+    final String prefix = cacheDir.getName() + REMOVED_DIR_SUFFIX;
+    File[] dirs = cacheDir.getParentFile() != null ? cacheDir.getParentFile().listFiles((dir, name) -> name.startsWith(prefix)) : null;
+    if (dirs != null) {
+      for (File dir : dirs) {
+        FileUtils.delete(dir, true);
+      }
+    }
+  }
+
+  private static int deleteUntrackedFiles (File dir, String prefix, Set<String> knownPaths, long now) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int count = 0;
+    for (File file : files) {
+      String path = prefix + file.getName();
+      if (file.isDirectory()) {
+        count += deleteUntrackedFiles(file, path + "/", knownPaths, now);
+        String[] remaining = file.list();
+        if (remaining != null && remaining.length == 0) {
+          file.delete();
+        }
+      } else if (!knownPaths.contains(path) && !(prefix.isEmpty() && MANIFEST_NAME.equals(path))) {
+        if (path.endsWith(".tmp") && now - file.lastModified() < TEMP_FILE_MAX_AGE_MS) {
+          // Frames might be still being written
+          continue;
+        }
+        if (file.delete()) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  public boolean clear () {
+    synchronized (this) {
+      entries.clear();
+      byteCount = 0;
+      isLoaded = true;
+    }
+    storeThread.getHandler().removeCallbacks(gcRunnable);
+    return FileUtils.delete(getCacheDir(), true);
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    return String.format(Locale.US, "LottieFrameStore { %.2f/%.2f MiB, files = %d }",
+      ByteUnit.BYTE.toMiB(byteCount), ByteUnit.BYTE.toMiB(maxByteCount),
+      entries.size()
+    );
+  }
+}
@@ -24,6 +24,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
@@ -240,6 +241,7 @@ public class MediaCellView extends ViewGroup implements
 
     this.imageReceiver = new ImageReceiver(imageView, 0);
     this.imageReceiver.prepareToBeCropped();
+    this.imageReceiver.setCompleteListener((imageReceiver, imageFile) -> checkTimeToSharp());
     this.gifReceiver = new GifReceiver(imageView);
     this.avatarReceiver = new AvatarReceiver(imageView);
     this.avatarReceiver.setDisplayFullSizeOnlyInFullScreen(true);
@@ -301,10 +303,49 @@ public class MediaCellView extends ViewGroup implements
       subsamplingImageView.setAlpha(isLoaded || forceTouchMode ? 1f : 0f);
       if (isLoaded) {
         imageView.invalidate();
+        checkTimeToSharp();
       }
     }
   }
 
+  // Time to sharp
+
+  private long timeToSharpStartTime;
+
+  /**
+   * Starts measuring time between this cell becoming current and its full-size image being displayed.
+   */
+  public void startTimeToSharpMeasurement () {
+    if (!Log.checkLogLevel(Log.LEVEL_VERBOSE) || media == null || media.isVideo()) {
+      timeToSharpStartTime = 0;
+      return;
+    }
+    timeToSharpStartTime = SystemClock.uptimeMillis();
+    if (isSharp()) {
+      // Full-size image was decoded while this cell was the preview one
+      timeToSharpStartTime = 0;
+      Log.v("MediaViewer time to sharp: 0ms, preloaded: true, neighbors: %d", MediaPreloader.NEIGHBOR_COUNT);
+    }
+  }
+
+  private boolean isSharp () {
+    if (media == null || media.isVideo()) {
+      return false;
+    }
+    if (subsamplingModeEnabled) {
+      return subsamplingImageLoaded;
+    }
+    return receiver == imageReceiver && imageReceiver.isLoaded();
+  }
+
+  private void checkTimeToSharp () {
+    if (timeToSharpStartTime != 0 && isSharp()) {
+      long elapsedMs = SystemClock.uptimeMillis() - timeToSharpStartTime;
+      timeToSharpStartTime = 0;
+      Log.v("MediaViewer time to sharp: %dms, preloaded: false, neighbors: %d", elapsedMs, MediaPreloader.NEIGHBOR_COUNT);
+    }
+  }
+
   @Override
   protected void onLayout (boolean changed, int left, int top, int right, int bottom) {
     final int childCount = getChildCount();
@@ -1320,6 +1361,7 @@ public class MediaCellView extends ViewGroup implements
     }
 
     this.media = media;
+    this.timeToSharpStartTime = 0;
     this.bufferingProgressView.setProgressVisibleInstant(false);
 
     boolean needLock = needLock();
@@ -0,0 +1,180 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 19/10/2026 at 00:05
+ */
+package org.thunderdog.challegram.mediaview;
+
+import android.content.Context;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.loader.ImageFile;
+import org.thunderdog.challegram.loader.ImageFileLocal;
+import org.thunderdog.challegram.loader.ImageReceiver;
+import org.thunderdog.challegram.mediaview.data.MediaItem;
+import org.thunderdog.challegram.mediaview.data.MediaStack;
+import org.thunderdog.challegram.telegram.FileUpdateListener;
+import org.thunderdog.challegram.telegram.TdlibFilesManager;
+import org.thunderdog.challegram.tool.Screen;
+
+import java.util.ArrayList;
+
+import me.vkryl.core.unit.ByteUnit;
+
+/**
+ * Prepares media items next to the current one in {@link MediaViewController},
+ * so they are sharp as soon as user swipes to them.
+ *
+ * For {@link #NEIGHBOR_COUNT} items in the swipe direction (and one item behind):
+ * remote photos are downloaded, first {@link #VIDEO_PREBUFFER_BYTES} of videos are downloaded,
+ * and previews are decoded. Full-size images that are displayed through {@link ImageReceiver}
+ * (e.g. gallery photos) are decoded as well, as long as they fit into the memory budget.
+ * Items that are no longer around the current one release their receivers and cancel downloads
+ * started only for them.
+ *
+ * Full-size remote photos are displayed through a subsampling view that can't share decoded bitmaps,
+ * so the closest one is decoded by pre-opening it in the preview cell of {@link MediaView}.
+ */
+@UiThread
+final class MediaPreloader implements FileUpdateListener {
+  static final int NEIGHBOR_COUNT = 3;
+  private static final int BEHIND_COUNT = 1;
+  private static final long VIDEO_PREBUFFER_BYTES = ByteUnit.MIB.toBytes(1);
+  private static final int BUDGET_SCREEN_COUNT = 3;
+
+  private static final class Entry {
+    final MediaItem item;
+    final ImageReceiver preview, target;
+    @Nullable TdApi.File referencedFile;
+    long cost;
+
+    Entry (View view, MediaItem item) {
+      this.item = item;
+      this.preview = new ImageReceiver(view, 0);
+      this.target = new ImageReceiver(view, 0);
+    }
+  }
+
+  private final View receiverView;
+  private final long memoryBudget;
+  private final ArrayList<Entry> entries = new ArrayList<>();
+  private final ArrayList<MediaItem> targets = new ArrayList<>();
+  private long usedMemory;
+
+  MediaPreloader (Context context) {
+    // Never attached to window, so decodes are performed after visible content
+    this.receiverView = new View(context);
+    long screenBytes = (long) Screen.widestActualSide() * Screen.smallestActualSide() * 4;
+    this.memoryBudget = Math.min(screenBytes * BUDGET_SCREEN_COUNT, Runtime.getRuntime().maxMemory() / 8);
+  }
+
+  /**
+   * @param direction {@link MediaView#DIRECTION_FORWARD} or {@link MediaView#DIRECTION_BACKWARD}
+   */
+  public void preload (MediaStack stack, int direction) {
+    int currentIndex = stack.getCurrentIndex();
+    int step = direction == MediaView.DIRECTION_BACKWARD ? -1 : 1;
+    targets.clear();
+    for (int i = 1; i <= NEIGHBOR_COUNT; i++) {
+      addTarget(stack, currentIndex + step * i);
+    }
+    for (int i = 1; i <= BEHIND_COUNT; i++) {
+      addTarget(stack, currentIndex - step * i);
+    }
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      Entry entry = entries.get(i);
+      if (!targets.remove(entry.item)) {
+        release(entry);
+        entries.remove(i);
+      }
+    }
+    for (MediaItem item : targets) {
+      Entry entry = new Entry(receiverView, item);
+      load(entry);
+      entries.add(entry);
+    }
+    targets.clear();
+  }
+
+  private void addTarget (MediaStack stack, int index) {
+    if (index >= 0 && index < stack.getCurrentSize()) {
+      MediaItem item = stack.get(index);
+      if (item != null && !item.isAvatar() && !item.isGifType()) {
+        targets.add(item);
+      }
+    }
+  }
+
+  private void load (Entry entry) {
+    MediaItem item = entry.item;
+    entry.preview.requestFile(item.getPreviewImageFile());
+
+    TdApi.File file = item.getTargetFile();
+    if (file != null && item.tdlib() != null && !TD.isFileLoaded(file) && file.remote.isUploadingCompleted) {
+      if (item.isVideo()) {
+        // Enough to start playback without waiting for the network
+        item.tdlib().files().addCloudReference(file, TdlibFilesManager.PRIORITY_PRELOAD_VIDEO, 0, VIDEO_PREBUFFER_BYTES, this, true);
+        entry.referencedFile = file;
+      } else if (item.isPhoto()) {
+        item.tdlib().files().addCloudReference(file, TdlibFilesManager.PRIORITY_PRELOAD_IMAGE, this, true);
+        entry.referencedFile = file;
+      }
+    }
+
+    ImageFile targetImage = item.getTargetImageFile(true);
+    if (targetImage != null && item.isPhoto() && !(targetImage instanceof ImageFileLocal) && !targetImage.isRemote()) {
+      long cost = estimateDecodedSize(item);
+      if (usedMemory + cost <= memoryBudget) {
+        usedMemory += cost;
+        entry.cost = cost;
+        entry.target.requestFile(targetImage);
+      }
+    }
+  }
+
+  private static long estimateDecodedSize (MediaItem item) {
+    long screenPixels = (long) Screen.widestActualSide() * Screen.smallestActualSide();
+    long pixels = (long) item.getWidth() * item.getHeight();
+    return (pixels > 0 ? Math.min(pixels, screenPixels) : screenPixels) * 4;
+  }
+
+  private void release (Entry entry) {
+    entry.preview.destroy();
+    entry.target.destroy();
+    usedMemory -= entry.cost;
+    entry.cost = 0;
+    if (entry.referencedFile != null) {
+      TdlibFilesManager files = entry.item.tdlib().files();
+      // Keep download, if it was also requested by viewer itself, e.g. when the item was current
+      files.removeCloudReference(entry.referencedFile, this, !files.hasPendingOperation(entry.referencedFile.id));
+      entry.referencedFile = null;
+    }
+  }
+
+  public void cancel () {
+    for (Entry entry : entries) {
+      release(entry);
+    }
+    entries.clear();
+    usedMemory = 0;
+  }
+
+  @Override
+  public void onUpdateFile (TdApi.UpdateFile updateFile) {
+    // Progress is tracked by viewer cells once item becomes visible
+  }
+}
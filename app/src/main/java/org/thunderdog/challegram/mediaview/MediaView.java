@@ -469,7 +469,7 @@ public class MediaView extends FrameLayoutFix {
         }
         isAnimating = false;
         if (factor == 0f && previewCell != null) {
-          previewCell.setMedia(null);
+          previewCell.setMedia(findPreopenMedia());
         }
       }
     });
@@ -500,6 +500,26 @@ public class MediaView extends FrameLayoutFix {
     }
   }
 
+  private boolean preopenEnabled;
+  private int lastSwipeDirection = DIRECTION_FORWARD;
+
+  /**
+   * Enables keeping the next photo in the swipe direction opened in the idle preview cell,
+   * so its full-size image is decoded before user swipes to it.
+   */
+  public void setPreopenEnabled (boolean enabled) {
+    this.preopenEnabled = enabled;
+  }
+
+  @Nullable
+  private MediaItem findPreopenMedia () {
+    if (!preopenEnabled) {
+      return null;
+    }
+    MediaItem item = lastSwipeDirection == DIRECTION_BACKWARD ? stack.getPrevious() : stack.getNext();
+    return item != null && item.isPhoto() && !item.isGifType() ? item : null;
+  }
+
   private boolean applyPreview () {
     if (factor <= -.5f) {
       if (!stack.hasPrevious()) {
@@ -507,12 +527,14 @@ public class MediaView extends FrameLayoutFix {
       }
       stack.applyPrevious();
       setFactorImpl(1f + factor);
+      lastSwipeDirection = DIRECTION_BACKWARD;
     } else if (factor >= .5f) {
       if (!stack.hasNext()) {
         return false;
       }
       stack.applyNext();
       setFactorImpl(-1f + factor);
+      lastSwipeDirection = DIRECTION_FORWARD;
     } else {
       return false;
     }
@@ -520,6 +542,7 @@ public class MediaView extends FrameLayoutFix {
     MediaCellView cell = baseCell;
     baseCell = previewCell;
     previewCell = cell;
+    baseCell.startTimeToSharpMeasurement();
 
     translateCells();
     invalidate();
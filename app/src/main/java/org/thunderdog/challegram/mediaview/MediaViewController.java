@@ -1536,6 +1536,7 @@ public class MediaViewController extends ViewController<MediaViewController.Args
 
   @Override
   public void onMediaChanged (int index, int estimatedTotalSize, MediaItem currentItem, boolean itemCountChanged) {
+    preloadNeighbors(index, itemCountChanged);
     switch (mode) {
       case MODE_GALLERY: {
         checkView.setChecked(selectDelegate != null && selectDelegate.isMediaItemSelected(index, currentItem));
@@ -1570,6 +1571,24 @@ public class MediaViewController extends ViewController<MediaViewController.Args
     }
   }
 
+  private @Nullable MediaPreloader preloader;
+  private int preloadIndex = -1;
+  private int preloadDirection = MediaView.DIRECTION_FORWARD;
+
+  private void preloadNeighbors (int index, boolean itemCountChanged) {
+    if (mode == MODE_SECRET) {
+      return;
+    }
+    if (preloader == null) {
+      preloader = new MediaPreloader(context);
+    }
+    if (!itemCountChanged && preloadIndex != -1 && index != preloadIndex) {
+      preloadDirection = index > preloadIndex ? MediaView.DIRECTION_FORWARD : MediaView.DIRECTION_BACKWARD;
+    }
+    preloadIndex = index;
+    preloader.preload(stack, preloadDirection);
+  }
+
   // Controller-related stuff
 
   @Override
@@ -5141,11 +5160,13 @@ public class MediaViewController extends ViewController<MediaViewController.Args
     mediaView = new MediaView(context);
     mediaView.setFactorChangeListener(this);
     mediaView.prepare(mode != MODE_SECRET);
+    mediaView.setPreopenEnabled(mode == MODE_MESSAGES || mode == MODE_SIMPLE || mode == MODE_PROFILE || mode == MODE_CHAT_PROFILE);
     updateMediaView();
     mediaView.setCellCallback(this);
     mediaView.setBoundController(this);
     mediaView.initWithStack(stack);
     stack.setCallback(this);
+    preloadNeighbors(stack.getCurrentIndex(), false);
     mediaView.setLayoutParams(FrameLayoutFix.newParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
     contentView.addView(mediaView);
 
@@ -5502,6 +5523,10 @@ public class MediaViewController extends ViewController<MediaViewController.Args
       Views.destroyRecyclerView(thumbsRecyclerView);
     }
     TGLegacyManager.instance().removeEmojiListener(this);
+    if (preloader != null) {
+      preloader.cancel();
+      preloader = null;
+    }
     if (mediaView != null) {
       mediaView.destroy();
     }
@@ -8842,9 +8867,14 @@ public class MediaViewController extends ViewController<MediaViewController.Args
 
   private void replaceArguments (Args args) {
     stack.setCallback(null);
+    if (preloader != null) {
+      preloader.cancel();
+    }
+    preloadIndex = -1;
     setArguments(args);
     mediaView.initWithStack(stack);
     stack.setCallback(this);
+    preloadNeighbors(stack.getCurrentIndex(), false);
   }
 
   /* * */
@@ -0,0 +1,40 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:10
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.NonNull;
+
+import org.drinkless.tdlib.TdApi;
+
+import java.util.List;
+
+/**
+ * {@link MessageListener} that receives new messages and edits of a chat in batches.
+ *
+ * {@link #onNewMessage}, {@link #onMessageContentChanged} and {@link #onMessageEdited} are not called for such listeners.
+ * Instead, all such updates of the same chat received in a burst are delivered at once,
+ * before any other update related to that chat.
+ */
+public interface MessageBatchListener extends MessageListener {
+  /**
+   * @param messages New messages in the order they were received.
+   */
+  void onNewMessages (long chatId, @NonNull List<TdApi.Message> messages);
+
+  /**
+   * @param updates {@link TdApi.UpdateMessageContent} and {@link TdApi.UpdateMessageEdited} in the order they were received.
+   */
+  void onMessagesChanged (long chatId, @NonNull List<TdApi.Update> updates);
+}
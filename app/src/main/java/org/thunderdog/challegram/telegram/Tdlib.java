@@ -82,6 +82,8 @@ import org.thunderdog.challegram.unsorted.Passcode;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.ChangeLogList;
 import org.thunderdog.challegram.util.DrawableProvider;
+import org.thunderdog.challegram.util.LongIntMap;
+import org.thunderdog.challegram.util.LongObjectMap;
 import org.thunderdog.challegram.util.UserProvider;
 import org.thunderdog.challegram.util.WrapperProvider;
 import org.thunderdog.challegram.util.text.Letters;
@@ -257,6 +259,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     private final Client client;
 
     private final TdlibResourceManager resources, updates;
+    private final TdlibUpdateCoalescer coalescer;
     private boolean running = true;
 
     private long initializationTime;
@@ -279,6 +282,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       Log.i(Log.TAG_ACCOUNTS, "Creating client #%d", runningClients.incrementAndGet());
       this.tdlib = tdlib;
       this.client = Client.create(this, this, this);
+      this.coalescer = new TdlibUpdateCoalescer(tdlib, client, tdlib.updateStats);
       tdlib.updateParameters(client);
       if (Config.NEED_ONLINE) {
         if (tdlib.isOnline) {
@@ -304,6 +308,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     public void runOnTdlibThread (Runnable after, double timeout, @Nullable CancellationSignal cancellationSignal) {
       client.send(new TdApi.SetAlarm(timeout), ignored -> {
         if (cancellationSignal == null || !cancellationSignal.isCanceled()) {
+          coalescer.flush();
           after.run();
         }
       });
@@ -380,7 +385,11 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       if (running) {
         long ms = SystemClock.uptimeMillis();
         if (object instanceof TdApi.Update) {
-          tdlib.processUpdate(this, (TdApi.Update) object);
+          TdApi.Update update = (TdApi.Update) object;
+          long startNanos = System.nanoTime();
+          coalescer.beforeUpdate(update);
+          tdlib.processUpdate(this, update);
+          tdlib.updateStats.onUpdateProcessed(update, System.nanoTime() - startNanos);
         } else {
           Log.e("Invalid update type: %s", object);
         }
@@ -430,8 +439,10 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
 
   private final Object clientLock = new Object();
   private final Object dataLock = new Object();
-  private final HashMap<Long, TdApi.Chat> chats = new HashMap<>();
-  private final HashMap<Long, TdApi.ChatActiveStories> activeStories = new HashMap<>();
+  private final TdlibUpdateStats updateStats;
+  // Modified only under dataLock, read without locking
+  private final LongObjectMap<TdApi.Chat> chats = new LongObjectMap<>();
+  private final LongObjectMap<TdApi.ChatActiveStories> activeStories = new LongObjectMap<>();
   private final SparseIntArray storyListChatCount = new SparseIntArray();
   private final SparseArrayCompat<StoryList> storyLists = new SparseArrayCompat<>();
   private final HashMap<String, TdlibChatList> chatLists = new HashMap<>();
@@ -439,7 +450,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     animatedTgxEmoji = new StickerSet(AnimatedEmojiListener.TYPE_TGX, "AnimatedTgxEmojies", false),
     animatedDiceExplicit = new StickerSet(AnimatedEmojiListener.TYPE_DICE, "BetterDice", true);
   private final HashSet<Long> knownChatIds = new HashSet<>();
-  private final HashMap<Long, Integer> chatOnlineMemberCount = new HashMap<>();
+  private final LongIntMap chatOnlineMemberCount = new LongIntMap();
   private final TdlibCache cache;
   private final TdlibEmojiManager emoji;
   private final TdlibEmojiReactionsManager reactions;
@@ -467,7 +478,14 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   private Set<String> activeEmojiReactions;
   private TdApi.ReactionType defaultReactionType;
   private TdApi.PaidReactionType defaultPaidReactionType;
-  private final Map<String, TGReaction> cachedReactions = new HashMap<>();
+  // Custom emoji reactions are not limited by the set of available reactions
+  private static final int MAX_CACHED_REACTIONS_COUNT = 500;
+  private final Map<String, TGReaction> cachedReactions = new LinkedHashMap<String, TGReaction>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry (Map.Entry<String, TGReaction> eldest) {
+      return size() > MAX_CACHED_REACTIONS_COUNT;
+    }
+  };
 
   private int storyStealthModeActiveUntilDate, storyStealthModeCooldownUntilDate;
 
@@ -506,6 +524,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   /*package*/ Tdlib (TdlibAccount account, @Mode int mode) {
     this.context = account.context;
     this.accountId = account.id;
+    this.updateStats = new TdlibUpdateStats(account.id);
     this.instanceMode = mode;
     this.hasUnprocessedPushes = account.hasUnprocessedPushes();
     this.isLoggingOut = account.isLoggingOut();
@@ -1810,6 +1829,34 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     }
   }
 
+  /**
+   * Delivers listener notifications delayed by {@link TdlibUpdateCoalescer}, so that chat lists match chat positions.
+   */
+  @TdlibThread
+  void flushPendingUpdates () {
+    ClientHolder client = this.client;
+    if (client != null) {
+      client.coalescer.flush();
+    }
+  }
+
+  /**
+   * Delivers message update to {@link MessageBatchListener}s together with other message updates of the same chat.
+   */
+  @TdlibThread
+  private void batchMessageUpdate (long chatId, TdApi.Update update) {
+    ClientHolder client = this.client;
+    if (client != null) {
+      client.coalescer.onMessageUpdate(chatId, update);
+    } else {
+      listeners.updateMessageBatch(chatId, Collections.singletonList(update));
+    }
+  }
+
+  TdlibUpdateStats updateStats () {
+    return updateStats;
+  }
+
   public void postOnTdlibThread (@NonNull Runnable runnable) {
     runOnTdlibThread(runnable, 0, true);
   }
@@ -2630,11 +2677,11 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   public int chatOnlineMemberCount (long chatId) {
     if (chatId == 0)
       return 0;
-    final Integer onlineMemberCount;
+    final int onlineMemberCount;
     synchronized (dataLock) {
-      onlineMemberCount = chatOnlineMemberCount.get(chatId);
+      onlineMemberCount = chatOnlineMemberCount.get(chatId, 0);
     }
-    return onlineMemberCount != null && onlineMemberCount > 1 ? onlineMemberCount : 0;
+    return onlineMemberCount > 1 ? onlineMemberCount : 0;
   }
 
   public int chatMemberCount (long chatId) {
@@ -2676,20 +2723,13 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     if (chatId == 0) {
       return null;
     }
-    final TdApi.Chat chat;
-    synchronized (dataLock) {
-      chat = chats.get(chatId);
-    }
-    return chat;
+    return chats.get(chatId);
   }
 
   public @NonNull TdApi.Chat chatStrict (long chatId) {
-    final TdApi.Chat chat;
-    synchronized (dataLock) {
-      chat = chats.get(chatId);
-      if (chat == null) {
-        throw new IllegalStateException("updateChat not received for id:" + chatId);
-      }
+    final TdApi.Chat chat = chats.get(chatId);
+    if (chat == null) {
+      throw new IllegalStateException("updateChat not received for id:" + chatId);
     }
     return chat;
   }
@@ -2768,6 +2808,19 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     return list;
   }
 
+  /**
+   * Lists ignore chats they don't contain, so all of them are checked
+   * instead of reading {@link TdApi.Chat#positions} under data lock.
+   */
+  @TdlibThread
+  private void updateChatListFlags (long chatId) {
+    synchronized (chatLists) {
+      for (TdlibChatList chatList : chatLists.values()) {
+        chatList.onChatFlagsChanged(chatId);
+      }
+    }
+  }
+
   private @Nullable TdlibChatList[] chatListsImpl (@Nullable TdApi.ChatPosition[] positions) {
     if (positions == null || positions.length == 0) {
       return null;
@@ -7514,6 +7567,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     }
 
     listeners.updateNewMessage(update);
+    batchMessageUpdate(update.message.chatId, update);
 
     notificationManager.onUpdateNewMessage(update);
 
@@ -7579,6 +7633,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     }
 
     listeners.updateMessageContent(update);
+    batchMessageUpdate(update.chatId, update);
     context.global().notifyUpdateMessageContent(this, update);
 
     switch (update.newContent.getConstructor()) {
@@ -7601,6 +7656,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   @TdlibThread
   private void updateMessageEdited (TdApi.UpdateMessageEdited update) {
     listeners.updateMessageEdited(update);
+    batchMessageUpdate(update.chatId, update);
     // TODO notifications per-edit?
   }
 
@@ -7637,6 +7693,9 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       counterChanged = chat.unreadMentionCount != update.unreadMentionCount;
       chat.unreadMentionCount = update.unreadMentionCount;
     }
+    if (availabilityChanged) {
+      updateChatListFlags(update.chatId);
+    }
 
     listeners.updateMessageMentionRead(update, counterChanged, availabilityChanged);
   }
@@ -7666,6 +7725,9 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       chat.unreadReactionCount = update.unreadReactionCount;
       chatLists = counterChanged || availabilityChanged ? chatListsImpl(chat.positions) : null;
     }
+    if (availabilityChanged) {
+      updateChatListFlags(update.chatId);
+    }
 
 
     listeners.updateMessageUnreadReactions(update, counterChanged, availabilityChanged, chat, chatLists);
@@ -7837,6 +7899,9 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       availabilityChanged = (chat.unreadMentionCount > 0) != (update.unreadMentionCount > 0);
       chat.unreadMentionCount = update.unreadMentionCount;
     }
+    if (availabilityChanged) {
+      updateChatListFlags(update.chatId);
+    }
     listeners.updateChatUnreadMentionCount(update, availabilityChanged);
   }
 
@@ -7868,11 +7933,14 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       chat.unreadReactionCount = update.unreadReactionCount;
       chatLists = chatListsImpl(chat.positions);
     }
+    if (availabilityChanged) {
+      updateChatListFlags(update.chatId);
+    }
     listeners.updateChatUnreadReactionCount(update, availabilityChanged, chat, chatLists);
   }
 
   @TdlibThread
-  private void updateChatLastMessage (TdApi.UpdateChatLastMessage update) {
+  private void updateChatLastMessage (ClientHolder context, TdApi.UpdateChatLastMessage update) {
     if (Log.isEnabled(Log.TAG_MESSAGES_LOADER)) {
       Log.i(Log.TAG_MESSAGES_LOADER, "updateChatTopMessage chatId=%d messageId=%d", update.chatId, update.lastMessage != null ? update.lastMessage.id : 0);
     }
@@ -7885,7 +7953,8 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       chat.lastMessage = update.lastMessage;
       listChanges = setChatPositions(chat, update.positions);
     }
-    listeners.updateChatLastMessage(update, listChanges);
+    updateChatListFlags(update.chatId);
+    context.coalescer.onChatLastMessage(update, listChanges);
   }
 
   public static int CHAT_MARKED_AS_UNREAD = -1;
@@ -8060,7 +8129,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   }
 
   @TdlibThread
-  private void updateChatPosition (TdApi.UpdateChatPosition update) {
+  private void updateChatPosition (ClientHolder context, TdApi.UpdateChatPosition update) {
     final ChatListChange chatListChange;
     synchronized (dataLock) {
       final TdApi.Chat chat = chats.get(update.chatId);
@@ -8080,7 +8149,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       }
     }
     if (chatListChange != null) {
-      listeners.updateChatPosition(update, chatListChange);
+      context.coalescer.onChatPosition(update, chatListChange);
     }
   }
 
@@ -8264,6 +8333,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       }
       chat.hasScheduledMessages = update.hasScheduledMessages;
     }
+    updateChatListFlags(update.chatId);
 
     listeners.updateChatHasScheduledMessages(update);
   }
@@ -8295,7 +8365,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   }
 
   @TdlibThread
-  private void updateChatReadInbox (TdApi.UpdateChatReadInbox update) {
+  private void updateChatReadInbox (ClientHolder context, TdApi.UpdateChatReadInbox update) {
     final TdApi.Chat chat;
     final boolean availabilityChanged;
     final TdlibChatList[] chatLists;
@@ -8312,7 +8382,10 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       chat.unreadCount = update.unreadCount;
       chatLists = chatListsImpl(chat.positions);
     }
-    listeners.updateChatReadInbox(update, availabilityChanged, chat, chatLists);
+    if (availabilityChanged) {
+      updateChatListFlags(update.chatId);
+    }
+    context.coalescer.onChatReadInbox(update, availabilityChanged, chat, chatLists);
   }
 
   @TdlibThread
@@ -8344,7 +8417,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
   }
 
   @TdlibThread
-  private void updateChatDraftMessage (TdApi.UpdateChatDraftMessage update) {
+  private void updateChatDraftMessage (ClientHolder context, TdApi.UpdateChatDraftMessage update) {
     final List<ChatListChange> listChanges;
     synchronized (dataLock) {
       final TdApi.Chat chat = chats.get(update.chatId);
@@ -8354,14 +8427,13 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       chat.draftMessage = update.draftMessage;
       listChanges = setChatPositions(chat, update.positions);
     }
-    listeners.updateChatDraftMessage(update, listChanges);
+    context.coalescer.onChatDraftMessage(update, listChanges);
   }
 
   @TdlibThread
   private void updateChatOnlineMemberCount (TdApi.UpdateChatOnlineMemberCount update) {
     synchronized (dataLock) {
-      Integer onlineCountObj = chatOnlineMemberCount.get(update.chatId);
-      int count = onlineCountObj != null ? onlineCountObj : 0;
+      int count = chatOnlineMemberCount.get(update.chatId, 0);
       if (update.onlineMemberCount == count)
         return;
       if (update.onlineMemberCount != 0)
@@ -8451,6 +8523,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
       }
       chat.isMarkedAsUnread = update.isMarkedAsUnread;
     }
+    updateChatListFlags(update.chatId);
 
     listeners.updateChatIsMarkedAsUnread(update);
   }
@@ -8511,11 +8584,9 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
 
   @Nullable
   public TdApi.ChatActiveStories getActiveStories (long chatId, boolean allowRequest, @Nullable RunnableData<TdApi.ChatActiveStories> onLoaded) {
-    synchronized (dataLock) {
-      TdApi.ChatActiveStories stories = this.activeStories.get(chatId);
-      if (stories != null) {
-        return stories;
-      }
+    TdApi.ChatActiveStories stories = this.activeStories.get(chatId);
+    if (stories != null) {
+      return stories;
     }
     if (allowRequest) {
       client().send(new TdApi.GetChatActiveStories(chatId), result -> {
@@ -8560,8 +8631,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
     final TdApi.ChatActiveStories prevActiveStories;
     synchronized (dataLock) {
       final long chatId = update.activeStories.chatId;
-      prevActiveStories = activeStories.remove(chatId);
-      activeStories.put(chatId, update.activeStories);
+      prevActiveStories = activeStories.put(chatId, update.activeStories);
     }
     listeners.updateChatActiveStories(update);
     boolean wasPresent = prevActiveStories != null && prevActiveStories.stories.length > 0 && prevActiveStories.list != null;
@@ -10049,7 +10119,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
         break;
       }
       case TdApi.UpdateChatPosition.CONSTRUCTOR: {
-        updateChatPosition((TdApi.UpdateChatPosition) update);
+        updateChatPosition(context, (TdApi.UpdateChatPosition) update);
         break;
       }
       case TdApi.UpdateChatAddedToList.CONSTRUCTOR: {
@@ -10089,7 +10159,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
         break;
       }
       case TdApi.UpdateChatLastMessage.CONSTRUCTOR: {
-        updateChatLastMessage((TdApi.UpdateChatLastMessage) update);
+        updateChatLastMessage(context, (TdApi.UpdateChatLastMessage) update);
         break;
       }
       case TdApi.UpdateChatTitle.CONSTRUCTOR: {
@@ -10121,7 +10191,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
         break;
       }
       case TdApi.UpdateChatReadInbox.CONSTRUCTOR: {
-        updateChatReadInbox((TdApi.UpdateChatReadInbox) update);
+        updateChatReadInbox(context, (TdApi.UpdateChatReadInbox) update);
         break;
       }
       case TdApi.UpdateChatReadOutbox.CONSTRUCTOR: {
@@ -10133,7 +10203,7 @@ public class Tdlib implements TdlibProvider, Settings.SettingsChangeListener, Da
         break;
       }
       case TdApi.UpdateChatDraftMessage.CONSTRUCTOR: {
-        updateChatDraftMessage((TdApi.UpdateChatDraftMessage) update);
+        updateChatDraftMessage(context, (TdApi.UpdateChatDraftMessage) update);
         break;
       }
       case TdApi.UpdateChatAction.CONSTRUCTOR: {
@@ -14,6 +14,7 @@
  */
 package org.thunderdog.challegram.telegram;
 
+import android.content.ComponentCallbacks2;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
@@ -42,21 +43,20 @@ import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.tool.UI;
 import org.thunderdog.challegram.util.AppUpdater;
 import org.thunderdog.challegram.util.DrawableProvider;
+import org.thunderdog.challegram.util.LongObjectMap;
 import org.thunderdog.challegram.util.text.Letters;
 import org.thunderdog.challegram.voip.annotation.CallState;
 import org.thunderdog.challegram.voip.gui.CallSettings;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import me.vkryl.android.AppInstallationUtil;
 import me.vkryl.core.StringUtils;
 import me.vkryl.core.collection.LongSparseIntArray;
-import me.vkryl.core.collection.LongSparseLongArray;
 import me.vkryl.core.lambda.CancellableRunnable;
 import me.vkryl.core.lambda.RunnableData;
 import me.vkryl.core.reference.ReferenceIntMap;
@@ -112,34 +112,64 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     void onChatMemberStatusChange (long chatId, TdApi.ChatMember member);
   }
 
+  // Full info limits per account. Evicted objects are requested again on the next access
+  private static final int MAX_USER_FULL_COUNT = 300;
+  private static final int MAX_BASIC_GROUP_FULL_COUNT = 100;
+  private static final int MAX_SUPERGROUP_FULL_COUNT = 200;
+
+  // Rough estimates used only for reporting
+  private static final int FULL_INFO_BASE_SIZE = 512;
+  private static final int CHAT_MEMBER_SIZE = 96;
+
+  private static int stringSize (@Nullable String str) {
+    return str != null ? str.length() * 2 : 0;
+  }
+
+  private static int textSize (@Nullable TdApi.FormattedText text) {
+    return text != null ? stringSize(text.text) + (text.entities != null ? text.entities.length * 32 : 0) : 0;
+  }
+
+  private static boolean hasListeners (@Nullable Iterator<?> itr) {
+    return itr != null && itr.hasNext();
+  }
+
   private final Tdlib tdlib;
   private volatile long myUserId;
 
-  private final HashMap<Long, TdApi.User> users = new HashMap<>();
-  private final HashMap<Long, TdApi.UserFullInfo> userFulls = new HashMap<>();
+  // Modified only under dataLock, read without locking
+  private final LongObjectMap<TdApi.User> users = new LongObjectMap<>();
   private final ReferenceLongMap<UserDataChangeListener> userListeners = new ReferenceLongMap<>(true);
+  private final TdlibFullInfoCache<TdApi.UserFullInfo> userFulls = new TdlibFullInfoCache<>("userFulls", MAX_USER_FULL_COUNT,
+    userId -> userId == myUserId || hasListeners(userListeners.iterator(userId)),
+    userFull -> FULL_INFO_BASE_SIZE + textSize(userFull.bio) + (userFull.botInfo != null ? FULL_INFO_BASE_SIZE + stringSize(userFull.botInfo.description) : 0)
+  );
 
   private final ReferenceMap.FullnessListener<Long, UserStatusChangeListener> statusFullnessListener = (list, isFull) -> setRefreshNeeded(isFull);
   private final ReferenceLongMap<UserStatusChangeListener> statusListeners = new ReferenceLongMap<>(true, statusFullnessListener);
   private final ReferenceLongMap<UserStatusChangeListener> simpleStatusListeners = new ReferenceLongMap<>(true, null);
   private final ReferenceList<MyUserDataChangeListener> myUserListeners = new ReferenceList<>(true);
 
-  private final HashMap<Long, TdApi.Community> communities = new HashMap<>();
+  private final LongObjectMap<TdApi.Community> communities = new LongObjectMap<>();
   private final ReferenceList<CommunityDataChangeListener> communityGlobalListeners = new ReferenceList<>(true);
   private final ReferenceLongMap<CommunityDataChangeListener> communityListeners = new ReferenceLongMap<>(true);
 
-  private final HashMap<Long, TdApi.BasicGroup> basicGroup = new HashMap<>();
-  private final HashMap<Long, TdApi.BasicGroupFullInfo> basicGroupFull = new HashMap<>();
+  private final LongObjectMap<TdApi.BasicGroup> basicGroup = new LongObjectMap<>();
   private final ReferenceList<BasicGroupDataChangeListener> groupsGlobalListeners = new ReferenceList<>(true);
   private final ReferenceLongMap<BasicGroupDataChangeListener> groupListeners = new ReferenceLongMap<>(true);
+  private final TdlibFullInfoCache<TdApi.BasicGroupFullInfo> basicGroupFull = new TdlibFullInfoCache<>("basicGroupFulls", MAX_BASIC_GROUP_FULL_COUNT,
+    basicGroupId -> hasListeners(groupListeners.iterator(basicGroupId)),
+    groupFull -> FULL_INFO_BASE_SIZE + stringSize(groupFull.description) + (groupFull.members != null ? groupFull.members.length * CHAT_MEMBER_SIZE : 0)
+  );
 
-  private final HashMap<Long, TdApi.Supergroup> supergroups = new HashMap<>();
-  private final HashMap<Long, TdApi.SupergroupFullInfo> supergroupsFulls = new HashMap<>();
-  private final LongSparseLongArray supergroupsFullsLastUpdateTime = new LongSparseLongArray();
+  private final LongObjectMap<TdApi.Supergroup> supergroups = new LongObjectMap<>();
   private final ReferenceList<SupergroupDataChangeListener> supergroupsGlobalListeners = new ReferenceList<>();
   private final ReferenceLongMap<SupergroupDataChangeListener> supergroupListeners = new ReferenceLongMap<>();
+  private final TdlibFullInfoCache<TdApi.SupergroupFullInfo> supergroupsFulls = new TdlibFullInfoCache<>("supergroupFulls", MAX_SUPERGROUP_FULL_COUNT,
+    supergroupId -> hasListeners(supergroupListeners.iterator(supergroupId)),
+    supergroupFull -> FULL_INFO_BASE_SIZE + stringSize(supergroupFull.description)
+  );
 
-  private final HashMap<Integer, TdApi.SecretChat> secretChats = new HashMap<>();
+  private final ConcurrentHashMap<Integer, TdApi.SecretChat> secretChats = new ConcurrentHashMap<>();
   private final ReferenceList<SecretChatDataChangeListener> secretChatsGlobalListeners = new ReferenceList<>();
   private final ReferenceIntMap<SecretChatDataChangeListener> secretChatListeners = new ReferenceIntMap<>();
 
@@ -328,15 +358,56 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
     clear();
   }
 
+  /**
+   * Evicts full info objects that have no active listeners, depending on memory pressure.
+   */
+  public void onTrimMemory (int level) {
+    final int percentage;
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      percentage = 0;
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      percentage = 25;
+    } else {
+      percentage = 50;
+    }
+    final boolean needReport = Log.checkLogLevel(Log.LEVEL_VERBOSE);
+    String report = null;
+    synchronized (dataLock) {
+      userFulls.trimToSize(userFulls.maxSize() / 100 * percentage);
+      basicGroupFull.trimToSize(basicGroupFull.maxSize() / 100 * percentage);
+      supergroupsFulls.trimToSize(supergroupsFulls.maxSize() / 100 * percentage);
+      if (needReport) {
+        report = fullInfoReport();
+      }
+    }
+    if (needReport) {
+      Log.v("accountId:%d onTrimMemory(%d): %s", tdlib.id(), level, report);
+    }
+  }
+
+  private String fullInfoReport () {
+    return userFulls + ", " + basicGroupFull + ", " + supergroupsFulls;
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    synchronized (dataLock) {
+      return "TdlibCache { " + fullInfoReport() + " }";
+    }
+  }
+
   // Clear
 
   public void clear () {
-    users.clear();
-    userFulls.clear();
-    basicGroup.clear();
-    basicGroupFull.clear();
-    supergroups.clear();
-    supergroupsFulls.clear();
+    synchronized (dataLock) {
+      users.clear();
+      basicGroup.clear();
+      supergroups.clear();
+      userFulls.clear();
+      basicGroupFull.clear();
+      supergroupsFulls.clear();
+    }
     secretChats.clear();
     calls.clear();
     callSettings.clear();
@@ -914,24 +985,20 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
       Log.bug("getUser for userId=0");
       return null;
     }
-    synchronized (dataLock) {
-      TdApi.User user = users.get(userId);
-      if (user == null)
-        Log.bug("updateUser missing for userId:%d", userId);
-      return user;
-    }
+    TdApi.User user = users.get(userId);
+    if (user == null)
+      Log.bug("updateUser missing for userId:%d", userId);
+    return user;
   }
 
   @NonNull
   public TdApi.User userStrict (long userId) {
     if (userId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.User user = users.get(userId);
-      if (user == null)
-        throw new IllegalStateException("id" + userId);
-      return user;
-    }
+    TdApi.User user = users.get(userId);
+    if (user == null)
+      throw new IllegalStateException("id" + userId);
+    return user;
   }
 
   public boolean userLastSeenAvailable (long userId) {
@@ -1112,10 +1179,9 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public TdApi.UserFullInfo userFull (long userId, boolean allowRequest) {
     TdApi.UserFullInfo userFull;
     synchronized (dataLock) {
-      Long key = userId;
-      userFull = userFulls.get(key);
+      userFull = userFulls.get(userId);
       if (userFull == null || allowRequest) {
-        TdApi.User user = users.get(key);
+        TdApi.User user = users.get(userId);
         if (user != null) {
           tdlib.client().send(new TdApi.GetUserFullInfo(userId), dataHandler);
         } else {
@@ -1160,9 +1226,7 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public @Nullable TdApi.User searchUser (String username, boolean allowDisabled) {
     TdApi.User result = null;
     synchronized (dataLock) {
-      final Set<HashMap.Entry<Long, TdApi.User>> entries = users.entrySet();
-      for (HashMap.Entry<Long, TdApi.User> entry : entries) {
-        TdApi.User user = entry.getValue();
+      for (TdApi.User user : users.values()) {
         if (Td.findUsername(user, username, allowDisabled)) {
           result = user;
           break;
@@ -1181,21 +1245,17 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.BasicGroup basicGroup (long basicGroupId) {
-    synchronized (dataLock) {
-      return basicGroup.get(basicGroupId);
-    }
+    return basicGroup.get(basicGroupId);
   }
 
   @NonNull
   public TdApi.BasicGroup basicGroupStrict (long basicGroupId) {
     if (basicGroupId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.BasicGroup group = basicGroup.get(basicGroupId);
-      if (group == null)
-        throw new IllegalStateException("id:" + basicGroupId);
-      return group;
-    }
+    TdApi.BasicGroup group = basicGroup.get(basicGroupId);
+    if (group == null)
+      throw new IllegalStateException("id:" + basicGroupId);
+    return group;
   }
 
   public boolean basicGroupActive (long basicGroupId) {
@@ -1217,11 +1277,10 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   private TdApi.BasicGroupFullInfo basicGroupFullUnsafe (long basicGroupId, boolean allowRequest) {
-    Long key = basicGroupId;
     TdApi.BasicGroupFullInfo groupFull;
-    groupFull = basicGroupFull.get(key);
+    groupFull = basicGroupFull.get(basicGroupId);
     if (groupFull == null || allowRequest) {
-      TdApi.BasicGroup basicGroup = this.basicGroup.get(key);
+      TdApi.BasicGroup basicGroup = this.basicGroup.get(basicGroupId);
       if (basicGroup != null) {
         tdlib.client().send(new TdApi.GetBasicGroupFullInfo(basicGroupId), dataHandler);
       } else {
@@ -1260,21 +1319,17 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   @Nullable
   public TdApi.Supergroup supergroup (long supergroupId) {
-    synchronized (dataLock) {
-      return supergroups.get(supergroupId);
-    }
+    return supergroups.get(supergroupId);
   }
 
   @NonNull
   public TdApi.Supergroup supergroupStrict (long supergroupId) {
     if (supergroupId == 0)
       throw new IllegalArgumentException();
-    synchronized (dataLock) {
-      TdApi.Supergroup supergroup = supergroups.get(supergroupId);
-      if (supergroup == null)
-        throw new IllegalStateException("id:" + supergroupId);
-      return supergroup;
-    }
+    TdApi.Supergroup supergroup = supergroups.get(supergroupId);
+    if (supergroup == null)
+      throw new IllegalStateException("id:" + supergroupId);
+    return supergroup;
   }
 
   @Nullable
@@ -1292,10 +1347,9 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   public TdApi.SupergroupFullInfo supergroupFull (long supergroupId, boolean allowRequest) {
     TdApi.SupergroupFullInfo result;
     synchronized (dataLock) {
-      Long key = supergroupId;
-      result = supergroupsFulls.get(key);
+      result = supergroupsFulls.get(supergroupId);
       if (result == null || allowRequest) {
-        TdApi.Supergroup supergroup = supergroups.get(key);
+        TdApi.Supergroup supergroup = supergroups.get(supergroupId);
         if (supergroup != null) {
           tdlib.client().send(new TdApi.GetSupergroupFullInfo(supergroupId), dataHandler);
         } else {
@@ -1308,7 +1362,7 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   public long getSlowModeDelayExpiresIn (long supergroupId, TimeUnit timeUnit) {
     synchronized (dataLock) {
-      final long lastUpdateTime = supergroupsFullsLastUpdateTime.get(supergroupId, 0);
+      final long lastUpdateTime = supergroupsFulls.updateTime(supergroupId);
       final TdApi.SupergroupFullInfo supergroupFullInfo = supergroupsFulls.get(supergroupId);
       if (supergroupFullInfo != null) {
         final long delayExpiresInMillis = TimeUnit.SECONDS.toMillis((long) supergroupFullInfo.slowModeDelayExpiresIn);
@@ -1347,9 +1401,7 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
   }
 
   public @Nullable TdApi.SecretChat secretChat (int secretChatId) {
-    synchronized (dataLock) {
-      return secretChats.get(secretChatId);
-    }
+    return secretChats.get(secretChatId);
   }
 
   @NonNull
@@ -1879,7 +1931,6 @@ public class TdlibCache implements LiveLocationManager.OutputDelegate, CleanupSt
 
   private boolean putSupergroupFull (long supergroupId, TdApi.SupergroupFullInfo supergroupFull) {
     supergroupsFulls.put(supergroupId, supergroupFull);
-    supergroupsFullsLastUpdateTime.put(supergroupId, SystemClock.uptimeMillis());
     return true;
   }
 
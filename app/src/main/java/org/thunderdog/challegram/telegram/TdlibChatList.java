@@ -19,12 +19,10 @@ import androidx.annotation.Nullable;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.Log;
-import org.thunderdog.challegram.data.TD;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -34,7 +32,6 @@ import me.vkryl.core.lambda.RunnableData;
 import me.vkryl.core.lambda.RunnableInt;
 import me.vkryl.core.reference.ReferenceList;
 import tgx.td.ChatPosition;
-import tgx.td.Td;
 
 public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
   public static class Entry implements Comparable<Entry> {
@@ -79,7 +76,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
 
   private final Tdlib tdlib;
   private final TdApi.ChatList chatList;
-  private final ArrayList<Entry> list = new ArrayList<>();
+  private final TdlibChatListTree<Entry> list = new TdlibChatListTree<>();
   private final List<Runnable> onLoadMore = new ArrayList<>();
   private final List<RunnableData<TdApi.Chat>> perChatCallbacks = new ArrayList<>();
 
@@ -182,55 +179,37 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
 
   public boolean hasUnreadMentions () {
     synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.unreadMentionCount > 0)
-          return true;
-      }
-      return false;
+      return list.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS);
     }
   }
 
   public boolean hasUnreadReactions () {
     synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.unreadReactionCount > 0)
-          return true;
-      }
-      return false;
+      return list.hasFlag(TdlibChatListTree.FLAG_UNREAD_REACTIONS);
     }
   }
 
   public boolean hasScheduledMessages () {
     synchronized (list) {
-      for (Entry entry : list) {
-        if (entry.chat.hasScheduledMessages)
-          return true;
-      }
-      return false;
+      return list.hasFlag(TdlibChatListTree.FLAG_SCHEDULED_MESSAGES);
     }
   }
 
   public boolean hasFailedMessages () {
     synchronized (list) {
-      for (Entry entry : list) {
-        if (TD.isFailed(entry.chat.lastMessage))
-          return true;
-      }
-      return false;
+      return list.hasFlag(TdlibChatListTree.FLAG_FAILED_MESSAGES);
+    }
+  }
+
+  public boolean hasUnreadChats () {
+    synchronized (list) {
+      return list.hasFlag(TdlibChatListTree.FLAG_UNREAD);
     }
   }
 
   public int maxDate () {
     synchronized (list) {
-      int maxDate = 0;
-      for (Entry entry : list) {
-        if (entry.chat.lastMessage != null) {
-          maxDate = Math.max(entry.chat.lastMessage.date, maxDate);
-          if (!ChatPosition.isPinned(entry.chat, chatList))
-            break;
-        }
-      }
-      return maxDate;
+      return list.maxDate();
     }
   }
 
@@ -325,6 +304,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
     }
     setState(State.LOADING);
     tdlib.client().send(new TdApi.LoadChats(chatList, limit), result -> {
+      tdlib.flushPendingUpdates();
       boolean endReached = result.getConstructor() == TdApi.Error.CONSTRUCTOR;
       setState(endReached ? State.END_REACHED : State.END_NOT_REACHED);
       if (!onLoadMore.isEmpty()) {
@@ -372,17 +352,6 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
     return o1.compareTo(o2);
   }
 
-  private int indexOfEntry (long chatId) {
-    int index = 0;
-    for (Entry entry : list) {
-      if (entry.chat.id == chatId) {
-        return index;
-      }
-      index++;
-    }
-    return -1;
-  }
-
   // Updates handling
 
   @TdlibThread
@@ -398,7 +367,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
   @TdlibThread
   void onUpdateChatPosition (TdApi.Chat chat, Tdlib.ChatChange changeInfo) {
     TdApi.ChatPosition position = changeInfo.position;
-    int prevIndex = indexOfEntry(chat.id);
+    int prevIndex = list.indexOf(chat.id);
     if (prevIndex == -1) {
       if (position.order != 0) {
         addChatToList(new Entry(chat, chatList(), position), changeInfo);
@@ -410,13 +379,8 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
       if (changeInfo.orderChanged()) {
         int newIndex;
         synchronized (list) {
-          existingEntry = list.remove(prevIndex);
-          Td.copyTo(position, existingEntry.effectivePosition);
-          newIndex = Collections.binarySearch(this.list, existingEntry, this);
-          if (newIndex >= 0)
-            throw new IllegalStateException();
-          newIndex = newIndex * -1 - 1;
-          list.add(newIndex, existingEntry);
+          newIndex = list.move(chat.id, position);
+          existingEntry = list.get(newIndex);
         }
         if (newIndex != prevIndex) {
           tdlib.listeners().updateChatMoved(this, existingEntry.chat, prevIndex, newIndex, changeInfo);
@@ -431,6 +395,13 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
     }
   }
 
+  @TdlibThread
+  void onChatFlagsChanged (long chatId) {
+    synchronized (list) {
+      list.updateAggregates(chatId);
+    }
+  }
+
   void clear () {
     tdlib.ensureTdlibThread();
     while (!list.isEmpty()) {
@@ -447,7 +418,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
   public String toString () {
     return chatList +
       "(tdlib: " + tdlib +
-      ", list: " + list +
+      ", size: " + list.size() +
       ", state: " + state +
       ')';
   }
@@ -456,11 +427,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
     tdlib.ensureTdlibThread();
     int atIndex;
     synchronized (list) {
-      atIndex = Collections.binarySearch(this.list, entry, this);
-      if (atIndex >= 0)
-        throw new IllegalStateException();
-      atIndex = atIndex * -1 - 1;
-      list.add(atIndex, entry);
+      atIndex = list.add(entry);
     }
     for (RunnableData<TdApi.Chat> perChatCallback : perChatCallbacks) {
       perChatCallback.runWithData(entry.chat);
@@ -471,7 +438,7 @@ public final class TdlibChatList implements Comparator<TdlibChatList.Entry> {
   private void removeChatFromList (int fromIndex, Tdlib.ChatChange changeInfo) {
     Entry entry;
     synchronized (list) {
-      entry = list.remove(fromIndex);
+      entry = list.removeAt(fromIndex);
     }
     tdlib.listeners().updateChatRemoved(this, entry.chat, fromIndex, changeInfo);
   }
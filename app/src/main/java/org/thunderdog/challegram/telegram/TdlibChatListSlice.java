@@ -21,7 +21,6 @@ import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.Log;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import me.vkryl.core.lambda.Destroyable;
@@ -45,7 +44,7 @@ public final class TdlibChatListSlice implements Destroyable {
   private final @Nullable Modifier modifier;
 
   private ChatListListener listener, subListener;
-  private final List<Entry> filteredList = new ArrayList<>();
+  private final TdlibChatListTree<Entry> filteredList = new TdlibChatListTree<>();
   private RunnableData<List<Entry>> subCallback;
   private int maxSize;
   private int displayCount;
@@ -79,7 +78,6 @@ public final class TdlibChatListSlice implements Destroyable {
     this.sourceList = chatList;
     this.filter = filter;
     this.keepPositions = keepPositions;
-    this.haveCustomModifications = keepPositions;
     this.modifier = modifier;
   }
 
@@ -116,28 +114,7 @@ public final class TdlibChatListSlice implements Destroyable {
 
   @TdlibThread
   private int indexOfChat (long chatId) {
-    // TODO lookup without increase in number of operations
-    int index = 0;
-    for (Entry entry : filteredList) {
-      if (entry.chat.id == chatId) {
-        return index;
-      }
-      index++;
-    }
-    return -1;
-  }
-
-  @TdlibThread
-  private int findExistingIndex (int originalIndex, long chatId) {
-    return needSort() ? indexOfChat(chatId) : originalIndex;
-  }
-
-  @TdlibThread
-  protected int findInsertIndex (Entry entry) {
-    final int atIndex = Collections.binarySearch(filteredList, entry);
-    if (atIndex >= 0)
-      throw new IllegalStateException();
-    return -atIndex - 1;
+    return filteredList.indexOf(chatId);
   }
 
   public void initializeList (@NonNull ChatListListener subListener, @NonNull RunnableData<List<Entry>> subCallback, int initialChunkSize, Runnable onLoadInitialChunk) {
@@ -149,7 +126,7 @@ public final class TdlibChatListSlice implements Destroyable {
       @Override
       public void onChatChanged (TdlibChatList chatList, TdApi.Chat chat, int index, Tdlib.ChatChange changeInfo) {
         ensureTdlibThreadAndList(chatList);
-        index = findExistingIndex(index, chat.id);
+        index = indexOfChat(chat.id);
         if (index != -1) {
           if (index < displayCount) {
             subListener.onChatChanged(chatList, chat, index, changeInfo);
@@ -165,17 +142,14 @@ public final class TdlibChatListSlice implements Destroyable {
           if (!filter.accept(chat))
             return;
         }
+        if (indexOfChat(chat.id) != -1) {
+          // Chat has been kept in the slice, e.g. after bringToTop
+          return;
+        }
         Entry entry = new Entry(chat, chatList.chatList(), changeInfo.position, keepPositions);
         final int insertIndex;
         try {
-          if (needSort()) {
-            final int sortedIndex = findInsertIndex(entry);
-            filteredList.add(sortedIndex, entry);
-            insertIndex = sortedIndex;
-          } else {
-            filteredList.add(originalIndex, entry);
-            insertIndex = originalIndex;
-          }
+          insertIndex = filteredList.add(entry);
         } catch (RuntimeException e) {
           Log.e("Chats in source: %d & %d, same: %b", e, sourceList.count(null), chatList.count(null), sourceList == chatList);
           throw e;
@@ -192,9 +166,9 @@ public final class TdlibChatListSlice implements Destroyable {
       @Override
       public void onChatRemoved (TdlibChatList chatList, TdApi.Chat chat, int fromIndex, Tdlib.ChatChange changeInfo) {
         ensureTdlibThreadAndList(chatList);
-        fromIndex = findExistingIndex(fromIndex, chat.id);
+        fromIndex = indexOfChat(chat.id);
         if (fromIndex != -1 && !filteredList.get(fromIndex).keepPosition) {
-          /*Entry removedEntry =*/ filteredList.remove(fromIndex);
+          /*Entry removedEntry =*/ filteredList.removeAt(fromIndex);
           if (fromIndex < displayCount) {
             subListener.onChatRemoved(chatList, chat, fromIndex, changeInfo);
             displayCount--;
@@ -206,30 +180,18 @@ public final class TdlibChatListSlice implements Destroyable {
       @Override
       public void onChatMoved (TdlibChatList chatList, TdApi.Chat chat, int fromIndex, int toIndex, Tdlib.ChatChange changeInfo) {
         ensureTdlibThreadAndList(chatList);
-        final boolean needSort = needSort();
-        if (needSort) {
-          fromIndex = findExistingIndex(fromIndex, chat.id);
-          if (fromIndex == -1) // chat is filtered out
-            return;
-        }
-        Entry movedEntry = filteredList.remove(fromIndex);
-        if (!movedEntry.keepPosition) {
-          movedEntry.effectivePosition.order = changeInfo.position.order;
-          movedEntry.effectivePosition.isPinned = changeInfo.position.isPinned;
-          movedEntry.effectivePosition.source = changeInfo.position.source;
-        }
-        if (needSort) {
-          toIndex = findInsertIndex(movedEntry);
-          if (toIndex == fromIndex) {
-            filteredList.add(toIndex, movedEntry);
-            if (toIndex < displayCount) {
-              subListener.onChatChanged(chatList, chat, toIndex, changeInfo);
-              subListener.onChatListChanged(chatList, ChangeFlags.ITEM_METADATA_CHANGED);
-            }
-            return;
+        fromIndex = indexOfChat(chat.id);
+        if (fromIndex == -1) // chat is filtered out
+          return;
+        Entry movedEntry = filteredList.get(fromIndex);
+        toIndex = movedEntry.keepPosition ? fromIndex : filteredList.move(chat.id, changeInfo.position);
+        if (toIndex == fromIndex) {
+          if (toIndex < displayCount) {
+            subListener.onChatChanged(chatList, chat, toIndex, changeInfo);
+            subListener.onChatListChanged(chatList, ChangeFlags.ITEM_METADATA_CHANGED);
           }
+          return;
         }
-        filteredList.add(toIndex, movedEntry);
         if (fromIndex < displayCount && toIndex < displayCount) {
           subListener.onChatMoved(chatList, chat, fromIndex, toIndex, changeInfo);
           subListener.onChatListChanged(chatList, ChangeFlags.ITEM_MOVED);
@@ -266,13 +228,11 @@ public final class TdlibChatListSlice implements Destroyable {
             TdApi.ChatPosition position = ChatPosition.findPosition(chat, chatList.chatList());
             if (position != null && position.order != 0) {
               final Entry entry = new Entry(chat, chatList.chatList(), position, keepPositions);
-              int atIndex = findInsertIndex(entry);
-              if (atIndex == filteredList.size()) {
-                filteredList.add(entry);
+              int atIndex = filteredList.add(entry);
+              if (atIndex == filteredList.size() - 1) {
                 dispatchChats(0);
                 return;
               }
-              filteredList.add(atIndex, entry);
               subListener.onChatAdded(chatList, chat, atIndex, new Tdlib.ChatChange(position, Tdlib.ChatChange.ALL));
               displayCount++;
               subListener.onChatListChanged(chatList, ChangeFlags.ITEM_ADDED);
@@ -294,17 +254,18 @@ public final class TdlibChatListSlice implements Destroyable {
       synchronized (filteredList) {
         List<Entry> addedEntries = new ArrayList<>(moreChats.size());
         for (TdlibChatList.Entry entry : moreChats) {
-          if ((filter == null || filter.accept(entry.chat)) && (!haveCustomModifications || indexOfChat(entry.chat.id) == -1)) {
+          if ((filter == null || filter.accept(entry.chat)) && indexOfChat(entry.chat.id) == -1) {
             addedEntries.add(new Entry(entry.chat, entry.chatList, entry.effectivePosition, keepPositions));
           }
         }
         if (addedEntries.isEmpty()) {
           return;
         }
-        boolean haveCustomModifications = modifier != null && modifier.modifySlice(this, addedEntries, filteredList.size());
-        filteredList.addAll(addedEntries);
-        if (haveCustomModifications) {
-          this.haveCustomModifications = true;
+        if (modifier != null) {
+          modifier.modifySlice(this, addedEntries, filteredList.size());
+        }
+        for (Entry entry : addedEntries) {
+          filteredList.add(entry);
         }
       }
       dispatchChats(0);
@@ -379,12 +340,6 @@ public final class TdlibChatListSlice implements Destroyable {
     }
   }
 
-  private boolean haveCustomModifications;
-
-  private boolean needSort () {
-    return filter != null || haveCustomModifications;
-  }
-
   public void bringToTop (long chatId, @Nullable Future<TdApi.Function<?>> createFunction, @Nullable Runnable after) {
     if (this.listener == null)
       throw new IllegalStateException();
@@ -397,12 +352,10 @@ public final class TdlibChatListSlice implements Destroyable {
       if (fromIndex != -1) {
         /*if (fromIndex == 0) // No need to do anything
           return;*/
-        haveCustomModifications = true;
         // Just move item to top
-        Entry entry = filteredList.remove(fromIndex);
+        Entry entry = filteredList.removeAt(fromIndex);
         entry.bringToTop();
-        final int toIndex = findInsertIndex(entry);
-        filteredList.add(toIndex, entry);
+        final int toIndex = filteredList.add(entry);
         if (fromIndex != toIndex) {
           if (fromIndex < displayCount) {
             subListener.onChatMoved(sourceList, entry.chat, fromIndex, toIndex, new Tdlib.ChatChange(entry.effectivePosition, Tdlib.ChatChange.ALL));
@@ -416,12 +369,10 @@ public final class TdlibChatListSlice implements Destroyable {
       } else {
         if (chat == null)
           return;
-        haveCustomModifications = true;
         // Force add item to top
         Entry entry = new Entry(chat, sourceList.chatList(), ChatPosition.findPosition(chat, sourceList.chatList()), keepPositions);
         entry.bringToTop();
-        final int atIndex = findInsertIndex(entry);
-        filteredList.add(atIndex, entry);
+        final int atIndex = filteredList.add(entry);
         subListener.onChatAdded(sourceList, entry.chat, atIndex, new Tdlib.ChatChange(entry.effectivePosition, Tdlib.ChatChange.ALL));
         displayCount++;
         subListener.onChatListChanged(sourceList, ChatListListener.ChangeFlags.ITEM_ADDED);
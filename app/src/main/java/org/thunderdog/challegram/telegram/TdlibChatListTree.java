@@ -0,0 +1,364 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 22:40
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.util.LongObjectMap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import tgx.td.Td;
+
+/**
+ * Entries of {@link TdlibChatList} or {@link TdlibChatListSlice} sorted by {@link TdlibChatList.Entry#compareTo(TdlibChatList.Entry)}.
+ *
+ * Treap with subtree sizes, so insertion, removal, move and lookup of an index
+ * take O(log n) instead of O(n) of {@link java.util.ArrayList}. Each subtree also keeps
+ * union of {@link #FLAG_UNREAD_MENTIONS flags} of its chats and the latest date of their last messages,
+ * so {@link #hasFlag(int)} and {@link #maxDate()} are O(1).
+ *
+ * Not thread-safe.
+ */
+final class TdlibChatListTree<E extends TdlibChatList.Entry> implements Iterable<E> {
+  static final int FLAG_UNREAD_MENTIONS = 1;
+  static final int FLAG_UNREAD_REACTIONS = 1 << 1;
+  static final int FLAG_SCHEDULED_MESSAGES = 1 << 2;
+  static final int FLAG_FAILED_MESSAGES = 1 << 3;
+  static final int FLAG_UNREAD = 1 << 4;
+
+  private static int flagsOf (TdApi.Chat chat) {
+    int flags = 0;
+    if (chat.unreadMentionCount > 0)
+      flags |= FLAG_UNREAD_MENTIONS;
+    if (chat.unreadReactionCount > 0)
+      flags |= FLAG_UNREAD_REACTIONS;
+    if (chat.hasScheduledMessages)
+      flags |= FLAG_SCHEDULED_MESSAGES;
+    if (TD.isFailed(chat.lastMessage))
+      flags |= FLAG_FAILED_MESSAGES;
+    if (chat.unreadCount > 0 || chat.isMarkedAsUnread)
+      flags |= FLAG_UNREAD;
+    return flags;
+  }
+
+  private static int dateOf (TdApi.Chat chat) {
+    return chat.lastMessage != null ? chat.lastMessage.date : 0;
+  }
+
+  private static final class Node<E extends TdlibChatList.Entry> {
+    final E entry;
+    final int priority;
+
+    Node<E> parent, left, right;
+    int size;
+    int flags, subtreeFlags;
+    int date, subtreeMaxDate;
+
+    Node (E entry) {
+      this.entry = entry;
+      // Priority depends only on chat identifier, so it is independent of the order
+      long hash = entry.chat.id;
+      hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+      hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      this.priority = (int) (hash ^ (hash >>> 33));
+      reset();
+    }
+
+    void reset () {
+      this.parent = this.left = this.right = null;
+      this.size = 1;
+      this.flags = this.subtreeFlags = flagsOf(entry.chat);
+      this.date = this.subtreeMaxDate = dateOf(entry.chat);
+    }
+
+    void update () {
+      size = 1 + sizeOf(left) + sizeOf(right);
+      subtreeFlags = flags | subtreeFlagsOf(left) | subtreeFlagsOf(right);
+      subtreeMaxDate = Math.max(date, Math.max(subtreeMaxDateOf(left), subtreeMaxDateOf(right)));
+    }
+
+    static int sizeOf (@Nullable Node<?> node) {
+      return node != null ? node.size : 0;
+    }
+
+    static int subtreeFlagsOf (@Nullable Node<?> node) {
+      return node != null ? node.subtreeFlags : 0;
+    }
+
+    static int subtreeMaxDateOf (@Nullable Node<?> node) {
+      return node != null ? node.subtreeMaxDate : 0;
+    }
+  }
+
+  private final LongObjectMap<Node<E>> nodes = new LongObjectMap<>();
+  private Node<E> root;
+
+  public int size () {
+    return Node.sizeOf(root);
+  }
+
+  public boolean isEmpty () {
+    return root == null;
+  }
+
+  public boolean hasFlag (int flag) {
+    return (Node.subtreeFlagsOf(root) & flag) != 0;
+  }
+
+  /**
+   * @return Latest {@link TdApi.Message#date} of last messages of all chats, or 0, if there are none.
+   */
+  public int maxDate () {
+    return Node.subtreeMaxDateOf(root);
+  }
+
+  @Nullable
+  public E find (long chatId) {
+    Node<E> node = nodes.get(chatId);
+    return node != null ? node.entry : null;
+  }
+
+  @NonNull
+  public E get (int index) {
+    return nodeAt(index).entry;
+  }
+
+  public int indexOf (long chatId) {
+    Node<E> node = nodes.get(chatId);
+    return node != null ? indexOf(node) : -1;
+  }
+
+  /**
+   * @return Index at which entry was inserted.
+   */
+  public int add (E entry) {
+    Node<E> node = new Node<>(entry);
+    if (nodes.put(entry.chat.id, node) != null)
+      throw new IllegalStateException();
+    insert(node);
+    return indexOf(node);
+  }
+
+  @NonNull
+  public E removeAt (int index) {
+    Node<E> node = nodeAt(index);
+    nodes.remove(node.entry.chat.id);
+    delete(node);
+    return node.entry;
+  }
+
+  /**
+   * Updates position of the entry and moves it accordingly.
+   *
+   * @return New index of the entry.
+   */
+  public int move (long chatId, TdApi.ChatPosition position) {
+    Node<E> node = nodes.get(chatId);
+    if (node == null)
+      throw new IllegalStateException();
+    delete(node);
+    Td.copyTo(position, node.entry.effectivePosition);
+    node.reset();
+    insert(node);
+    return indexOf(node);
+  }
+
+  /**
+   * Re-evaluates flags and last message date of the chat after it has been changed.
+   *
+   * @return Whether aggregated flags or date of the whole list have changed.
+   */
+  public boolean updateAggregates (long chatId) {
+    Node<E> node = nodes.get(chatId);
+    if (node == null)
+      return false;
+    int flags = flagsOf(node.entry.chat);
+    int date = dateOf(node.entry.chat);
+    if (node.flags == flags && node.date == date)
+      return false;
+    int prevRootFlags = Node.subtreeFlagsOf(root);
+    int prevRootMaxDate = Node.subtreeMaxDateOf(root);
+    node.flags = flags;
+    node.date = date;
+    for (Node<E> current = node; current != null; current = current.parent) {
+      int prevSubtreeFlags = current.subtreeFlags;
+      int prevSubtreeMaxDate = current.subtreeMaxDate;
+      current.update();
+      if (current.subtreeFlags == prevSubtreeFlags && current.subtreeMaxDate == prevSubtreeMaxDate)
+        break;
+    }
+    return Node.subtreeFlagsOf(root) != prevRootFlags || Node.subtreeMaxDateOf(root) != prevRootMaxDate;
+  }
+
+  public void clear () {
+    nodes.clear();
+    root = null;
+  }
+
+  // Internal
+
+  private Node<E> nodeAt (int index) {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+    Node<E> node = root;
+    while (true) {
+      int leftSize = Node.sizeOf(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        node = node.right;
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private static int indexOf (Node<?> node) {
+    int index = Node.sizeOf(node.left);
+    for (Node<?> current = node; current.parent != null; current = current.parent) {
+      if (current == current.parent.right) {
+        index += Node.sizeOf(current.parent.left) + 1;
+      }
+    }
+    return index;
+  }
+
+  private void insert (Node<E> node) {
+    if (root == null) {
+      root = node;
+      return;
+    }
+    Node<E> parent = root;
+    while (true) {
+      int cmp = node.entry.compareTo(parent.entry);
+      if (cmp == 0)
+        throw new IllegalStateException();
+      Node<E> next = cmp < 0 ? parent.left : parent.right;
+      if (next == null) {
+        if (cmp < 0) {
+          parent.left = node;
+        } else {
+          parent.right = node;
+        }
+        node.parent = parent;
+        break;
+      }
+      parent = next;
+    }
+    for (Node<E> current = parent; current != null; current = current.parent) {
+      current.update();
+    }
+    while (node.parent != null && node.priority > node.parent.priority) {
+      rotateUp(node);
+    }
+  }
+
+  private void delete (Node<E> node) {
+    while (node.left != null || node.right != null) {
+      Node<E> child;
+      if (node.left == null) {
+        child = node.right;
+      } else if (node.right == null) {
+        child = node.left;
+      } else {
+        child = node.left.priority > node.right.priority ? node.left : node.right;
+      }
+      rotateUp(child);
+    }
+    Node<E> parent = node.parent;
+    replaceChild(parent, node, null);
+    for (Node<E> current = parent; current != null; current = current.parent) {
+      current.update();
+    }
+    node.parent = null;
+  }
+
+  private void rotateUp (Node<E> node) {
+    final Node<E> parent = node.parent;
+    final Node<E> grandParent = parent.parent;
+    if (node == parent.left) {
+      parent.left = node.right;
+      if (node.right != null)
+        node.right.parent = parent;
+      node.right = parent;
+    } else {
+      parent.right = node.left;
+      if (node.left != null)
+        node.left.parent = parent;
+      node.left = parent;
+    }
+    parent.parent = node;
+    node.parent = grandParent;
+    replaceChild(grandParent, parent, node);
+    // Aggregates of the grandparent stay the same, as its subtree contains the same nodes
+    parent.update();
+    node.update();
+  }
+
+  private void replaceChild (@Nullable Node<E> parent, Node<E> oldChild, @Nullable Node<E> newChild) {
+    if (parent == null) {
+      root = newChild;
+    } else if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+  }
+
+  private static <E extends TdlibChatList.Entry> Node<E> leftmost (Node<E> node) {
+    while (node.left != null) {
+      node = node.left;
+    }
+    return node;
+  }
+
+  private static <E extends TdlibChatList.Entry> Node<E> successor (Node<E> node) {
+    if (node.right != null) {
+      return leftmost(node.right);
+    }
+    while (node.parent != null && node == node.parent.right) {
+      node = node.parent;
+    }
+    return node.parent;
+  }
+
+  @NonNull
+  @Override
+  public Iterator<E> iterator () {
+    return new Iterator<E>() {
+      private Node<E> next = root != null ? leftmost(root) : null;
+
+      @Override
+      public boolean hasNext () {
+        return next != null;
+      }
+
+      @Override
+      public E next () {
+        Node<E> node = next;
+        if (node == null)
+          throw new NoSuchElementException();
+        next = successor(node);
+        return node.entry;
+      }
+    };
+  }
+}
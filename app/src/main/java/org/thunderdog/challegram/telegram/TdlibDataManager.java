@@ -19,21 +19,35 @@ import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 
 import org.drinkless.tdlib.TdApi;
-import org.thunderdog.challegram.util.BatchOperationHandler;
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.tool.UI;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
 import me.vkryl.core.reference.ReferenceList;
 import me.vkryl.core.reference.ReferenceMap;
 
+/**
+ * Cache of TDLib objects requested by key.
+ *
+ * Keys requested via {@link #findOrPostponeRequest} during one frame are collected
+ * and sent at once, split into chunks of {@link #maxKeysPerRequest()}, so subclasses can use
+ * multi-key requests where TDLib provides them. Loaded entries are kept up to {@link #maxEntryCount()},
+ * least recently used ones are evicted first.
+ */
 public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result extends TdlibDataManager.AbstractEntry<Key, Value>> implements CleanupStartupDelegate {
+  private static final int DEFAULT_MAX_ENTRY_COUNT = 1000;
+  private static final long REQUEST_BATCH_DELAY_MS = 16;
+  private static final int REPORT_BATCH_INTERVAL = 50;
+
   public static abstract class AbstractEntry<K, V extends TdApi.Object> {
     public final K key;
     public final @Nullable V value;
@@ -61,7 +75,7 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
   protected final Tdlib tdlib;
 
   private final Object dataLock = new Object();
-  private final Map<Key, Result> entries = new HashMap<>();
+  private final Map<Key, Result> entries = new LinkedHashMap<>(16, .75f, true);
   private final Set<Key> postponedKeys = new HashSet<>();
   private final Set<Key> loadingKeys = new HashSet<>();
   private final ReferenceMap<Key, Watcher<Key, Value, Result>> watcherReferences = new ReferenceMap<>(true);
@@ -69,6 +83,9 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
 
   private int contextId;
 
+  private long hitCount, missCount, evictionCount, requestedKeyCount;
+  private int batchCount, maxBatchSize;
+
   protected TdlibDataManager (Tdlib tdlib) {
     this.tdlib = tdlib;
     tdlib.listeners().addCleanupListener(this);
@@ -85,6 +102,22 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     }
   }
 
+  // Settings
+
+  /**
+   * @return Maximum amount of loaded entries kept in memory.
+   */
+  protected int maxEntryCount () {
+    return DEFAULT_MAX_ENTRY_COUNT;
+  }
+
+  /**
+   * @return Maximum amount of keys passed to a single {@link #requestData} call.
+   */
+  protected int maxKeysPerRequest () {
+    return Integer.MAX_VALUE;
+  }
+
   // Impl
 
   @UiThread
@@ -94,6 +127,24 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     }
   }
 
+  private void putEntryImpl (Key key, Result entry) {
+    entries.put(key, entry);
+    int excessCount = entries.size() - maxEntryCount();
+    if (excessCount <= 0) {
+      return;
+    }
+    Iterator<Map.Entry<Key, Result>> itr = entries.entrySet().iterator();
+    while (excessCount > 0 && itr.hasNext()) {
+      Key eldestKey = itr.next().getKey();
+      if (eldestKey.equals(key) || watchers.containsKey(eldestKey)) {
+        continue;
+      }
+      itr.remove();
+      excessCount--;
+      evictionCount++;
+    }
+  }
+
   public interface Replacer<Value extends TdApi.Object> {
     @Nullable
     Value replace (@Nullable Value oldValue, @Nullable TdApi.Error oldError);
@@ -107,7 +158,7 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
         Value newValue = replacer.replace(entry.value, entry.error);
         if (newValue != null) {
           Result newEntry = newEntry(key, newValue, null);
-          entries.put(key, newEntry);
+          putEntryImpl(key, newEntry);
           return true;
         }
       }
@@ -150,8 +201,10 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     synchronized (dataLock) {
       Result entry = entries.get(key);
       if (entry != null) {
+        hitCount++;
         return entry;
       }
+      missCount++;
       if (!loadingKeys.contains(key)) {
         postponedKeys.add(key);
       }
@@ -181,7 +234,13 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     watcherReferences.remove(key, watcher);
   }
 
-  private final BatchOperationHandler delayedHandler = new BatchOperationHandler(this::performPostponedRequests, 10);
+  private boolean requestsScheduled;
+  private final Runnable scheduledRequests = () -> {
+    synchronized (dataLock) {
+      requestsScheduled = false;
+    }
+    performPostponedRequests();
+  };
 
   @UiThread
   public void performPostponedRequest (Key key) {
@@ -192,29 +251,60 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
       }
       loadingKeys.add(key);
       contextId = this.contextId;
+      onBatchRequested(1);
     }
     requestData(contextId, Set.of(key));
   }
 
+  /**
+   * Requests all postponed keys within the next frame.
+   *
+   * Unlike debouncing, further calls do not delay the already scheduled request,
+   * so continuous scrolling does not starve loading.
+   */
   @UiThread
   public void performPostponedRequestsDelayed () {
-    delayedHandler.performOperation();
+    synchronized (dataLock) {
+      if (requestsScheduled) {
+        return;
+      }
+      requestsScheduled = true;
+    }
+    UI.post(scheduledRequests, REQUEST_BATCH_DELAY_MS);
   }
 
   @UiThread
   public void performPostponedRequests () {
-    final Set<Key> keysToRequest;
+    final List<Key> keysToRequest;
+    final int maxKeysPerRequest = maxKeysPerRequest();
     int contextId;
     synchronized (dataLock) {
       if (postponedKeys.isEmpty()) {
         return;
       }
       loadingKeys.addAll(postponedKeys);
-      keysToRequest = new HashSet<>(postponedKeys);
+      keysToRequest = new ArrayList<>(postponedKeys);
       postponedKeys.clear();
       contextId = this.contextId;
+      for (int i = 0; i < keysToRequest.size(); i += maxKeysPerRequest) {
+        onBatchRequested(Math.min(maxKeysPerRequest, keysToRequest.size() - i));
+      }
+    }
+    if (keysToRequest.size() <= maxKeysPerRequest) {
+      requestData(contextId, keysToRequest);
+    } else {
+      for (int i = 0; i < keysToRequest.size(); i += maxKeysPerRequest) {
+        requestData(contextId, keysToRequest.subList(i, Math.min(keysToRequest.size(), i + maxKeysPerRequest)));
+      }
+    }
+  }
+
+  private void onBatchRequested (int keyCount) {
+    requestedKeyCount += keyCount;
+    maxBatchSize = Math.max(maxBatchSize, keyCount);
+    if (++batchCount % REPORT_BATCH_INTERVAL == 0 && Log.checkLogLevel(Log.LEVEL_VERBOSE)) {
+      Log.v("accountId:%d %s", tdlib.id(), statsImpl());
     }
-    requestData(contextId, keysToRequest);
   }
 
   protected final boolean isCancelled (int contextId) {
@@ -246,8 +336,8 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     synchronized (dataLock) {
       if (this.contextId != contextId)
         return;
-      entries.put(entry.key, entry);
       watcherList = watchers.remove(entry.key);
+      putEntryImpl(entry.key, entry);
     }
     ReferenceList<Watcher<Key, Value, Result>> referenceList = watcherReferences.removeAll(entry.key);
     if (referenceList != null) {
@@ -268,4 +358,21 @@ public abstract class TdlibDataManager<Key, Value extends TdApi.Object, Result e
     }
   }
 
+  // Stats
+
+  private String statsImpl () {
+    return String.format(Locale.US, "%s { entries = %d/%d, hits = %d, misses = %d, evicted = %d, keys = %d in %d batches (avg %.1f, max %d) }",
+      getClass().getSimpleName(), entries.size(), maxEntryCount(),
+      hitCount, missCount, evictionCount,
+      requestedKeyCount, batchCount, batchCount > 0 ? (double) requestedKeyCount / batchCount : 0.0, maxBatchSize
+    );
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    synchronized (dataLock) {
+      return statsImpl();
+    }
+  }
 }
@@ -61,24 +61,36 @@ public final class TdlibEmojiManager extends TdlibDataManager<Long, TdApi.Sticke
     return new Entry(key, value, error);
   }
 
+  @Override
+  protected int maxEntryCount () {
+    return 2000;
+  }
+
+  @Override
+  protected int maxKeysPerRequest () {
+    return TdConstants.MAX_CUSTOM_EMOJI_COUNT_PER_REQUEST;
+  }
+
   @Override
   protected void requestData (int contextId, Collection<Long> keysToRequest) {
-    long[][] customEmojiIdsChunks = toLongArray(keysToRequest, TdConstants.MAX_CUSTOM_EMOJI_COUNT_PER_REQUEST);
-    if (customEmojiIdsChunks.length == 0) {
+    if (keysToRequest.isEmpty()) {
       return;
     }
-    for (long[] customEmojiIds : customEmojiIdsChunks) {
-      tdlib.send(new TdApi.GetCustomEmojiStickers(customEmojiIds), (stickers, error) -> {
-        if (isCancelled(contextId)) {
-          return;
-        }
-        if (error != null) {
-          processError(contextId, customEmojiIds, error);
-        } else {
-          processStickers(contextId, customEmojiIds, stickers.stickers);
-        }
-      });
+    final long[] customEmojiIds = new long[keysToRequest.size()];
+    int index = 0;
+    for (Long customEmojiId : keysToRequest) {
+      customEmojiIds[index++] = customEmojiId;
     }
+    tdlib.send(new TdApi.GetCustomEmojiStickers(customEmojiIds), (stickers, error) -> {
+      if (isCancelled(contextId)) {
+        return;
+      }
+      if (error != null) {
+        processError(contextId, customEmojiIds, error);
+      } else {
+        processStickers(contextId, customEmojiIds, stickers.stickers);
+      }
+    });
   }
 
   private void processError (int contextId, long[] customEmojiIds, TdApi.Error error) {
@@ -104,24 +116,4 @@ public final class TdlibEmojiManager extends TdlibDataManager<Long, TdApi.Sticke
       }
     }
   }
-
-  private static long[][] toLongArray (Collection<Long> list, int limit) {
-    final int size = list.size();
-    if (size == 0) {
-      return new long[0][];
-    }
-    final int arrayCount = (int) Math.ceil((double) size / (double) limit);
-    long[][] result = new long[arrayCount][];
-    int index = 0;
-    for (Long item : list) {
-      int arrayIndex = index / limit;
-      int itemIndex = index - limit * arrayIndex;
-      if (itemIndex == 0) {
-        result[arrayIndex] = new long[Math.min(limit, size - index)];
-      }
-      result[arrayIndex][itemIndex] = item;
-      index++;
-    }
-    return result;
-  }
 }
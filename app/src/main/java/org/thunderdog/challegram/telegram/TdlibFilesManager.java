@@ -35,6 +35,7 @@ import org.thunderdog.challegram.config.Config;
 import org.thunderdog.challegram.core.Lang;
 import org.thunderdog.challegram.core.WatchDog;
 import org.thunderdog.challegram.data.TD;
+import org.thunderdog.challegram.loader.ImageDiskCache;
 import org.thunderdog.challegram.tool.Strings;
 import org.thunderdog.challegram.unsorted.Settings;
 import org.thunderdog.challegram.util.StringList;
@@ -44,10 +45,14 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -83,6 +88,9 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   public static final int PRIORITY_SELF_AVATAR_BIG = 5;
   public static final int PRIORITY_SELF_AVATAR_SMALL = 6;
 
+  public static final int PRIORITY_PRELOAD_VIDEO = 9;
+  public static final int PRIORITY_PRELOAD_IMAGE = 10;
+
   public static final int PRIORITY_IMAGE = 15;
   public static final int PRIORITY_USER_REQUEST_DOWNLOAD = 16;
   public static final int PRIORITY_USER_REQUEST_SHARE = 17;
@@ -384,6 +392,9 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   }
 
   private final HashSet<Integer> manuallyCancelledFiles;
+  // Most recently loaded files, bounded, as entries are otherwise removed only when file stops being local
+  private static final int MAX_LOADED_FILES_COUNT = 1000;
+  private final Set<Integer> loadedFiles;
 
   TdlibFilesManager (Tdlib tdlib) {
     this.tdlib = tdlib;
@@ -398,6 +409,12 @@ public class TdlibFilesManager implements GlobalConnectionListener {
     this.activeDownloadReferences = new SparseArrayCompat<>();
 
     this.manuallyCancelledFiles = new HashSet<>();
+    this.loadedFiles = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>(16, .75f, true) {
+      @Override
+      protected boolean removeEldestEntry (Map.Entry<Integer, Boolean> eldest) {
+        return size() > MAX_LOADED_FILES_COUNT;
+      }
+    });
 
     loadSettings();
 
@@ -636,6 +653,14 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   }
 
   public void removeCloudReference (TdApi.File file, FileUpdateListener source) {
+    removeCloudReference(file, source, true);
+  }
+
+  /**
+   * @param allowCancel Whether download may be cancelled when there are no references left.
+   * Pass {@code false}, if the file may be still needed by something that doesn't hold a reference.
+   */
+  public void removeCloudReference (TdApi.File file, FileUpdateListener source, boolean allowCancel) {
     synchronized (activeDownloadReferences) {
       int index = activeDownloadReferences.indexOfKey(file.id);
       if (index < 0) {
@@ -651,7 +676,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
       if (operation.isEmpty()) {
         synchronized (this) {
           activeDownloadReferences.removeAt(index);
-          if (operation.cancelOnRemoval) {
+          if (operation.cancelOnRemoval && allowCancel) {
             if (BuildConfig.DEBUG) {
               Log.w("downloadFile#%d cancel", file.id);
             }
@@ -919,6 +944,7 @@ public class TdlibFilesManager implements GlobalConnectionListener {
       final int fileId = update.file.id;
       int pendingOperation = pendingOperations.get(fileId);
       this.manuallyCancelledFiles.remove(fileId);
+      this.loadedFiles.add(fileId);
       if (pendingOperation != OPERATION_NONE) {
         if (TD.isFileLoadedAndExists(update.file)) {
           removePendingOperation(fileId);
@@ -933,6 +959,14 @@ public class TdlibFilesManager implements GlobalConnectionListener {
   }
 
   public void onFileUpdated (TdApi.UpdateFile update) {
+    final boolean wasLoaded;
+    synchronized (this) {
+      wasLoaded = loadedFiles.remove(update.file.id);
+    }
+    if (wasLoaded || (update.file.local.path.isEmpty() && update.file.local.downloadedSize == 0)) {
+      // File is no longer available locally, downscaled copies must not outlive it
+      ImageDiskCache.instance().invalidate(update.file.remote.uniqueId);
+    }
     synchronized (this) {
       final int fileId = update.file.id;
       int pendingOperation = pendingOperations.get(fileId);
@@ -0,0 +1,171 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:30
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.util.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Bounded cache of full info objects, e.g. {@link TdApi.UserFullInfo}.
+ *
+ * When amount of entries exceeds the limit, least recently accessed ones are evicted,
+ * except {@link PinnedKeys pinned} ones, e.g. those that have active listeners.
+ * Evicted entries are requested from TDLib again on the next access.
+ *
+ * Must be synchronized externally.
+ */
+final class TdlibFullInfoCache<T extends TdApi.Object> {
+  interface PinnedKeys {
+    boolean isPinned (long id);
+  }
+
+  interface SizeEstimator<T> {
+    int estimateSize (T value);
+  }
+
+  private static final class Item<T> {
+    final long id;
+    final T value;
+    final int estimatedSize;
+    final long updateTimeMs;
+    long accessTime;
+
+    Item (long id, T value, int estimatedSize) {
+      this.id = id;
+      this.value = value;
+      this.estimatedSize = estimatedSize;
+      this.updateTimeMs = SystemClock.uptimeMillis();
+    }
+  }
+
+  private final String name;
+  private final int maxSize;
+  private final PinnedKeys pinnedKeys;
+  private final SizeEstimator<T> sizeEstimator;
+
+  private final LongObjectMap<Item<T>> items = new LongObjectMap<>();
+  private long accessCounter;
+  private long estimatedSize;
+  private int evictionCount;
+  private int nextTrimSize;
+
+  TdlibFullInfoCache (String name, int maxSize, PinnedKeys pinnedKeys, SizeEstimator<T> sizeEstimator) {
+    this.name = name;
+    this.maxSize = maxSize;
+    this.pinnedKeys = pinnedKeys;
+    this.sizeEstimator = sizeEstimator;
+  }
+
+  @Nullable
+  public T get (long id) {
+    Item<T> item = items.get(id);
+    if (item != null) {
+      item.accessTime = ++accessCounter;
+      return item.value;
+    }
+    return null;
+  }
+
+  /**
+   * @return {@link SystemClock#uptimeMillis()} when the entry was put, or 0 if there's no such entry.
+   */
+  public long updateTime (long id) {
+    Item<T> item = items.get(id);
+    return item != null ? item.updateTimeMs : 0;
+  }
+
+  public void put (long id, @NonNull T value) {
+    Item<T> item = new Item<>(id, value, sizeEstimator.estimateSize(value));
+    item.accessTime = ++accessCounter;
+    Item<T> prevItem = items.put(id, item);
+    if (prevItem != null) {
+      estimatedSize -= prevItem.estimatedSize;
+    }
+    estimatedSize += item.estimatedSize;
+    if (items.size() > Math.max(maxSize, nextTrimSize)) {
+      // Trimming below the limit, so the scan is not repeated on every insertion
+      trimToSize(maxSize / 4 * 3);
+      if (items.size() > maxSize) {
+        // Most entries are pinned, so retry only after a noticeable amount of insertions
+        nextTrimSize = items.size() + Math.max(1, maxSize / 4);
+      } else {
+        nextTrimSize = 0;
+      }
+    }
+  }
+
+  public void clear () {
+    items.clear();
+    estimatedSize = 0;
+    nextTrimSize = 0;
+  }
+
+  public int size () {
+    return items.size();
+  }
+
+  /**
+   * Evicts least recently accessed entries that are not pinned.
+   *
+   * @return Amount of evicted entries.
+   */
+  public int trimToSize (int size) {
+    int excessCount = items.size() - size;
+    if (excessCount <= 0) {
+      return 0;
+    }
+    ArrayList<Item<T>> candidates = new ArrayList<>(items.size());
+    for (Item<T> item : items.values()) {
+      if (!pinnedKeys.isPinned(item.id)) {
+        candidates.add(item);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return 0;
+    }
+    if (candidates.size() > excessCount) {
+      Collections.sort(candidates, (a, b) -> Long.compare(a.accessTime, b.accessTime));
+    }
+    int removedCount = Math.min(excessCount, candidates.size());
+    for (int i = 0; i < removedCount; i++) {
+      Item<T> item = candidates.get(i);
+      items.remove(item.id);
+      estimatedSize -= item.estimatedSize;
+    }
+    evictionCount += removedCount;
+    return removedCount;
+  }
+
+  public int maxSize () {
+    return maxSize;
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    return String.format(Locale.US, "%s { entries = %d/%d, ~%d KB, evicted = %d }",
+      name, items.size(), maxSize, estimatedSize / 1024, evictionCount
+    );
+  }
+}
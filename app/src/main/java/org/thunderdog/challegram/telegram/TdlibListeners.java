@@ -19,6 +19,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
 import org.thunderdog.challegram.data.TD;
 
 import java.util.ArrayList;
@@ -559,7 +560,7 @@ public class TdlibListeners {
   // Generic updates template
 
   @SafeVarargs
-  private static <T> void runUpdate (RunnableData<T> act, @Nullable Iterator<? extends T>... lists) {
+  private <T> void runUpdate (RunnableData<T> act, @Nullable Iterator<? extends T>... lists) {
     if (lists != null) {
       for (Iterator<? extends T> list : lists) {
         runUpdate(list, act);
@@ -567,17 +568,25 @@ public class TdlibListeners {
     }
   }
 
-  private static <T> void runUpdate (@Nullable Iterable<? extends T> iterable, RunnableData<T> act) {
+  private <T> void runUpdate (@Nullable Iterable<? extends T> iterable, RunnableData<T> act) {
     if (iterable != null) {
       runUpdate(iterable.iterator(), act);
     }
   }
 
-  private static <T> void runUpdate (@Nullable Iterator<? extends T> list, RunnableData<T> act) {
+  private <T> void runUpdate (@Nullable Iterator<? extends T> list, RunnableData<T> act) {
     if (list != null) {
+      // Listeners are timed only when stats can be reported, as this is the busiest path
+      final TdlibUpdateStats stats = Log.checkLogLevel(Log.LEVEL_VERBOSE) ? tdlib.updateStats() : null;
       while (list.hasNext()) {
         T next = list.next();
-        act.runWithData(next);
+        if (stats != null) {
+          final long startNanos = System.nanoTime();
+          act.runWithData(next);
+          stats.onListenerNotified(next.getClass(), System.nanoTime() - startNanos);
+        } else {
+          act.runWithData(next);
+        }
       }
     }
   }
@@ -627,9 +636,44 @@ public class TdlibListeners {
   // updateNewMessage
 
   void updateNewMessage (TdApi.UpdateNewMessage update) {
-    runMessageUpdate(update.message.chatId, listener ->
-      listener.onNewMessage(update.message)
-    );
+    runMessageUpdate(update.message.chatId, listener -> {
+      if (!(listener instanceof MessageBatchListener)) {
+        listener.onNewMessage(update.message);
+      }
+    });
+  }
+
+  // updateNewMessage, updateMessageContent, updateMessageEdited batched by TdlibUpdateCoalescer
+
+  void updateMessageBatch (long chatId, List<TdApi.Update> updates) {
+    List<TdApi.Message> newMessages = null;
+    List<TdApi.Update> changes = null;
+    for (TdApi.Update update : updates) {
+      if (update.getConstructor() == TdApi.UpdateNewMessage.CONSTRUCTOR) {
+        if (newMessages == null) {
+          newMessages = new ArrayList<>(updates.size());
+        }
+        newMessages.add(((TdApi.UpdateNewMessage) update).message);
+      } else {
+        if (changes == null) {
+          changes = new ArrayList<>(updates.size());
+        }
+        changes.add(update);
+      }
+    }
+    final List<TdApi.Message> newMessagesFinal = newMessages;
+    final List<TdApi.Update> changesFinal = changes;
+    runMessageUpdate(chatId, listener -> {
+      if (listener instanceof MessageBatchListener) {
+        MessageBatchListener batchListener = (MessageBatchListener) listener;
+        if (newMessagesFinal != null) {
+          batchListener.onNewMessages(chatId, newMessagesFinal);
+        }
+        if (changesFinal != null) {
+          batchListener.onMessagesChanged(chatId, changesFinal);
+        }
+      }
+    });
   }
 
   // updateMessageSendSucceeded
@@ -677,9 +721,11 @@ public class TdlibListeners {
         message.content = update.newContent;
       }
     }
-    runMessageUpdate(update.chatId, listener ->
-      listener.onMessageContentChanged(update.chatId, update.messageId, update.newContent)
-    );
+    runMessageUpdate(update.chatId, listener -> {
+      if (!(listener instanceof MessageBatchListener)) {
+        listener.onMessageContentChanged(update.chatId, update.messageId, update.newContent);
+      }
+    });
   }
 
   // updatePoll (fake via updateMessageContent)
@@ -709,9 +755,11 @@ public class TdlibListeners {
         message.replyMarkup = update.replyMarkup;
       }
     }
-    runMessageUpdate(update.chatId, listener ->
-      listener.onMessageEdited(update.chatId, update.messageId, update.editDate, update.replyMarkup)
-    );
+    runMessageUpdate(update.chatId, listener -> {
+      if (!(listener instanceof MessageBatchListener)) {
+        listener.onMessageEdited(update.chatId, update.messageId, update.editDate, update.replyMarkup);
+      }
+    });
   }
 
   // updateMessageContentOpened
@@ -937,7 +985,6 @@ public class TdlibListeners {
     });
     if (listChanges != null) {
       for (Tdlib.ChatListChange listChange : listChanges) {
-        listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
         runChatListUpdate(listChange.list, listener ->
           listener.onChatListItemChanged(listChange.list, listChange.chat, ChatListListener.ItemChangeType.LAST_MESSAGE)
         );
@@ -947,6 +994,9 @@ public class TdlibListeners {
 
   // updateChatOrder
 
+  // TdlibChatList entries are moved by TdlibUpdateCoalescer as soon as update arrives,
+  // only listeners are notified here
+
   void updateChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange) {
     boolean orderChanged = listChange.change.orderChanged();
     boolean sourceChanged = listChange.change.sourceChanged();
@@ -954,7 +1004,6 @@ public class TdlibListeners {
     runChatUpdate(update.chatId, listener ->
       listener.onChatPositionChanged(update.chatId, update.position, orderChanged, sourceChanged, pinStateChanged)
     );
-    listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
   }
 
   // updateChatAddedToList, updateChatRemovedFromList
@@ -1098,7 +1147,6 @@ public class TdlibListeners {
     });
     if (listChanges != null) {
       for (Tdlib.ChatListChange listChange : listChanges) {
-        listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
         runChatListUpdate(listChange.list, listener ->
           listener.onChatListItemChanged(listChange.list, listChange.chat, ChatListListener.ItemChangeType.DRAFT)
         );
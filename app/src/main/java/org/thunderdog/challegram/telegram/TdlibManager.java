@@ -273,6 +273,20 @@ public class TdlibManager implements Iterable<TdlibAccount>, UI.StateListener {
     return instance(TdlibAccount.NO_ID, true);
   }
 
+  @UiThread
+  public static void trimMemory (int level) {
+    final TdlibManager instance = TdlibManager.instance;
+    if (instance != null) {
+      for (TdlibAccount account : instance.accounts) {
+        // Accounts that have not been started yet have nothing to trim
+        Tdlib tdlib = account.tdlib;
+        if (tdlib != null) {
+          tdlib.cache().onTrimMemory(level);
+        }
+      }
+    }
+  }
+
   public static Tdlib getTdlib (int accountId) {
     return instanceForAccountId(accountId).tdlib(accountId);
   }
@@ -300,6 +314,7 @@ public class TdlibManager implements Iterable<TdlibAccount>, UI.StateListener {
   // Impl
 
   private final ArrayList<TdlibAccount> accounts = new ArrayList<>();
+  private final TdlibStartupScheduler startupScheduler = new TdlibStartupScheduler();
 
   private final Object counterLock = new Object();
 
@@ -513,27 +528,28 @@ public class TdlibManager implements Iterable<TdlibAccount>, UI.StateListener {
       selectedAccount = accounts.get(serviceAccountId());
     }
     final TdlibAccount firstAccount = selectedAccount;
-    if (firstAccount.launch(specificAccountId != TdlibAccount.NO_ID)) {
-      firstAccount.tdlib().awaitInitialization(() -> {
-        for (TdlibAccount account : accounts) {
-          if (account != firstAccount) {
-            account.launch(false);
-          }
-        }
-        if (Config.NEED_TDLIB_CLEANUP) {
-          cleanupLoggedOutAccounts();
-        }
-      });
-    } else {
-      for (TdlibAccount account : accounts) {
-        if (account != firstAccount) {
-          account.launch(false);
-        }
-      }
-      if (Config.NEED_TDLIB_CLEANUP) {
-        cleanupLoggedOutAccounts();
+    final List<TdlibAccount> backgroundAccounts = new ArrayList<>(accounts.size());
+    for (TdlibAccount account : accounts) {
+      if (account != firstAccount) {
+        backgroundAccounts.add(account);
       }
     }
+    final Runnable after = Config.NEED_TDLIB_CLEANUP ? this::cleanupLoggedOutAccounts : null;
+    if (startupScheduler.launchForeground(firstAccount, specificAccountId != TdlibAccount.NO_ID)) {
+      TdlibStartupScheduler.awaitInitialization(firstAccount.tdlib(), () ->
+        startupScheduler.launchBackground(backgroundAccounts, after)
+      );
+    } else {
+      startupScheduler.launchBackground(backgroundAccounts, after);
+    }
+  }
+
+  /**
+   * @return Launch timings of accounts started by this process so far.
+   */
+  @NonNull
+  List<TdlibStartupScheduler.Timing> startupTimings () {
+    return startupScheduler.timings();
   }
 
   // Emulator
@@ -14,6 +14,7 @@
  */
 package org.thunderdog.challegram.telegram;
 
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import androidx.annotation.IntDef;
@@ -32,6 +33,7 @@ import org.thunderdog.challegram.tool.UI;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,6 +41,7 @@ import java.util.concurrent.TimeUnit;
 
 import me.vkryl.core.BitwiseUtils;
 import me.vkryl.core.collection.LongSet;
+import me.vkryl.core.collection.LongSparseLongArray;
 import me.vkryl.core.lambda.Destroyable;
 import me.vkryl.core.lambda.FutureBool;
 import me.vkryl.core.lambda.RunnableBool;
@@ -109,6 +112,8 @@ public class TdlibMessageViewer {
     public @Flags long flags;
     public long viewId;
     public boolean isRecentlyViewed;
+    // Must be reported even if it was already reported, e.g. to read its reactions
+    public boolean needForceReport;
 
     public VisibleMessage (@NonNull TdApi.Message message, @Flags long flags, long viewId) {
       this.chatId = message.chatId;
@@ -207,14 +212,22 @@ public class TdlibMessageViewer {
     }
 
     public long[] getMessageIds (boolean onlyRecentlyViewed, boolean updateRecentState) {
+      return getMessageIds(onlyRecentlyViewed, updateRecentState, null);
+    }
+
+    private long[] getMessageIds (boolean onlyRecentlyViewed, boolean updateRecentState, @Nullable LongSet forceReportMessageIds) {
       if (onlyRecentlyViewed) {
         LongSet messageIdsSet = new LongSet();
         for (int index = 0; index < visibleMessages.size(); index++) {
           VisibleMessage visibleMessage = visibleMessages.valueAt(index);
           if (visibleMessage.isRecentlyViewed) {
             messageIdsSet.add(visibleMessage.getMessageId());
+            if (visibleMessage.needForceReport && forceReportMessageIds != null) {
+              forceReportMessageIds.add(visibleMessage.getMessageId());
+            }
             if (updateRecentState) {
               visibleMessage.isRecentlyViewed = false;
+              visibleMessage.needForceReport = false;
             }
           }
         }
@@ -251,6 +264,9 @@ public class TdlibMessageViewer {
           long oldFlags = visibleMessage.flags;
           visibleMessage.flags = flags;
           visibleMessage.isRecentlyViewed = true;
+          if (forceMarkAsRecent || oldFlags != flags) {
+            visibleMessage.needForceReport = true;
+          }
           if (visibleMessage.visibility.markAsVisible()) {
             trackMessage(visibleMessage, true);
           } else if (oldFlags != flags) {
@@ -336,6 +352,7 @@ public class TdlibMessageViewer {
         state.visibleProtectedMessageIds.remove(messageId);
         visibleMessages.remove(messageId);
         viewport.trackRecentlyViewedMessage(this, visibleMessage);
+        viewport.onMessageHidden(chatId, messageId);
         if (state.refreshMessageIds.remove(messageId)) {
           checkRefreshInteractionInfo();
         }
@@ -490,6 +507,7 @@ public class TdlibMessageViewer {
     LongSet visibleProtectedChatIds = new LongSet();
     boolean needRestrictScreenshots;
     boolean isDestroyed;
+    boolean isScrolling;
   }
 
   public static class Viewport implements Destroyable {
@@ -655,6 +673,7 @@ public class TdlibMessageViewer {
         }
       }
       context.viewports.remove(this);
+      context.scheduleViewMessagesFlush(false);
     }
 
     public boolean removeOtherVisibleChats (@Nullable LongSet visibleChatIds) {
@@ -755,6 +774,7 @@ public class TdlibMessageViewer {
         visibleChat.performDestroy();
         context.tdlib.listeners().unsubscribeFromChatUpdates(visibleChat.chatId, chatListener);
         context.tdlib.listeners().unsubscribeFromMessageUpdates(visibleChat.chatId, messageListener);
+        context.onChatHidden(visibleChat.chatId);
       }
     }
 
@@ -764,6 +784,12 @@ public class TdlibMessageViewer {
       }
     }
 
+    private void onMessageHidden (long chatId, long messageId) {
+      if (!isDestroyed()) {
+        context.onMessageHidden(chatId, messageId);
+      }
+    }
+
     private void viewMessagesImpl (long chatId, long[] messageIds, TdApi.MessageSource messageSource, boolean forceRead, @Nullable RunnableBool after) {
       if (messageIds.length > 0) {
         context.tdlib.send(new TdApi.ViewMessages(chatId, messageIds, messageSource, forceRead), (ok, error) -> {
@@ -801,6 +827,18 @@ public class TdlibMessageViewer {
       return state.isDestroyed;
     }
 
+    /**
+     * Views reported while any viewport is being scrolled are sent less frequently.
+     */
+    public void setScrolling (boolean isScrolling) {
+      if (state.isScrolling != isScrolling) {
+        state.isScrolling = isScrolling;
+        if (!isScrolling) {
+          context.scheduleViewMessagesFlush(false);
+        }
+      }
+    }
+
     public boolean haveRecentlyViewedMessages () {
       if (isDestroyed()) {
         return false;
@@ -822,8 +860,9 @@ public class TdlibMessageViewer {
           continue;
         }
         final long chatId = visibleChat.chatId;
-        final long[] messageIds = visibleChat.getMessageIds(true, true);
-        viewMessagesImpl(chatId, messageIds, messageSource, forceRead, after);
+        final LongSet forceReportMessageIds = new LongSet();
+        final long[] messageIds = visibleChat.getMessageIds(true, true, forceReportMessageIds);
+        context.enqueueViewMessages(chatId, messageIds, forceReportMessageIds, messageSource, forceRead, after);
       }
     }
   }
@@ -925,6 +964,282 @@ public class TdlibMessageViewer {
     return false;
   }
 
+  // View requests
+
+  private static final long VIEW_FLUSH_DELAY_READ_MS = 100;
+  private static final long VIEW_FLUSH_DELAY_IDLE_MS = 300;
+  private static final long VIEW_FLUSH_DELAY_SCROLL_MS = 1000;
+  private static final int VIEW_FLUSH_MAX_PENDING_COUNT = 100;
+  private static final long REPORTED_MESSAGE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+  private static final int MAX_REPORTED_MESSAGE_COUNT = 500;
+
+  private static class ReportedMessages {
+    // Message id -> SystemClock.uptimeMillis() when it was reported
+    final LongSparseLongArray reportTimes = new LongSparseLongArray();
+
+    boolean has (long messageId, long now) {
+      long reportTime = reportTimes.get(messageId);
+      return reportTime != 0 && now - reportTime < REPORTED_MESSAGE_TIMEOUT_MS;
+    }
+
+    void add (long messageId, long now) {
+      reportTimes.put(messageId, now);
+      if (reportTimes.size() > MAX_REPORTED_MESSAGE_COUNT) {
+        trim(now);
+      }
+    }
+
+    void remove (long messageId) {
+      reportTimes.delete(messageId);
+    }
+
+    private void trim (long now) {
+      // Expired entries are dropped, and at most half of the limit is kept, so trimming doesn't happen on every report
+      final int size = reportTimes.size();
+      long[] sortedTimes = new long[size];
+      for (int i = 0; i < size; i++) {
+        sortedTimes[i] = reportTimes.valueAt(i);
+      }
+      Arrays.sort(sortedTimes);
+      final long minReportTime = Math.max(now - REPORTED_MESSAGE_TIMEOUT_MS, sortedTimes[size - MAX_REPORTED_MESSAGE_COUNT / 2]);
+      long[] removedMessageIds = new long[size];
+      int removedCount = 0;
+      for (int i = 0; i < size; i++) {
+        if (reportTimes.valueAt(i) < minReportTime) {
+          removedMessageIds[removedCount++] = reportTimes.keyAt(i);
+        }
+      }
+      for (int i = 0; i < removedCount; i++) {
+        reportTimes.delete(removedMessageIds[i]);
+      }
+    }
+  }
+
+  private static class PendingViewRequest {
+    final TdApi.MessageSource messageSource;
+    final boolean forceRead;
+    final LongSet messageIds = new LongSet();
+    final List<RunnableBool> callbacks = new ArrayList<>();
+
+    PendingViewRequest (TdApi.MessageSource messageSource, boolean forceRead) {
+      this.messageSource = messageSource;
+      this.forceRead = forceRead;
+    }
+  }
+
+  private static class ChatViewState {
+    final List<PendingViewRequest> pendingRequests = new ArrayList<>();
+    // Message ids that were recently reported, by message source and forceRead
+    final LongSparseArray<ReportedMessages> reportedMessages = new LongSparseArray<>();
+
+    @Nullable
+    PendingViewRequest findPendingRequest (TdApi.MessageSource messageSource, boolean forceRead) {
+      for (PendingViewRequest request : pendingRequests) {
+        if (request.forceRead == forceRead && request.messageSource.getConstructor() == messageSource.getConstructor()) {
+          return request;
+        }
+      }
+      return null;
+    }
+
+    @Nullable
+    ReportedMessages findReportedMessages (TdApi.MessageSource messageSource, boolean forceRead) {
+      return reportedMessages.get(viewKey(messageSource, forceRead));
+    }
+
+    private static long viewKey (TdApi.MessageSource messageSource, boolean forceRead) {
+      return ((long) messageSource.getConstructor() << 1) | (forceRead ? 1 : 0);
+    }
+  }
+
+  private final LongSparseArray<ChatViewState> chatViewStates = new LongSparseArray<>();
+  private final Runnable flushViewMessagesAct = this::flushViewMessages;
+  private int pendingViewCount;
+  private long scheduledFlushTime;
+
+  /**
+   * Merges message ids viewed in all viewports, so they are sent in a single {@link TdApi.ViewMessages}
+   * per chat, message source and forceRead. Ids reported less than {@link #REPORTED_MESSAGE_TIMEOUT_MS} ago
+   * that stayed visible since then are dropped, unless they are present in {@code forceReportMessageIds}.
+   */
+  private void enqueueViewMessages (long chatId, long[] messageIds, LongSet forceReportMessageIds, TdApi.MessageSource messageSource, boolean forceRead, @Nullable RunnableBool after) {
+    ChatViewState chatState = chatViewStates.get(chatId);
+    if (chatState == null) {
+      chatState = new ChatViewState();
+      chatViewStates.put(chatId, chatState);
+    }
+    ReportedMessages readMessages = chatState.findReportedMessages(messageSource, true);
+    ReportedMessages viewedMessages = forceRead ? null : chatState.findReportedMessages(messageSource, false);
+    final long now = SystemClock.uptimeMillis();
+    PendingViewRequest readRequest = chatState.findPendingRequest(messageSource, true);
+    PendingViewRequest request = forceRead ? readRequest : chatState.findPendingRequest(messageSource, false);
+    PendingViewRequest weakerRequest = forceRead ? chatState.findPendingRequest(messageSource, false) : null;
+    int addedCount = 0;
+    for (long messageId : messageIds) {
+      boolean isReported = !forceReportMessageIds.has(messageId) && (
+        (readMessages != null && readMessages.has(messageId, now)) ||
+        (viewedMessages != null && viewedMessages.has(messageId, now))
+      );
+      if (isReported || (!forceRead && readRequest != null && readRequest.messageIds.has(messageId))) {
+        continue;
+      }
+      if (request == null) {
+        request = new PendingViewRequest(messageSource, forceRead);
+        chatState.pendingRequests.add(request);
+      }
+      if (request.messageIds.add(messageId)) {
+        pendingViewCount++;
+        addedCount++;
+      }
+      if (weakerRequest != null && weakerRequest.messageIds.remove(messageId)) {
+        pendingViewCount--;
+      }
+    }
+    if (after != null) {
+      if (request != null) {
+        request.callbacks.add(after);
+      } else {
+        after.runWithBool(true);
+      }
+    }
+    if (addedCount > 0) {
+      scheduleViewMessagesFlush(forceRead);
+    }
+  }
+
+  private boolean isScrolling () {
+    for (Viewport viewport : viewports) {
+      if (viewport.state.isScrolling && !viewport.isDestroyed()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void scheduleViewMessagesFlush (boolean forceRead) {
+    if (chatViewStates.isEmpty() || (pendingViewCount == 0 && scheduledFlushTime == 0)) {
+      return;
+    }
+    long delayMs;
+    if (pendingViewCount >= VIEW_FLUSH_MAX_PENDING_COUNT) {
+      delayMs = 0;
+    } else if (forceRead) {
+      delayMs = VIEW_FLUSH_DELAY_READ_MS;
+    } else if (isScrolling()) {
+      delayMs = VIEW_FLUSH_DELAY_SCROLL_MS;
+    } else {
+      delayMs = VIEW_FLUSH_DELAY_IDLE_MS;
+    }
+    long flushTime = SystemClock.uptimeMillis() + delayMs;
+    if (scheduledFlushTime != 0) {
+      if (scheduledFlushTime <= flushTime) {
+        // New views never postpone the ones that are already waiting
+        return;
+      }
+      tdlib.ui().removeCallbacks(flushViewMessagesAct);
+    }
+    scheduledFlushTime = flushTime;
+    tdlib.ui().postDelayed(flushViewMessagesAct, delayMs);
+  }
+
+  private void flushViewMessages () {
+    scheduledFlushTime = 0;
+    tdlib.ui().removeCallbacks(flushViewMessagesAct);
+    if (Config.DEBUG_VIEW_MESSAGES) {
+      UI.showToast("flush views for " + pendingViewCount + " message(s) in " + chatViewStates.size() + " chat(s)", Toast.LENGTH_SHORT);
+    }
+    pendingViewCount = 0;
+    for (int index = chatViewStates.size() - 1; index >= 0; index--) {
+      long chatId = chatViewStates.keyAt(index);
+      ChatViewState chatState = chatViewStates.valueAt(index);
+      boolean isChatVisible = isChatVisible(chatId);
+      for (PendingViewRequest request : chatState.pendingRequests) {
+        sendViewMessages(chatId, chatState, request, isChatVisible);
+      }
+      chatState.pendingRequests.clear();
+      if (!isChatVisible) {
+        chatViewStates.removeAt(index);
+      }
+    }
+  }
+
+  private void sendViewMessages (long chatId, ChatViewState chatState, PendingViewRequest request, boolean isChatVisible) {
+    final long[] messageIds = request.messageIds.toArray();
+    final List<RunnableBool> callbacks = request.callbacks;
+    if (messageIds.length == 0) {
+      // All ids were moved to the forceRead request
+      for (RunnableBool callback : callbacks) {
+        callback.runWithBool(true);
+      }
+      return;
+    }
+    final ReportedMessages reportedMessages;
+    if (isChatVisible) {
+      long key = ChatViewState.viewKey(request.messageSource, request.forceRead);
+      ReportedMessages messages = chatState.reportedMessages.get(key);
+      if (messages == null) {
+        messages = new ReportedMessages();
+        chatState.reportedMessages.put(key, messages);
+      }
+      final long now = SystemClock.uptimeMillis();
+      for (long messageId : messageIds) {
+        messages.add(messageId, now);
+      }
+      reportedMessages = messages;
+    } else {
+      reportedMessages = null;
+    }
+    tdlib.send(new TdApi.ViewMessages(chatId, messageIds, request.messageSource, request.forceRead), (ok, error) -> {
+      for (RunnableBool callback : callbacks) {
+        callback.runWithBool(error == null);
+      }
+      if (error != null) {
+        TDLib.w("Unable to view %d messages in chat %d, source: %s, error: %s", messageIds.length, chatId, request.messageSource, TD.toErrorString(error));
+        if (reportedMessages != null) {
+          // Allow reporting them again
+          tdlib.ui().post(() -> {
+            for (long messageId : messageIds) {
+              reportedMessages.remove(messageId);
+            }
+          });
+        }
+      }
+    });
+  }
+
+  private boolean isChatVisible (long chatId) {
+    for (Viewport viewport : viewports) {
+      if (!viewport.isDestroyed() && viewport.state.visibleChatIds.has(chatId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void onChatHidden (long chatId) {
+    int index = chatViewStates.indexOfKey(chatId);
+    if (index >= 0 && !isChatVisible(chatId)) {
+      ChatViewState chatState = chatViewStates.valueAt(index);
+      // Once chat is no longer visible anywhere, its messages may be reported again next time
+      chatState.reportedMessages.clear();
+      if (chatState.pendingRequests.isEmpty()) {
+        chatViewStates.removeAt(index);
+      }
+    }
+  }
+
+  private void onMessageHidden (long chatId, long messageId) {
+    ChatViewState chatState = chatViewStates.get(chatId);
+    if (chatState != null) {
+      // Message scrolled back into view is reported again, so its views and interaction info are refreshed
+      for (int index = 0; index < chatState.reportedMessages.size(); index++) {
+        chatState.reportedMessages.valueAt(index).remove(messageId);
+      }
+    }
+  }
+
+  // Screenshots
+
   private @Nullable LongSparseArray<LongSet> screenshotMessages = null;
 
   private void addScreenshotMessage (long chatId, long messageId) {
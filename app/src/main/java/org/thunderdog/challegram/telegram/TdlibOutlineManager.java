@@ -66,6 +66,7 @@ public class TdlibOutlineManager extends TdlibDataManager<String, TdApi.Outline,
         BitwiseUtils.optional(StickerOutlineOption.FOR_CLICKED_ANIMATED_EMOJI_MESSAGE, forClickedAnimatedEmojiMessage);
     String key = new ParsedKey(ParsedKey.TYPE_STICKER_OUTLINE, stickerFileId, option).serializeToKey();
     findOrPostponeRequest(key, watcher, strongReference);
+    performPostponedRequestsDelayed();
   }
 
   public void requestWebAppPlaceholder (long botUserId, Watcher watcher) {
@@ -0,0 +1,247 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:50
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.os.TraceCompat;
+
+import org.thunderdog.challegram.Log;
+import org.thunderdog.challegram.core.BaseThread;
+import org.thunderdog.challegram.tool.UI;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Launches {@link TdlibAccount}s on application start.
+ *
+ * Foreground account is launched immediately on the caller thread. Remaining accounts are launched
+ * once it is initialized, on a separate launcher thread. Only the launcher thread has background priority:
+ * TDLib threads of launched instances keep their default priority. At most {@link #MAX_CONCURRENT_LAUNCHES} background accounts are initializing at the same time,
+ * and each next launch is delayed by {@link #LAUNCH_STAGGER_MS}, so their initial updates do not
+ * all compete for the main thread at once. Accounts that are not initialized within {@link #INITIALIZATION_TIMEOUT_MS}
+ * (e.g. without network, with broken database or while being deleted) no longer hold the next stages.
+ *
+ * Time of each launch is recorded as async trace sections {@link #TRACE_SECTION_FOREGROUND}
+ * and {@link #TRACE_SECTION_BACKGROUND}, and is available via {@link #timings()}.
+ */
+final class TdlibStartupScheduler {
+  static final String TRACE_SECTION_FOREGROUND = "TdlibStartup:foreground";
+  static final String TRACE_SECTION_BACKGROUND = "TdlibStartup:background";
+
+  private static final int MAX_CONCURRENT_LAUNCHES = 2;
+  private static final long LAUNCH_STAGGER_MS = 50;
+  private static final long INITIALIZATION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(15);
+
+  public static final class Timing {
+    public final int accountId;
+    public final boolean isForeground;
+    public final long scheduleTime;
+    private long launchTime, createTime, initializationTime;
+
+    Timing (int accountId, boolean isForeground) {
+      this.accountId = accountId;
+      this.isForeground = isForeground;
+      this.scheduleTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @return Time between scheduling launch and TDLib instance receiving initial authorization state, or -1, if it was not launched or not yet initialized.
+     */
+    public long totalMs () {
+      return initializationTime != 0 ? initializationTime - scheduleTime : -1;
+    }
+
+    @Override
+    @NonNull
+    public String toString () {
+      if (launchTime == 0) {
+        return String.format(Locale.US, "#%d: pending", accountId);
+      }
+      if (createTime == 0) {
+        return String.format(Locale.US, "#%d: skipped", accountId);
+      }
+      return String.format(Locale.US, "#%d%s: queued %dms, created in %dms, initialized in %dms",
+        accountId, isForeground ? " (foreground)" : "",
+        launchTime - scheduleTime,
+        createTime - launchTime,
+        initializationTime != 0 ? initializationTime - createTime : -1
+      );
+    }
+  }
+
+  private final ArrayDeque<TdlibAccount> queue = new ArrayDeque<>();
+  private final List<Timing> timings = new ArrayList<>();
+  private int activeCount;
+  private long nextLaunchTime;
+  private @Nullable Runnable after;
+  private BaseThread thread;
+
+  /**
+   * Launches the foreground account on the current thread.
+   *
+   * @return Whether TDLib instance has been created.
+   */
+  boolean launchForeground (TdlibAccount account, boolean force) {
+    Timing timing = newTiming(account, true);
+    return launch(account, timing, force, null);
+  }
+
+  /**
+   * Launches the rest of the accounts in background. {@code after} is executed once all of them are initialized.
+   */
+  void launchBackground (List<TdlibAccount> accounts, @Nullable Runnable after) {
+    synchronized (this) {
+      for (TdlibAccount account : accounts) {
+        newTiming(account, false);
+        queue.add(account);
+      }
+      this.after = after;
+    }
+    scheduleNext();
+  }
+
+  @AnyThread
+  @NonNull
+  synchronized List<Timing> timings () {
+    return new ArrayList<>(timings);
+  }
+
+  private synchronized Timing newTiming (TdlibAccount account, boolean isForeground) {
+    Timing timing = new Timing(account.id, isForeground);
+    timings.add(timing);
+    return timing;
+  }
+
+  private synchronized Timing findTiming (int accountId) {
+    for (int i = timings.size() - 1; i >= 0; i--) {
+      Timing timing = timings.get(i);
+      if (timing.accountId == accountId) {
+        return timing;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private boolean launch (TdlibAccount account, Timing timing, boolean force, @Nullable Runnable onDone) {
+    final String sectionName = timing.isForeground ? TRACE_SECTION_FOREGROUND : TRACE_SECTION_BACKGROUND;
+    TraceCompat.beginAsyncSection(sectionName, account.id);
+    synchronized (this) {
+      timing.launchTime = SystemClock.uptimeMillis();
+    }
+    boolean launched;
+    try {
+      launched = account.launch(force) && account.tdlib != null;
+    } catch (Throwable t) {
+      Log.e(Log.TAG_ACCOUNTS, "Unable to launch accountId:%d", t, account.id);
+      launched = false;
+    }
+    if (!launched) {
+      TraceCompat.endAsyncSection(sectionName, account.id);
+      if (onDone != null) {
+        onDone.run();
+      }
+      return false;
+    }
+    synchronized (this) {
+      timing.createTime = SystemClock.uptimeMillis();
+    }
+    account.tdlib.awaitInitialization(() -> {
+      synchronized (this) {
+        timing.initializationTime = SystemClock.uptimeMillis();
+      }
+      TraceCompat.endAsyncSection(sectionName, account.id);
+    });
+    if (onDone != null) {
+      awaitInitialization(account.tdlib, onDone);
+    }
+    return true;
+  }
+
+  /**
+   * Executes {@code after} once {@code tdlib} is initialized, or once {@link #INITIALIZATION_TIMEOUT_MS} passes, whichever happens first.
+   */
+  @AnyThread
+  static void awaitInitialization (Tdlib tdlib, Runnable after) {
+    final AtomicBoolean isDone = new AtomicBoolean();
+    UI.post(() -> {
+      if (isDone.compareAndSet(false, true)) {
+        Log.w(Log.TAG_ACCOUNTS, "accountId:%d is not initialized in %dms, continuing startup", tdlib.id(), INITIALIZATION_TIMEOUT_MS);
+        after.run();
+      }
+    }, INITIALIZATION_TIMEOUT_MS);
+    tdlib.awaitInitialization(() -> {
+      if (isDone.compareAndSet(false, true)) {
+        after.run();
+      }
+    });
+  }
+
+  private void scheduleNext () {
+    Runnable after = null;
+    synchronized (this) {
+      while (activeCount < MAX_CONCURRENT_LAUNCHES && !queue.isEmpty()) {
+        final TdlibAccount account = queue.removeFirst();
+        final Timing timing = findTiming(account.id);
+        activeCount++;
+        long now = SystemClock.uptimeMillis();
+        long delay = Math.max(0, nextLaunchTime - now);
+        nextLaunchTime = now + delay + LAUNCH_STAGGER_MS;
+        thread().post(() -> launch(account, timing, false, this::onLaunchFinished), delay);
+      }
+      if (activeCount == 0 && queue.isEmpty()) {
+        after = this.after;
+        this.after = null;
+        if (thread != null) {
+          final BaseThread thread = this.thread;
+          thread.post(() -> thread.quitLooper(true), 0);
+          this.thread = null;
+        }
+      }
+    }
+    if (after != null) {
+      if (Log.isEnabled(Log.TAG_ACCOUNTS)) {
+        Log.i(Log.TAG_ACCOUNTS, "Accounts launched: %s", timings());
+      }
+      after.run();
+    }
+  }
+
+  private void onLaunchFinished () {
+    synchronized (this) {
+      activeCount--;
+    }
+    scheduleNext();
+  }
+
+  private BaseThread thread () {
+    if (thread == null) {
+      thread = new BaseThread("TdlibStartupThread");
+      // Threads created by TDLib instances keep their default priority,
+      // as it is inherited from Thread#getPriority, not from the nice value
+      thread.post(() -> Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND), 0);
+    }
+    return thread;
+  }
+}
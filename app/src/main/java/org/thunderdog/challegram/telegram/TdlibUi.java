@@ -8023,6 +8023,7 @@ public class TdlibUi extends Handler {
       public void onScrollStateChanged (@NonNull RecyclerView recyclerView, int newState) {
         boolean wasScrolling = this.isScrolling;
         this.isScrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+        viewport.setScrolling(this.isScrolling);
         if (this.isScrolling != wasScrolling && !this.isScrolling) {
           viewMessages.run();
         }
@@ -0,0 +1,441 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 21:30
+ */
+package org.thunderdog.challegram.telegram;
+
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+
+import org.drinkless.tdlib.Client;
+import org.drinkless.tdlib.TdApi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges listener notifications of redundant per-chat updates received in bursts,
+ * e.g. after reconnect, when TDLib sends many {@link TdApi.UpdateChatLastMessage},
+ * {@link TdApi.UpdateChatPosition}, {@link TdApi.UpdateChatReadInbox} and {@link TdApi.UpdateChatDraftMessage}.
+ *
+ * Chat state and {@link TdlibChatList} contents are still updated as soon as update arrives,
+ * so result handlers and chat list snapshots always observe the latest state.
+ * Only listener notifications are delayed: listeners receive the last value of each kind once per chat,
+ * and a single position change per chat list with merged change flags.
+ * Moves, additions and removals of chat list entries are not delayed, as they are reported by {@link TdlibChatList} itself.
+ *
+ * Pending notifications of a chat are flushed before any other update related to that chat is processed,
+ * and all of them are flushed before updates with unknown relations, before {@link Tdlib#runOnTdlibThread(Runnable)} tasks,
+ * and once TDLib delivers all updates queued at the moment the first notification was delayed.
+ *
+ * New messages and edits are additionally collected per chat for {@link MessageBatchListener}s,
+ * which receive them in a single callback. Other listeners are notified about them immediately.
+ */
+@TdlibThread
+final class TdlibUpdateCoalescer {
+  /**
+   * Applies chat list changes and delivers coalesced notifications.
+   */
+  interface Delegate {
+    /**
+     * Runs {@code flush} once TDLib delivers all updates queued at the moment of the call.
+     */
+    void scheduleFlush (Runnable flush);
+    void applyChatListChange (Tdlib.ChatListChange listChange);
+
+    void notifyMessageBatch (long chatId, List<TdApi.Update> updates);
+    void notifyChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges);
+    void notifyChatDraftMessage (TdApi.UpdateChatDraftMessage update, @Nullable List<Tdlib.ChatListChange> listChanges);
+    void notifyChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange);
+    void notifyChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists);
+  }
+
+  private static final class TdlibDelegate implements Delegate {
+    private final Tdlib tdlib;
+    private final Client client;
+
+    TdlibDelegate (Tdlib tdlib, Client client) {
+      this.tdlib = tdlib;
+      this.client = client;
+    }
+
+    @Override
+    public void scheduleFlush (Runnable flush) {
+      // Response is delivered after all updates that have already been queued by TDLib
+      client.send(new TdApi.SetAlarm(0), ignored -> flush.run());
+    }
+
+    @Override
+    public void applyChatListChange (Tdlib.ChatListChange listChange) {
+      listChange.list.onUpdateChatPosition(listChange.chat, listChange.change);
+    }
+
+    @Override
+    public void notifyMessageBatch (long chatId, List<TdApi.Update> updates) {
+      tdlib.listeners().updateMessageBatch(chatId, updates);
+    }
+
+    @Override
+    public void notifyChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+      tdlib.listeners().updateChatLastMessage(update, listChanges);
+    }
+
+    @Override
+    public void notifyChatDraftMessage (TdApi.UpdateChatDraftMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+      tdlib.listeners().updateChatDraftMessage(update, listChanges);
+    }
+
+    @Override
+    public void notifyChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange) {
+      tdlib.listeners().updateChatPosition(update, listChange);
+    }
+
+    @Override
+    public void notifyChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
+      tdlib.listeners().updateChatReadInbox(update, availabilityChanged, chat, chatLists);
+    }
+  }
+
+  private static final int KIND_POSITION = 1;
+  private static final int KIND_DRAFT = 1 << 1;
+  private static final int KIND_LAST_MESSAGE = 1 << 2;
+
+  private static final class PendingListChange {
+    final TdlibChatList list;
+    Tdlib.ChatChange change;
+    int kinds;
+
+    PendingListChange (Tdlib.ChatListChange listChange, int kind) {
+      this.list = listChange.list;
+      this.change = listChange.change;
+      this.kinds = kind;
+    }
+  }
+
+  private static final class PendingChat {
+    final long chatId;
+    TdApi.Chat chat;
+
+    TdApi.UpdateChatLastMessage lastMessage;
+    TdApi.UpdateChatDraftMessage draftMessage;
+    TdApi.UpdateChatReadInbox readInbox;
+    boolean readInboxAvailabilityChanged;
+    TdlibChatList[] readInboxChatLists;
+
+    final ArrayList<PendingListChange> listChanges = new ArrayList<>(2);
+
+    PendingChat (long chatId) {
+      this.chatId = chatId;
+    }
+
+    void addListChange (Tdlib.ChatListChange listChange, int kind) {
+      this.chat = listChange.chat;
+      for (PendingListChange pending : listChanges) {
+        if (pending.list == listChange.list) {
+          pending.change = new Tdlib.ChatChange(listChange.change.position, pending.change.flags | listChange.change.flags);
+          pending.kinds |= kind;
+          return;
+        }
+      }
+      listChanges.add(new PendingListChange(listChange, kind));
+    }
+
+    void addListChanges (@Nullable List<Tdlib.ChatListChange> listChanges, int kind) {
+      if (listChanges != null) {
+        for (Tdlib.ChatListChange listChange : listChanges) {
+          addListChange(listChange, kind);
+        }
+      }
+    }
+
+    @Nullable
+    List<Tdlib.ChatListChange> takeListChanges (int kind) {
+      List<Tdlib.ChatListChange> result = null;
+      for (PendingListChange pending : listChanges) {
+        if (pending.kinds != 0 && (pending.kinds & kind) != 0) {
+          if (result == null) {
+            result = new ArrayList<>(listChanges.size());
+          }
+          result.add(new Tdlib.ChatListChange(pending.list, chat, pending.change));
+          pending.kinds = 0;
+        }
+      }
+      return result;
+    }
+  }
+
+  private final Delegate delegate;
+  private final TdlibUpdateStats stats;
+
+  private static final class PendingMessages {
+    final long chatId;
+    final ArrayList<TdApi.Update> updates = new ArrayList<>();
+
+    PendingMessages (long chatId) {
+      this.chatId = chatId;
+    }
+  }
+
+  private final LongSparseArray<PendingChat> pendingChats = new LongSparseArray<>();
+  private final ArrayList<PendingChat> pendingOrder = new ArrayList<>();
+  private final LongSparseArray<PendingMessages> pendingMessages = new LongSparseArray<>();
+  private final ArrayList<PendingMessages> pendingMessagesOrder = new ArrayList<>();
+  private boolean flushScheduled, isFlushing;
+
+  TdlibUpdateCoalescer (Tdlib tdlib, Client client, TdlibUpdateStats stats) {
+    this(new TdlibDelegate(tdlib, client), stats);
+  }
+
+  TdlibUpdateCoalescer (Delegate delegate, TdlibUpdateStats stats) {
+    this.delegate = delegate;
+    this.stats = stats;
+  }
+
+  // Incoming updates
+
+  /**
+   * Flushes pending notifications that must be delivered before the update is processed.
+   */
+  void beforeUpdate (TdApi.Update update) {
+    if (pendingOrder.isEmpty() && pendingMessagesOrder.isEmpty()) {
+      return;
+    }
+    switch (update.getConstructor()) {
+      case TdApi.UpdateChatLastMessage.CONSTRUCTOR:
+      case TdApi.UpdateChatPosition.CONSTRUCTOR:
+      case TdApi.UpdateChatReadInbox.CONSTRUCTOR:
+      case TdApi.UpdateChatDraftMessage.CONSTRUCTOR:
+        // Coalesced
+        break;
+
+      // Updates unrelated to chat lists
+      case TdApi.UpdateUser.CONSTRUCTOR:
+      case TdApi.UpdateUserStatus.CONSTRUCTOR:
+      case TdApi.UpdateUserFullInfo.CONSTRUCTOR:
+      case TdApi.UpdateBasicGroup.CONSTRUCTOR:
+      case TdApi.UpdateBasicGroupFullInfo.CONSTRUCTOR:
+      case TdApi.UpdateSupergroup.CONSTRUCTOR:
+      case TdApi.UpdateSupergroupFullInfo.CONSTRUCTOR:
+      case TdApi.UpdateFile.CONSTRUCTOR:
+      case TdApi.UpdateOption.CONSTRUCTOR:
+      case TdApi.UpdateStickerSet.CONSTRUCTOR:
+      case TdApi.UpdateInstalledStickerSets.CONSTRUCTOR:
+      case TdApi.UpdateUserPrivacySettingRules.CONSTRUCTOR:
+        break;
+
+      // Updates of a specific chat
+      case TdApi.UpdateNewChat.CONSTRUCTOR:
+        flush(((TdApi.UpdateNewChat) update).chat.id);
+        break;
+      case TdApi.UpdateNewMessage.CONSTRUCTOR:
+        flushChat(((TdApi.UpdateNewMessage) update).message.chatId);
+        break;
+      case TdApi.UpdateMessageSendSucceeded.CONSTRUCTOR:
+        flush(((TdApi.UpdateMessageSendSucceeded) update).message.chatId);
+        break;
+      case TdApi.UpdateMessageContent.CONSTRUCTOR:
+        flushChat(((TdApi.UpdateMessageContent) update).chatId);
+        break;
+      case TdApi.UpdateMessageEdited.CONSTRUCTOR:
+        flushChat(((TdApi.UpdateMessageEdited) update).chatId);
+        break;
+      case TdApi.UpdateMessageInteractionInfo.CONSTRUCTOR:
+        flush(((TdApi.UpdateMessageInteractionInfo) update).chatId);
+        break;
+      case TdApi.UpdateDeleteMessages.CONSTRUCTOR:
+        flush(((TdApi.UpdateDeleteMessages) update).chatId);
+        break;
+      case TdApi.UpdateChatAction.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatAction) update).chatId);
+        break;
+      case TdApi.UpdateChatTitle.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatTitle) update).chatId);
+        break;
+      case TdApi.UpdateChatPhoto.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatPhoto) update).chatId);
+        break;
+      case TdApi.UpdateChatReadOutbox.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatReadOutbox) update).chatId);
+        break;
+      case TdApi.UpdateChatUnreadMentionCount.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatUnreadMentionCount) update).chatId);
+        break;
+      case TdApi.UpdateChatUnreadReactionCount.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatUnreadReactionCount) update).chatId);
+        break;
+      case TdApi.UpdateChatIsMarkedAsUnread.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatIsMarkedAsUnread) update).chatId);
+        break;
+      case TdApi.UpdateChatNotificationSettings.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatNotificationSettings) update).chatId);
+        break;
+      case TdApi.UpdateChatAddedToList.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatAddedToList) update).chatId);
+        break;
+      case TdApi.UpdateChatRemovedFromList.CONSTRUCTOR:
+        flush(((TdApi.UpdateChatRemovedFromList) update).chatId);
+        break;
+
+      default:
+        flush();
+        break;
+    }
+  }
+
+  void onChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+    applyListChanges(listChanges);
+    PendingChat pending = obtainPendingChat(update.chatId, update);
+    pending.lastMessage = update;
+    pending.addListChanges(listChanges, KIND_LAST_MESSAGE);
+  }
+
+  void onChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange) {
+    delegate.applyChatListChange(listChange);
+    PendingChat pending = obtainPendingChat(update.chatId, update);
+    pending.addListChange(listChange, KIND_POSITION);
+  }
+
+  void onChatDraftMessage (TdApi.UpdateChatDraftMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+    applyListChanges(listChanges);
+    PendingChat pending = obtainPendingChat(update.chatId, update);
+    pending.draftMessage = update;
+    pending.addListChanges(listChanges, KIND_DRAFT);
+  }
+
+  private void applyListChanges (@Nullable List<Tdlib.ChatListChange> listChanges) {
+    if (listChanges != null) {
+      for (Tdlib.ChatListChange listChange : listChanges) {
+        delegate.applyChatListChange(listChange);
+      }
+    }
+  }
+
+  void onChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
+    PendingChat pending = obtainPendingChat(update.chatId, update);
+    if (pending.readInbox != null) {
+      // Availability changed twice means it is the same as before the burst
+      pending.readInboxAvailabilityChanged ^= availabilityChanged;
+    } else {
+      pending.readInboxAvailabilityChanged = availabilityChanged;
+    }
+    pending.readInbox = update;
+    pending.readInboxChatLists = chatLists;
+    pending.chat = chat;
+  }
+
+  void onMessageUpdate (long chatId, TdApi.Update update) {
+    PendingMessages pending = pendingMessages.get(chatId);
+    if (pending == null) {
+      pending = new PendingMessages(chatId);
+      pendingMessages.put(chatId, pending);
+      pendingMessagesOrder.add(pending);
+      scheduleFlush();
+    } else {
+      stats.onUpdateCoalesced(update);
+    }
+    pending.updates.add(update);
+  }
+
+  private PendingChat obtainPendingChat (long chatId, TdApi.Update update) {
+    PendingChat pending = pendingChats.get(chatId);
+    if (pending == null) {
+      pending = new PendingChat(chatId);
+      pendingChats.put(chatId, pending);
+      pendingOrder.add(pending);
+      scheduleFlush();
+    } else {
+      stats.onUpdateCoalesced(update);
+    }
+    return pending;
+  }
+
+  private void scheduleFlush () {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      delegate.scheduleFlush(() -> {
+        flushScheduled = false;
+        flush();
+      });
+    }
+  }
+
+  // Flush
+
+  void flush () {
+    if (isFlushing || (pendingOrder.isEmpty() && pendingMessagesOrder.isEmpty())) {
+      return;
+    }
+    isFlushing = true;
+    try {
+      // Listeners may cause nested flush() calls, e.g. by running code that expects actual chat lists
+      while (!pendingOrder.isEmpty() || !pendingMessagesOrder.isEmpty()) {
+        if (!pendingOrder.isEmpty()) {
+          PendingChat pending = pendingOrder.remove(0);
+          pendingChats.remove(pending.chatId);
+          dispatch(pending);
+        } else {
+          PendingMessages pending = pendingMessagesOrder.remove(0);
+          pendingMessages.remove(pending.chatId);
+          dispatch(pending);
+        }
+      }
+    } finally {
+      isFlushing = false;
+    }
+    stats.onBatchFlushed();
+  }
+
+  void flush (long chatId) {
+    flushChat(chatId);
+    PendingMessages pending = pendingMessages.get(chatId);
+    if (pending != null && !isFlushing) {
+      pendingMessages.remove(chatId);
+      pendingMessagesOrder.remove(pending);
+      dispatch(pending);
+    }
+  }
+
+  /**
+   * Flushes pending chat state notifications, but keeps collecting new messages and edits of the chat.
+   */
+  private void flushChat (long chatId) {
+    PendingChat pending = pendingChats.get(chatId);
+    if (pending != null && !isFlushing) {
+      pendingChats.remove(chatId);
+      pendingOrder.remove(pending);
+      dispatch(pending);
+    }
+  }
+
+  private void dispatch (PendingMessages pending) {
+    delegate.notifyMessageBatch(pending.chatId, pending.updates);
+  }
+
+  private void dispatch (PendingChat pending) {
+    if (pending.lastMessage != null) {
+      delegate.notifyChatLastMessage(pending.lastMessage, pending.takeListChanges(KIND_LAST_MESSAGE));
+    }
+    if (pending.draftMessage != null) {
+      delegate.notifyChatDraftMessage(pending.draftMessage, pending.takeListChanges(KIND_DRAFT));
+    }
+    List<Tdlib.ChatListChange> positionChanges = pending.takeListChanges(KIND_POSITION);
+    if (positionChanges != null) {
+      for (Tdlib.ChatListChange listChange : positionChanges) {
+        delegate.notifyChatPosition(new TdApi.UpdateChatPosition(pending.chatId, listChange.change.position), listChange);
+      }
+    }
+    if (pending.readInbox != null) {
+      delegate.notifyChatReadInbox(pending.readInbox, pending.readInboxAvailabilityChanged, pending.chat, pending.readInboxChatLists);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 21:10
+ */
+package org.thunderdog.challegram.telegram;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.collection.SparseArrayCompat;
+
+import org.drinkless.tdlib.TdApi;
+import org.thunderdog.challegram.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Throughput of TDLib updates, time spent processing each update type and notifying each listener type.
+ *
+ * Replaces ad-hoc measurements available only with {@link Log#needMeasureLaunchSpeed()}:
+ * update stats are always collected, and are reported to the log every {@link #REPORT_INTERVAL_MS}
+ * of activity when verbose logging is enabled. Listeners are timed only while verbose logging is enabled.
+ */
+final class TdlibUpdateStats {
+  private static final long REPORT_INTERVAL_MS = 10_000;
+  private static final int REPORT_TYPE_COUNT = 8;
+
+  private static final class TypeStats {
+    final String name;
+    int count, coalescedCount;
+    long totalNanos, maxNanos;
+
+    TypeStats (String name) {
+      this.name = name;
+    }
+  }
+
+  private static final class ListenerStats {
+    final Class<?> type;
+    int count;
+    long totalNanos, maxNanos;
+
+    ListenerStats (Class<?> type) {
+      this.type = type;
+    }
+  }
+
+  private final int accountId;
+  private final SparseArrayCompat<TypeStats> types = new SparseArrayCompat<>();
+  private final HashMap<Class<?>, ListenerStats> listeners = new HashMap<>();
+  private long totalCount, totalNanos, coalescedCount, batchCount;
+
+  private long windowStartMs;
+  private int windowCount;
+  private float lastRate, peakRate;
+
+  TdlibUpdateStats (int accountId) {
+    this.accountId = accountId;
+  }
+
+  private TypeStats obtainTypeStats (TdApi.Update update) {
+    final int constructor = update.getConstructor();
+    TypeStats stats = types.get(constructor);
+    if (stats == null) {
+      stats = new TypeStats(update.getClass().getSimpleName());
+      types.put(constructor, stats);
+    }
+    return stats;
+  }
+
+  void onUpdateProcessed (TdApi.Update update, long elapsedNanos) {
+    final long now = SystemClock.uptimeMillis();
+    boolean needReport = false;
+    synchronized (this) {
+      TypeStats stats = obtainTypeStats(update);
+      stats.count++;
+      stats.totalNanos += elapsedNanos;
+      stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+      totalCount++;
+      totalNanos += elapsedNanos;
+
+      if (windowStartMs == 0) {
+        windowStartMs = now;
+      }
+      windowCount++;
+      long windowMs = now - windowStartMs;
+      if (windowMs >= REPORT_INTERVAL_MS) {
+        lastRate = windowCount * 1000f / windowMs;
+        peakRate = Math.max(peakRate, lastRate);
+        windowStartMs = now;
+        windowCount = 0;
+        needReport = true;
+      }
+    }
+    if (needReport && Log.checkLogLevel(Log.LEVEL_VERBOSE)) {
+      Log.v("accountId:%d %s", accountId, this);
+    }
+  }
+
+  synchronized void onUpdateCoalesced (TdApi.Update update) {
+    obtainTypeStats(update).coalescedCount++;
+    coalescedCount++;
+  }
+
+  synchronized void onBatchFlushed () {
+    batchCount++;
+  }
+
+  synchronized void onListenerNotified (Class<?> listenerType, long elapsedNanos) {
+    ListenerStats stats = listeners.get(listenerType);
+    if (stats == null) {
+      stats = new ListenerStats(listenerType);
+      listeners.put(listenerType, stats);
+    }
+    stats.count++;
+    stats.totalNanos += elapsedNanos;
+    stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+  }
+
+  @Override
+  @NonNull
+  public synchronized String toString () {
+    ArrayList<TypeStats> list = new ArrayList<>(types.size());
+    for (int i = 0; i < types.size(); i++) {
+      list.add(types.valueAt(i));
+    }
+    Collections.sort(list, (a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+    StringBuilder b = new StringBuilder();
+    b.append(String.format(Locale.US, "TdlibUpdateStats { updates = %d, %.1f ms total, %.1f/s (peak %.1f/s), coalesced = %d in %d batches",
+      totalCount, totalNanos / 1_000_000.0, lastRate, peakRate, coalescedCount, batchCount
+    ));
+    for (int i = 0; i < Math.min(list.size(), REPORT_TYPE_COUNT); i++) {
+      TypeStats stats = list.get(i);
+      b.append(String.format(Locale.US, ", %s: %d (-%d), %.1f ms (avg %.3f ms, max %.1f ms)",
+        stats.name, stats.count, stats.coalescedCount,
+        stats.totalNanos / 1_000_000.0,
+        stats.totalNanos / 1_000_000.0 / stats.count,
+        stats.maxNanos / 1_000_000.0
+      ));
+    }
+    ArrayList<ListenerStats> listenerList = new ArrayList<>(listeners.values());
+    Collections.sort(listenerList, (x, y) -> Long.compare(y.totalNanos, x.totalNanos));
+    b.append(", listeners");
+    for (int i = 0; i < Math.min(listenerList.size(), REPORT_TYPE_COUNT); i++) {
+      ListenerStats stats = listenerList.get(i);
+      String name = stats.type.getName();
+      b.append(String.format(Locale.US, ", %s: %d, %.1f ms (avg %.3f ms, max %.1f ms)",
+        name.substring(name.lastIndexOf('.') + 1), stats.count,
+        stats.totalNanos / 1_000_000.0,
+        stats.totalNanos / 1_000_000.0 / stats.count,
+        stats.maxNanos / 1_000_000.0
+      ));
+    }
+    return b.append(" }").toString();
+  }
+}
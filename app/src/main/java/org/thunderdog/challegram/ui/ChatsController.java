@@ -79,8 +79,8 @@ import org.thunderdog.challegram.telegram.ConnectionListener;
 import org.thunderdog.challegram.telegram.ConnectionState;
 import org.thunderdog.challegram.telegram.CounterChangeListener;
 import org.thunderdog.challegram.telegram.DateChangeListener;
+import org.thunderdog.challegram.telegram.MessageBatchListener;
 import org.thunderdog.challegram.telegram.MessageEditListener;
-import org.thunderdog.challegram.telegram.MessageListener;
 import org.thunderdog.challegram.telegram.NotificationSettingsListener;
 import org.thunderdog.challegram.telegram.TGLegacyManager;
 import org.thunderdog.challegram.telegram.Tdlib;
@@ -137,7 +137,7 @@ import tgx.td.Td;
 
 public class ChatsController extends TelegramViewController<ChatsController.Arguments> implements Menu,
   View.OnClickListener, View.OnLongClickListener, ChatsRecyclerView.LoadMoreCallback,
-  ChatListener, ConnectionListener, MessageListener, MessageEditListener, NotificationSettingsListener,
+  ChatListener, ConnectionListener, MessageBatchListener, MessageEditListener, NotificationSettingsListener,
   TdlibCache.SupergroupDataChangeListener, TdlibCache.BasicGroupDataChangeListener, TdlibCache.UserDataChangeListener, TdlibCache.SecretChatDataChangeListener,
   ChatListListener,
   RecyclerViewProvider,
@@ -626,6 +626,7 @@ public class ChatsController extends TelegramViewController<ChatsController.Argu
     });
     list.initializeList(this, this::displayChats, chatsView.getInitialLoadCount(), () ->
       runOnUiThreadOptional(() -> {
+        applyPendingChatListUpdates();
         this.listInitialized = true;
         checkListState();
         if (!needAsynchronousAnimation()) {
@@ -797,10 +798,7 @@ public class ChatsController extends TelegramViewController<ChatsController.Argu
     for (TdlibChatList.Entry entry : entries) {
       parsedChats.add(new TGChat(this, chatList(), entry.chat, initialLoadCount-- >= 0));
     }
-    runOnUiThreadOptional(() -> {
-      initialLoadFinished = true;
-      adapter.addMore(parsedChats.toArray(new TGChat[0]));
-    });
+    scheduleChatListUpdate(ChatsAdapter.ChatListUpdate.appended(parsedChats.toArray(new TGChat[0])));
   }
 
   private boolean hideArchive, archiveCollapsed;
@@ -2643,6 +2641,7 @@ public class ChatsController extends TelegramViewController<ChatsController.Argu
   @Override
   public void onChatListStateChanged (TdlibChatList chatList, @TdlibChatList.State int newState, int oldState) {
     runOnUiThreadOptional(() -> {
+      applyPendingChatListUpdates();
       if (newState == TdlibChatList.State.END_REACHED) {
         adapter.updateInfo();
       }
@@ -2666,47 +2665,75 @@ public class ChatsController extends TelegramViewController<ChatsController.Argu
 
   @Override
   public void onChatListChanged (TdlibChatList chatList, @ChangeFlags int changeFlags) {
-    runOnUiThreadOptional(() -> {
-      if (BitwiseUtils.hasFlag(changeFlags, ChangeFlags.ITEM_MOVED | ChangeFlags.ITEM_ADDED)) {
+    if (BitwiseUtils.hasFlag(changeFlags, ChangeFlags.ITEM_MOVED | ChangeFlags.ITEM_ADDED)) {
+      runOnUiThreadOptional(() -> {
+        applyPendingChatListUpdates();
         checkListState();
+      });
+    }
+  }
+
+  private final List<ChatsAdapter.ChatListUpdate> pendingChatListUpdates = new ArrayList<>();
+  private boolean chatListUpdatesScheduled;
+
+  @TdlibThread
+  private void scheduleChatListUpdate (ChatsAdapter.ChatListUpdate update) {
+    boolean schedule;
+    synchronized (pendingChatListUpdates) {
+      pendingChatListUpdates.add(update);
+      schedule = !chatListUpdatesScheduled;
+      chatListUpdatesScheduled = true;
+    }
+    if (schedule) {
+      runOnUiThreadOptional(this::applyPendingChatListUpdates);
+    }
+  }
+
+  /**
+   * Applies all chat list changes received so far in one pass.
+   *
+   * Called before any other chat list related UI work, so it always sees changes in the order they were received.
+   */
+  @UiThread
+  private void applyPendingChatListUpdates () {
+    final List<ChatsAdapter.ChatListUpdate> updates;
+    synchronized (pendingChatListUpdates) {
+      chatListUpdatesScheduled = false;
+      if (pendingChatListUpdates.isEmpty()) {
+        return;
       }
-    });
+      updates = new ArrayList<>(pendingChatListUpdates);
+      pendingChatListUpdates.clear();
+    }
+    for (ChatsAdapter.ChatListUpdate update : updates) {
+      if (update.isAppend()) {
+        initialLoadFinished = true;
+        break;
+      }
+    }
+    chatsView.processChatUpdate(
+      adapter.applyChatListUpdates(updates)
+    );
   }
 
   @Override
   public void onChatChanged (TdlibChatList chatList, TdApi.Chat chat, int index, Tdlib.ChatChange changeInfo) {
-    runOnUiThreadOptional(() -> {
-      chatsView.processChatUpdate(
-        adapter.updateChat(chat, index, changeInfo)
-      );
-    });
+    scheduleChatListUpdate(ChatsAdapter.ChatListUpdate.changed(chat, index, changeInfo));
   }
 
   @Override
   public void onChatAdded (TdlibChatList chatList, TdApi.Chat chat, int atIndex, Tdlib.ChatChange changeInfo) {
-    runOnUiThreadOptional(() ->
-      chatsView.processChatUpdate(
-        adapter.addChat(chat, atIndex, changeInfo)
-      )
-    );
+    scheduleChatListUpdate(ChatsAdapter.ChatListUpdate.added(chat, atIndex, changeInfo));
   }
 
   @Override
   public void onChatRemoved (TdlibChatList chatList, TdApi.Chat chat, int fromIndex, Tdlib.ChatChange changeInfo) {
-    runOnUiThreadOptional(() ->
-      chatsView.processChatUpdate(
-        adapter.removeChatById(chat, fromIndex, changeInfo)
-      )
-    );
+    scheduleChatListUpdate(ChatsAdapter.ChatListUpdate.removed(chat, fromIndex, changeInfo));
   }
 
   @Override
   public void onChatMoved (TdlibChatList chatList, TdApi.Chat chat, int fromIndex, int toIndex, Tdlib.ChatChange changeInfo) {
-    runOnUiThreadOptional(() ->
-      chatsView.processChatUpdate(
-        adapter.moveChat(chat, fromIndex, toIndex, changeInfo)
-      )
-    );
+    scheduleChatListUpdate(ChatsAdapter.ChatListUpdate.moved(chat, fromIndex, toIndex, changeInfo));
   }
 
   // Destructor
@@ -2963,10 +2990,26 @@ public class ChatsController extends TelegramViewController<ChatsController.Argu
   }
 
   @Override
-  public void onMessageContentChanged (final long chatId, final long messageId, final TdApi.MessageContent newContent) {
+  public void onNewMessages (long chatId, @NonNull List<TdApi.Message> messages) {
+    // Chat list is updated by updateChatLastMessage
+  }
+
+  @Override
+  public void onMessagesChanged (long chatId, @NonNull List<TdApi.Update> updates) {
+    final List<TdApi.UpdateMessageContent> contentUpdates = new ArrayList<>(updates.size());
+    for (TdApi.Update update : updates) {
+      if (update.getConstructor() == TdApi.UpdateMessageContent.CONSTRUCTOR) {
+        contentUpdates.add((TdApi.UpdateMessageContent) update);
+      }
+    }
+    if (contentUpdates.isEmpty()) {
+      return;
+    }
     runOnUiThreadOptional(() -> {
       if (chatsView != null) {
-        chatsView.updateMessageContent(chatId, messageId, newContent);
+        for (TdApi.UpdateMessageContent update : contentUpdates) {
+          chatsView.updateMessageContent(update.chatId, update.messageId, update.newContent);
+        }
       }
     });
   }
@@ -0,0 +1,156 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 22:20
+ */
+package org.thunderdog.challegram.util;
+
+/**
+ * Open-addressing {@code long} → {@code int} map without boxing. Not thread-safe.
+ *
+ * Unlike {@link me.vkryl.core.collection.LongSparseIntArray}, lookups and insertions
+ * take constant time regardless of the amount of entries.
+ */
+public final class LongIntMap {
+  private static final int MIN_CAPACITY = 16;
+  private static final long EMPTY_KEY = 0;
+
+  private long[] keys;
+  private int[] values;
+  private int mask, size;
+  private boolean hasZeroKey;
+  private int zeroKeyValue;
+
+  public LongIntMap () {
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate (int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int indexOf (long key, int mask) {
+    long hash = key * 0x9e3779b97f4a7c15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private int findIndex (long key) {
+    for (int index = indexOf(key, mask); ; index = (index + 1) & mask) {
+      long existingKey = keys[index];
+      if (existingKey == key) {
+        return index;
+      }
+      if (existingKey == EMPTY_KEY) {
+        return -1;
+      }
+    }
+  }
+
+  public int get (long key, int valueIfKeyNotFound) {
+    if (key == EMPTY_KEY) {
+      return hasZeroKey ? zeroKeyValue : valueIfKeyNotFound;
+    }
+    int index = findIndex(key);
+    return index != -1 ? values[index] : valueIfKeyNotFound;
+  }
+
+  public boolean containsKey (long key) {
+    return key == EMPTY_KEY ? hasZeroKey : findIndex(key) != -1;
+  }
+
+  public void put (long key, int value) {
+    if (key == EMPTY_KEY) {
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroKeyValue = value;
+      return;
+    }
+    int index = indexOf(key, mask);
+    for (; keys[index] != EMPTY_KEY; index = (index + 1) & mask) {
+      if (keys[index] == key) {
+        values[index] = value;
+        return;
+      }
+    }
+    keys[index] = key;
+    values[index] = value;
+    if (++size > (mask + 1) / 4 * 3) {
+      rehash((mask + 1) << 1);
+    }
+  }
+
+  public boolean remove (long key) {
+    if (key == EMPTY_KEY) {
+      if (hasZeroKey) {
+        hasZeroKey = false;
+        size--;
+        return true;
+      }
+      return false;
+    }
+    int index = findIndex(key);
+    if (index == -1) {
+      return false;
+    }
+    // Backward shift deletion, so no tombstones are needed
+    int gap = index;
+    for (int next = (gap + 1) & mask; keys[next] != EMPTY_KEY; next = (next + 1) & mask) {
+      int desired = indexOf(keys[next], mask);
+      if (((next - desired) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        gap = next;
+      }
+    }
+    keys[gap] = EMPTY_KEY;
+    values[gap] = 0;
+    size--;
+    return true;
+  }
+
+  private void rehash (int capacity) {
+    final long[] oldKeys = keys;
+    final int[] oldValues = values;
+    allocate(capacity);
+    for (int oldIndex = 0; oldIndex < oldKeys.length; oldIndex++) {
+      long key = oldKeys[oldIndex];
+      if (key != EMPTY_KEY) {
+        int index = indexOf(key, mask);
+        while (keys[index] != EMPTY_KEY) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = oldValues[oldIndex];
+      }
+    }
+  }
+
+  public void clear () {
+    if (size > 0) {
+      allocate(MIN_CAPACITY);
+      hasZeroKey = false;
+      size = 0;
+    }
+  }
+
+  public int size () {
+    return size;
+  }
+
+  public boolean isEmpty () {
+    return size == 0;
+  }
+}
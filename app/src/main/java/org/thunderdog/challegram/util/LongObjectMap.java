@@ -0,0 +1,257 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 22:05
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressing {@code long} → object map that does not box keys and does not allocate per entry.
+ *
+ * Modifications must be synchronized externally, while {@link #get(long)} and {@link #values()}
+ * may be called from any thread without locking, e.g. by UI threads while TDLib thread updates the map.
+ *
+ * Keys never move within a table: removed entries keep their key with {@code null} value
+ * until the next rehash, which builds a new table and publishes it at once.
+ */
+public final class LongObjectMap<V> {
+  private static final int MIN_CAPACITY = 16;
+  private static final long EMPTY_KEY = 0;
+
+  private static final class Table {
+    final AtomicLongArray keys;
+    final AtomicReferenceArray<Object> values;
+    final int mask, maxUsedSlots;
+
+    Table (int capacity) {
+      this.keys = new AtomicLongArray(capacity);
+      this.values = new AtomicReferenceArray<>(capacity);
+      this.mask = capacity - 1;
+      this.maxUsedSlots = capacity / 4 * 3;
+    }
+  }
+
+  private volatile Table table;
+  private volatile Object zeroKeyValue;
+  private int size, usedSlots;
+
+  public LongObjectMap () {
+    this(MIN_CAPACITY);
+  }
+
+  public LongObjectMap (int expectedSize) {
+    this.table = new Table(capacityFor(expectedSize));
+  }
+
+  private static int capacityFor (int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity / 4 * 3 <= size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int indexOf (long key, int mask) {
+    long hash = key * 0x9e3779b97f4a7c15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V get (long key) {
+    if (key == EMPTY_KEY) {
+      return (V) zeroKeyValue;
+    }
+    final Table table = this.table;
+    for (int index = indexOf(key, table.mask); ; index = (index + 1) & table.mask) {
+      long existingKey = table.keys.get(index);
+      if (existingKey == key) {
+        return (V) table.values.get(index);
+      }
+      if (existingKey == EMPTY_KEY) {
+        return null;
+      }
+    }
+  }
+
+  public boolean containsKey (long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return Previous value, or {@code null}. Putting {@code null} removes the entry.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V put (long key, @Nullable V value) {
+    if (value == null) {
+      return remove(key);
+    }
+    if (key == EMPTY_KEY) {
+      V prevValue = (V) zeroKeyValue;
+      zeroKeyValue = value;
+      if (prevValue == null) {
+        size++;
+      }
+      return prevValue;
+    }
+    Table table = this.table;
+    int index = indexOf(key, table.mask);
+    for (; ; index = (index + 1) & table.mask) {
+      long existingKey = table.keys.get(index);
+      if (existingKey == key) {
+        V prevValue = (V) table.values.get(index);
+        table.values.lazySet(index, value);
+        if (prevValue == null) {
+          size++;
+        }
+        return prevValue;
+      }
+      if (existingKey == EMPTY_KEY) {
+        break;
+      }
+    }
+    if (usedSlots + 1 > table.maxUsedSlots) {
+      table = rehash(size + 1);
+      index = indexOf(key, table.mask);
+      while (table.keys.get(index) != EMPTY_KEY) {
+        index = (index + 1) & table.mask;
+      }
+    }
+    // Value is published before the key, so readers never observe the key without its value
+    table.values.lazySet(index, value);
+    table.keys.lazySet(index, key);
+    usedSlots++;
+    size++;
+    return null;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public V remove (long key) {
+    if (key == EMPTY_KEY) {
+      V prevValue = (V) zeroKeyValue;
+      if (prevValue != null) {
+        zeroKeyValue = null;
+        size--;
+      }
+      return prevValue;
+    }
+    final Table table = this.table;
+    for (int index = indexOf(key, table.mask); ; index = (index + 1) & table.mask) {
+      long existingKey = table.keys.get(index);
+      if (existingKey == key) {
+        V prevValue = (V) table.values.get(index);
+        if (prevValue != null) {
+          table.values.lazySet(index, null);
+          size--;
+        }
+        return prevValue;
+      }
+      if (existingKey == EMPTY_KEY) {
+        return null;
+      }
+    }
+  }
+
+  private Table rehash (int minSize) {
+    final Table oldTable = this.table;
+    final Table newTable = new Table(capacityFor(minSize));
+    int usedSlots = 0;
+    for (int oldIndex = 0; oldIndex <= oldTable.mask; oldIndex++) {
+      Object value = oldTable.values.get(oldIndex);
+      if (value == null) {
+        continue;
+      }
+      long key = oldTable.keys.get(oldIndex);
+      int index = indexOf(key, newTable.mask);
+      while (newTable.keys.get(index) != EMPTY_KEY) {
+        index = (index + 1) & newTable.mask;
+      }
+      newTable.values.lazySet(index, value);
+      newTable.keys.lazySet(index, key);
+      usedSlots++;
+    }
+    this.usedSlots = usedSlots;
+    this.table = newTable;
+    return newTable;
+  }
+
+  public void clear () {
+    table = new Table(MIN_CAPACITY);
+    zeroKeyValue = null;
+    size = usedSlots = 0;
+  }
+
+  /**
+   * Must be called under the same lock as modifications.
+   */
+  public int size () {
+    return size;
+  }
+
+  public boolean isEmpty () {
+    return size == 0;
+  }
+
+  /**
+   * @return Values present in the map at the moment of the call, or added later.
+   * Safe to iterate concurrently with modifications, but may miss concurrently added values.
+   */
+  @NonNull
+  public Iterable<V> values () {
+    final Table table = this.table;
+    final Object zeroKeyValue = this.zeroKeyValue;
+    return () -> new Iterator<V>() {
+      private int index = zeroKeyValue != null ? -1 : 0;
+      private Object next = advance();
+
+      private Object advance () {
+        if (index == -1) {
+          index = 0;
+          return zeroKeyValue;
+        }
+        while (index <= table.mask) {
+          Object value = table.values.get(index++);
+          if (value != null) {
+            return value;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext () {
+        return next != null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V next () {
+        Object value = next;
+        if (value == null) {
+          throw new NoSuchElementException();
+        }
+        next = advance();
+        return (V) value;
+      }
+    };
+  }
+}
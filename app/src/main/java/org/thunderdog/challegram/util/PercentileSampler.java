@@ -0,0 +1,85 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 16:05
+ */
+package org.thunderdog.challegram.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Keeps last N samples and reports percentiles over them.
+ */
+public final class PercentileSampler {
+  private final String name;
+  private final long[] samples;
+  private int position, count;
+  private long totalCount, maxValue;
+
+  public PercentileSampler (String name, int capacity) {
+    this.name = name;
+    this.samples = new long[capacity];
+  }
+
+  public synchronized void add (long value) {
+    samples[position] = value;
+    position = (position + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+    totalCount++;
+    maxValue = Math.max(maxValue, value);
+  }
+
+  public synchronized long getTotalCount () {
+    return totalCount;
+  }
+
+  public synchronized void reset () {
+    position = count = 0;
+    totalCount = maxValue = 0;
+  }
+
+  /**
+   * @return Array of values for each of the requested percentiles (0..100), or zeros when there are no samples.
+   */
+  public long[] getPercentiles (int... percentiles) {
+    long[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(samples, count);
+    }
+    Arrays.sort(sorted);
+    long[] result = new long[percentiles.length];
+    if (sorted.length > 0) {
+      for (int i = 0; i < percentiles.length; i++) {
+        int index = (int) Math.ceil(percentiles[i] / 100.0 * sorted.length) - 1;
+        result[i] = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    long[] p = getPercentiles(50, 90, 99);
+    long totalCount, maxValue;
+    synchronized (this) {
+      totalCount = this.totalCount;
+      maxValue = this.maxValue;
+    }
+    return String.format(Locale.US, "%s { p50 = %d, p90 = %d, p99 = %d, max = %d, count = %d }", name, p[0], p[1], p[2], maxValue, totalCount);
+  }
+}
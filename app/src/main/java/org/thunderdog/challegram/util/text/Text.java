@@ -38,6 +38,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 import androidx.collection.LongSparseArray;
 import androidx.collection.SparseArrayCompat;
+import androidx.core.os.TraceCompat;
 
 import org.drinkless.tdlib.TdApi;
 import org.thunderdog.challegram.BuildConfig;
@@ -878,11 +879,15 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
     }
   }
 
+  // Measured by ChatBenchmarks in baseline-profile module
+  private static final String TRACE_SECTION_SET = "Text:set";
+
   public void set (int maxWidth, String in, TextEntity[] entities) {
     if (in == null)
       throw new IllegalArgumentException();
     this.maxWidth = maxWidth;
     this.entities = entities;
+    TraceCompat.beginSection(TRACE_SECTION_SET);
     try {
       if (Log.isEnabled(Log.TAG_SPEED_TEXT) && Log.checkLogLevel(Log.LEVEL_INFO)) {
         long elapsed = SystemClock.elapsedRealtime();
@@ -899,6 +904,8 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
     } catch (Throwable cause) {
       Log.w(Log.TAG_SPEED_TEXT, "Couldn't parse %d chars for max width: %d, fontSize: %f, text:\n%s", cause, in.length(), maxWidth, Settings.instance().getChatFontSize(), in);
       throw cause;
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
@@ -1582,6 +1589,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
     float futureWidth;
 
     final Paint paint = getTextPaint(entity);
+    final TextAdvanceCache.Table advances = TextAdvanceCache.instance().forPaint(paint);
     final float spaceSize = makeSpaceSize(paint);
     // TODO optimize https://fonts.google.com/specimen/Roboto+Mono
     final boolean isMonospace = false; // (entity != null && entity.isMonospace());
@@ -1607,7 +1615,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
       } else if (isChild) {
         fullWidth = childWidth[0];
       } else {
-        fullWidth = BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+        fullWidth = advances.measureRun(bidiEntity, in, start, end, paint);
       }
     }
     futureWidth = fullWidth;
@@ -1665,7 +1673,10 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
         } else if (newEnd - currentEnd == 1 && lastCodePointWidth != -1 && lastCodePoint == codePoint) {
           charWidth = lastCodePointWidth;
         } else {
-          charWidth = BiDiUtils.measureTextRun(bidiEntity, in, currentEnd, newEnd, paint); //    U.measureText(in, currentEnd, newEnd, paint);
+          charWidth = advances.measure(in, currentEnd, newEnd, paint);
+          if (charWidth < 0) {
+            charWidth = BiDiUtils.measureTextRun(bidiEntity, in, currentEnd, newEnd, paint); //    U.measureText(in, currentEnd, newEnd, paint);
+          }
           if (newEnd - currentEnd == 1) {
             lastCodePoint = codePoint;
             lastCodePointWidth = charWidth;
@@ -1713,7 +1724,7 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
       boolean movedLastLine = false;
 
       float firstCodePointWidth;
-      if ((textFlags & FLAG_BOUNDS_NOT_STRICT) != 0 && in.codePointCount(start, end) == 2 && currentX + (firstCodePointWidth = U.measureText(in, start, start + 1, paint)) <= maxWidth) {
+      if ((textFlags & FLAG_BOUNDS_NOT_STRICT) != 0 && in.codePointCount(start, end) == 2 && currentX + (firstCodePointWidth = measureChar(in, start, paint, advances)) <= maxWidth) {
         int firstCodePoint = in.codePointAt(start);
         int secondCodePoint = in.codePointAt(start + Character.charCount(firstCodePoint));
 
@@ -2229,12 +2240,17 @@ public class Text implements Runnable, Emoji.CountLimiter, CounterTextPart, List
 
   private float makeSpaceSize (Paint paint) {
     if (lastSpaceSize == 0f || lastSpacePaint != paint) {
-      lastSpaceSize = U.measureText(" ", paint);
+      lastSpaceSize = TextAdvanceCache.instance().forPaint(paint).getAdvance(' ', paint);
       lastSpacePaint = paint;
     }
     return lastSpaceSize;
   }
 
+  private static float measureChar (String in, int index, Paint paint, TextAdvanceCache.Table advances) {
+    float advance = advances.getAdvance(in.charAt(index), paint);
+    return advance >= 0 ? advance : U.measureText(in, index, index + 1, paint);
+  }
+
   private int drawPartCentered (int partIndex, Canvas c, int x, int y, int maxWidth, float alpha, @Nullable TextColorSet defaultTheme, @Nullable ComplexReceiver receiver) {
     TextPart part = parts.get(partIndex);
     int width = getLineWidth(part.getLineIndex());
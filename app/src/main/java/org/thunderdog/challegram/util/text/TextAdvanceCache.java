@@ -0,0 +1,345 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 20:50
+ */
+package org.thunderdog.challegram.util.text;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import org.thunderdog.challegram.util.text.bidi.BiDiEntity;
+import org.thunderdog.challegram.util.text.bidi.BiDiUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import me.vkryl.core.StringUtils;
+
+/**
+ * Advances of common code points (Latin, Greek, Cyrillic and general punctuation),
+ * shared between all paints with the same typeface, size, style, text locale and font features.
+ *
+ * Advances are measured in bulk, {@link #PAGE_SIZE} code points per native call, once per paint state.
+ * Short runs consisting of such code points are additionally memoized as a whole,
+ * so repeated words are measured by {@link Text} only once, including kerning.
+ */
+public final class TextAdvanceCache {
+  private static TextAdvanceCache instance;
+
+  public static TextAdvanceCache instance () {
+    if (instance == null) {
+      synchronized (TextAdvanceCache.class) {
+        if (instance == null) {
+          instance = new TextAdvanceCache();
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static final int PAGE_SHIFT = 7;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int MAX_CODE_POINT = 0x2070;
+  private static final int PAGE_COUNT = (MAX_CODE_POINT + PAGE_SIZE - 1) >> PAGE_SHIFT;
+
+  private static final int MAX_RUN_LENGTH = 24;
+  private static final int RUN_COUNT = 512;
+
+  private static final int MAX_TABLE_COUNT = 48;
+
+  /**
+   * @return Whether advance of the code point does not depend on its neighbours,
+   * except for kerning, and can be measured in isolation.
+   */
+  public static boolean isCacheable (int codePoint) {
+    if (codePoint < 0x20 || codePoint >= MAX_CODE_POINT) {
+      return false;
+    }
+    if (codePoint < 0x300) {
+      // Excluding C1 controls and soft hyphen
+      return !(codePoint >= 0x7f && codePoint <= 0x9f) && codePoint != 0xad;
+    }
+    if (codePoint < 0x370) {
+      // Combining diacritical marks
+      return false;
+    }
+    if (codePoint < 0x530) {
+      // Greek and Cyrillic, excluding Cyrillic combining marks
+      return !(codePoint >= 0x483 && codePoint <= 0x489);
+    }
+    if (codePoint >= 0x1e00 && codePoint < 0x1f00) {
+      // Latin Extended Additional
+      return true;
+    }
+    // General punctuation, excluding zero-width, separator and directional formatting characters
+    return (codePoint >= 0x2010 && codePoint < 0x2028) || (codePoint >= 0x2030 && codePoint < 0x2060);
+  }
+
+  private static final class Page {
+    private final float[] advances;
+
+    private Page (Paint paint, int page) {
+      final int start = page << PAGE_SHIFT;
+      // Code points are separated with spaces, so kerning between them does not affect measured advances
+      final char[] chars = new char[PAGE_SIZE * 2];
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        int codePoint = start + i;
+        chars[i * 2] = isCacheable(codePoint) ? (char) codePoint : ' ';
+        chars[i * 2 + 1] = ' ';
+      }
+      final float[] widths = new float[chars.length];
+      paint.getTextWidths(chars, 0, chars.length, widths);
+      final float[] advances = new float[PAGE_SIZE];
+      for (int i = 0; i < PAGE_SIZE; i++) {
+        advances[i] = isCacheable(start + i) ? widths[i * 2] : -1f;
+      }
+      this.advances = advances;
+    }
+  }
+
+  private static final class Run {
+    private final String text;
+    private final boolean isRtl;
+    private final float width;
+
+    private Run (String text, boolean isRtl, float width) {
+      this.text = text;
+      this.isRtl = isRtl;
+      this.width = width;
+    }
+  }
+
+  /**
+   * Paint state that affects glyph advances.
+   */
+  private static final class Key {
+    private final Typeface typeface;
+    private final float textSize, textScaleX, textSkewX, letterSpacing;
+    private final int flags;
+    private final String fontFeatureSettings;
+    // Locale or LocaleList, as text in different locales may be shaped with different glyphs
+    private final Object textLocales;
+
+    private Key (Paint paint) {
+      this.typeface = paint.getTypeface();
+      this.textSize = paint.getTextSize();
+      this.textScaleX = paint.getTextScaleX();
+      this.textSkewX = paint.getTextSkewX();
+      this.flags = getStyleFlags(paint);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        this.letterSpacing = paint.getLetterSpacing();
+        this.fontFeatureSettings = StringUtils.isEmpty(paint.getFontFeatureSettings()) ? null : paint.getFontFeatureSettings();
+      } else {
+        this.letterSpacing = 0;
+        this.fontFeatureSettings = null;
+      }
+      this.textLocales = getTextLocales(paint);
+    }
+
+    private boolean matches (Paint paint) {
+      if (typeface != paint.getTypeface() ||
+        textSize != paint.getTextSize() ||
+        textScaleX != paint.getTextScaleX() ||
+        textSkewX != paint.getTextSkewX() ||
+        flags != getStyleFlags(paint) ||
+        !equals(textLocales, getTextLocales(paint))) {
+        return false;
+      }
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+        return letterSpacing == paint.getLetterSpacing() && StringUtils.equalsOrBothEmpty(fontFeatureSettings, paint.getFontFeatureSettings());
+      }
+      return true;
+    }
+
+    private static boolean equals (Object a, Object b) {
+      return a == b || (a != null && a.equals(b));
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return typeface == other.typeface &&
+        textSize == other.textSize &&
+        textScaleX == other.textScaleX &&
+        textSkewX == other.textSkewX &&
+        letterSpacing == other.letterSpacing &&
+        flags == other.flags &&
+        equals(fontFeatureSettings, other.fontFeatureSettings) &&
+        equals(textLocales, other.textLocales);
+    }
+
+    @Override
+    public int hashCode () {
+      int result = System.identityHashCode(typeface);
+      result = 31 * result + Float.floatToIntBits(textSize);
+      result = 31 * result + Float.floatToIntBits(textScaleX);
+      result = 31 * result + Float.floatToIntBits(textSkewX);
+      result = 31 * result + Float.floatToIntBits(letterSpacing);
+      result = 31 * result + flags;
+      result = 31 * result + (fontFeatureSettings != null ? fontFeatureSettings.hashCode() : 0);
+      result = 31 * result + (textLocales != null ? textLocales.hashCode() : 0);
+      return result;
+    }
+  }
+
+  private static Object getTextLocales (Paint paint) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      return paint.getTextLocales();
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+      return paint.getTextLocale();
+    }
+    return null;
+  }
+
+  /**
+   * Advances measured with a specific paint state.
+   *
+   * Pages and runs are immutable once published, so they are read without locking.
+   * Concurrent misses may measure the same page twice, which is harmless.
+   */
+  public static final class Table {
+    private final Key key;
+
+    private final Page[] pages = new Page[PAGE_COUNT];
+    private final Run[] runs = new Run[RUN_COUNT];
+
+    private Table (Key key) {
+      this.key = key;
+    }
+
+    /**
+     * @return Advance of the code point measured in isolation, or -1, if code point is not {@link #isCacheable cacheable}.
+     */
+    public float getAdvance (int codePoint, @NonNull Paint paint) {
+      if (!isCacheable(codePoint)) {
+        return -1f;
+      }
+      final int pageIndex = codePoint >> PAGE_SHIFT;
+      Page page = pages[pageIndex];
+      if (page == null) {
+        pages[pageIndex] = page = new Page(paint, pageIndex);
+      }
+      return page.advances[codePoint & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Sums advances of all code points in the range, ignoring kerning between them.
+     *
+     * @return Width of the range, or -1, if it contains code points that are not {@link #isCacheable cacheable}.
+     */
+    public float measure (@NonNull CharSequence in, int start, int end, @NonNull Paint paint) {
+      float width = 0;
+      for (int i = start; i < end; ) {
+        int codePoint = Character.codePointAt(in, i);
+        float advance = getAdvance(codePoint, paint);
+        if (advance < 0) {
+          return -1f;
+        }
+        width += advance;
+        i += Character.charCount(codePoint);
+      }
+      return width;
+    }
+
+    /**
+     * Measures the run the same way as {@link BiDiUtils#measureTextRun(int, CharSequence, int, int, Paint)} does,
+     * reusing previous measurement of the same short run.
+     */
+    public float measureRun (@BiDiEntity int bidiEntity, @NonNull String in, int start, int end, @NonNull Paint paint) {
+      final int length = end - start;
+      if (length <= 0 || length > MAX_RUN_LENGTH) {
+        return BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+      }
+      final boolean isRtl = BiDiUtils.isValid(bidiEntity) && BiDiUtils.isRtl(bidiEntity);
+      int hash = isRtl ? 1 : 0;
+      for (int i = start; i < end; i++) {
+        char c = in.charAt(i);
+        if (!isCacheable(c)) {
+          return BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+        }
+        hash = 31 * hash + c;
+      }
+      hash ^= hash >>> 16;
+      final int index = hash & (RUN_COUNT - 1);
+      Run run = runs[index];
+      if (run != null && run.isRtl == isRtl && run.text.length() == length && run.text.regionMatches(0, in, start, length)) {
+        return run.width;
+      }
+      final float width = BiDiUtils.measureTextRun(bidiEntity, in, start, end, paint);
+      runs[index] = new Run(in.substring(start, end), isRtl, width);
+      return width;
+    }
+  }
+
+  private static int getStyleFlags (Paint paint) {
+    return paint.getFlags() & (Paint.FAKE_BOLD_TEXT_FLAG | Paint.LINEAR_TEXT_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+  }
+
+  private final Map<Key, Table> tables = new LinkedHashMap<Key, Table>(16, .75f, true) {
+    @Override
+    protected boolean removeEldestEntry (Map.Entry<Key, Table> eldest) {
+      return size() > MAX_TABLE_COUNT;
+    }
+  };
+  // Most recently used table of each paint, validated against the paint state on each access
+  private final WeakHashMap<Paint, Table> paintTables = new WeakHashMap<>();
+  private long hitCount, missCount;
+
+  private TextAdvanceCache () { }
+
+  /**
+   * @return Advances for the current state of the paint.
+   * Must be obtained again after paint's typeface, size, style or locale change.
+   */
+  @NonNull
+  public Table forPaint (@NonNull Paint paint) {
+    synchronized (tables) {
+      Table table = paintTables.get(paint);
+      if (table != null && table.key.matches(paint)) {
+        hitCount++;
+        return table;
+      }
+      final Key key = new Key(paint);
+      table = tables.get(key);
+      if (table != null) {
+        hitCount++;
+      } else {
+        table = new Table(key);
+        tables.put(key, table);
+        missCount++;
+      }
+      paintTables.put(paint, table);
+      return table;
+    }
+  }
+
+  @Override
+  @NonNull
+  public String toString () {
+    synchronized (tables) {
+      return String.format(Locale.US, "TextAdvanceCache { tables = %d, hits = %d, misses = %d }", tables.size(), hitCount, missCount);
+    }
+  }
+}
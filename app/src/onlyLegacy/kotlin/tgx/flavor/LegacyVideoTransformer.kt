@@ -8,6 +8,7 @@ import android.media.MediaFormat
 import android.os.Build
 import androidx.annotation.RequiresApi
 import androidx.core.net.toUri
+import androidx.media3.transformer.Transformer
 import com.otaliastudios.transcoder.Transcoder
 import com.otaliastudios.transcoder.TranscoderListener
 import com.otaliastudios.transcoder.common.TrackType
@@ -179,4 +180,10 @@ fun legacyConvertVideoComplex(
     .transcode()
 
   entry.setTask(task)
-}
\ No newline at end of file
+}
+
+@Suppress("UNUSED_PARAMETER")
+fun setStreamableOutput(builder: Transformer.Builder): Boolean {
+  // Fragmented MP4 muxer is not available in this version of androidx.media3
+  return false
+}
@@ -7,6 +7,8 @@ import android.media.MediaFormat
 import android.os.Build
 import androidx.annotation.RequiresApi
 import androidx.core.net.toUri
+import androidx.media3.transformer.InAppFragmentedMp4Muxer
+import androidx.media3.transformer.Transformer
 import kotlinx.coroutines.Runnable
 import me.vkryl.core.lambda.RunnableData
 import org.thunderdog.challegram.filegen.VideoGen
@@ -35,6 +37,11 @@ private fun MediaFormat.getInt(key: String, defaultValue: Int = 0): Int {
   return defaultValue
 }
 
+fun setStreamableOutput(builder: Transformer.Builder): Boolean {
+  builder.setMuxerFactory(InAppFragmentedMp4Muxer.Factory())
+  return true
+}
+
 fun getVideoFrameRate(context: Context, sourcePath: String): Int {
   val extractor = MediaExtractor(context)
   try {
@@ -0,0 +1,84 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 19/10/2026 at 00:10
+ */
+package org.thunderdog.challegram.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.thunderdog.challegram.telegram.TdlibAccount;
+
+public class ImageKeyTest {
+  @Test
+  public void packedKeysAreDistinct () {
+    long key = ImageKey.pack(0, 1, 100, 0);
+    assertFalse(ImageKey.isHashed(key));
+    assertEquals(key, ImageKey.pack(0, 1, 100, 0));
+    assertNotEquals(key, ImageKey.pack(1, 1, 100, 0));
+    assertNotEquals(key, ImageKey.pack(TdlibAccount.NO_ID, 1, 100, 0));
+    assertNotEquals(key, ImageKey.pack(0, 2, 100, 0));
+    assertNotEquals(key, ImageKey.pack(0, 1, 101, 0));
+    assertNotEquals(key, ImageKey.pack(0, 1, 100, ImageKey.FLAG_SQUARE));
+    assertNotEquals(ImageKey.pack(0, 1, 100, ImageKey.FLAG_SQUARE), ImageKey.pack(0, 1, 100, ImageKey.FLAG_SW));
+  }
+
+  @Test
+  public void packedKeysKeepFieldsApart () {
+    // Negative file identifiers must not leak into account bits
+    assertNotEquals(ImageKey.pack(0, -1, 0, 0), ImageKey.pack(1, -1, 0, 0));
+    assertFalse(ImageKey.isHashed(ImageKey.pack(0, -1, 0, 0)));
+    // Largest values of neighbouring fields do not overlap
+    assertNotEquals(ImageKey.pack(0, 0, 0xffff, 0xff), ImageKey.pack(0, 1, 0, 0));
+    assertNotEquals(ImageKey.pack(0, 0, 0xffff, 0), ImageKey.pack(0, 0, 0, 0xff));
+  }
+
+  @Test
+  public void canPack () {
+    assertTrue(ImageKey.canPack(TdlibAccount.NO_ID, 0));
+    assertTrue(ImageKey.canPack(0, 0xffff));
+    assertFalse(ImageKey.canPack(0, 0x10000));
+    assertFalse(ImageKey.canPack(0, -1));
+    assertFalse(ImageKey.canPack(TdlibAccount.NO_ID - 1, 0));
+    assertFalse(ImageKey.canPack(0x7f, 0));
+    assertTrue(ImageKey.canPack(0x7e, 0));
+    assertFalse(ImageKey.isHashed(ImageKey.pack(0x7e, Integer.MAX_VALUE, 0xffff, 0xff)));
+  }
+
+  @Test
+  public void hashedKeysNeverMatchPackedKeys () {
+    long hash = ImageKey.hash("/storage/emulated/0/DCIM/photo.jpg");
+    assertTrue(ImageKey.isHashed(hash));
+    assertEquals(hash, ImageKey.hash("/storage/emulated/0/DCIM/photo.jpg"));
+    assertNotEquals(hash, ImageKey.hash("/storage/emulated/0/DCIM/photo.png"));
+    assertTrue(ImageKey.isHashed(ImageKey.hash("")));
+  }
+
+  @Test
+  public void fileLoadKeys () {
+    long key = ImageKey.fileLoadKey(3, 42);
+    assertFalse(ImageKey.isHashed(key));
+    assertEquals(3, ImageKey.fileLoadKeyAccountId(key));
+    assertEquals(TdlibAccount.NO_ID, ImageKey.fileLoadKeyAccountId(ImageKey.fileLoadKey(TdlibAccount.NO_ID, 42)));
+    assertNotEquals(key, ImageKey.fileLoadKey(4, 42));
+    assertNotEquals(key, ImageKey.fileLoadKey(3, 43));
+
+    long remoteKey = ImageKey.fileLoadKey(3, "AgACAgIAAxkBAAIBY2");
+    assertTrue(ImageKey.isHashed(remoteKey));
+    assertEquals(3, ImageKey.fileLoadKeyAccountId(remoteKey));
+    assertNotEquals(remoteKey, ImageKey.fileLoadKey(4, "AgACAgIAAxkBAAIBY2"));
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:50
+ */
+package org.thunderdog.challegram.telegram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class TdlibChatListTreeTest {
+  private static final TdApi.ChatList CHAT_LIST = new TdApi.ChatListMain();
+
+  private static TdlibChatList.Entry newEntry (long chatId, long order) {
+    TdApi.Chat chat = new TdApi.Chat();
+    chat.id = chatId;
+    return new TdlibChatList.Entry(chat, CHAT_LIST, new TdApi.ChatPosition(CHAT_LIST, order, false, null));
+  }
+
+  private static TdApi.Message newMessage (int date, boolean failed) {
+    TdApi.Message message = new TdApi.Message();
+    message.date = date;
+    if (failed) {
+      message.sendingState = new TdApi.MessageSendingStateFailed();
+    }
+    return message;
+  }
+
+  private static int insertionIndex (List<TdlibChatList.Entry> expected, TdlibChatList.Entry entry) {
+    int index = Collections.binarySearch(expected, entry);
+    assertTrue(index < 0);
+    return -index - 1;
+  }
+
+  private static void assertSameOrder (List<TdlibChatList.Entry> expected, TdlibChatListTree<TdlibChatList.Entry> tree) {
+    assertEquals(expected.size(), tree.size());
+    assertEquals(expected.isEmpty(), tree.isEmpty());
+    Iterator<TdlibChatList.Entry> iterator = tree.iterator();
+    for (int index = 0; index < expected.size(); index++) {
+      TdlibChatList.Entry entry = expected.get(index);
+      assertSame(entry, tree.get(index));
+      assertEquals(index, tree.indexOf(entry.chat.id));
+      assertSame(entry, tree.find(entry.chat.id));
+      assertTrue(iterator.hasNext());
+      assertSame(entry, iterator.next());
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void emptyTree () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    assertTrue(tree.isEmpty());
+    assertEquals(0, tree.size());
+    assertEquals(-1, tree.indexOf(1));
+    assertNull(tree.find(1));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS));
+    assertEquals(0, tree.maxDate());
+    assertFalse(tree.iterator().hasNext());
+  }
+
+  @Test
+  public void addKeepsEntriesSortedByOrder () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    assertEquals(0, tree.add(newEntry(1, 100)));
+    assertEquals(0, tree.add(newEntry(2, 300)));
+    assertEquals(1, tree.add(newEntry(3, 200)));
+    // Same order, greater chat identifier goes first
+    assertEquals(1, tree.add(newEntry(4, 200)));
+    assertEquals(4, tree.add(newEntry(5, 0)));
+
+    long[] expectedChatIds = {2, 4, 3, 1, 5};
+    for (int index = 0; index < expectedChatIds.length; index++) {
+      assertEquals(expectedChatIds[index], tree.get(index).chat.id);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void addDuplicateChatFails () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    tree.add(newEntry(1, 100));
+    tree.add(newEntry(1, 200));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void getOutOfBoundsFails () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    tree.add(newEntry(1, 100));
+    tree.get(1);
+  }
+
+  @Test
+  public void moveUpdatesPosition () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    tree.add(newEntry(1, 300));
+    tree.add(newEntry(2, 200));
+    tree.add(newEntry(3, 100));
+
+    assertEquals(0, tree.move(3, new TdApi.ChatPosition(CHAT_LIST, 400, false, null)));
+    assertEquals(400, tree.find(3).effectivePosition.order);
+    assertEquals(2, tree.move(1, new TdApi.ChatPosition(CHAT_LIST, 50, false, null)));
+    assertEquals(3, tree.get(0).chat.id);
+    assertEquals(2, tree.get(1).chat.id);
+    assertEquals(1, tree.get(2).chat.id);
+  }
+
+  @Test
+  public void randomOperationsMatchSortedList () {
+    final Random random = new Random(42);
+    final TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    final List<TdlibChatList.Entry> expected = new ArrayList<>();
+    long nextChatId = 1;
+
+    for (int step = 0; step < 5000; step++) {
+      int action = expected.isEmpty() ? 0 : random.nextInt(3);
+      switch (action) {
+        case 0: {
+          TdlibChatList.Entry entry = newEntry(nextChatId++, random.nextInt(1000));
+          int index = insertionIndex(expected, entry);
+          expected.add(index, entry);
+          assertEquals(index, tree.add(entry));
+          break;
+        }
+        case 1: {
+          int index = random.nextInt(expected.size());
+          TdlibChatList.Entry entry = expected.remove(index);
+          assertSame(entry, tree.removeAt(index));
+          assertNull(tree.find(entry.chat.id));
+          break;
+        }
+        case 2: {
+          TdlibChatList.Entry entry = expected.remove(random.nextInt(expected.size()));
+          TdApi.ChatPosition position = new TdApi.ChatPosition(CHAT_LIST, random.nextInt(1000), false, null);
+          int newIndex = insertionIndex(expected, newEntry(entry.chat.id, position.order));
+          assertEquals(newIndex, tree.move(entry.chat.id, position));
+          expected.add(newIndex, entry);
+          break;
+        }
+      }
+      if (step % 250 == 0) {
+        assertSameOrder(expected, tree);
+      }
+    }
+    assertSameOrder(expected, tree);
+
+    tree.clear();
+    assertSameOrder(Collections.emptyList(), tree);
+  }
+
+  @Test
+  public void flagsAreAggregated () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    List<TdlibChatList.Entry> entries = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      TdlibChatList.Entry entry = newEntry(i, i * 10);
+      entries.add(entry);
+      tree.add(entry);
+    }
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD));
+
+    TdApi.Chat chat = entries.get(37).chat;
+    chat.unreadMentionCount = 1;
+    assertTrue(tree.updateAggregates(chat.id));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_REACTIONS));
+    // Nothing has changed
+    assertFalse(tree.updateAggregates(chat.id));
+
+    TdApi.Chat otherChat = entries.get(80).chat;
+    otherChat.unreadMentionCount = 5;
+    // Aggregated flags of the whole list stay the same
+    assertFalse(tree.updateAggregates(otherChat.id));
+
+    chat.unreadMentionCount = 0;
+    assertFalse(tree.updateAggregates(chat.id));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS));
+    otherChat.unreadMentionCount = 0;
+    assertTrue(tree.updateAggregates(otherChat.id));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD_MENTIONS));
+
+    chat.isMarkedAsUnread = true;
+    assertTrue(tree.updateAggregates(chat.id));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD));
+
+    chat.lastMessage = newMessage(1, true);
+    assertTrue(tree.updateAggregates(chat.id));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_FAILED_MESSAGES));
+
+    // Flags of removed chats are no longer aggregated
+    tree.removeAt(tree.indexOf(chat.id));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_UNREAD));
+    assertFalse(tree.hasFlag(TdlibChatListTree.FLAG_FAILED_MESSAGES));
+    assertFalse(tree.updateAggregates(chat.id));
+  }
+
+  @Test
+  public void flagsSurviveMoves () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    TdlibChatList.Entry entry = newEntry(1, 100);
+    entry.chat.hasScheduledMessages = true;
+    tree.add(entry);
+    for (int i = 2; i <= 50; i++) {
+      tree.add(newEntry(i, i * 10));
+    }
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_SCHEDULED_MESSAGES));
+    tree.move(1, new TdApi.ChatPosition(CHAT_LIST, 1000, false, null));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_SCHEDULED_MESSAGES));
+    tree.move(1, new TdApi.ChatPosition(CHAT_LIST, 1, false, null));
+    assertTrue(tree.hasFlag(TdlibChatListTree.FLAG_SCHEDULED_MESSAGES));
+  }
+
+  @Test
+  public void maxDateIsAggregated () {
+    TdlibChatListTree<TdlibChatList.Entry> tree = new TdlibChatListTree<>();
+    List<TdlibChatList.Entry> entries = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      TdlibChatList.Entry entry = newEntry(i, i * 10);
+      entry.chat.lastMessage = newMessage(i, false);
+      entries.add(entry);
+      tree.add(entry);
+    }
+    assertEquals(100, tree.maxDate());
+
+    TdApi.Chat chat = entries.get(10).chat;
+    chat.lastMessage = newMessage(500, false);
+    assertTrue(tree.updateAggregates(chat.id));
+    assertEquals(500, tree.maxDate());
+
+    chat.lastMessage = null;
+    assertTrue(tree.updateAggregates(chat.id));
+    assertEquals(100, tree.maxDate());
+
+    tree.removeAt(tree.indexOf(100));
+    assertEquals(99, tree.maxDate());
+
+    tree.move(99, new TdApi.ChatPosition(CHAT_LIST, 5, false, null));
+    assertEquals(99, tree.maxDate());
+  }
+}
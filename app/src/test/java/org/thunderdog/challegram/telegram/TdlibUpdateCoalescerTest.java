@@ -0,0 +1,320 @@
+/*
+ * This file is a part of Telegram X
+ * Copyright © 2014 (tgx-android@pm.me)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * File created on 18/10/2026 at 23:55
+ */
+package org.thunderdog.challegram.telegram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+
+import org.drinkless.tdlib.TdApi;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TdlibUpdateCoalescerTest {
+  private static final long CHAT_ID = 1;
+  private static final long OTHER_CHAT_ID = 2;
+
+  private static class RecordingDelegate implements TdlibUpdateCoalescer.Delegate {
+    final List<Runnable> scheduledFlushes = new ArrayList<>();
+    final List<Tdlib.ChatListChange> appliedChanges = new ArrayList<>();
+    final List<Object> notifications = new ArrayList<>();
+    final List<List<Tdlib.ChatListChange>> notifiedListChanges = new ArrayList<>();
+    boolean lastReadInboxAvailabilityChanged;
+
+    void runScheduledFlushes () {
+      List<Runnable> flushes = new ArrayList<>(scheduledFlushes);
+      scheduledFlushes.clear();
+      for (Runnable flush : flushes) {
+        flush.run();
+      }
+    }
+
+    @Override
+    public void scheduleFlush (Runnable flush) {
+      scheduledFlushes.add(flush);
+    }
+
+    @Override
+    public void applyChatListChange (Tdlib.ChatListChange listChange) {
+      appliedChanges.add(listChange);
+    }
+
+    @Override
+    public void notifyMessageBatch (long chatId, List<TdApi.Update> updates) {
+      notifications.add(new ArrayList<>(updates));
+    }
+
+    @Override
+    public void notifyChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+      notifications.add(update);
+      notifiedListChanges.add(listChanges);
+    }
+
+    @Override
+    public void notifyChatDraftMessage (TdApi.UpdateChatDraftMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+      notifications.add(update);
+      notifiedListChanges.add(listChanges);
+    }
+
+    @Override
+    public void notifyChatPosition (TdApi.UpdateChatPosition update, Tdlib.ChatListChange listChange) {
+      notifications.add(update);
+      notifiedListChanges.add(Collections.singletonList(listChange));
+    }
+
+    @Override
+    public void notifyChatReadInbox (TdApi.UpdateChatReadInbox update, boolean availabilityChanged, TdApi.Chat chat, TdlibChatList[] chatLists) {
+      notifications.add(update);
+      lastReadInboxAvailabilityChanged = availabilityChanged;
+    }
+  }
+
+  private RecordingDelegate delegate;
+  private TdlibUpdateStats stats;
+  private TdlibUpdateCoalescer coalescer;
+  private TdlibChatList mainList, archiveList;
+  private TdApi.Chat chat;
+
+  @Before
+  public void setUp () {
+    delegate = new RecordingDelegate();
+    stats = new TdlibUpdateStats(0);
+    coalescer = new TdlibUpdateCoalescer(delegate, stats);
+    mainList = new TdlibChatList(null, new TdApi.ChatListMain());
+    archiveList = new TdlibChatList(null, new TdApi.ChatListArchive());
+    chat = new TdApi.Chat();
+    chat.id = CHAT_ID;
+  }
+
+  private Tdlib.ChatListChange newListChange (TdlibChatList list, long order, int flags) {
+    return new Tdlib.ChatListChange(list, chat, new Tdlib.ChatChange(new TdApi.ChatPosition(list.chatList(), order, false, null), flags));
+  }
+
+  private void onChatPosition (Tdlib.ChatListChange listChange) {
+    coalescer.onChatPosition(new TdApi.UpdateChatPosition(listChange.chat.id, listChange.change.position), listChange);
+  }
+
+  private static TdApi.UpdateChatLastMessage newLastMessage (long chatId, long messageId) {
+    TdApi.Message message = new TdApi.Message();
+    message.id = messageId;
+    message.chatId = chatId;
+    TdApi.UpdateChatLastMessage update = new TdApi.UpdateChatLastMessage();
+    update.chatId = chatId;
+    update.lastMessage = message;
+    return update;
+  }
+
+  private static TdApi.UpdateNewMessage newMessage (long chatId, long messageId) {
+    TdApi.Message message = new TdApi.Message();
+    message.id = messageId;
+    message.chatId = chatId;
+    return new TdApi.UpdateNewMessage(message);
+  }
+
+  private static TdApi.UpdateChatReadInbox newReadInbox (long chatId, int unreadCount) {
+    TdApi.UpdateChatReadInbox update = new TdApi.UpdateChatReadInbox();
+    update.chatId = chatId;
+    update.unreadCount = unreadCount;
+    return update;
+  }
+
+  @Test
+  public void lastMessagesAreCoalesced () {
+    TdApi.UpdateChatLastMessage first = newLastMessage(CHAT_ID, 1);
+    TdApi.UpdateChatLastMessage second = newLastMessage(CHAT_ID, 2);
+    coalescer.onChatLastMessage(first, null);
+    coalescer.onChatLastMessage(second, null);
+
+    assertTrue(delegate.notifications.isEmpty());
+    assertEquals(1, delegate.scheduledFlushes.size());
+
+    delegate.runScheduledFlushes();
+    assertEquals(1, delegate.notifications.size());
+    assertSame(second, delegate.notifications.get(0));
+
+    // Nothing is pending anymore
+    coalescer.flush();
+    assertEquals(1, delegate.notifications.size());
+  }
+
+  @Test
+  public void listChangesAreAppliedImmediately () {
+    Tdlib.ChatListChange first = newListChange(mainList, 100, Tdlib.ChatChange.ORDER);
+    Tdlib.ChatListChange second = newListChange(mainList, 200, Tdlib.ChatChange.ORDER);
+    coalescer.onChatLastMessage(newLastMessage(CHAT_ID, 1), Collections.singletonList(first));
+    onChatPosition(second);
+
+    assertEquals(2, delegate.appliedChanges.size());
+    assertSame(first, delegate.appliedChanges.get(0));
+    assertSame(second, delegate.appliedChanges.get(1));
+    assertTrue(delegate.notifications.isEmpty());
+  }
+
+  @Test
+  public void positionChangesAreMergedPerList () {
+    onChatPosition(newListChange(mainList, 100, Tdlib.ChatChange.ORDER));
+    onChatPosition(newListChange(mainList, 200, Tdlib.ChatChange.PIN_STATE));
+    onChatPosition(newListChange(archiveList, 300, Tdlib.ChatChange.ORDER));
+    coalescer.flush();
+
+    assertEquals(2, delegate.notifications.size());
+
+    Tdlib.ChatListChange mainChange = delegate.notifiedListChanges.get(0).get(0);
+    assertSame(mainList, mainChange.list);
+    assertEquals(200, mainChange.change.position.order);
+    assertEquals(Tdlib.ChatChange.ORDER | Tdlib.ChatChange.PIN_STATE, mainChange.change.flags);
+    TdApi.UpdateChatPosition mainUpdate = (TdApi.UpdateChatPosition) delegate.notifications.get(0);
+    assertEquals(CHAT_ID, mainUpdate.chatId);
+    assertSame(mainChange.change.position, mainUpdate.position);
+
+    Tdlib.ChatListChange archiveChange = delegate.notifiedListChanges.get(1).get(0);
+    assertSame(archiveList, archiveChange.list);
+    assertEquals(300, archiveChange.change.position.order);
+    assertEquals(Tdlib.ChatChange.ORDER, archiveChange.change.flags);
+  }
+
+  @Test
+  public void positionChangeOfLastMessageIsReportedOnce () {
+    coalescer.onChatLastMessage(newLastMessage(CHAT_ID, 1), Collections.singletonList(newListChange(mainList, 100, Tdlib.ChatChange.ORDER)));
+    coalescer.onChatLastMessage(newLastMessage(CHAT_ID, 2), Collections.singletonList(newListChange(mainList, 200, Tdlib.ChatChange.ORDER)));
+    coalescer.flush();
+
+    // Position change is reported along with the last message, not as a separate UpdateChatPosition
+    assertEquals(1, delegate.notifications.size());
+    List<Tdlib.ChatListChange> listChanges = delegate.notifiedListChanges.get(0);
+    assertEquals(1, listChanges.size());
+    assertEquals(200, listChanges.get(0).change.position.order);
+  }
+
+  @Test
+  public void readInboxAvailabilityChangedTwiceIsUnchanged () {
+    coalescer.onChatReadInbox(newReadInbox(CHAT_ID, 0), true, chat, null);
+    coalescer.onChatReadInbox(newReadInbox(CHAT_ID, 5), true, chat, null);
+    coalescer.flush();
+    assertEquals(1, delegate.notifications.size());
+    assertFalse(delegate.lastReadInboxAvailabilityChanged);
+
+    coalescer.onChatReadInbox(newReadInbox(CHAT_ID, 0), true, chat, null);
+    coalescer.onChatReadInbox(newReadInbox(CHAT_ID, 0), false, chat, null);
+    coalescer.flush();
+    assertEquals(2, delegate.notifications.size());
+    assertTrue(delegate.lastReadInboxAvailabilityChanged);
+  }
+
+  @Test
+  public void relatedUpdateFlushesOnlyItsChat () {
+    TdApi.UpdateChatLastMessage update = newLastMessage(CHAT_ID, 1);
+    TdApi.UpdateChatLastMessage otherUpdate = newLastMessage(OTHER_CHAT_ID, 1);
+    coalescer.onChatLastMessage(update, null);
+    coalescer.onChatLastMessage(otherUpdate, null);
+
+    coalescer.beforeUpdate(new TdApi.UpdateChatTitle(CHAT_ID, "Title"));
+    assertEquals(1, delegate.notifications.size());
+    assertSame(update, delegate.notifications.get(0));
+
+    coalescer.flush();
+    assertEquals(2, delegate.notifications.size());
+    assertSame(otherUpdate, delegate.notifications.get(1));
+  }
+
+  @Test
+  public void unrelatedUpdateDoesNotFlush () {
+    coalescer.onChatLastMessage(newLastMessage(CHAT_ID, 1), null);
+    coalescer.beforeUpdate(new TdApi.UpdateUserStatus());
+    coalescer.beforeUpdate(newLastMessage(CHAT_ID, 2));
+    assertTrue(delegate.notifications.isEmpty());
+  }
+
+  @Test
+  public void unknownUpdateFlushesEverything () {
+    coalescer.onChatLastMessage(newLastMessage(CHAT_ID, 1), null);
+    coalescer.onChatLastMessage(newLastMessage(OTHER_CHAT_ID, 1), null);
+    coalescer.beforeUpdate(new TdApi.UpdateConnectionState());
+    assertEquals(2, delegate.notifications.size());
+  }
+
+  @Test
+  public void messagesAreBatchedPerChat () {
+    TdApi.UpdateNewMessage first = newMessage(CHAT_ID, 1);
+    TdApi.UpdateNewMessage second = newMessage(CHAT_ID, 2);
+    TdApi.UpdateNewMessage other = newMessage(OTHER_CHAT_ID, 1);
+    coalescer.onMessageUpdate(CHAT_ID, first);
+    coalescer.onMessageUpdate(OTHER_CHAT_ID, other);
+    coalescer.onMessageUpdate(CHAT_ID, second);
+    assertEquals(1, delegate.scheduledFlushes.size());
+    assertTrue(delegate.notifications.isEmpty());
+
+    delegate.runScheduledFlushes();
+    assertEquals(2, delegate.notifications.size());
+    assertEquals(Arrays.asList(first, second), delegate.notifications.get(0));
+    assertEquals(Collections.singletonList(other), delegate.notifications.get(1));
+  }
+
+  @Test
+  public void newMessageKeepsBatchButFlushesChatState () {
+    TdApi.UpdateChatLastMessage lastMessage = newLastMessage(CHAT_ID, 1);
+    TdApi.UpdateNewMessage message = newMessage(CHAT_ID, 1);
+    coalescer.onChatLastMessage(lastMessage, null);
+    coalescer.onMessageUpdate(CHAT_ID, message);
+
+    coalescer.beforeUpdate(newMessage(CHAT_ID, 2));
+    assertEquals(1, delegate.notifications.size());
+    assertSame(lastMessage, delegate.notifications.get(0));
+
+    coalescer.flush(CHAT_ID);
+    assertEquals(2, delegate.notifications.size());
+    assertEquals(Collections.singletonList(message), delegate.notifications.get(1));
+  }
+
+  @Test
+  public void flushDuringDispatchIsIgnored () {
+    TdlibUpdateCoalescer[] holder = new TdlibUpdateCoalescer[1];
+    List<Object> notifications = new ArrayList<>();
+    RecordingDelegate reentrantDelegate = new RecordingDelegate() {
+      @Override
+      public void notifyChatLastMessage (TdApi.UpdateChatLastMessage update, @Nullable List<Tdlib.ChatListChange> listChanges) {
+        notifications.add(update);
+        // Listener runs code that expects actual chat lists
+        holder[0].flush();
+        holder[0].flush(OTHER_CHAT_ID);
+      }
+    };
+    holder[0] = new TdlibUpdateCoalescer(reentrantDelegate, stats);
+    holder[0].onChatLastMessage(newLastMessage(CHAT_ID, 1), null);
+    holder[0].onChatLastMessage(newLastMessage(OTHER_CHAT_ID, 1), null);
+    holder[0].flush();
+
+    assertEquals(2, notifications.size());
+    assertEquals(CHAT_ID, ((TdApi.UpdateChatLastMessage) notifications.get(0)).chatId);
+    assertEquals(OTHER_CHAT_ID, ((TdApi.UpdateChatLastMessage) notifications.get(1)).chatId);
+  }
+
+  @Test
+  public void nothingIsScheduledWithoutPendingUpdates () {
+    coalescer.beforeUpdate(new TdApi.UpdateConnectionState());
+    coalescer.flush();
+    coalescer.flush(CHAT_ID);
+    assertTrue(delegate.scheduledFlushes.isEmpty());
+    assertTrue(delegate.notifications.isEmpty());
+  }
+}
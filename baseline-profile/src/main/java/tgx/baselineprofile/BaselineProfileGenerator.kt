@@ -15,7 +15,7 @@ import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
 
-private const val CHAT_URL = "https://t.me/tgx_android"
+internal const val CHAT_URL = "https://t.me/tgx_android"
 
 // Match ChatId.fromSupergroupId
 private const val ZERO_CHANNEL_ID = -1000000000000L
@@ -0,0 +1,219 @@
+package tgx.baselineprofile
+
+import android.content.Intent
+import android.net.Uri
+import android.os.SystemClock
+import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.ExperimentalMetricApi
+import androidx.benchmark.macro.FrameTimingMetric
+import androidx.benchmark.macro.MacrobenchmarkScope
+import androidx.benchmark.macro.MemoryUsageMetric
+import androidx.benchmark.macro.Metric
+import androidx.benchmark.macro.StartupMode
+import androidx.benchmark.macro.TraceSectionMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import androidx.test.uiautomator.Direction
+import androidx.test.uiautomator.UiDevice
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+private const val ITERATIONS = 10
+private const val RELAYOUT_HISTORY_FLINGS = 30
+
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+@OptIn(ExperimentalMetricApi::class)
+class ChatBenchmarks {
+
+  @get:Rule
+  val rule = MacrobenchmarkRule()
+
+  val instrumentation =
+    InstrumentationRegistry.getInstrumentation()!!
+  val device =
+    UiDevice.getInstance(InstrumentationRegistry.getInstrumentation())
+
+  @Before
+  fun authorize() =
+    copySnapshotToTargetDevice(device, instrumentation)
+
+  @After
+  fun deauthorize() {
+    device.unfreezeRotation()
+    deleteSnapshotFromTargetDevice(device, instrumentation)
+  }
+
+  // Image cache lookups while thumbnails are bound during a fast fling
+  @Test
+  fun chatScrollImages() = benchmark(
+    listOf(
+      FrameTimingMetric(),
+      TraceSectionMetric("ImageReceiver:requestFile", TraceSectionMetric.Mode.Sum),
+      TraceSectionMetric("ImageReceiver:requestFile", TraceSectionMetric.Mode.Count),
+      MemoryUsageMetric(MemoryUsageMetric.Mode.Max, listOf(MemoryUsageMetric.SubMetric.HeapSize))
+    )
+  ) {
+    flingMessages()
+  }
+
+  // Layout of the message corpus loaded when the chat is opened and scrolled
+  @Test
+  fun chatLayoutText() = benchmark(
+    listOf(
+      FrameTimingMetric(),
+      TraceSectionMetric("Text:set", TraceSectionMetric.Mode.Sum),
+      TraceSectionMetric("Text:set", TraceSectionMetric.Mode.Count)
+    ),
+    openChatInSetup = false
+  ) {
+    openChat()
+    flingMessages()
+  }
+
+  // Re-layout of loaded messages after a width change. Visible window is rebuilt
+  // synchronously before the next frame, the rest is rebuilt in the following frames.
+  @Test
+  fun chatRotateRelayout() = benchmark(
+    listOf(
+      FrameTimingMetric(),
+      TraceSectionMetric("MessagesManager:rebuildLayouts", TraceSectionMetric.Mode.Max),
+      TraceSectionMetric("MessagesManager:rebuildOutdatedLayouts", TraceSectionMetric.Mode.Sum)
+    ),
+    setupBlock = {
+      device.setOrientationNatural()
+      // Load older messages, so there is a long history to re-layout
+      val messages = device.findElement("msg_list")
+      messages.setGestureMargin(device.displayWidth / 5)
+      repeat(RELAYOUT_HISTORY_FLINGS) {
+        messages.fling(Direction.UP)
+      }
+      device.waitForIdle()
+    }
+  ) {
+    device.setOrientationLeft()
+    device.waitForIdle()
+    device.setOrientationNatural()
+    device.waitForIdle()
+  }
+
+  // Lock contention between UI readers and TDLib update thread while the account
+  // catches up on updates after a cold start and the chat list is being scrolled.
+  // ART records contended monitor enters as trace sections.
+  @Test
+  fun chatListSyncContention() {
+    rule.measureRepeated(
+      packageName = getApplicationId(),
+      metrics = listOf(
+        FrameTimingMetric(),
+        TraceSectionMetric("Lock contention on %", TraceSectionMetric.Mode.Sum),
+        TraceSectionMetric("Lock contention on %", TraceSectionMetric.Mode.Count),
+        TraceSectionMetric("monitor contention %", TraceSectionMetric.Mode.Sum),
+        TraceSectionMetric("monitor contention %", TraceSectionMetric.Mode.Count)
+      ),
+      compilationMode = CompilationMode.DEFAULT,
+      startupMode = StartupMode.COLD,
+      iterations = ITERATIONS,
+      setupBlock = {
+        pressHome()
+      },
+      measureBlock = {
+        startActivityAndWait()
+        device.waitForNavigation()
+        val chatsList = device.findElement("chats_list")
+        chatsList.setGestureMargin(device.displayWidth / 5)
+        repeat(3) {
+          chatsList.fling(Direction.DOWN)
+          chatsList.fling(Direction.UP)
+        }
+        device.waitForIdle()
+      }
+    )
+  }
+
+  // Heap occupied by TDLib object caches once the chat list is loaded,
+  // and cost of cache lookups while chat list cells are bound
+  @Test
+  fun chatListFootprint() {
+    rule.measureRepeated(
+      packageName = getApplicationId(),
+      metrics = listOf(
+        FrameTimingMetric(),
+        MemoryUsageMetric(MemoryUsageMetric.Mode.Last, listOf(
+          MemoryUsageMetric.SubMetric.HeapSize,
+          MemoryUsageMetric.SubMetric.RssAnon
+        ))
+      ),
+      compilationMode = CompilationMode.DEFAULT,
+      startupMode = StartupMode.COLD,
+      iterations = ITERATIONS,
+      setupBlock = {
+        pressHome()
+      },
+      measureBlock = {
+        startActivityAndWait()
+        device.waitForNavigation()
+        device.waitForStartupMarker()
+        val chatsList = device.findElement("chats_list")
+        chatsList.setGestureMargin(device.displayWidth / 5)
+        chatsList.fling(Direction.DOWN)
+        device.waitForIdle()
+        // Let pending updates settle before the heap is sampled
+        SystemClock.sleep(1_000)
+      }
+    )
+  }
+
+  private fun benchmark(
+    metrics: List<Metric>,
+    openChatInSetup: Boolean = true,
+    setupBlock: MacrobenchmarkScope.() -> Unit = { },
+    measureBlock: MacrobenchmarkScope.() -> Unit
+  ) {
+    rule.measureRepeated(
+      packageName = getApplicationId(),
+      metrics = metrics,
+      compilationMode = CompilationMode.DEFAULT,
+      startupMode = StartupMode.WARM,
+      iterations = ITERATIONS,
+      setupBlock = {
+        pressHome()
+        if (openChatInSetup) {
+          openChat()
+        }
+        setupBlock()
+      },
+      measureBlock = measureBlock
+    )
+  }
+
+  private fun MacrobenchmarkScope.openChat() {
+    startActivityAndWait(
+      Intent(Intent.ACTION_VIEW, Uri.parse(CHAT_URL)).apply {
+        setPackage(packageName)
+      }
+    )
+    device.waitForNavigation()
+    device.waitForElement("msg_list")
+    device.waitForIdle()
+  }
+
+  private fun MacrobenchmarkScope.flingMessages() {
+    val messages = device.findElement("msg_list")
+    messages.setGestureMargin(device.displayWidth / 5)
+    repeat(3) {
+      messages.fling(Direction.UP)
+      SystemClock.sleep(500)
+    }
+    repeat(3) {
+      messages.fling(Direction.DOWN)
+      SystemClock.sleep(500)
+    }
+    device.waitForIdle()
+  }
+}
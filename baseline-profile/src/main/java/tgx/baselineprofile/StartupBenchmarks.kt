@@ -2,8 +2,10 @@ package tgx.baselineprofile
 
 import androidx.benchmark.macro.BaselineProfileMode
 import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.ExperimentalMetricApi
 import androidx.benchmark.macro.StartupMode
 import androidx.benchmark.macro.StartupTimingMetric
+import androidx.benchmark.macro.TraceSectionMetric
 import androidx.benchmark.macro.junit4.MacrobenchmarkRule
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.filters.LargeTest
@@ -42,10 +44,16 @@ class StartupBenchmarks {
   fun startupAuthorizedCompilationBaselineProfiles() =
     benchmark(CompilationMode.Partial(BaselineProfileMode.Require), true)
 
+  @OptIn(ExperimentalMetricApi::class)
   private fun benchmark(compilationMode: CompilationMode, authorized: Boolean) {
     rule.measureRepeated(
       packageName = getApplicationId(),
-      metrics = listOf(StartupTimingMetric()),
+      metrics = listOf(
+        StartupTimingMetric(),
+        // Async sections recorded by TdlibStartupScheduler for each launched account
+        TraceSectionMetric("TdlibStartup:foreground", TraceSectionMetric.Mode.First),
+        TraceSectionMetric("TdlibStartup:background", TraceSectionMetric.Mode.Max)
+      ),
       compilationMode = compilationMode,
       startupMode = StartupMode.COLD,
       iterations = 15,